@@ -0,0 +1,5 @@
+#!/bin/bash
+
+# exec, so that signals sent to this script (SIGTERM to stop, SIGHUP to reload) go straight to the JVM.  The serial
+# collector keeps the footprint small on single-core boxes.
+exec java -XX:+UseSerialGC -Dlog4j.configuratorClass=org.apache.log4j.extras.SAXConfigurator -Djava.library.path=./code/applications/dist -cp ./code/applications/dist/bodytrack-applications.jar org.bodytrack.applications.BodyTrackLoggingDeviceGatewayDaemon "$@"
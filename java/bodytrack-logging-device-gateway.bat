@@ -1 +1 @@
-java -Djava.library.path=.\code\applications\dist -cp ./code/applications/dist/bodytrack-applications.jar org.bodytrack.applications.BodyTrackLoggingDeviceGateway
+java -Dlog4j.configuratorClass=org.apache.log4j.extras.SAXConfigurator -Djava.library.path=.\code\applications\dist -cp ./code/applications/dist/bodytrack-applications.jar org.bodytrack.applications.BodyTrackLoggingDeviceGateway
@@ -1,32 +1,33 @@
 package org.bodytrack.applications;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
 import java.io.InputStreamReader;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Properties;
-import java.util.SortedSet;
-import java.util.TreeSet;
 import edu.cmu.ri.createlab.device.CreateLabDevicePingFailureEventListener;
 import edu.cmu.ri.createlab.serial.commandline.SerialDeviceCommandLineApplication;
 import org.apache.log4j.Level;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
-import org.bodytrack.loggingdevice.DataFile;
 import org.bodytrack.loggingdevice.DataFileDownloader;
 import org.bodytrack.loggingdevice.DataFileManager;
+import org.bodytrack.loggingdevice.DataFileTracer;
 import org.bodytrack.loggingdevice.DataFileUploader;
-import org.bodytrack.loggingdevice.DataStoreConnectionConfig;
 import org.bodytrack.loggingdevice.DataStoreServerConfig;
 import org.bodytrack.loggingdevice.LoggingDevice;
 import org.bodytrack.loggingdevice.LoggingDeviceConfig;
 import org.bodytrack.loggingdevice.LoggingDeviceFactory;
-import org.bodytrack.loggingdevice.NoSuchFileException;
-import org.bodytrack.loggingdevice.WirelessAuthorizationType;
+import org.bodytrack.loggingdevice.LoggingDeviceGatewayConstants;
+import org.bodytrack.loggingdevice.UploadBandwidthLimiter;
+import org.bodytrack.loggingdevice.UploadConcurrencyLimiter;
 import org.jetbrains.annotations.NotNull;
-import org.jetbrains.annotations.Nullable;
 
 /**
  * @author Chris Bartley (bartley@cmu.edu)
@@ -156,7 +157,7 @@ public class BodyTrackLoggingDeviceGateway extends SerialDeviceCommandLineApplic
                if (isDownloadDisabled)
                   {
                   logInfo("Loading config file...");
-                  device = createFakeLoggingDevice(arguments.get(CONFIG_COMMAND_LINE_SWITCH));
+                  device = FakeLoggingDevice.load(arguments.get(CONFIG_COMMAND_LINE_SWITCH));
                   }
                else
                   {
@@ -199,7 +200,18 @@ public class BodyTrackLoggingDeviceGateway extends SerialDeviceCommandLineApplic
                      else
                         {
                         logInfo("Data files will be uploaded to " + dataStoreServerConfig.getServerName() + ":" + dataStoreServerConfig.getServerPort());
-                        dataFileUploader = new DataFileUploader(dataStoreServerConfig, loggingDeviceConfig);
+                        try
+                           {
+                           dataFileUploader = new DataFileUploader(dataStoreServerConfig, loggingDeviceConfig);
+                           }
+                        catch (IllegalStateException e)
+                           {
+                           // the uploader has already explained why (e.g. HTTPS couldn't be set up)
+                           logError("Connection Failed:  Could not set up uploads.  The Gateway will now shutdown.");
+                           device.disconnect();
+                           System.exit(1);
+                           return;
+                           }
                         }
 
                      if (dataFileDownloader == null && dataFileUploader == null)
@@ -229,49 +241,6 @@ public class BodyTrackLoggingDeviceGateway extends SerialDeviceCommandLineApplic
                   }
                }
             }
-
-         @Nullable
-         private LoggingDevice createFakeLoggingDevice(@Nullable final String pathToConfigFile)
-            {
-            if (pathToConfigFile == null || pathToConfigFile.length() < 1)
-               {
-               CONSOLE_LOG.error("The specified config file path must not be empty.");
-               }
-            else
-               {
-               final File configFile = new File(pathToConfigFile);
-               if (configFile.isFile())
-                  {
-                  final Properties properties = new Properties();
-                  try
-                     {
-                     properties.load(new FileReader(configFile));
-                     if (LOG.isDebugEnabled())
-                        {
-                        final StringBuilder s = new StringBuilder("\nProperties found in config file '" + pathToConfigFile + "':\n");
-                        for (final Object key : new TreeSet<Object>(properties.keySet()))
-                           {
-                           final String val = properties.getProperty((String)key);
-                           s.append("   [").append(key).append("]=[").append(val).append("]").append(System.getProperty("line.separator", "\n"));
-                           }
-                        LOG.debug("BodyTrackLoggingDeviceGateway.createFakeLoggingDevice(): " + s);
-                        }
-
-                     return new FakeLoggingDevice(properties);
-                     }
-                  catch (Exception e)
-                     {
-                     LOG.error("BodyTrackLoggingDeviceGateway.createFakeLoggingDevice(): Exception while trying to read the config file [" + pathToConfigFile + "]", e);
-                     logError("Failed to read the config file '" + pathToConfigFile + "'");
-                     }
-                  }
-               else
-                  {
-                  logError("The specified config file path '" + pathToConfigFile + "' does not denote a valid config file.");
-                  }
-               }
-            return null;
-            }
          };
 
    private static void logInfo(@NotNull final String message)
@@ -294,6 +263,11 @@ public class BodyTrackLoggingDeviceGateway extends SerialDeviceCommandLineApplic
             if (isConnected())
                {
                CONSOLE_LOG.info(dataFileManager.getStatistics());
+               final String serialLinkStatistics = device.getSerialLinkStatistics();
+               if (serialLinkStatistics != null)
+                  {
+                  CONSOLE_LOG.info(serialLinkStatistics);
+                  }
                }
             else
                {
@@ -343,6 +317,169 @@ public class BodyTrackLoggingDeviceGateway extends SerialDeviceCommandLineApplic
             }
          };
 
+   private final Runnable setUploadConcurrencyLimitAction =
+         new Runnable()
+         {
+         public void run()
+            {
+            final DataFileUploader dataFileUploader = (isConnected() && dataFileManager != null) ? dataFileManager.getDataFileUploader() : null;
+            if (dataFileUploader == null)
+               {
+               println("Uploads aren't running.");
+               return;
+               }
+
+            final UploadConcurrencyLimiter concurrencyLimiter = dataFileUploader.getConcurrencyLimiter();
+            println("The limit on concurrent uploads is currently " + concurrencyLimiter.getLimit() + " (adapting between " + concurrencyLimiter.getMinLimit() + " and " + concurrencyLimiter.getMaxLimit() + ").");
+            final Integer limit = readInteger("New limit: ");
+            if (limit == null || limit < 1)
+               {
+               println("Invalid limit.");
+               }
+            else
+               {
+               concurrencyLimiter.setLimit(limit);
+               logInfo("Concurrent upload limit now set to " + limit + ".");
+               }
+            }
+         };
+
+   private final Runnable setUploadBandwidthLimitAction =
+         new Runnable()
+         {
+         public void run()
+            {
+            final DataFileUploader dataFileUploader = (isConnected() && dataFileManager != null) ? dataFileManager.getDataFileUploader() : null;
+            if (dataFileUploader == null)
+               {
+               println("Uploads aren't running.");
+               return;
+               }
+
+            final UploadBandwidthLimiter bandwidthLimiter = dataFileUploader.getBandwidthLimiter();
+            println("The upload bandwidth limit is currently " + bandwidthLimiter.describeTotalLimit() + ".");
+            final Integer limit = readInteger("New limit in KB/s (0 for unlimited, -1 to return to the configured schedule): ");
+            if (limit == null || limit < -1)
+               {
+               println("Invalid limit.");
+               }
+            else if (limit == -1)
+               {
+               bandwidthLimiter.clearTotalLimitOverride();
+               logInfo("Upload bandwidth limit now follows the configured schedule (currently " + bandwidthLimiter.describeTotalLimit() + ").");
+               }
+            else
+               {
+               bandwidthLimiter.setTotalLimitOverride(limit);
+               logInfo("Upload bandwidth limit now set to " + bandwidthLimiter.describeTotalLimit() + ".");
+               }
+            }
+         };
+
+   private final Runnable toggleTracingAction =
+         new Runnable()
+         {
+         public void run()
+            {
+            final DataFileTracer tracer = DataFileTracer.getInstance();
+            tracer.setEnabled(!tracer.isEnabled());
+            logInfo("Per-file tracing is now " + (tracer.isEnabled() ? "enabled" : "disabled") + ".");
+            }
+         };
+
+   private final Runnable exportTracesAction =
+         new Runnable()
+         {
+         public void run()
+            {
+            final String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+            final File traceFile = new File(LoggingDeviceGatewayConstants.FilePaths.BODYTRACK_HOME_DIRECTORY, "trace-" + timestamp + ".jsonl");
+            Writer writer = null;
+            try
+               {
+               writer = new FileWriter(traceFile);
+               final int numSpans = DataFileTracer.getInstance().exportAsJsonLines(writer);
+               logInfo("Exported " + numSpans + " span(s) to " + traceFile);
+               }
+            catch (Exception e)
+               {
+               LOG.error("BodyTrackLoggingDeviceGateway.exportTracesAction.run(): Exception while trying to export traces to [" + traceFile + "]", e);
+               logError("Failed to export traces to " + traceFile);
+               }
+            finally
+               {
+               if (writer != null)
+                  {
+                  try
+                     {
+                     writer.close();
+                     }
+                  catch (Exception ignored)
+                     {
+                     LOG.error("BodyTrackLoggingDeviceGateway.exportTracesAction.run(): Exception while trying to close the trace file.  Oh well.");
+                     }
+                  }
+               }
+            }
+         };
+
+   private final Runnable extractArchivedFileAction =
+         new Runnable()
+         {
+         public void run()
+            {
+            if (!isConnected() || dataFileManager == null)
+               {
+               println("You are not connected to a BodyTrack Logging Device.");
+               return;
+               }
+
+            final String filename = readString("Name of archived file to extract: ");
+            if (filename == null || filename.trim().length() == 0 || filename.indexOf('/') >= 0 || filename.indexOf('\\') >= 0)
+               {
+               println("Invalid filename.");
+               return;
+               }
+
+            final File file = new File(LoggingDeviceGatewayConstants.FilePaths.BODYTRACK_HOME_DIRECTORY, filename.trim());
+            FileOutputStream outputStream = null;
+            try
+               {
+               // extract into memory first, so that nothing is written if the file isn't in the archive
+               final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+               if (dataFileManager.extractArchivedFile(filename.trim(), bytes))
+                  {
+                  outputStream = new FileOutputStream(file);
+                  bytes.writeTo(outputStream);
+                  logInfo("Extracted " + bytes.size() + " byte(s) to " + file);
+                  }
+               else
+                  {
+                  println("File [" + filename.trim() + "] isn't in the archive (it may never have been archived, or may have been evicted).");
+                  }
+               }
+            catch (Exception e)
+               {
+               LOG.error("BodyTrackLoggingDeviceGateway.extractArchivedFileAction.run(): Exception while trying to extract [" + filename + "] to [" + file + "]", e);
+               logError("Failed to extract " + filename.trim() + " to " + file);
+               }
+            finally
+               {
+               if (outputStream != null)
+                  {
+                  try
+                     {
+                     outputStream.close();
+                     }
+                  catch (Exception ignored)
+                     {
+                     LOG.error("BodyTrackLoggingDeviceGateway.extractArchivedFileAction.run(): Exception while trying to close the extracted file.  Oh well.");
+                     }
+                  }
+               }
+            }
+         };
+
    private final Runnable disconnectFromDeviceAction =
          new Runnable()
          {
@@ -368,6 +505,11 @@ public class BodyTrackLoggingDeviceGateway extends SerialDeviceCommandLineApplic
       registerAction("c", scanAndConnectToDeviceAction);
       registerAction("s", printStatisticsAction);
       registerAction("l", setLoggingLevelAction);
+      registerAction("u", setUploadConcurrencyLimitAction);
+      registerAction("b", setUploadBandwidthLimitAction);
+      registerAction("t", toggleTracingAction);
+      registerAction("x", exportTracesAction);
+      registerAction("a", extractArchivedFileAction);
       registerAction("d", disconnectFromDeviceAction);
 
       registerAction(QUIT_COMMAND, quitAction);
@@ -385,8 +527,13 @@ public class BodyTrackLoggingDeviceGateway extends SerialDeviceCommandLineApplic
       println("COMMANDS -----------------------------------");
       println("");
       println("c         Scan all serial ports and connect to the first device found");
-      println("s         Print statistics for files downloaded, uploaded, and deleted");
+      println("s         Print statistics for files downloaded, uploaded, and deleted, and for the serial link");
       println("l         Set the logging level for the log file (has no effect on console logging)");
+      println("u         Set the limit on concurrent uploads");
+      println("b         Set the upload bandwidth limit");
+      println("t         Turn per-file transfer tracing on or off");
+      println("x         Export the per-file transfer traces to a file");
+      println("a         Extract an uploaded data file from the archive");
       println("d         Disconnect from the device");
       println("");
       println("q         Quit");
@@ -425,144 +572,4 @@ public class BodyTrackLoggingDeviceGateway extends SerialDeviceCommandLineApplic
       device = null;
       dataFileManager = null;
       }
-
-   private class FakeLoggingDevice implements LoggingDevice
-      {
-      private final LoggingDeviceConfig loggingDeviceConfig;
-      private final DataStoreServerConfig dataStoreServerConfig;
-      private final DataStoreConnectionConfig dataStoreConnectionConfig;
-
-      private FakeLoggingDevice(@NotNull final Properties properties)
-         {
-         loggingDeviceConfig =
-               new LoggingDeviceConfig()
-               {
-               @NotNull
-               @Override
-               public String getUsername()
-                  {
-                  return properties.getProperty("user", "");
-                  }
-
-               @NotNull
-               @Override
-               public String getDeviceNickname()
-                  {
-                  return properties.getProperty("nickname", "");
-                  }
-               };
-
-         dataStoreServerConfig =
-               new DataStoreServerConfig()
-               {
-               @NotNull
-               @Override
-               public String getServerName()
-                  {
-                  return properties.getProperty("server", "");
-                  }
-
-               @NotNull
-               @Override
-               public String getServerPort()
-                  {
-                  return properties.getProperty("port", "");
-                  }
-               };
-
-         final WirelessAuthorizationType authType = WirelessAuthorizationType.findById(properties.getProperty("auth", ""));
-         if (authType == null)
-            {
-            dataStoreConnectionConfig = null;
-            }
-         else
-            {
-            dataStoreConnectionConfig =
-                  new DataStoreConnectionConfig()
-                  {
-                  @NotNull
-                  @Override
-                  public String getWirelessSsid()
-                     {
-                     return properties.getProperty("ssid", "");
-                     }
-
-                  @NotNull
-                  @Override
-                  public WirelessAuthorizationType getWirelessAuthorizationType()
-                     {
-
-                     return authType;
-                     }
-
-                  @NotNull
-                  @Override
-                  public String getWirelessAuthorizationKey()
-                     {
-                     return properties.getProperty("phrase", "");
-                     }
-                  };
-            }
-         }
-
-      @Override
-      public SortedSet<String> getAvailableFilenames()
-         {
-         return new TreeSet<String>();
-         }
-
-      @Override
-      public DataFile getFile(@Nullable final String filename) throws NoSuchFileException
-         {
-         throw new NoSuchFileException("This fake logging device doesn't support file retrieval");
-         }
-
-      @Override
-      public boolean deleteFile(@Nullable final String filename)
-         {
-         return false;
-         }
-
-      @Override
-      public LoggingDeviceConfig getLoggingDeviceConfig()
-         {
-         return loggingDeviceConfig;
-         }
-
-      @Override
-      public DataStoreServerConfig getDataStoreServerConfig()
-         {
-         return dataStoreServerConfig;
-         }
-
-      @Override
-      public DataStoreConnectionConfig getDataStoreConnectionConfig()
-         {
-         return dataStoreConnectionConfig;
-         }
-
-      @Override
-      public String getPortName()
-         {
-         return "FakePort";
-         }
-
-      @Override
-      public void disconnect()
-         {
-         // do nothing
-         }
-
-      @Override
-      public void addCreateLabDevicePingFailureEventListener(final CreateLabDevicePingFailureEventListener listener)
-         {
-         // do nothing
-         }
-
-      @Override
-      public void removeCreateLabDevicePingFailureEventListener(final CreateLabDevicePingFailureEventListener listener)
-         {
-         // do nothing
-         }
-      }
    }
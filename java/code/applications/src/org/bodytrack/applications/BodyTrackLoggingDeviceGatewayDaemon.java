@@ -0,0 +1,655 @@
+package org.bodytrack.applications;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import edu.cmu.ri.createlab.device.CreateLabDevicePingFailureEventListener;
+import edu.cmu.ri.createlab.util.thread.DaemonThreadFactory;
+import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.bodytrack.loggingdevice.DataFileDownloader;
+import org.bodytrack.loggingdevice.DataFileManager;
+import org.bodytrack.loggingdevice.DataFileUploader;
+import org.bodytrack.loggingdevice.DataStoreServerConfig;
+import org.bodytrack.loggingdevice.LoggingDevice;
+import org.bodytrack.loggingdevice.LoggingDeviceConfig;
+import org.bodytrack.loggingdevice.LoggingDeviceFactory;
+import org.bodytrack.loggingdevice.ServerReachabilityMonitor;
+import org.bodytrack.loggingdevice.SystemPropertyUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * <p>
+ * <code>BodyTrackLoggingDeviceGatewayDaemon</code> runs the gateway unattended, e.g. as a system service with stdin
+ * closed.  Unlike {@link BodyTrackLoggingDeviceGateway}, it has no menu and never reads the console.  Instead:
+ * </p>
+ * <ul>
+ *    <li>SIGTERM and SIGINT (or anything else which shuts down the JVM) {@link #stop() stop} it gracefully, shutting
+ *        down the data file manager and disconnecting from the device</li>
+ *    <li>SIGHUP {@link #reload() reloads} it, disconnecting and reconnecting so that a changed config is picked up</li>
+ *    <li>a single supervisor thread does all connecting and disconnecting.  If no device is found, or the device stops
+ *        responding to pings, it retries with exponential backoff, rather than reconnecting on the pinger's thread</li>
+ *    <li>a status file is rewritten periodically, so that health checks can tell whether the gateway is alive (from the
+ *        file's timestamp) and connected (from its contents)</li>
+ * </ul>
+ * <p>
+ * It accepts the same command line switches as the interactive gateway, plus {@link #STATUS_FILE_COMMAND_LINE_SWITCH}.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class BodyTrackLoggingDeviceGatewayDaemon
+   {
+   private static final Logger LOG = Logger.getLogger(BodyTrackLoggingDeviceGatewayDaemon.class);
+   private static final Logger CONSOLE_LOG = Logger.getLogger("ConsoleLog");
+
+   private static final String HELP_COMMAND_LINE_SWITCH = "--help";
+   private static final String NO_UPLOAD_COMMAND_LINE_SWITCH = "--no-upload";
+   private static final String CONFIG_COMMAND_LINE_SWITCH = "--config";
+   private static final String LOGGING_LEVEL_COMMAND_LINE_SWITCH = "--logging-level";
+   private static final String STATUS_FILE_COMMAND_LINE_SWITCH = "--status-file";
+   private static final String LINE_SEPARATOR = System.getProperty("line.separator", "\n");
+
+   public static final String MIN_RECONNECT_DELAY_IN_SECONDS_SYSTEM_PROPERTY = "org.bodytrack.applications.BodyTrackLoggingDeviceGatewayDaemon.min-reconnect-delay-in-seconds";
+   public static final String MAX_RECONNECT_DELAY_IN_SECONDS_SYSTEM_PROPERTY = "org.bodytrack.applications.BodyTrackLoggingDeviceGatewayDaemon.max-reconnect-delay-in-seconds";
+   public static final String STATUS_INTERVAL_IN_SECONDS_SYSTEM_PROPERTY = "org.bodytrack.applications.BodyTrackLoggingDeviceGatewayDaemon.status-interval-in-seconds";
+
+   private static final String DEFAULT_STATUS_FILE = "BodyTrackLoggingDeviceGateway.status";
+   private static final int DEFAULT_MIN_RECONNECT_DELAY_IN_SECONDS = 5;
+   private static final int DEFAULT_MAX_RECONNECT_DELAY_IN_SECONDS = 5 * 60;
+   private static final int DEFAULT_STATUS_INTERVAL_IN_SECONDS = 30;
+
+   /** How long a shutdown waits for the supervisor to finish disconnecting. */
+   private static final int SHUTDOWN_TIMEOUT_IN_SECONDS = 30;
+
+   public static void main(final String[] args)
+      {
+      final Map<String, String> arguments = new HashMap<String, String>(args.length);
+      for (final String arg : args)
+         {
+         final int equalsPosition = arg.indexOf('=');
+         if (equalsPosition < 0)
+            {
+            arguments.put(arg, "");
+            }
+         else
+            {
+            arguments.put(arg.substring(0, equalsPosition), arg.substring(equalsPosition + 1));
+            }
+         }
+
+      if (arguments.containsKey(HELP_COMMAND_LINE_SWITCH))
+         {
+         final StringBuilder s = new StringBuilder("Options:").append(LINE_SEPARATOR);
+         s.append("   ").append(NO_UPLOAD_COMMAND_LINE_SWITCH).append("               ").append("Files will not be uploaded").append(LINE_SEPARATOR);
+         s.append("   ").append(LOGGING_LEVEL_COMMAND_LINE_SWITCH).append("=<level>")
+               .append("   Sets the logging level for the log file.  Valid values are 'trace',").append(LINE_SEPARATOR)
+               .append("                             'debug', and 'info'.").append(LINE_SEPARATOR);
+         s.append("   ").append(CONFIG_COMMAND_LINE_SWITCH).append("=<path>").append("           ")
+               .append("Use a local config file instead of connecting to a device (see the").append(LINE_SEPARATOR)
+               .append("                             interactive gateway's help for details).").append(LINE_SEPARATOR);
+         s.append("   ").append(STATUS_FILE_COMMAND_LINE_SWITCH).append("=<path>").append("      ")
+               .append("Where to write the status file (default: ").append(DEFAULT_STATUS_FILE).append(")").append(LINE_SEPARATOR);
+         s.append("   ").append(HELP_COMMAND_LINE_SWITCH).append("                    ").append("Displays this help message").append(LINE_SEPARATOR);
+         System.out.println(s);
+         return;
+         }
+
+      if (arguments.containsKey(LOGGING_LEVEL_COMMAND_LINE_SWITCH))
+         {
+         final String desiredLoggingLevel = arguments.get(LOGGING_LEVEL_COMMAND_LINE_SWITCH).toLowerCase();
+         if ("trace".equals(desiredLoggingLevel))
+            {
+            LogManager.getRootLogger().setLevel(Level.TRACE);
+            }
+         else if ("debug".equals(desiredLoggingLevel))
+            {
+            LogManager.getRootLogger().setLevel(Level.DEBUG);
+            }
+         else if ("info".equals(desiredLoggingLevel))
+            {
+            LogManager.getRootLogger().setLevel(Level.INFO);
+            }
+         }
+      logInfo("Log file logging level is '" + LogManager.getRootLogger().getLevel() + "'");
+
+      final String statusFilePath = arguments.get(STATUS_FILE_COMMAND_LINE_SWITCH);
+      final BodyTrackLoggingDeviceGatewayDaemon daemon = new BodyTrackLoggingDeviceGatewayDaemon(arguments.containsKey(NO_UPLOAD_COMMAND_LINE_SWITCH),
+                                                                                                arguments.get(CONFIG_COMMAND_LINE_SWITCH),
+                                                                                                new File((statusFilePath == null || statusFilePath.length() < 1) ? DEFAULT_STATUS_FILE : statusFilePath));
+
+      // SIGTERM and SIGINT stop the daemon before the JVM starts shutting down, so that everything logged while stopping
+      // makes it into the log file before the log appenders' own shutdown hooks close them.  The shutdown hook is a
+      // fallback for other ways the JVM may be shut down.
+      installSignalHandler("TERM", daemon, false);
+      installSignalHandler("INT", daemon, false);
+      installSignalHandler("HUP", daemon, true);
+      Runtime.getRuntime().addShutdownHook(
+            new Thread("BodyTrackLoggingDeviceGatewayDaemon.shutdownHook")
+            {
+            @Override
+            public void run()
+               {
+               daemon.stop();
+               daemon.awaitStopped(SHUTDOWN_TIMEOUT_IN_SECONDS);
+               }
+            });
+
+      daemon.start();
+      daemon.awaitStopped(0);
+
+      // the serial library may leave non-daemon threads behind, so make sure the JVM exits
+      System.exit(daemon.getExitStatus());
+      }
+
+   /**
+    * Makes the given signal either reload or stop the daemon, if the platform and JVM support handling it.  If not, the
+    * signal keeps its default behavior.  The JVM's signal API (<code>sun.misc.Signal</code>) is internal, so it's only
+    * used via reflection, which keeps the build free of proprietary API warnings and lets the daemon run (without signal
+    * handling) on JVMs which don't have it.
+    */
+   private static void installSignalHandler(@NotNull final String signalName,
+                                            @NotNull final BodyTrackLoggingDeviceGatewayDaemon daemon,
+                                            final boolean willReload)
+      {
+      try
+         {
+         final Class<?> signalClass = Class.forName("sun.misc.Signal");
+         final Class<?> signalHandlerClass = Class.forName("sun.misc.SignalHandler");
+         final Object signalHandler = Proxy.newProxyInstance(signalHandlerClass.getClassLoader(),
+                                                             new Class<?>[]{signalHandlerClass},
+                                                             new InvocationHandler()
+                                                             {
+                                                             @Override
+                                                             public Object invoke(final Object proxy, final Method method, final Object[] args)
+                                                                {
+                                                                if ("handle".equals(method.getName()))
+                                                                   {
+                                                                   LOG.info("BodyTrackLoggingDeviceGatewayDaemon: received SIG" + signalName);
+                                                                   if (willReload)
+                                                                      {
+                                                                      daemon.reload();
+                                                                      }
+                                                                   else
+                                                                      {
+                                                                      daemon.stop();
+                                                                      }
+                                                                   return null;
+                                                                   }
+                                                                if ("equals".equals(method.getName()))
+                                                                   {
+                                                                   return proxy == args[0];
+                                                                   }
+                                                                if ("hashCode".equals(method.getName()))
+                                                                   {
+                                                                   return System.identityHashCode(proxy);
+                                                                   }
+                                                                return "SignalHandler[SIG" + signalName + "]";
+                                                                }
+                                                             });
+         final Object signal = signalClass.getConstructor(String.class).newInstance(signalName);
+         signalClass.getMethod("handle", signalClass, signalHandlerClass).invoke(null, signal, signalHandler);
+         }
+      catch (Throwable t)
+         {
+         // e.g. SIGHUP on Windows, or a JVM without sun.misc.Signal
+         LOG.info("BodyTrackLoggingDeviceGatewayDaemon.installSignalHandler(): SIG" + signalName + " can't be handled on this platform (" + t + ")");
+         }
+      }
+
+   private static void logInfo(@NotNull final String message)
+      {
+      LOG.info(message);
+      CONSOLE_LOG.info(message);
+      }
+
+   private static void logError(@NotNull final String message)
+      {
+      LOG.error(message);
+      CONSOLE_LOG.error(message);
+      }
+
+   private static enum State
+      {
+         STARTING, CONNECTING, CONNECTED, RELOADING, STOPPING, STOPPED
+      }
+
+   private final boolean isUploadDisabled;
+
+   @Nullable
+   private final String configFilePath;
+
+   @NotNull
+   private final File statusFile;
+
+   private final long minReconnectDelayInMillis;
+   private final long maxReconnectDelayInMillis;
+   private final int statusIntervalInSeconds;
+
+   /** All connecting, disconnecting, and status writing happens on this thread, so the fields below need no locking. */
+   private final ScheduledExecutorService supervisor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory(this.getClass() + ".supervisor"));
+   private final CountDownLatch stoppedLatch = new CountDownLatch(1);
+   private final long startTime = System.currentTimeMillis();
+
+   private volatile State state = State.STARTING;
+   private volatile int exitStatus = 0;
+
+   private LoggingDevice device = null;
+   private DataFileManager dataFileManager = null;
+   private ScheduledFuture<?> pendingReconnect = null;
+   private long reconnectDelayInMillis;
+   private int numConnectAttempts = 0;
+   private int numConnections = 0;
+   private long stateChangeTime = startTime;
+
+   private final Runnable connectRunnable =
+         new Runnable()
+         {
+         @Override
+         public void run()
+            {
+            pendingReconnect = null;
+            connect();
+            }
+         };
+
+   private final CreateLabDevicePingFailureEventListener pingFailureEventListener =
+         new CreateLabDevicePingFailureEventListener()
+         {
+         public void handlePingFailureEvent()
+            {
+            // hand off to the supervisor, rather than disconnecting and reconnecting on the pinger's thread
+            submitToSupervisor(
+                  new Runnable()
+                  {
+                  @Override
+                  public void run()
+                     {
+                     if (state == State.CONNECTED)
+                        {
+                        logError("Device ping failure detected.  Cleaning up and reconnecting...");
+                        disconnect(false);
+                        reconnectDelayInMillis = minReconnectDelayInMillis;
+                        scheduleReconnect();
+                        }
+                     }
+                  });
+            }
+         };
+
+   private final Runnable writeStatusRunnable =
+         new Runnable()
+         {
+         @Override
+         public void run()
+            {
+            writeStatus();
+            }
+         };
+
+   private BodyTrackLoggingDeviceGatewayDaemon(final boolean isUploadDisabled,
+                                               @Nullable final String configFilePath,
+                                               @NotNull final File statusFile)
+      {
+      this.isUploadDisabled = isUploadDisabled;
+      this.configFilePath = configFilePath;
+      this.statusFile = statusFile;
+      minReconnectDelayInMillis = TimeUnit.SECONDS.toMillis(Math.max(1, SystemPropertyUtils.getIntegerSystemProperty(MIN_RECONNECT_DELAY_IN_SECONDS_SYSTEM_PROPERTY, DEFAULT_MIN_RECONNECT_DELAY_IN_SECONDS)));
+      maxReconnectDelayInMillis = Math.max(minReconnectDelayInMillis, TimeUnit.SECONDS.toMillis(SystemPropertyUtils.getIntegerSystemProperty(MAX_RECONNECT_DELAY_IN_SECONDS_SYSTEM_PROPERTY, DEFAULT_MAX_RECONNECT_DELAY_IN_SECONDS)));
+      statusIntervalInSeconds = Math.max(1, SystemPropertyUtils.getIntegerSystemProperty(STATUS_INTERVAL_IN_SECONDS_SYSTEM_PROPERTY, DEFAULT_STATUS_INTERVAL_IN_SECONDS));
+      reconnectDelayInMillis = minReconnectDelayInMillis;
+      }
+
+   /** Starts connecting (on the supervisor thread) and writing the status file.  Returns immediately. */
+   public void start()
+      {
+      logInfo("Starting the Gateway in daemon mode.  Status will be written to " + statusFile.getAbsolutePath());
+      submitToSupervisor(connectRunnable);
+      supervisor.scheduleWithFixedDelay(writeStatusRunnable, 0, statusIntervalInSeconds, TimeUnit.SECONDS);
+      }
+
+   /** Disconnects and reconnects, e.g. to pick up a changed config file.  Returns immediately. */
+   public void reload()
+      {
+      submitToSupervisor(
+            new Runnable()
+            {
+            @Override
+            public void run()
+               {
+               if (state == State.STOPPING || state == State.STOPPED)
+                  {
+                  return;
+                  }
+               logInfo("Reloading...");
+               setState(State.RELOADING);
+               cancelPendingReconnect();
+               if (device != null)
+                  {
+                  disconnect(true);
+                  }
+               reconnectDelayInMillis = minReconnectDelayInMillis;
+               connect();
+               }
+            });
+      }
+
+   /** Shuts down the data file manager and disconnects from the device.  Returns immediately; see {@link #awaitStopped(int)}. */
+   public void stop()
+      {
+      submitToSupervisor(
+            new Runnable()
+            {
+            @Override
+            public void run()
+               {
+               if (state == State.STOPPING || state == State.STOPPED)
+                  {
+                  return;
+                  }
+               logInfo("Stopping the Gateway...");
+               setState(State.STOPPING);
+               cancelPendingReconnect();
+               if (device != null)
+                  {
+                  disconnect(true);
+                  }
+               setState(State.STOPPED);
+               writeStatus();
+               supervisor.shutdown();
+               stoppedLatch.countDown();
+               logInfo("Bye!");
+               }
+            });
+      }
+
+   /** Waits for the daemon to stop, for at most the given number of seconds, or indefinitely if it's zero. */
+   private void awaitStopped(final int timeoutInSeconds)
+      {
+      try
+         {
+         if (timeoutInSeconds > 0)
+            {
+            stoppedLatch.await(timeoutInSeconds, TimeUnit.SECONDS);
+            }
+         else
+            {
+            stoppedLatch.await();
+            }
+         }
+      catch (InterruptedException ignored)
+         {
+         Thread.currentThread().interrupt();
+         }
+      }
+
+   private int getExitStatus()
+      {
+      return exitStatus;
+      }
+
+   private void submitToSupervisor(@NotNull final Runnable runnable)
+      {
+      try
+         {
+         supervisor.execute(runnable);
+         }
+      catch (RejectedExecutionException ignored)
+         {
+         LOG.debug("BodyTrackLoggingDeviceGatewayDaemon.submitToSupervisor(): ignoring request since the daemon has stopped");
+         }
+      }
+
+   /** Tries to connect, and schedules another attempt with backoff if it fails.  Runs on the supervisor thread. */
+   private void connect()
+      {
+      if (device != null || state == State.STOPPING || state == State.STOPPED)
+         {
+         return;
+         }
+
+      setState(State.CONNECTING);
+      numConnectAttempts++;
+
+      // Anything thrown here would otherwise vanish into the supervisor's future and leave the daemon stuck in the
+      // CONNECTING state, so clean up whatever was built and try again later.
+      LoggingDevice newDevice = null;
+      DataFileUploader dataFileUploader = null;
+      DataFileManager newDataFileManager = null;
+      try
+         {
+         final boolean isDownloadDisabled = configFilePath != null;
+         if (isDownloadDisabled)
+            {
+            LOG.info("BodyTrackLoggingDeviceGatewayDaemon.connect(): loading config file...");
+            newDevice = FakeLoggingDevice.load(configFilePath);
+            }
+         else
+            {
+            LOG.info("BodyTrackLoggingDeviceGatewayDaemon.connect(): scanning for a BodyTrack Logging Device...");
+            newDevice = LoggingDeviceFactory.create();
+            }
+
+         final DataStoreServerConfig dataStoreServerConfig = (newDevice == null) ? null : newDevice.getDataStoreServerConfig();
+         final LoggingDeviceConfig loggingDeviceConfig = (newDevice == null) ? null : newDevice.getLoggingDeviceConfig();
+         if (dataStoreServerConfig == null || loggingDeviceConfig == null)
+            {
+            if (newDevice != null)
+               {
+               newDevice.disconnect();
+               }
+            LOG.info("BodyTrackLoggingDeviceGatewayDaemon.connect(): connection failed, will retry in " + reconnectDelayInMillis + " ms");
+            scheduleReconnect();
+            return;
+            }
+
+         final DataFileDownloader dataFileDownloader = isDownloadDisabled ? null : new DataFileDownloader(newDevice);
+         try
+            {
+            dataFileUploader = isUploadDisabled ? null : new DataFileUploader(dataStoreServerConfig, loggingDeviceConfig);
+            }
+         catch (IllegalStateException e)
+            {
+            // the uploader has already explained why (e.g. HTTPS couldn't be set up), and retrying won't help
+            logError("Could not set up uploads.  Stopping.");
+            newDevice.disconnect();
+            exitStatus = 1;
+            stop();
+            return;
+            }
+         if (dataFileDownloader == null && dataFileUploader == null)
+            {
+            logError("Both download and upload are disabled, so there's nothing to do.  Stopping.");
+            newDevice.disconnect();
+            exitStatus = 1;
+            stop();
+            return;
+            }
+
+         logInfo("Connected to device [" + loggingDeviceConfig.getDeviceNickname() + "] for user [" + loggingDeviceConfig.getUsername() + "] on port [" + newDevice.getPortName() + "].  " +
+                 (dataFileUploader == null ? "Uploads are disabled." : "Data files will be uploaded to " + dataStoreServerConfig.getServerName() + ":" + dataStoreServerConfig.getServerPort()));
+
+         newDevice.addCreateLabDevicePingFailureEventListener(pingFailureEventListener);
+         newDataFileManager = new DataFileManager(dataStoreServerConfig, loggingDeviceConfig, dataFileUploader, dataFileDownloader);
+         newDataFileManager.startup();
+         }
+      catch (RuntimeException e)
+         {
+         LOG.error("BodyTrackLoggingDeviceGatewayDaemon.connect(): RuntimeException while connecting, will retry in " + reconnectDelayInMillis + " ms", e);
+         CONSOLE_LOG.error("Failed to connect (" + e + ").  Will retry in " + reconnectDelayInMillis + " ms.");
+         cleanUpFailedConnection(newDevice, dataFileUploader, newDataFileManager);
+         scheduleReconnect();
+         return;
+         }
+
+      device = newDevice;
+      dataFileManager = newDataFileManager;
+      numConnections++;
+      reconnectDelayInMillis = minReconnectDelayInMillis;
+      setState(State.CONNECTED);
+      writeStatus();
+      }
+
+   /**
+    * Shuts down and disconnects whatever a failed {@link #connect()} managed to build, ignoring any further failures.
+    * Runs on the supervisor thread.
+    */
+   private void cleanUpFailedConnection(@Nullable final LoggingDevice newDevice,
+                                        @Nullable final DataFileUploader dataFileUploader,
+                                        @Nullable final DataFileManager newDataFileManager)
+      {
+      try
+         {
+         if (newDataFileManager != null)
+            {
+            newDataFileManager.shutdown();
+            }
+
+         // the manager only shuts down the uploader if it got as far as starting up, so make sure
+         if (dataFileUploader != null)
+            {
+            dataFileUploader.shutdown();
+            }
+         }
+      catch (RuntimeException e)
+         {
+         LOG.error("BodyTrackLoggingDeviceGatewayDaemon.cleanUpFailedConnection(): RuntimeException while shutting down the data file manager", e);
+         }
+
+      if (newDevice != null)
+         {
+         try
+            {
+            newDevice.removeCreateLabDevicePingFailureEventListener(pingFailureEventListener);
+            newDevice.disconnect();
+            }
+         catch (RuntimeException e)
+            {
+            LOG.error("BodyTrackLoggingDeviceGatewayDaemon.cleanUpFailedConnection(): RuntimeException while disconnecting from the device", e);
+            }
+         }
+      }
+
+   /** Schedules a connection attempt after the current backoff delay, then doubles the delay.  Runs on the supervisor thread. */
+   private void scheduleReconnect()
+      {
+      cancelPendingReconnect();
+      setState(State.CONNECTING);
+      pendingReconnect = supervisor.schedule(connectRunnable, reconnectDelayInMillis, TimeUnit.MILLISECONDS);
+      reconnectDelayInMillis = Math.min(maxReconnectDelayInMillis, reconnectDelayInMillis * 2);
+      }
+
+   private void cancelPendingReconnect()
+      {
+      if (pendingReconnect != null)
+         {
+         pendingReconnect.cancel(false);
+         pendingReconnect = null;
+         }
+      }
+
+   /** Runs on the supervisor thread. */
+   private void disconnect(final boolean willTryToDisconnectFromDevice)
+      {
+      if (dataFileManager != null)
+         {
+         dataFileManager.shutdown();
+         }
+
+      if (device != null)
+         {
+         device.removeCreateLabDevicePingFailureEventListener(pingFailureEventListener);
+         if (willTryToDisconnectFromDevice)
+            {
+            device.disconnect();
+            }
+         }
+
+      device = null;
+      dataFileManager = null;
+      }
+
+   private void setState(@NotNull final State newState)
+      {
+      if (state != newState)
+         {
+         LOG.debug("BodyTrackLoggingDeviceGatewayDaemon.setState(): " + state + " --> " + newState);
+         state = newState;
+         stateChangeTime = System.currentTimeMillis();
+         }
+      }
+
+   /**
+    * Writes the status file, via a temporary file so that readers never see a partial one.  Runs on the supervisor
+    * thread.  Never throws, since an exception would silently cancel the periodic {@link #writeStatusRunnable}.
+    */
+   private void writeStatus()
+      {
+      final File tempFile = new File(statusFile.getPath() + ".tmp");
+      try
+         {
+         final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
+         final long now = System.currentTimeMillis();
+         final StringBuilder s = new StringBuilder();
+         s.append("state=").append(state).append(LINE_SEPARATOR);
+         s.append("state-since=").append(dateFormat.format(new Date(stateChangeTime))).append(LINE_SEPARATOR);
+         s.append("updated=").append(dateFormat.format(new Date(now))).append(LINE_SEPARATOR);
+         s.append("uptime-seconds=").append((now - startTime) / 1000).append(LINE_SEPARATOR);
+         s.append("connect-attempts=").append(numConnectAttempts).append(LINE_SEPARATOR);
+         s.append("connections=").append(numConnections).append(LINE_SEPARATOR);
+         if (device != null)
+            {
+            s.append("port=").append(device.getPortName()).append(LINE_SEPARATOR);
+            }
+         final DataFileUploader dataFileUploader = (dataFileManager == null) ? null : dataFileManager.getDataFileUploader();
+         if (dataFileUploader != null)
+            {
+            final ServerReachabilityMonitor serverReachabilityMonitor = dataFileUploader.getServerReachabilityMonitor();
+            s.append("upload-server=").append(serverReachabilityMonitor.getState()).append(LINE_SEPARATOR);
+            s.append("pending-uploads=").append(dataFileUploader.getNumPendingUploads()).append(LINE_SEPARATOR);
+            }
+
+         final Writer writer = new FileWriter(tempFile);
+         try
+            {
+            writer.write(s.toString());
+            }
+         finally
+            {
+            writer.close();
+            }
+         if (!tempFile.renameTo(statusFile))
+            {
+            // renameTo won't replace an existing file on some platforms
+            if (!statusFile.delete() || !tempFile.renameTo(statusFile))
+               {
+               LOG.error("BodyTrackLoggingDeviceGatewayDaemon.writeStatus(): failed to rename [" + tempFile + "] to [" + statusFile + "]");
+               }
+            }
+         }
+      catch (IOException e)
+         {
+         LOG.error("BodyTrackLoggingDeviceGatewayDaemon.writeStatus(): IOException while writing the status file [" + statusFile + "]", e);
+         }
+      catch (RuntimeException e)
+         {
+         LOG.error("BodyTrackLoggingDeviceGatewayDaemon.writeStatus(): RuntimeException while writing the status file [" + statusFile + "]", e);
+         }
+      }
+   }
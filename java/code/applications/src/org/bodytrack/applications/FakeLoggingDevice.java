@@ -0,0 +1,227 @@
+package org.bodytrack.applications;
+
+import java.io.File;
+import java.io.FileReader;
+import java.util.Properties;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import edu.cmu.ri.createlab.device.CreateLabDevicePingFailureEventListener;
+import org.apache.log4j.Logger;
+import org.bodytrack.loggingdevice.DataFile;
+import org.bodytrack.loggingdevice.DataStoreConnectionConfig;
+import org.bodytrack.loggingdevice.DataStoreServerConfig;
+import org.bodytrack.loggingdevice.LoggingDevice;
+import org.bodytrack.loggingdevice.LoggingDeviceConfig;
+import org.bodytrack.loggingdevice.NoSuchFileException;
+import org.bodytrack.loggingdevice.WirelessAuthorizationType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A {@link LoggingDevice} whose configuration comes from a local config file rather than a real device.  It has no
+ * files, so the gateway only processes the data files already on disk.
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+final class FakeLoggingDevice implements LoggingDevice
+   {
+   private static final Logger LOG = Logger.getLogger(FakeLoggingDevice.class);
+   private static final Logger CONSOLE_LOG = Logger.getLogger("ConsoleLog");
+
+   /**
+    * Reads the given config file and returns a <code>FakeLoggingDevice</code> for it, or <code>null</code> if the file
+    * can't be read.
+    */
+   @Nullable
+   static LoggingDevice load(@Nullable final String pathToConfigFile)
+      {
+      if (pathToConfigFile == null || pathToConfigFile.length() < 1)
+         {
+         CONSOLE_LOG.error("The specified config file path must not be empty.");
+         }
+      else
+         {
+         final File configFile = new File(pathToConfigFile);
+         if (configFile.isFile())
+            {
+            final Properties properties = new Properties();
+            try
+               {
+               properties.load(new FileReader(configFile));
+               if (LOG.isDebugEnabled())
+                  {
+                  final StringBuilder s = new StringBuilder("\nProperties found in config file '" + pathToConfigFile + "':\n");
+                  for (final Object key : new TreeSet<Object>(properties.keySet()))
+                     {
+                     final String val = properties.getProperty((String)key);
+                     s.append("   [").append(key).append("]=[").append(val).append("]").append(System.getProperty("line.separator", "\n"));
+                     }
+                  LOG.debug("FakeLoggingDevice.load(): " + s);
+                  }
+
+               return new FakeLoggingDevice(properties);
+               }
+            catch (Exception e)
+               {
+               LOG.error("FakeLoggingDevice.load(): Exception while trying to read the config file [" + pathToConfigFile + "]", e);
+               logError("Failed to read the config file '" + pathToConfigFile + "'");
+               }
+            }
+         else
+            {
+            logError("The specified config file path '" + pathToConfigFile + "' does not denote a valid config file.");
+            }
+         }
+      return null;
+      }
+
+   private static void logError(@NotNull final String message)
+      {
+      LOG.error(message);
+      CONSOLE_LOG.error(message);
+      }
+
+   private final LoggingDeviceConfig loggingDeviceConfig;
+   private final DataStoreServerConfig dataStoreServerConfig;
+   private final DataStoreConnectionConfig dataStoreConnectionConfig;
+
+   private FakeLoggingDevice(@NotNull final Properties properties)
+      {
+      loggingDeviceConfig =
+            new LoggingDeviceConfig()
+            {
+            @NotNull
+            @Override
+            public String getUsername()
+               {
+               return properties.getProperty("user", "");
+               }
+
+            @NotNull
+            @Override
+            public String getDeviceNickname()
+               {
+               return properties.getProperty("nickname", "");
+               }
+            };
+
+      dataStoreServerConfig =
+            new DataStoreServerConfig()
+            {
+            @NotNull
+            @Override
+            public String getServerName()
+               {
+               return properties.getProperty("server", "");
+               }
+
+            @NotNull
+            @Override
+            public String getServerPort()
+               {
+               return properties.getProperty("port", "");
+               }
+            };
+
+      final WirelessAuthorizationType authType = WirelessAuthorizationType.findById(properties.getProperty("auth", ""));
+      if (authType == null)
+         {
+         dataStoreConnectionConfig = null;
+         }
+      else
+         {
+         dataStoreConnectionConfig =
+               new DataStoreConnectionConfig()
+               {
+               @NotNull
+               @Override
+               public String getWirelessSsid()
+                  {
+                  return properties.getProperty("ssid", "");
+                  }
+
+               @NotNull
+               @Override
+               public WirelessAuthorizationType getWirelessAuthorizationType()
+                  {
+
+                  return authType;
+                  }
+
+               @NotNull
+               @Override
+               public String getWirelessAuthorizationKey()
+                  {
+                  return properties.getProperty("phrase", "");
+                  }
+               };
+         }
+      }
+
+   @Override
+   public SortedSet<String> getAvailableFilenames()
+      {
+      return new TreeSet<String>();
+      }
+
+   @Override
+   public DataFile getFile(@Nullable final String filename) throws NoSuchFileException
+      {
+      throw new NoSuchFileException("This fake logging device doesn't support file retrieval");
+      }
+
+   @Override
+   public boolean deleteFile(@Nullable final String filename)
+      {
+      return false;
+      }
+
+   @Override
+   public LoggingDeviceConfig getLoggingDeviceConfig()
+      {
+      return loggingDeviceConfig;
+      }
+
+   @Override
+   public DataStoreServerConfig getDataStoreServerConfig()
+      {
+      return dataStoreServerConfig;
+      }
+
+   @Override
+   public DataStoreConnectionConfig getDataStoreConnectionConfig()
+      {
+      return dataStoreConnectionConfig;
+      }
+
+   @Override
+   @Nullable
+   public String getSerialLinkStatistics()
+      {
+      return null;
+      }
+
+   @Override
+   public String getPortName()
+      {
+      return "FakePort";
+      }
+
+   @Override
+   public void disconnect()
+      {
+      // do nothing
+      }
+
+   @Override
+   public void addCreateLabDevicePingFailureEventListener(final CreateLabDevicePingFailureEventListener listener)
+      {
+      // do nothing
+      }
+
+   @Override
+   public void removeCreateLabDevicePingFailureEventListener(final CreateLabDevicePingFailureEventListener listener)
+      {
+      // do nothing
+      }
+   }
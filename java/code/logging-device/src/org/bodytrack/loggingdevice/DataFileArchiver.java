@@ -0,0 +1,1033 @@
+package org.bodytrack.loggingdevice;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+import edu.cmu.ri.createlab.util.thread.DaemonThreadFactory;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * <p>
+ * <code>DataFileArchiver</code> compacts successfully {@link DataFileStatus#UPLOADED uploaded} data files into
+ * compressed per-day bundles, to save inodes and keep the data file directory small.  Uploaded files whose timestamp is
+ * older than the configured archive age are rolled into a ZIP bundle named for the (UTC) day of the file's timestamp,
+ * and then deleted.  Each compaction appends a new part to the day's bundle rather than rewriting the parts already
+ * written, so archiving a day's files costs time proportional to the number of files, not to the size of the bundle.
+ * The parts' entry names are indexed in memory (the index for a day is loaded from the parts' ZIP central directories
+ * the first time it's needed), so checking whether a file has been archived doesn't touch the disk, and a single file
+ * can be pulled back out with {@link #extract(String, OutputStream)} without decompressing the rest of the bundle.
+ * Only the indexes of the most recently used {@link #MAX_NUM_INDEXED_DAYS days} are kept in memory.
+ * </p>
+ * <p>
+ * Archiving is disabled unless the {@link #ARCHIVE_AGE_IN_HOURS_SYSTEM_PROPERTY} system property is set to a positive
+ * value.  Compaction runs periodically on a single, minimum-priority daemon thread, and its disk I/O is throttled to at
+ * most {@link #MAX_BYTES_PER_SECOND_SYSTEM_PROPERTY} bytes per second so that it doesn't compete with downloads and
+ * uploads.
+ * </p>
+ * <p>
+ * When disk space runs low, the {@link DiskSpaceGovernor} may request an
+ * {@link #submitEmergencyCompactionTask() emergency compaction} of all uploaded files regardless of age (even if
+ * archiving is otherwise disabled), or an {@link #submitEvictionTask(long) eviction} of uploaded files, oldest first.
+ * Evicted files are recorded, by name only, in a per-day record next to the bundles, so that they still count as
+ * {@link #isArchived(String) archived} and aren't downloaded from the device again.
+ * An emergency compaction which archives nothing backs off further requests, doubling the backoff each time, until
+ * the backoff is {@link #resetEmergencyCompactionBackoff() reset} (e.g. because the disk space state changed).
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class DataFileArchiver
+   {
+   private static final Logger LOG = Logger.getLogger(DataFileArchiver.class);
+   private static final Logger CONSOLE_LOG = Logger.getLogger("ConsoleLog");
+
+   public static final String ARCHIVE_AGE_IN_HOURS_SYSTEM_PROPERTY = "org.bodytrack.loggingdevice.DataFileArchiver.archive-age-in-hours";
+   public static final String MAX_BYTES_PER_SECOND_SYSTEM_PROPERTY = "org.bodytrack.loggingdevice.DataFileArchiver.max-bytes-per-second";
+
+   private static final int DEFAULT_ARCHIVE_AGE_IN_HOURS = 0;
+   private static final int DEFAULT_MAX_BYTES_PER_SECOND = 1024 * 1024;
+   private static final int ARCHIVE_AGE_IN_HOURS;
+   private static final int MAX_BYTES_PER_SECOND;
+
+   static
+      {
+      ARCHIVE_AGE_IN_HOURS = Math.max(0, SystemPropertyUtils.getIntegerSystemProperty(ARCHIVE_AGE_IN_HOURS_SYSTEM_PROPERTY, DEFAULT_ARCHIVE_AGE_IN_HOURS));
+      MAX_BYTES_PER_SECOND = Math.max(0, SystemPropertyUtils.getIntegerSystemProperty(MAX_BYTES_PER_SECOND_SYSTEM_PROPERTY, DEFAULT_MAX_BYTES_PER_SECOND));
+
+      if (ARCHIVE_AGE_IN_HOURS > 0)
+         {
+         final String message = "DataFileArchiver: archiving uploaded files older than [" + ARCHIVE_AGE_IN_HOURS + "] hour(s) into per-day bundles.";
+         LOG.info(message);
+         CONSOLE_LOG.info(message);
+         }
+      }
+
+   /** Name of the directory, within the device's data directory, where the bundles are stored. */
+   private static final String ARCHIVE_DIRECTORY_NAME = "archive";
+   private static final String BUNDLE_FILENAME_EXTENSION = ".zip";
+   private static final String TEMP_BUNDLE_FILENAME_EXTENSION = ".zip.tmp";
+
+   /** Extension of the per-day records of the names of evicted files, which hold one entry name per line. */
+   private static final String EVICTION_RECORD_FILENAME_EXTENSION = ".evicted";
+
+   /** The bundle indexes of at most this many days are kept in memory.  Others are reloaded from disk when needed. */
+   private static final int MAX_NUM_INDEXED_DAYS = 31;
+
+   /** Separates the day from the part number in the names of all but the first part of a day's bundle. */
+   private static final String BUNDLE_PART_NUMBER_SEPARATOR = "-";
+   private static final int DELAY_IN_MINUTES_BETWEEN_COMPACTIONS = 60;
+   private static final long MIN_EMERGENCY_COMPACTION_BACKOFF_IN_MILLIS = TimeUnit.MINUTES.toMillis(1);
+   private static final long MAX_EMERGENCY_COMPACTION_BACKOFF_IN_MILLIS = TimeUnit.MINUTES.toMillis(30);
+   private static final int BUFFER_SIZE = 8 * 1024;
+
+   /**
+    * Provides the locks which guard the data files, so that the archiver doesn't delete a file while someone else (e.g.
+    * the {@link DataFileManager}) is renaming it or checking its status.
+    */
+   public interface FileLockProvider
+      {
+      /** Returns the lock guarding files with the given base filename. */
+      @NotNull
+      Lock getFileLock(@NotNull final String baseFilename);
+      }
+
+   @NotNull
+   private final DataFileDirectory dataFileDirectory;
+
+   @NotNull
+   private final FileLockProvider fileLockProvider;
+
+   @NotNull
+   private final File archiveDirectory;
+
+   private final long archiveAgeInMillis;
+   private final int maxBytesPerSecond;
+
+   /**
+    * Guards the bundles, the eviction records, and the bundle index, so that a bundle isn't deleted while a file is
+    * being extracted from it.  When a file lock from the {@link #fileLockProvider} is needed too, it must be acquired
+    * first.
+    */
+   private final Lock lock = new ReentrantLock();
+
+   /**
+    * Maps each recently used day whose bundle has been indexed to a map of the names of the entries in the day's bundle
+    * to the bundle part which contains each one, or <code>null</code> for entries which have been evicted.  Guarded by
+    * the {@link #lock}.
+    */
+   private final Map<String, Map<String, File>> bundleIndex =
+         new LinkedHashMap<String, Map<String, File>>(16, 0.75f, true)
+         {
+         @Override
+         protected boolean removeEldestEntry(final Map.Entry<String, Map<String, File>> eldest)
+            {
+            return size() > MAX_NUM_INDEXED_DAYS;
+            }
+         };
+
+   private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new MinimumPriorityThreadFactory(new DaemonThreadFactory(this.getClass() + ".executor")));
+
+   private final Runnable compactionRunnable =
+         new Runnable()
+         {
+         @Override
+         public void run()
+            {
+            try
+               {
+               compact();
+               }
+            catch (Exception e)
+               {
+               LOG.error("DataFileArchiver.compactionRunnable.run(): Exception while compacting uploaded files", e);
+               }
+            }
+         };
+
+   /** Used to coalesce emergency tasks, so they don't pile up in the executor's queue. */
+   private final AtomicBoolean isEmergencyTaskPending = new AtomicBoolean(false);
+
+   /** Emergency compaction requests made before this time are ignored, since the last one archived nothing. */
+   private volatile long nextEmergencyCompactionTimeInMillis = 0;
+   private volatile long emergencyCompactionBackoffInMillis = MIN_EMERGENCY_COMPACTION_BACKOFF_IN_MILLIS;
+
+   /**
+    * Creates a <code>DataFileArchiver</code> for the given {@link DataFileDirectory}, using the archive age and
+    * throughput limit specified by the system properties.
+    */
+   public DataFileArchiver(@NotNull final DataFileDirectory dataFileDirectory, @NotNull final FileLockProvider fileLockProvider)
+      {
+      this(dataFileDirectory, fileLockProvider, ARCHIVE_AGE_IN_HOURS, MAX_BYTES_PER_SECOND);
+      }
+
+   /**
+    * Creates a <code>DataFileArchiver</code> for the given {@link DataFileDirectory}.  An <code>archiveAgeInHours</code>
+    * of zero disables archiving, and a <code>maxBytesPerSecond</code> of zero disables I/O throttling.
+    */
+   public DataFileArchiver(@NotNull final DataFileDirectory dataFileDirectory,
+                           @NotNull final FileLockProvider fileLockProvider,
+                           final int archiveAgeInHours,
+                           final int maxBytesPerSecond)
+      {
+      this.dataFileDirectory = dataFileDirectory;
+      this.fileLockProvider = fileLockProvider;
+      this.archiveDirectory = new File(dataFileDirectory.getRootDirectory(), ARCHIVE_DIRECTORY_NAME);
+      this.archiveAgeInMillis = TimeUnit.HOURS.toMillis(Math.max(0, archiveAgeInHours));
+      this.maxBytesPerSecond = Math.max(0, maxBytesPerSecond);
+      }
+
+   /** Returns <code>true</code> if archiving is enabled, <code>false</code> otherwise. */
+   public boolean isEnabled()
+      {
+      return archiveAgeInMillis > 0;
+      }
+
+   /** Starts periodic compaction, if archiving is enabled.  Does nothing otherwise. */
+   public void startup()
+      {
+      if (isEnabled())
+         {
+         executor.scheduleWithFixedDelay(compactionRunnable, 1, DELAY_IN_MINUTES_BETWEEN_COMPACTIONS, TimeUnit.MINUTES);
+         }
+      }
+
+   /**
+    * Requests an immediate compaction on the archiver's background thread, if archiving is enabled.  Does nothing
+    * otherwise.
+    */
+   public void submitCompactionTask()
+      {
+      if (isEnabled() && !executor.isShutdown())
+         {
+         executor.execute(compactionRunnable);
+         }
+      }
+
+   /**
+    * Requests an immediate compaction of all uploaded files, regardless of their age, on the archiver's background
+    * thread.  This happens even if archiving is disabled.  Requests made while one is already pending, or while backing
+    * off after an emergency compaction which archived nothing, are ignored.
+    */
+   public void submitEmergencyCompactionTask()
+      {
+      if (System.currentTimeMillis() < nextEmergencyCompactionTimeInMillis)
+         {
+         LOG.debug("DataFileArchiver.submitEmergencyCompactionTask(): The last emergency compaction archived nothing, so backing off.");
+         return;
+         }
+      submitEmergencyTask(
+            new Runnable()
+            {
+            @Override
+            public void run()
+               {
+               if (compact(0) > 0)
+                  {
+                  resetEmergencyCompactionBackoff();
+                  }
+               else
+                  {
+                  nextEmergencyCompactionTimeInMillis = System.currentTimeMillis() + emergencyCompactionBackoffInMillis;
+                  emergencyCompactionBackoffInMillis = Math.min(emergencyCompactionBackoffInMillis * 2, MAX_EMERGENCY_COMPACTION_BACKOFF_IN_MILLIS);
+                  }
+               }
+            });
+      }
+
+   /** Allows the next emergency compaction request to run right away, even if the last one archived nothing. */
+   public void resetEmergencyCompactionBackoff()
+      {
+      nextEmergencyCompactionTimeInMillis = 0;
+      emergencyCompactionBackoffInMillis = MIN_EMERGENCY_COMPACTION_BACKOFF_IN_MILLIS;
+      }
+
+   /**
+    * Requests that uploaded files be deleted, oldest first, on the archiver's background thread until at least
+    * <code>numBytesToFree</code> bytes have been freed.  Requests made while one is already pending are ignored.
+    *
+    * @see #evict(long)
+    */
+   public void submitEvictionTask(final long numBytesToFree)
+      {
+      submitEmergencyTask(
+            new Runnable()
+            {
+            @Override
+            public void run()
+               {
+               evict(numBytesToFree);
+               }
+            });
+      }
+
+   private void submitEmergencyTask(@NotNull final Runnable runnable)
+      {
+      if (!executor.isShutdown() && isEmergencyTaskPending.compareAndSet(false, true))
+         {
+         executor.execute(
+               new Runnable()
+               {
+               @Override
+               public void run()
+                  {
+                  isEmergencyTaskPending.set(false);
+                  try
+                     {
+                     runnable.run();
+                     }
+                  catch (Exception e)
+                     {
+                     LOG.error("DataFileArchiver.submitEmergencyTask(): Exception while running emergency task", e);
+                     }
+                  }
+               });
+         }
+      }
+
+   public void shutdown()
+      {
+      LOG.debug("DataFileArchiver.shutdown()");
+      try
+         {
+         executor.shutdownNow();
+         executor.awaitTermination(30, TimeUnit.SECONDS);
+         }
+      catch (Exception e)
+         {
+         LOG.error("DataFileArchiver.shutdown(): Exception while trying to shut down the executor", e);
+         }
+      }
+
+   /**
+    * Rolls all uploaded files older than the archive age into their per-day bundles, and deletes them once the bundle has
+    * been written.  Returns the number of files archived.
+    */
+   public int compact()
+      {
+      if (!isEnabled())
+         {
+         return 0;
+         }
+      return compact(archiveAgeInMillis);
+      }
+
+   private int compact(final long minAgeInMillis)
+      {
+      // group the files which are old enough to archive by day
+      final long cutoffTimeInMillis = System.currentTimeMillis() - minAgeInMillis;
+      final SortedMap<String, List<File>> filesByDay = new TreeMap<String, List<File>>();
+      final SimpleDateFormat dayFormat = createDayFormat();
+      for (final File file : dataFileDirectory.listFiles(DataFileStatus.UPLOADED))
+         {
+         final Long timestampInMillis = getTimestampInMillis(DataFileDirectory.computeBaseFilename(file.getName()));
+         if (timestampInMillis != null && timestampInMillis <= cutoffTimeInMillis)
+            {
+            final String day = dayFormat.format(timestampInMillis);
+            List<File> files = filesByDay.get(day);
+            if (files == null)
+               {
+               files = new ArrayList<File>();
+               filesByDay.put(day, files);
+               }
+            files.add(file);
+            }
+         }
+
+      int numFilesArchived = 0;
+      for (final Map.Entry<String, List<File>> entry : filesByDay.entrySet())
+         {
+         if (Thread.currentThread().isInterrupted())
+            {
+            break;
+            }
+         try
+            {
+            numFilesArchived += addToBundle(entry.getKey(), entry.getValue());
+            }
+         catch (IOException e)
+            {
+            LOG.error("DataFileArchiver.compact(): IOException while archiving uploaded files for day [" + entry.getKey() + "]", e);
+            }
+         }
+
+      if (numFilesArchived > 0)
+         {
+         final String msg = "Archived " + numFilesArchived + " uploaded file(s) into " + filesByDay.size() + " daily bundle(s).";
+         LOG.info("DataFileArchiver.compact(): " + msg);
+         CONSOLE_LOG.info(msg);
+         }
+      return numFilesArchived;
+      }
+
+   /**
+    * Deletes uploaded files, oldest first, until at least <code>numBytesToFree</code> bytes have been freed.  Loose
+    * uploaded files are deleted first, followed by whole bundles.  Since these files have already been uploaded, only
+    * the local copies are lost, and their names are recorded so that they still count as archived.  Returns the number
+    * of bytes freed.
+    */
+   public long evict(final long numBytesToFree)
+      {
+      // order the loose uploaded files by timestamp, oldest first (files with unparseable names are skipped)
+      final SortedMap<Long, File> filesByTimestamp = new TreeMap<Long, File>();
+      for (final File file : dataFileDirectory.listFiles(DataFileStatus.UPLOADED))
+         {
+         final Long timestampInMillis = getTimestampInMillis(DataFileDirectory.computeBaseFilename(file.getName()));
+         if (timestampInMillis != null)
+            {
+            filesByTimestamp.put(timestampInMillis, file);
+            }
+         }
+
+      final List<File> candidates = new ArrayList<File>(filesByTimestamp.values());
+
+      // then add the bundles, oldest first (bundle names sort by day, and all the parts of a day's bundle hold files from that day)
+      final String[] bundleNames = archiveDirectory.list();
+      if (bundleNames != null)
+         {
+         final SortedMap<String, File> bundlesByName = new TreeMap<String, File>();
+         for (final String bundleName : bundleNames)
+            {
+            if (bundleName.endsWith(BUNDLE_FILENAME_EXTENSION))
+               {
+               bundlesByName.put(bundleName, new File(archiveDirectory, bundleName));
+               }
+            }
+         candidates.addAll(bundlesByName.values());
+         }
+
+      long numBytesFreed = 0;
+      int numFilesDeleted = 0;
+      for (final File file : candidates)
+         {
+         if (numBytesFreed >= numBytesToFree)
+            {
+            break;
+            }
+
+         final long numBytesFreedForFile = file.getName().endsWith(BUNDLE_FILENAME_EXTENSION) ? evictBundle(file) : evictLooseFile(file);
+         if (numBytesFreedForFile >= 0)
+            {
+            numBytesFreed += numBytesFreedForFile;
+            numFilesDeleted++;
+            }
+         }
+
+      if (numFilesDeleted > 0)
+         {
+         final String msg = "Low disk space: deleted " + numFilesDeleted + " local copies of uploaded file(s) or bundle(s), freeing " + numBytesFreed + " bytes.";
+         LOG.warn("DataFileArchiver.evict(): " + msg);
+         CONSOLE_LOG.warn(msg);
+         }
+      return numBytesFreed;
+      }
+
+   /**
+    * Deletes the given loose uploaded file, if it still exists, after recording its name.  Returns the number of bytes
+    * freed, or -1 if it wasn't deleted.
+    */
+   private long evictLooseFile(@NotNull final File file)
+      {
+      final String baseFilename = DataFileDirectory.computeBaseFilename(file.getName());
+      final String day = getDayForBaseFilename(baseFilename);
+      if (day == null)
+         {
+         return -1;
+         }
+
+      final Lock fileLock = fileLockProvider.getFileLock(baseFilename);
+      fileLock.lock();  // block until condition holds
+      try
+         {
+         lock.lock();  // block until condition holds
+         try
+            {
+            // the file may have been renamed or deleted since it was listed
+            if (!file.isFile())
+               {
+               return -1;
+               }
+
+            final String entryName = computeEntryName(baseFilename);
+            if (!recordEviction(day, Collections.singleton(entryName)))
+               {
+               return -1;
+               }
+            final Map<String, File> index = getBundleIndex(day);
+            if (!index.containsKey(entryName))
+               {
+               index.put(entryName, null);
+               }
+
+            final long length = file.length();
+            if (file.delete())
+               {
+               return length;
+               }
+            LOG.error("DataFileArchiver.evictLooseFile(): Failed to delete file [" + file + "]");
+            return -1;
+            }
+         finally
+            {
+            lock.unlock();
+            }
+         }
+      finally
+         {
+         fileLock.unlock();
+         }
+      }
+
+   /**
+    * Deletes the given bundle part after recording the names of the files in it.  Returns the number of bytes freed, or
+    * -1 if it wasn't deleted.
+    */
+   private long evictBundle(@NotNull final File bundle)
+      {
+      final String day = getDayForBundleName(bundle.getName());
+      lock.lock();  // block until condition holds
+      try
+         {
+         final Map<String, File> index = getBundleIndex(day);
+         final List<String> entryNames = new ArrayList<String>();
+         for (final Map.Entry<String, File> entry : index.entrySet())
+            {
+            if (bundle.equals(entry.getValue()))
+               {
+               entryNames.add(entry.getKey());
+               }
+            }
+         if (!recordEviction(day, entryNames))
+            {
+            return -1;
+            }
+
+         final long length = bundle.length();
+         if (bundle.delete())
+            {
+            for (final String entryName : entryNames)
+               {
+               index.put(entryName, null);
+               }
+            return length;
+            }
+         LOG.error("DataFileArchiver.evictBundle(): Failed to delete bundle [" + bundle + "]");
+         return -1;
+         }
+      finally
+         {
+         lock.unlock();
+         }
+      }
+
+   /**
+    * Appends the given entry names to the eviction record for the given day.  Returns <code>true</code> on success, and
+    * <code>false</code> (after logging) otherwise, in which case the files must not be deleted, since they would then be
+    * downloaded again.  Must be called while holding the {@link #lock}.
+    */
+   private boolean recordEviction(@NotNull final String day, @NotNull final Collection<String> entryNames)
+      {
+      if (entryNames.isEmpty())
+         {
+         return true;
+         }
+
+      final File record = new File(archiveDirectory, day + EVICTION_RECORD_FILENAME_EXTENSION);
+      Writer writer = null;
+      try
+         {
+         if (!archiveDirectory.isDirectory() && !archiveDirectory.mkdirs() && !archiveDirectory.isDirectory())
+            {
+            throw new IOException("Failed to create archive directory [" + archiveDirectory + "]");
+            }
+         writer = new FileWriter(record, true);
+         for (final String entryName : entryNames)
+            {
+            writer.write(entryName);
+            writer.write('\n');
+            }
+         writer.close();
+         writer = null;
+         return true;
+         }
+      catch (IOException e)
+         {
+         LOG.error("DataFileArchiver.recordEviction(): IOException while writing eviction record [" + record + "], so the files won't be evicted", e);
+         return false;
+         }
+      finally
+         {
+         if (writer != null)
+            {
+            try
+               {
+               writer.close();
+               }
+            catch (IOException ignored)
+               {
+               LOG.error("DataFileArchiver.recordEviction(): IOException while trying to close the eviction record.  Oh well.");
+               }
+            }
+         }
+      }
+
+   /**
+    * Returns <code>true</code> if an uploaded file with the given <code>baseFilename</code> has been archived (even if
+    * it has since been evicted), <code>false</code> otherwise.
+    */
+   public boolean isArchived(@NotNull final String baseFilename)
+      {
+      final String day = getDayForBaseFilename(baseFilename);
+      if (day == null)
+         {
+         return false;
+         }
+
+      lock.lock();  // block until condition holds
+      try
+         {
+         return getBundleIndex(day).containsKey(computeEntryName(baseFilename));
+         }
+      finally
+         {
+         lock.unlock();
+         }
+      }
+
+   /**
+    * Writes the contents of the archived file with the given <code>filename</code> (with or without extension) to the
+    * given {@link OutputStream}.  Returns <code>true</code> if the file was found in the archive, <code>false</code>
+    * otherwise.
+    *
+    * @throws IOException if the bundle cannot be read or the file cannot be written to the <code>outputStream</code>
+    */
+   public boolean extract(@NotNull final String filename, @NotNull final OutputStream outputStream) throws IOException
+      {
+      final String baseFilename = DataFileDirectory.computeBaseFilename(filename);
+      final String day = getDayForBaseFilename(baseFilename);
+      if (day == null)
+         {
+         return false;
+         }
+
+      lock.lock();  // block until condition holds
+      try
+         {
+         final File bundle = getBundleIndex(day).get(computeEntryName(baseFilename));
+         if (bundle == null || !bundle.isFile())
+            {
+            return false;
+            }
+         final ZipFile zipFile = new ZipFile(bundle);
+         try
+            {
+            final ZipEntry entry = zipFile.getEntry(computeEntryName(baseFilename));
+            if (entry == null)
+               {
+               return false;
+               }
+            final InputStream inputStream = zipFile.getInputStream(entry);
+            try
+               {
+               copy(inputStream, outputStream, 0);
+               }
+            finally
+               {
+               inputStream.close();
+               }
+            return true;
+            }
+         finally
+            {
+            zipFile.close();
+            }
+         }
+      finally
+         {
+         lock.unlock();
+         }
+      }
+
+   /**
+    * Adds the given files to the bundle for the given day by writing them to a new part of the bundle, which is put in
+    * place with an atomic rename once it is complete.  Files which are already in the bundle aren't added again.  The
+    * files are deleted only after the new part is in place.  Returns the number of files archived.
+    */
+   private int addToBundle(@NotNull final String day, @NotNull final List<File> files) throws IOException
+      {
+      if (!archiveDirectory.isDirectory() && !archiveDirectory.mkdirs() && !archiveDirectory.isDirectory())
+         {
+         throw new IOException("Failed to create archive directory [" + archiveDirectory + "]");
+         }
+
+      // figure out which files aren't in the bundle yet
+      final Map<String, File> filesToAdd = new TreeMap<String, File>();
+      final List<File> archivedFiles = new ArrayList<File>(files.size());
+      lock.lock();  // block until condition holds
+      try
+         {
+         final Map<String, File> index = getBundleIndex(day);
+         for (final File file : files)
+            {
+            final String entryName = computeEntryName(DataFileDirectory.computeBaseFilename(file.getName()));
+            final File existingBundle = index.get(entryName);
+            if (existingBundle != null)
+               {
+               LOG.warn("DataFileArchiver.addToBundle(): File [" + file + "] is already in bundle [" + existingBundle + "], so the local copy will simply be deleted.");
+               archivedFiles.add(file);
+               }
+            else if (filesToAdd.containsKey(entryName))
+               {
+               // another file with the same base filename (e.g. differing only in case) is being archived instead
+               archivedFiles.add(file);
+               }
+            else
+               {
+               filesToAdd.put(entryName, file);
+               }
+            }
+         }
+      finally
+         {
+         lock.unlock();
+         }
+
+      File bundle = null;
+      if (!filesToAdd.isEmpty())
+         {
+         bundle = getNextBundlePart(day);
+         final File tempBundle = new File(archiveDirectory, day + TEMP_BUNDLE_FILENAME_EXTENSION);
+         ZipOutputStream zipOutputStream = null;
+         try
+            {
+            zipOutputStream = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(tempBundle), BUFFER_SIZE));
+            zipOutputStream.setLevel(Deflater.BEST_COMPRESSION);
+
+            for (final Map.Entry<String, File> fileToAdd : filesToAdd.entrySet())
+               {
+               final File file = fileToAdd.getValue();
+               final ZipEntry entry = new ZipEntry(fileToAdd.getKey());
+               entry.setTime(file.lastModified());
+               zipOutputStream.putNextEntry(entry);
+               final InputStream inputStream = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+               try
+                  {
+                  copy(inputStream, zipOutputStream, maxBytesPerSecond);
+                  }
+               finally
+                  {
+                  inputStream.close();
+                  }
+               zipOutputStream.closeEntry();
+               }
+
+            zipOutputStream.close();
+            zipOutputStream = null;
+
+            // put the new part in place and add its entries to the index
+            lock.lock();  // block until condition holds
+            try
+               {
+               Files.move(tempBundle.toPath(), bundle.toPath(), StandardCopyOption.ATOMIC_MOVE);
+               final Map<String, File> index = getBundleIndex(day);
+               for (final String entryName : filesToAdd.keySet())
+                  {
+                  index.put(entryName, bundle);
+                  }
+               }
+            finally
+               {
+               lock.unlock();
+               }
+            archivedFiles.addAll(filesToAdd.values());
+            }
+         finally
+            {
+            if (zipOutputStream != null)
+               {
+               try
+                  {
+                  zipOutputStream.close();
+                  }
+               catch (IOException ignored)
+                  {
+                  LOG.error("DataFileArchiver.addToBundle(): IOException while trying to close the ZipOutputStream.  Oh well.");
+                  }
+               }
+            if (tempBundle.exists() && !tempBundle.delete())
+               {
+               LOG.error("DataFileArchiver.addToBundle(): Failed to delete temp bundle [" + tempBundle + "]");
+               }
+            }
+         }
+
+      // the files are safely in the bundle, so delete them
+      int numFilesDeleted = 0;
+      for (final File file : archivedFiles)
+         {
+         final Lock fileLock = fileLockProvider.getFileLock(DataFileDirectory.computeBaseFilename(file.getName()));
+         fileLock.lock();  // block until condition holds
+         try
+            {
+            if (file.delete())
+               {
+               numFilesDeleted++;
+               }
+            else if (file.exists())
+               {
+               LOG.error("DataFileArchiver.addToBundle(): Failed to delete archived file [" + file + "]");
+               }
+            }
+         finally
+            {
+            fileLock.unlock();
+            }
+         }
+      if (LOG.isDebugEnabled())
+         {
+         LOG.debug("DataFileArchiver.addToBundle(): Archived [" + numFilesDeleted + "] file(s) for day [" + day + "]" + (bundle == null ? "" : " into bundle [" + bundle + "]"));
+         }
+      return numFilesDeleted;
+      }
+
+   /**
+    * Returns the index of the bundle for the given day, loading it from the day's eviction record and bundle parts if it
+    * isn't in memory.  A part which can't be read is logged and left out of the index.  Must be called while holding the
+    * {@link #lock}.
+    */
+   @NotNull
+   private Map<String, File> getBundleIndex(@NotNull final String day)
+      {
+      Map<String, File> index = bundleIndex.get(day);
+      if (index == null)
+         {
+         index = new HashMap<String, File>();
+
+         // load the evicted entries first, so that entries which were archived again later point to their bundle
+         final File record = new File(archiveDirectory, day + EVICTION_RECORD_FILENAME_EXTENSION);
+         if (record.isFile())
+            {
+            try
+               {
+               final BufferedReader reader = new BufferedReader(new FileReader(record));
+               try
+                  {
+                  String entryName;
+                  while ((entryName = reader.readLine()) != null)
+                     {
+                     if (entryName.length() > 0)
+                        {
+                        index.put(entryName, null);
+                        }
+                     }
+                  }
+               finally
+                  {
+                  reader.close();
+                  }
+               }
+            catch (IOException e)
+               {
+               LOG.error("DataFileArchiver.getBundleIndex(): IOException while reading eviction record [" + record + "]", e);
+               }
+            }
+
+         for (final File bundle : getBundleParts(day))
+            {
+            try
+               {
+               final ZipFile zipFile = new ZipFile(bundle);
+               try
+                  {
+                  final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+                  while (entries.hasMoreElements())
+                     {
+                     index.put(entries.nextElement().getName(), bundle);
+                     }
+                  }
+               finally
+                  {
+                  zipFile.close();
+                  }
+               }
+            catch (IOException e)
+               {
+               LOG.error("DataFileArchiver.getBundleIndex(): IOException while reading bundle [" + bundle + "]", e);
+               }
+            }
+         bundleIndex.put(day, index);
+         }
+      return index;
+      }
+
+   /** Returns the existing parts of the bundle for the given day. */
+   @NotNull
+   private List<File> getBundleParts(@NotNull final String day)
+      {
+      final List<File> bundles = new ArrayList<File>();
+      final String[] bundleNames = archiveDirectory.list();
+      if (bundleNames != null)
+         {
+         for (final String bundleName : bundleNames)
+            {
+            if (bundleName.endsWith(BUNDLE_FILENAME_EXTENSION) && day.equals(getDayForBundleName(bundleName)))
+               {
+               bundles.add(new File(archiveDirectory, bundleName));
+               }
+            }
+         }
+      return bundles;
+      }
+
+   /**
+    * Returns the first unused part of the bundle for the given day.  The first part is named for the day alone, and
+    * later parts append a part number.
+    */
+   @NotNull
+   private File getNextBundlePart(@NotNull final String day)
+      {
+      File bundle = new File(archiveDirectory, day + BUNDLE_FILENAME_EXTENSION);
+      for (int partNumber = 1; bundle.exists(); partNumber++)
+         {
+         bundle = new File(archiveDirectory, day + BUNDLE_PART_NUMBER_SEPARATOR + partNumber + BUNDLE_FILENAME_EXTENSION);
+         }
+      return bundle;
+      }
+
+   /**
+    * Copies the <code>inputStream</code> to the <code>outputStream</code>, sleeping as necessary to keep throughput
+    * below <code>maxBytesPerSecond</code> (unless zero, which means unlimited).
+    */
+   private static void copy(@NotNull final InputStream inputStream, @NotNull final OutputStream outputStream, final int maxBytesPerSecond) throws IOException
+      {
+      final byte[] buffer = new byte[BUFFER_SIZE];
+      final long startTime = System.currentTimeMillis();
+      long numBytesCopied = 0;
+      int numBytesRead;
+      while ((numBytesRead = inputStream.read(buffer)) != -1)
+         {
+         outputStream.write(buffer, 0, numBytesRead);
+         numBytesCopied += numBytesRead;
+
+         if (maxBytesPerSecond > 0)
+            {
+            final long expectedElapsedMillis = numBytesCopied * 1000 / maxBytesPerSecond;
+            final long actualElapsedMillis = System.currentTimeMillis() - startTime;
+            if (expectedElapsedMillis > actualElapsedMillis)
+               {
+               try
+                  {
+                  Thread.sleep(expectedElapsedMillis - actualElapsedMillis);
+                  }
+               catch (InterruptedException e)
+                  {
+                  Thread.currentThread().interrupt();
+                  throw new IOException("Interrupted while throttling archive I/O");
+                  }
+               }
+            }
+         }
+      }
+
+   @Nullable
+   private static String getDayForBaseFilename(@NotNull final String baseFilename)
+      {
+      final Long timestampInMillis = getTimestampInMillis(baseFilename);
+      if (timestampInMillis == null)
+         {
+         return null;
+         }
+      return createDayFormat().format(timestampInMillis);
+      }
+
+   /** Returns the day of the bundle part with the given filename, by stripping the part number and extension. */
+   @NotNull
+   private static String getDayForBundleName(@NotNull final String bundleName)
+      {
+      final String name = bundleName.substring(0, bundleName.length() - BUNDLE_FILENAME_EXTENSION.length());
+      final int separatorPosition = name.indexOf(BUNDLE_PART_NUMBER_SEPARATOR);
+      return (separatorPosition < 0) ? name : name.substring(0, separatorPosition);
+      }
+
+   @NotNull
+   private static String computeEntryName(@NotNull final String baseFilename)
+      {
+      return baseFilename.toUpperCase() + DataFileStatus.UPLOADED.getFilenameExtension();
+      }
+
+   /** Base filenames are the file's timestamp, in hex epoch seconds.  Returns <code>null</code> if it can't be parsed. */
+   @Nullable
+   private static Long getTimestampInMillis(@NotNull final String baseFilename)
+      {
+      try
+         {
+         return TimeUnit.SECONDS.toMillis(Long.parseLong(baseFilename, 16));
+         }
+      catch (NumberFormatException ignored)
+         {
+         return null;
+         }
+      }
+
+   @NotNull
+   private static SimpleDateFormat createDayFormat()
+      {
+      final SimpleDateFormat dayFormat = new SimpleDateFormat("yyyyMMdd");
+      dayFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+      return dayFormat;
+      }
+
+   /** Wraps another {@link ThreadFactory} and lowers the priority of the threads it creates to the minimum. */
+   private static final class MinimumPriorityThreadFactory implements ThreadFactory
+      {
+      private final ThreadFactory threadFactory;
+
+      private MinimumPriorityThreadFactory(@NotNull final ThreadFactory threadFactory)
+         {
+         this.threadFactory = threadFactory;
+         }
+
+      @Override
+      public Thread newThread(final Runnable runnable)
+         {
+         final Thread thread = threadFactory.newThread(runnable);
+         thread.setPriority(Thread.MIN_PRIORITY);
+         return thread;
+         }
+      }
+   }
@@ -0,0 +1,427 @@
+package org.bodytrack.loggingdevice;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * <p>
+ * <code>DataFileDirectory</code> encapsulates the on-disk layout of the data files for a single device.  By default,
+ * files are stored {@link Layout#FLAT flat}, directly in the device's data directory.  For very large archives, the
+ * files may instead be {@link Layout#SHARDED sharded} into subdirectories named by a prefix of the base filename.
+ * Since base filenames are the file's timestamp in hex epoch seconds, each shard holds a contiguous time range (with the
+ * default prefix length of 4, each shard spans about 18 hours) so directory scans only ever touch a small directory.
+ * </p>
+ * <p>
+ * The layout is chosen with the {@link #LAYOUT_SYSTEM_PROPERTY} system property, and the shard prefix length with the
+ * {@link #SHARD_PREFIX_LENGTH_SYSTEM_PROPERTY} system property.  Use {@link #migrate()} to move files written under a
+ * different layout into the place where the current layout expects them.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class DataFileDirectory
+   {
+   private static final Logger LOG = Logger.getLogger(DataFileDirectory.class);
+   private static final Logger CONSOLE_LOG = Logger.getLogger("ConsoleLog");
+
+   public static enum Layout
+      {
+         FLAT,
+         SHARDED
+      }
+
+   public static final String LAYOUT_SYSTEM_PROPERTY = "org.bodytrack.loggingdevice.DataFileDirectory.layout";
+   public static final String SHARD_PREFIX_LENGTH_SYSTEM_PROPERTY = "org.bodytrack.loggingdevice.DataFileDirectory.shard-prefix-length";
+
+   private static final Layout DEFAULT_LAYOUT = Layout.FLAT;
+   private static final int DEFAULT_SHARD_PREFIX_LENGTH = 4;
+   private static final int MIN_SHARD_PREFIX_LENGTH = 1;
+   private static final int MAX_SHARD_PREFIX_LENGTH = 7;
+
+   /** Shard directories are named with uppercase hex digits, and nothing else. */
+   private static final Pattern SHARD_DIRECTORY_NAME_PATTERN = Pattern.compile("[A-F0-9]{" + MIN_SHARD_PREFIX_LENGTH + "," + MAX_SHARD_PREFIX_LENGTH + "}");
+
+   private static final Layout LAYOUT;
+   private static final int SHARD_PREFIX_LENGTH;
+
+   static
+      {
+      final String layoutStr = System.getProperty(LAYOUT_SYSTEM_PROPERTY);
+      Layout layout = DEFAULT_LAYOUT;
+      if (layoutStr != null)
+         {
+         try
+            {
+            layout = Layout.valueOf(layoutStr.trim().toUpperCase());
+            }
+         catch (IllegalArgumentException e)
+            {
+            LOG.error("IllegalArgumentException while trying to parse [" + layoutStr + "] as a data file directory layout.  Defaulting to " + DEFAULT_LAYOUT, e);
+            }
+         }
+      LAYOUT = layout;
+
+      final String shardPrefixLengthStr = System.getProperty(SHARD_PREFIX_LENGTH_SYSTEM_PROPERTY);
+      int shardPrefixLength = DEFAULT_SHARD_PREFIX_LENGTH;
+      if (shardPrefixLengthStr != null)
+         {
+         try
+            {
+            shardPrefixLength = Integer.parseInt(shardPrefixLengthStr);
+            }
+         catch (NumberFormatException e)
+            {
+            LOG.error("NumberFormatException while trying to parse [" + shardPrefixLengthStr + "] as an int for the shard prefix length.  Defaulting to " + DEFAULT_SHARD_PREFIX_LENGTH, e);
+            }
+         }
+      SHARD_PREFIX_LENGTH = Math.min(MAX_SHARD_PREFIX_LENGTH, Math.max(MIN_SHARD_PREFIX_LENGTH, shardPrefixLength));
+
+      if (LAYOUT == Layout.SHARDED)
+         {
+         final String message = "DataFileDirectory: using sharded data file directory layout with a shard prefix length of [" + SHARD_PREFIX_LENGTH + "].";
+         LOG.info(message);
+         CONSOLE_LOG.info(message);
+         }
+      }
+
+   /**
+    * Returns the base filename for the given <code>filename</code>, which is simply everything before the first dot
+    * (or the whole filename if there is no dot).
+    */
+   @NotNull
+   static String computeBaseFilename(@NotNull final String filename)
+      {
+      final int dotPosition = filename.indexOf('.');
+      if (dotPosition >= 0)
+         {
+         return filename.substring(0, dotPosition);
+         }
+      return filename;
+      }
+
+   @NotNull
+   private final File rootDirectory;
+
+   @NotNull
+   private final Layout layout;
+
+   private final int shardPrefixLength;
+
+   /**
+    * Constructs a <code>DataFileDirectory</code> rooted at the given directory, using the layout and shard prefix length
+    * specified by the system properties.
+    */
+   public DataFileDirectory(@NotNull final File rootDirectory)
+      {
+      this(rootDirectory, LAYOUT, SHARD_PREFIX_LENGTH);
+      }
+
+   public DataFileDirectory(@NotNull final File rootDirectory, @NotNull final Layout layout, final int shardPrefixLength)
+      {
+      this.rootDirectory = rootDirectory;
+      this.layout = layout;
+      this.shardPrefixLength = Math.min(MAX_SHARD_PREFIX_LENGTH, Math.max(MIN_SHARD_PREFIX_LENGTH, shardPrefixLength));
+      }
+
+   @NotNull
+   public File getRootDirectory()
+      {
+      return rootDirectory;
+      }
+
+   @NotNull
+   public Layout getLayout()
+      {
+      return layout;
+      }
+
+   /**
+    * Returns the directory in which files with the given <code>baseFilename</code> belong under this directory's
+    * {@link Layout}.  The directory is not created.
+    *
+    * @see #createDirectoryForBaseFilename(String)
+    */
+   @NotNull
+   public File getDirectoryForBaseFilename(@NotNull final String baseFilename)
+      {
+      if (layout == Layout.SHARDED)
+         {
+         return new File(rootDirectory, computeShardName(baseFilename));
+         }
+      return rootDirectory;
+      }
+
+   /**
+    * Creates (if necessary) and returns the directory in which files with the given <code>baseFilename</code> belong.
+    *
+    * @throws IOException if the directory does not exist and cannot be created
+    */
+   @NotNull
+   public File createDirectoryForBaseFilename(@NotNull final String baseFilename) throws IOException
+      {
+      final File directory = getDirectoryForBaseFilename(baseFilename);
+      if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory())
+         {
+         throw new IOException("Failed to create directory [" + directory + "]");
+         }
+      return directory;
+      }
+
+   /** Returns all files having the given {@link DataFileStatus}, in no particular order. */
+   @NotNull
+   public List<File> listFiles(@NotNull final DataFileStatus dataFileStatus)
+      {
+      final List<File> files = new ArrayList<File>();
+      final DirectoryStream.Filter<Path> filter = new DataFileStatusFilter(dataFileStatus);
+
+      // Always scan the root directory, even when sharded, so that files which haven't been migrated yet are found
+      listFiles(rootDirectory.toPath(), filter, files);
+      if (layout == Layout.SHARDED)
+         {
+         for (final Path shardDirectory : listShardDirectories())
+            {
+            listFiles(shardDirectory, filter, files);
+            }
+         }
+      return files;
+      }
+
+   /**
+    * Returns all files with the same {@link DataFile#getBaseFilename() base filename} as the given
+    * <code>baseFilename</code> (compared case-insensitively).  Only the directory in which such files belong is
+    * scanned.
+    */
+   @NotNull
+   public List<File> listFilesWithBaseFilename(@NotNull final String baseFilename)
+      {
+      final List<File> files = new ArrayList<File>(1);
+      final File directory = getDirectoryForBaseFilename(baseFilename);
+      if (directory.isDirectory())
+         {
+         listFiles(directory.toPath(), new BaseFilenameFilter(baseFilename), files);
+         }
+      return files;
+      }
+
+   /**
+    * Moves any files which aren't where this directory's {@link Layout} expects them to be into the proper place.  When
+    * sharded, files in the root directory are moved into their shards.  When flat, files in shard directories are moved
+    * into the root directory and the emptied shard directories are removed.  Each file is moved with a single rename,
+    * so this is safe to run on a live directory as long as the caller prevents concurrent writes to the files being
+    * moved.  Returns the number of files moved.
+    */
+   public int migrate()
+      {
+      int numFilesMoved = 0;
+      if (layout == Layout.SHARDED)
+         {
+         for (final File file : listDataFiles(rootDirectory.toPath()))
+            {
+            try
+               {
+               final String baseFilename = computeBaseFilename(file.getName());
+               if (moveFile(file, createDirectoryForBaseFilename(baseFilename)))
+                  {
+                  numFilesMoved++;
+                  }
+               }
+            catch (IOException e)
+               {
+               LOG.error("DataFileDirectory.migrate(): IOException while trying to create the shard directory for file [" + file + "]", e);
+               }
+            }
+         }
+      else
+         {
+         for (final Path shardDirectory : listShardDirectories())
+            {
+            for (final File file : listDataFiles(shardDirectory))
+               {
+               if (moveFile(file, rootDirectory))
+                  {
+                  numFilesMoved++;
+                  }
+               }
+
+            // remove the shard directory if it's now empty (this will fail harmlessly if it isn't)
+            try
+               {
+               Files.deleteIfExists(shardDirectory);
+               }
+            catch (IOException ignored)
+               {
+               LOG.debug("DataFileDirectory.migrate(): Shard directory [" + shardDirectory + "] is not empty, so it will not be removed.");
+               }
+            }
+         }
+
+      if (numFilesMoved > 0)
+         {
+         final String msg = "Moved " + numFilesMoved + " data file(s) in " + rootDirectory + " to match the " + layout + " directory layout.";
+         LOG.info("DataFileDirectory.migrate(): " + msg);
+         CONSOLE_LOG.info(msg);
+         }
+      return numFilesMoved;
+      }
+
+   @NotNull
+   private String computeShardName(@NotNull final String baseFilename)
+      {
+      final String name = baseFilename.toUpperCase();
+      return (name.length() > shardPrefixLength) ? name.substring(0, shardPrefixLength) : name;
+      }
+
+   private boolean moveFile(@NotNull final File file, @NotNull final File destinationDirectory)
+      {
+      final File destination = new File(destinationDirectory, file.getName());
+      if (destination.exists())
+         {
+         LOG.error("DataFileDirectory.moveFile(): Cannot move file [" + file + "] to [" + destination + "] since the destination already exists.  Skipping.");
+         return false;
+         }
+      try
+         {
+         Files.move(file.toPath(), destination.toPath(), StandardCopyOption.ATOMIC_MOVE);
+         if (LOG.isTraceEnabled())
+            {
+            LOG.trace("DataFileDirectory.moveFile(): moved file [" + file + "] to [" + destination + "]");
+            }
+         return true;
+         }
+      catch (IOException e)
+         {
+         LOG.error("DataFileDirectory.moveFile(): IOException while trying to move file [" + file + "] to [" + destination + "]", e);
+         }
+      return false;
+      }
+
+   /** Returns the regular files directly within the given directory which have any {@link DataFileStatus}. */
+   @NotNull
+   private List<File> listDataFiles(@NotNull final Path directory)
+      {
+      final List<File> files = new ArrayList<File>();
+      listFiles(directory,
+                new DirectoryStream.Filter<Path>()
+                {
+                @Override
+                public boolean accept(final Path path)
+                   {
+                   return Files.isRegularFile(path) && DataFileStatus.getStatusForFilename(path.getFileName().toString().toUpperCase()) != null;
+                   }
+                },
+                files);
+      return files;
+      }
+
+   @NotNull
+   private List<Path> listShardDirectories()
+      {
+      final List<Path> shardDirectories = new ArrayList<Path>();
+      DirectoryStream<Path> stream = null;
+      try
+         {
+         stream = Files.newDirectoryStream(rootDirectory.toPath(),
+                                           new DirectoryStream.Filter<Path>()
+                                           {
+                                           @Override
+                                           public boolean accept(final Path path)
+                                              {
+                                              return SHARD_DIRECTORY_NAME_PATTERN.matcher(path.getFileName().toString()).matches() && Files.isDirectory(path);
+                                              }
+                                           });
+         for (final Path path : stream)
+            {
+            shardDirectories.add(path);
+            }
+         }
+      catch (IOException e)
+         {
+         LOG.error("DataFileDirectory.listShardDirectories(): IOException while listing the shard directories in [" + rootDirectory + "]", e);
+         }
+      finally
+         {
+         closeQuietly(stream);
+         }
+      return shardDirectories;
+      }
+
+   private void listFiles(@NotNull final Path directory, @NotNull final DirectoryStream.Filter<Path> filter, @NotNull final List<File> files)
+      {
+      DirectoryStream<Path> stream = null;
+      try
+         {
+         stream = Files.newDirectoryStream(directory, filter);
+         for (final Path path : stream)
+            {
+            files.add(path.toFile());
+            }
+         }
+      catch (IOException e)
+         {
+         LOG.error("DataFileDirectory.listFiles(): IOException while listing the files in [" + directory + "]", e);
+         }
+      finally
+         {
+         closeQuietly(stream);
+         }
+      }
+
+   private static void closeQuietly(@Nullable final DirectoryStream<Path> stream)
+      {
+      if (stream != null)
+         {
+         try
+            {
+            stream.close();
+            }
+         catch (IOException ignored)
+            {
+            LOG.error("DataFileDirectory.closeQuietly(): IOException while trying to close the DirectoryStream.  Oh well.");
+            }
+         }
+      }
+
+   /** Filters {@link DataFile}s based on their {@link DataFileStatus}. */
+   private static final class DataFileStatusFilter implements DirectoryStream.Filter<Path>
+      {
+      private final DataFileStatus dataFileStatus;
+
+      private DataFileStatusFilter(@NotNull final DataFileStatus dataFileStatus)
+         {
+         this.dataFileStatus = dataFileStatus;
+         }
+
+      @Override
+      public boolean accept(final Path path)
+         {
+         return path != null && path.getFileName().toString().toUpperCase().endsWith(dataFileStatus.getFilenameExtension());
+         }
+      }
+
+   /** Filters {@link DataFile}s based on their base filename. */
+   private static final class BaseFilenameFilter implements DirectoryStream.Filter<Path>
+      {
+      private final String baseFilenameUppercase;
+
+      private BaseFilenameFilter(@NotNull final String baseFilename)
+         {
+         this.baseFilenameUppercase = baseFilename.toUpperCase();
+         }
+
+      @Override
+      public boolean accept(final Path path)
+         {
+         return path != null && baseFilenameUppercase.equals(computeBaseFilename(path.getFileName().toString()).toUpperCase());
+         }
+      }
+   }
@@ -7,7 +7,9 @@ import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import edu.cmu.ri.createlab.util.thread.DaemonThreadFactory;
+import org.apache.log4j.LogSF;
 import org.apache.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -24,7 +26,8 @@ public final class DataFileDownloader
       {
          NO_SUCH_FILE,
          EMPTY_DATA_FILE,
-         DOWNLOAD_FAILED;
+         DOWNLOAD_FAILED,
+         DOWNLOADS_PAUSED;
 
       @Override
       public String toString()
@@ -48,6 +51,10 @@ public final class DataFileDownloader
    private final LoggingDevice device;
    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory(this.getClass() + ".executor"));
    private final Set<EventListener> eventListeners = new HashSet<EventListener>();
+   private final DataFileEventJournal eventJournal = DataFileEventJournal.getInstance();
+   private final DataFileTracer tracer = DataFileTracer.getInstance();
+   private volatile boolean isPaused = false;
+   private volatile long delayBetweenDownloadsInMillis = 0;
    private final Runnable dataFileListRequestRunnable =
          new Runnable()
          {
@@ -96,6 +103,31 @@ public final class DataFileDownloader
       this.device = device;
       }
 
+   /**
+    * Pauses or resumes file downloads.  While paused, queued download tasks don't touch the device, and instead fail
+    * with {@link FailedDataFileDownloadCause#DOWNLOADS_PAUSED}, so the files remain on the device to be downloaded
+    * later.  File list requests and deletes are unaffected.
+    */
+   public void setPaused(final boolean isPaused)
+      {
+      if (this.isPaused != isPaused)
+         {
+         this.isPaused = isPaused;
+         LogSF.info(LOG, "DataFileDownloader.setPaused(): downloads paused = [{}]", isPaused);
+         }
+      }
+
+   public boolean isPaused()
+      {
+      return isPaused;
+      }
+
+   /** Sets the delay to wait before each file download, used to throttle downloads.  A delay of zero disables throttling. */
+   public void setDelayBetweenDownloads(final long delay, @NotNull final TimeUnit timeUnit)
+      {
+      delayBetweenDownloadsInMillis = Math.max(0, timeUnit.toMillis(delay));
+      }
+
    public void submitDataFileListRequestTask()
       {
       LOG.debug("DataFileDownloader.submitDataFileListRequestTask()");
@@ -105,46 +137,63 @@ public final class DataFileDownloader
 
    public void submitDownloadDataFileTask(@Nullable final String filename)
       {
-      if (LOG.isDebugEnabled())
-         {
-         LOG.debug("DataFileDownloader.submitDownloadDataFileTask(" + filename + ")");
-         }
+      LogSF.debug(LOG, "DataFileDownloader.submitDownloadDataFileTask({})", filename);
 
       if (filename != null)
          {
+         final long submitTime = System.nanoTime();
+         final long queueStartTime = tracer.start();
          executor.execute(
                new Runnable()
                {
                @Override
                public void run()
                   {
-                  if (LOG.isInfoEnabled())
-                     {
-                     CONSOLE_LOG.info("Downloading file " + filename + " from device...");
-                     }
+                  tracer.end(DataFileTracer.Span.QUEUE_WAIT, filename, queueStartTime);
+                  final long startTime = System.nanoTime();
+                  eventJournal.record(DataFileEventJournal.Type.DOWNLOAD_STARTED, filename, 0, startTime - submitTime);
+
                   FailedDataFileDownloadCause failureCause;
                   try
                      {
-                     final DataFile dataFile = device.getFile(filename);
+                     final long delayInMillis = delayBetweenDownloadsInMillis;
+                     if (delayInMillis > 0 && !isPaused)
+                        {
+                        try
+                           {
+                           Thread.sleep(delayInMillis);
+                           }
+                        catch (InterruptedException ignored)
+                           {
+                           Thread.currentThread().interrupt();
+                           }
+                        }
 
-                     if (dataFile == null)
+                     // check whether downloads were paused (e.g. because the disk is nearly full) while this task was queued
+                     final boolean wasPaused = isPaused;
+                     final DataFile dataFile = wasPaused ? null : downloadFile(filename);
+
+                     if (wasPaused)
+                        {
+                        LogSF.debug(LOG, "DataFileDownloader.submitDownloadDataFileTask.run(): Downloads are paused, so file [{}] will not be downloaded.", filename);
+                        failureCause = FailedDataFileDownloadCause.DOWNLOADS_PAUSED;
+                        }
+                     else if (dataFile == null)
                         {
                         // the command failed
-                        LOG.debug("DataFileDownloader.submitDownloadDataFileTask.run(): File download failed for file [" + filename + "].");
+                        LogSF.debug(LOG, "DataFileDownloader.submitDownloadDataFileTask.run(): File download failed for file [{}].", filename);
                         failureCause = FailedDataFileDownloadCause.DOWNLOAD_FAILED;
                         }
                      else if (dataFile.isEmpty())
                         {
                         // there's no data available
-                        LOG.debug("DataFileDownloader.submitDownloadDataFileTask.run(): Empty data file [" + filename + "].");
+                        LogSF.debug(LOG, "DataFileDownloader.submitDownloadDataFileTask.run(): Empty data file [{}].", filename);
                         failureCause = FailedDataFileDownloadCause.EMPTY_DATA_FILE;
                         }
                      else
                         {
-                        if (LOG.isDebugEnabled())
-                           {
-                           LOG.debug("DataFileDownloader.submitDownloadDataFileTask.run(): Notifying listeners of download of file [" + filename + "]");
-                           }
+                        LogSF.debug(LOG, "DataFileDownloader.submitDownloadDataFileTask.run(): Notifying listeners of download of file [{}]", filename);
+                        eventJournal.record(DataFileEventJournal.Type.DOWNLOAD_SUCCEEDED, filename, dataFile.getLength(), System.nanoTime() - startTime);
 
                         // success, so notify listeners
                         for (final EventListener listener : eventListeners)
@@ -168,6 +217,8 @@ public final class DataFileDownloader
                      failureCause = FailedDataFileDownloadCause.NO_SUCH_FILE;
                      }
 
+                  eventJournal.record(getEventType(failureCause), filename, 0, System.nanoTime() - startTime);
+
                   // failure, so notify listeners
                   for (final EventListener listener : eventListeners)
                      {
@@ -185,33 +236,65 @@ public final class DataFileDownloader
          }
       }
 
-   public void submitDeleteDataFileFromDeviceTask(@Nullable final String filename)
+   @NotNull
+   private static DataFileEventJournal.Type getEventType(@NotNull final FailedDataFileDownloadCause failureCause)
+      {
+      switch (failureCause)
+         {
+         case NO_SUCH_FILE:
+            return DataFileEventJournal.Type.DOWNLOAD_NO_SUCH_FILE;
+         case EMPTY_DATA_FILE:
+            return DataFileEventJournal.Type.DOWNLOAD_EMPTY;
+         case DOWNLOADS_PAUSED:
+            return DataFileEventJournal.Type.DOWNLOAD_SKIPPED;
+         default:
+            return DataFileEventJournal.Type.DOWNLOAD_FAILED;
+         }
+      }
+
+   @Nullable
+   private DataFile downloadFile(@NotNull final String filename) throws NoSuchFileException
       {
-      if (LOG.isDebugEnabled())
+      if (LOG.isInfoEnabled())
+         {
+         CONSOLE_LOG.info("Downloading file " + filename + " from device...");
+         }
+      final long startTime = tracer.start();
+      try
          {
-         LOG.debug("DataFileDownloader.submitDeleteDataFileFromDeviceTask(" + filename + ")");
+         return device.getFile(filename);
          }
+      finally
+         {
+         tracer.end(DataFileTracer.Span.SERIAL_TRANSFER, filename, startTime);
+         }
+      }
+
+   public void submitDeleteDataFileFromDeviceTask(@Nullable final String filename)
+      {
+      LogSF.debug(LOG, "DataFileDownloader.submitDeleteDataFileFromDeviceTask({})", filename);
 
       if (filename != null)
          {
+         final long queueStartTime = tracer.start();
          executor.execute(
                new Runnable()
                {
                @Override
                public void run()
                   {
+                  tracer.end(DataFileTracer.Span.QUEUE_WAIT, filename, queueStartTime);
                   if (LOG.isInfoEnabled())
                      {
                      CONSOLE_LOG.info("Deleting file " + filename + " from device...");
                      }
+                  final long deleteStartTime = tracer.start();
                   final boolean wasDeleteSuccessful = device.deleteFile(filename);
+                  tracer.end(DataFileTracer.Span.DELETE, filename, deleteStartTime);
 
                   if (wasDeleteSuccessful)
                      {
-                     if (LOG.isDebugEnabled())
-                        {
-                        LOG.debug("DataFileDownloader.submitDeleteDataFileFromDeviceTask.run(): file [" + filename + "] successfully deleted from device.");
-                        }
+                     LogSF.debug(LOG, "DataFileDownloader.submitDeleteDataFileFromDeviceTask.run(): file [{}] successfully deleted from device.", filename);
                      }
                   else
                      {
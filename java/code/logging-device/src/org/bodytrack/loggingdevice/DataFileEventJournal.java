@@ -0,0 +1,416 @@
+package org.bodytrack.loggingdevice;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * <p>
+ * <code>DataFileEventJournal</code> is a compact, binary journal of data file lifecycle events (serial transfers,
+ * downloads, saves, uploads, deletes, etc).  It exists so that the lifecycle of files can be analyzed after the fact
+ * without having to parse the log files, and is cheap enough to leave on all the time: recording an event is a handful
+ * of writes into a memory-mapped buffer, with no formatting, no allocation, and no system calls.
+ * </p>
+ * <p>
+ * The journal is written to a sequence of fixed-size segment files in the {@link #DIRECTORY_SYSTEM_PROPERTY journal
+ * directory}.  Each segment starts with a {@link #SEGMENT_HEADER_LENGTH header} (the {@link #SEGMENT_MAGIC magic number}
+ * and the {@link #FORMAT_VERSION format version}) followed by length-prefixed records.  Each record consists of:
+ * </p>
+ * <ul>
+ *    <li>the length of the rest of the record (<code>int</code>)</li>
+ *    <li>the time the event was recorded, in epoch milliseconds (<code>long</code>)</li>
+ *    <li>the {@link Type#getId() event type id} (<code>byte</code>)</li>
+ *    <li>the file key, which is the base filename parsed as a hex timestamp (see
+ *        {@link DownloadRetryTable#computeKey(String)}), or {@link #NO_FILE_KEY} if the event isn't about a single file
+ *        (<code>long</code>)</li>
+ *    <li>the number of bytes involved (or, for file list events, the number of files) (<code>long</code>)</li>
+ *    <li>the duration of the operation in nanoseconds, or <code>0</code> if not applicable (<code>long</code>)</li>
+ * </ul>
+ * <p>
+ * The length prefix is written last, so a record is only visible once it's complete, and the unused remainder of a
+ * segment is all zeros.  Readers stop at the first zero length, and skip any trailing fields they don't understand.  A
+ * new segment is started whenever the gateway starts and whenever the current one fills up.  Only the most recent
+ * {@link #MAX_NUM_SEGMENTS_SYSTEM_PROPERTY few segments} are kept.  Use {@link DataFileEventJournalDecoder} to convert
+ * segments to text.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class DataFileEventJournal
+   {
+   private static final Logger LOG = Logger.getLogger(DataFileEventJournal.class);
+
+   public static final String ENABLED_SYSTEM_PROPERTY = "org.bodytrack.loggingdevice.DataFileEventJournal.enabled";
+   public static final String DIRECTORY_SYSTEM_PROPERTY = "org.bodytrack.loggingdevice.DataFileEventJournal.directory";
+   public static final String SEGMENT_SIZE_IN_KILOBYTES_SYSTEM_PROPERTY = "org.bodytrack.loggingdevice.DataFileEventJournal.segment-size-in-kilobytes";
+   public static final String MAX_NUM_SEGMENTS_SYSTEM_PROPERTY = "org.bodytrack.loggingdevice.DataFileEventJournal.max-num-segments";
+
+   private static final File DEFAULT_DIRECTORY = new File(LoggingDeviceGatewayConstants.FilePaths.BODYTRACK_HOME_DIRECTORY, "EventJournal");
+   private static final int DEFAULT_SEGMENT_SIZE_IN_KILOBYTES = 4 * 1024;
+   private static final int DEFAULT_MAX_NUM_SEGMENTS = 16;
+
+   /** The magic number at the start of every segment ("BTEJ"). */
+   static final int SEGMENT_MAGIC = 0x42544A45;
+   static final int FORMAT_VERSION = 1;
+   static final int SEGMENT_HEADER_LENGTH = 8;
+
+   /** Length of a record, not including the length prefix. */
+   static final int RECORD_BODY_LENGTH = 8 + 1 + 8 + 8 + 8;
+   static final int RECORD_LENGTH = 4 + RECORD_BODY_LENGTH;
+
+   /** Size of the buffer of zeros used to preallocate segments. */
+   private static final int PREALLOCATION_BUFFER_SIZE = 64 * 1024;
+
+   static final String SEGMENT_FILENAME_PREFIX = "events-";
+   static final String SEGMENT_FILENAME_EXTENSION = ".btj";
+
+   /** File key used for events which aren't about a single file.  Valid file keys are never negative. */
+   public static final long NO_FILE_KEY = -1;
+
+   private static final boolean IS_ENABLED = Boolean.parseBoolean(System.getProperty(ENABLED_SYSTEM_PROPERTY, "true"));
+   private static final File DIRECTORY;
+   private static final int SEGMENT_SIZE_IN_BYTES;
+   private static final int MAX_NUM_SEGMENTS;
+
+   static
+      {
+      final String directoryStr = System.getProperty(DIRECTORY_SYSTEM_PROPERTY);
+      DIRECTORY = (directoryStr == null || directoryStr.trim().length() == 0) ? DEFAULT_DIRECTORY : new File(directoryStr.trim());
+      SEGMENT_SIZE_IN_BYTES = Math.max(64, Math.min(1024 * 1024, SystemPropertyUtils.getIntegerSystemProperty(SEGMENT_SIZE_IN_KILOBYTES_SYSTEM_PROPERTY, DEFAULT_SEGMENT_SIZE_IN_KILOBYTES))) * 1024;
+      MAX_NUM_SEGMENTS = Math.max(1, SystemPropertyUtils.getIntegerSystemProperty(MAX_NUM_SEGMENTS_SYSTEM_PROPERTY, DEFAULT_MAX_NUM_SEGMENTS));
+
+      if (IS_ENABLED)
+         {
+         LOG.info("DataFileEventJournal: journaling file lifecycle events to [" + DIRECTORY + "], keeping up to [" + MAX_NUM_SEGMENTS + "] segment(s) of [" + (SEGMENT_SIZE_IN_BYTES / 1024) + "] KB.");
+         }
+      else
+         {
+         LOG.info("DataFileEventJournal: journaling of file lifecycle events is disabled.");
+         }
+      }
+
+   public static enum Type
+      {
+         /** The device returned the list of available files.  The count is the number of files. */
+         DEVICE_LIST_FILES(1),
+         DEVICE_LIST_FILES_FAILED(2),
+
+         /** A file was transferred over the serial link.  The count is the size of the file. */
+         DEVICE_GET_FILE(3),
+         DEVICE_GET_FILE_FAILED(4),
+         DEVICE_NO_SUCH_FILE(5),
+         DEVICE_DELETE_FILE(6),
+         DEVICE_DELETE_FILE_FAILED(7),
+         DEVICE_PING_FAILED(8),
+
+         /** A download task started running.  The duration is the time it spent queued. */
+         DOWNLOAD_STARTED(20),
+         DOWNLOAD_SUCCEEDED(21),
+         DOWNLOAD_FAILED(22),
+         DOWNLOAD_EMPTY(23),
+         DOWNLOAD_NO_SUCH_FILE(24),
+         DOWNLOAD_SKIPPED(25),
+
+         /** A downloaded file was written to disk.  The duration is the time taken to write and rename it. */
+         FILE_SAVED(40),
+         FILE_CHECKSUM_FAILED(41),
+         FILE_UPLOAD_QUEUED(42),
+         FILE_UPLOADED(43),
+         FILE_CORRUPT_DATA(44),
+         FILE_UPLOAD_RETRY_SCHEDULED(45),
+
+         /** An upload task started running.  The duration is the time it spent queued. */
+         UPLOAD_STARTED(60),
+         UPLOAD_RESPONSE(61),
+         UPLOAD_NO_RESPONSE(62),
+         UPLOAD_CONNECT_TIMEOUT(63),
+         UPLOAD_SOCKET_TIMEOUT(64),
+         UPLOAD_FAILED(65),
+
+         /** An upload was aborted for missing its deadline or sending too slowly.  The count is the bytes sent. */
+         UPLOAD_ABORTED(66),
+
+         /** The server couldn't handle a compressed upload, so it will be retried uncompressed.  The count is the file size. */
+         UPLOAD_COMPRESSION_REJECTED(67),
+
+         /** The upload server's reachability changed.  The duration is the time taken by the probe which noticed. */
+         SERVER_REACHABLE(80),
+         SERVER_UNREACHABLE(81);
+
+      private static final Type[] TYPES_BY_ID = new Type[128];
+
+      static
+         {
+         for (final Type type : Type.values())
+            {
+            TYPES_BY_ID[type.id] = type;
+            }
+         }
+
+      /** Returns the <code>Type</code> with the given id, or <code>null</code> if there isn't one. */
+      @Nullable
+      public static Type findById(final byte id)
+         {
+         return (id >= 0) ? TYPES_BY_ID[id] : null;
+         }
+
+      private final byte id;
+
+      private Type(final int id)
+         {
+         this.id = (byte)id;
+         }
+
+      /** Returns the id stored in journal records.  Ids are permanent, so that old journals can always be decoded. */
+      public byte getId()
+         {
+         return id;
+         }
+      }
+
+   private static final DataFileEventJournal INSTANCE = new DataFileEventJournal();
+
+   @NotNull
+   public static DataFileEventJournal getInstance()
+      {
+      return INSTANCE;
+      }
+
+   /** Returns the directory holding the journal segments. */
+   @NotNull
+   public static File getDirectory()
+      {
+      return DIRECTORY;
+      }
+
+   /** Returns <code>true</code> if the given file is named like a journal segment. */
+   static boolean isSegment(@NotNull final File file)
+      {
+      final String name = file.getName();
+      return name.startsWith(SEGMENT_FILENAME_PREFIX) && name.endsWith(SEGMENT_FILENAME_EXTENSION) && file.isFile();
+      }
+
+   /** Returns the journal segments in the given directory, oldest first. */
+   @NotNull
+   static File[] listSegments(@NotNull final File directory)
+      {
+      final File[] files = directory.listFiles();
+      if (files == null)
+         {
+         return new File[0];
+         }
+
+      int numSegments = 0;
+      for (final File file : files)
+         {
+         if (isSegment(file))
+            {
+            files[numSegments++] = file;
+            }
+         }
+      final File[] segments = Arrays.copyOf(files, numSegments);
+
+      // segment names are the creation time in fixed-width hex, so they sort chronologically
+      Arrays.sort(segments);
+      return segments;
+      }
+
+   /**
+    * Returns the base filename for the given file key, or <code>"-"</code> for {@link #NO_FILE_KEY}.  Keys for
+    * filenames which aren't hex timestamps can't be turned back into the filename, so they're formatted as a hex number
+    * prefixed with a <code>#</code>.
+    */
+   @NotNull
+   static String formatFileKey(final long fileKey)
+      {
+      if (fileKey == NO_FILE_KEY)
+         {
+         return "-";
+         }
+      if (fileKey <= 0xffffffffL)
+         {
+         // the base filename, which is a hex timestamp
+         return String.format("%08X", fileKey);
+         }
+      return "#" + Long.toHexString(fileKey);
+      }
+
+   /**
+    * Becomes <code>false</code> if the journal fails to open or write a segment, so that a broken or full disk doesn't
+    * spam the log or break the callers.
+    */
+   private volatile boolean isWritable = IS_ENABLED;
+
+   @Nullable
+   private MappedByteBuffer buffer = null;
+
+   private DataFileEventJournal()
+      {
+      // private to prevent instantiation
+      }
+
+   public boolean isEnabled()
+      {
+      return isWritable;
+      }
+
+   /**
+    * Records an event about the file with the given <code>filename</code> (which may be <code>null</code> if the event
+    * isn't about a single file).  Does nothing if the journal is disabled.
+    */
+   public void record(@NotNull final Type type, @Nullable final String filename, final long count, final long durationInNanos)
+      {
+      if (isWritable)
+         {
+         record(type, (filename == null) ? NO_FILE_KEY : DownloadRetryTable.computeKey(filename), count, durationInNanos);
+         }
+      }
+
+   private synchronized void record(@NotNull final Type type, final long fileKey, final long count, final long durationInNanos)
+      {
+      if (!isWritable)
+         {
+         return;
+         }
+
+      // Recording must never fail the download, upload and manager tasks which call it.  In particular, writing to a
+      // mapped page which the filesystem can't back (e.g. because the disk is full) raises SIGBUS, which the JVM
+      // reports as an InternalError from the put.
+      try
+         {
+         if (buffer == null || buffer.remaining() < RECORD_LENGTH)
+            {
+            buffer = openNextSegment();
+            if (buffer == null)
+               {
+               isWritable = false;
+               return;
+               }
+            }
+
+         // write the body first and the length last, so that readers never see a partial record
+         final int position = buffer.position();
+         buffer.position(position + 4);
+         buffer.putLong(System.currentTimeMillis());
+         buffer.put(type.getId());
+         buffer.putLong(fileKey);
+         buffer.putLong(count);
+         buffer.putLong(durationInNanos);
+         buffer.putInt(position, RECORD_BODY_LENGTH);
+         }
+      catch (RuntimeException e)
+         {
+         disable(e);
+         }
+      catch (Error e)
+         {
+         disable(e);
+         }
+      }
+
+   private void disable(@NotNull final Throwable cause)
+      {
+      isWritable = false;
+      buffer = null;
+      LOG.error("DataFileEventJournal.disable(): Failed to write to the journal segment.  Journaling will be disabled.", cause);
+      }
+
+   /**
+    * Flushes the current segment to disk.  It's not necessary to call this for the records to survive a crash of the
+    * gateway, only a crash of the OS.
+    */
+   public synchronized void force()
+      {
+      if (buffer != null)
+         {
+         try
+            {
+            buffer.force();
+            }
+         catch (Exception e)
+            {
+            LOG.error("DataFileEventJournal.force(): Exception while flushing the journal segment", e);
+            }
+         }
+      }
+
+   @Nullable
+   private MappedByteBuffer openNextSegment()
+      {
+      force();
+
+      //noinspection ResultOfMethodCallIgnored
+      DIRECTORY.mkdirs();
+
+      // delete the oldest segments, leaving room for the new one
+      final File[] segments = listSegments(DIRECTORY);
+      for (int i = 0; i < segments.length - (MAX_NUM_SEGMENTS - 1); i++)
+         {
+         if (!segments[i].delete())
+            {
+            LOG.error("DataFileEventJournal.openNextSegment(): Failed to delete old journal segment [" + segments[i] + "]");
+            }
+         }
+
+      long timestamp = System.currentTimeMillis();
+      File segmentFile = new File(DIRECTORY, String.format("%s%016X%s", SEGMENT_FILENAME_PREFIX, timestamp, SEGMENT_FILENAME_EXTENSION));
+      while (segmentFile.exists())
+         {
+         segmentFile = new File(DIRECTORY, String.format("%s%016X%s", SEGMENT_FILENAME_PREFIX, ++timestamp, SEGMENT_FILENAME_EXTENSION));
+         }
+
+      RandomAccessFile randomAccessFile = null;
+      boolean isOpened = false;
+      try
+         {
+         randomAccessFile = new RandomAccessFile(segmentFile, "rw");
+
+         // Write out the whole segment before mapping it, so that its disk blocks are allocated now.  If the disk is full,
+         // that fails here with an IOException, rather than later with a SIGBUS when a record is written to the mapping.
+         final byte[] zeros = new byte[Math.min(PREALLOCATION_BUFFER_SIZE, SEGMENT_SIZE_IN_BYTES)];
+         for (int numBytesWritten = 0; numBytesWritten < SEGMENT_SIZE_IN_BYTES; numBytesWritten += zeros.length)
+            {
+            randomAccessFile.write(zeros, 0, Math.min(zeros.length, SEGMENT_SIZE_IN_BYTES - numBytesWritten));
+            }
+
+         final MappedByteBuffer mappedByteBuffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE_IN_BYTES);
+         mappedByteBuffer.putInt(SEGMENT_MAGIC);
+         mappedByteBuffer.putInt(FORMAT_VERSION);
+         LOG.debug("DataFileEventJournal.openNextSegment(): Opened journal segment [" + segmentFile + "]");
+         isOpened = true;
+         return mappedByteBuffer;
+         }
+      catch (IOException e)
+         {
+         LOG.error("DataFileEventJournal.openNextSegment(): IOException while trying to open journal segment [" + segmentFile + "].  Journaling will be disabled.", e);
+         }
+      finally
+         {
+         // the mapping remains valid after the file is closed
+         if (randomAccessFile != null)
+            {
+            try
+               {
+               randomAccessFile.close();
+               }
+            catch (IOException ignored)
+               {
+               LOG.error("DataFileEventJournal.openNextSegment(): IOException while trying to close the RandomAccessFile.  Oh well.");
+               }
+            }
+
+         // don't leave a partially preallocated segment behind
+         if (!isOpened && segmentFile.exists() && !segmentFile.delete())
+            {
+            LOG.error("DataFileEventJournal.openNextSegment(): Failed to delete journal segment [" + segmentFile + "]");
+            }
+         }
+      return null;
+      }
+   }
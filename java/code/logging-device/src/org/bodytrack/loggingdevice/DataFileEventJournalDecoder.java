@@ -0,0 +1,155 @@
+package org.bodytrack.loggingdevice;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * <p>
+ * <code>DataFileEventJournalDecoder</code> is a command line tool which prints the records in
+ * {@link DataFileEventJournal} segments as tab-delimited text, one record per line.  Give it any number of segment
+ * files and/or directories of segments, or nothing to decode the default journal directory.  For example:
+ * </p>
+ * <pre>
+ *    $ java -cp ./code/applications/dist/bodytrack-applications.jar org.bodytrack.loggingdevice.DataFileEventJournalDecoder ~/BodyTrack/EventJournal
+ * </pre>
+ * <p>
+ * Each line contains the time, event type, base filename, count, and duration in milliseconds.  Files whose names aren't
+ * hex timestamps can't be recovered from their key, so they're printed as the key, prefixed with a <code>#</code>.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class DataFileEventJournalDecoder
+   {
+   public static void main(final String[] args)
+      {
+      final DataFileEventJournalDecoder decoder = new DataFileEventJournalDecoder(System.out);
+      boolean wasSuccessful = true;
+      if (args.length == 0)
+         {
+         wasSuccessful = decoder.decode(DataFileEventJournal.getDirectory());
+         }
+      for (final String arg : args)
+         {
+         wasSuccessful &= decoder.decode(new File(arg));
+         }
+      System.exit(wasSuccessful ? 0 : 1);
+      }
+
+   @NotNull
+   private final PrintStream out;
+   private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+   private final Date date = new Date();
+
+   private DataFileEventJournalDecoder(@NotNull final PrintStream out)
+      {
+      this.out = out;
+      }
+
+   /** Decodes the given segment, or all segments in the given directory.  Returns <code>false</code> on failure. */
+   private boolean decode(@NotNull final File file)
+      {
+      if (file.isDirectory())
+         {
+         boolean wasSuccessful = true;
+         for (final File segment : DataFileEventJournal.listSegments(file))
+            {
+            wasSuccessful &= decodeSegment(segment);
+            }
+         return wasSuccessful;
+         }
+      return decodeSegment(file);
+      }
+
+   private boolean decodeSegment(@NotNull final File segment)
+      {
+      DataInputStream is = null;
+      try
+         {
+         is = new DataInputStream(new BufferedInputStream(new FileInputStream(segment)));
+         final int magic = is.readInt();
+         final int version = is.readInt();
+         if (magic != DataFileEventJournal.SEGMENT_MAGIC)
+            {
+            System.err.println("File " + segment + " is not a journal segment.");
+            return false;
+            }
+         if (version > DataFileEventJournal.FORMAT_VERSION)
+            {
+            System.err.println("Journal segment " + segment + " has unsupported format version " + version + ".");
+            return false;
+            }
+
+         while (true)
+            {
+            final int length;
+            try
+               {
+               length = is.readInt();
+               }
+            catch (EOFException ignored)
+               {
+               // the segment was completely full
+               return true;
+               }
+            if (length == 0)
+               {
+               // end of the records written so far
+               return true;
+               }
+            if (length < DataFileEventJournal.RECORD_BODY_LENGTH)
+               {
+               System.err.println("Journal segment " + segment + " has a record with invalid length " + length + ".");
+               return false;
+               }
+
+            final long timestamp = is.readLong();
+            final byte typeId = is.readByte();
+            final long fileKey = is.readLong();
+            final long count = is.readLong();
+            final long durationInNanos = is.readLong();
+            is.skipBytes(length - DataFileEventJournal.RECORD_BODY_LENGTH);
+
+            date.setTime(timestamp);
+            final DataFileEventJournal.Type type = DataFileEventJournal.Type.findById(typeId);
+            out.printf("%s\t%s\t%s\t%d\t%.3f%n",
+                       dateFormat.format(date),
+                       (type == null) ? "UNKNOWN_" + typeId : type.name(),
+                       DataFileEventJournal.formatFileKey(fileKey),
+                       count,
+                       durationInNanos / 1000000.0);
+            }
+         }
+      catch (EOFException ignored)
+         {
+         System.err.println("Journal segment " + segment + " is truncated.");
+         }
+      catch (IOException e)
+         {
+         System.err.println("Failed to read journal segment " + segment + ": " + e.getMessage());
+         }
+      finally
+         {
+         if (is != null)
+            {
+            try
+               {
+               is.close();
+               }
+            catch (IOException ignored)
+               {
+               // nothing we can do
+               }
+            }
+         }
+      return false;
+      }
+   }
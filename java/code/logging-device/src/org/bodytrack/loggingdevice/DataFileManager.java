@@ -4,8 +4,8 @@ import java.io.BufferedOutputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.HashMap;
@@ -20,6 +20,7 @@ import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import edu.cmu.ri.createlab.util.thread.DaemonThreadFactory;
 import org.apache.log4j.Level;
+import org.apache.log4j.LogSF;
 import org.apache.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -27,15 +28,26 @@ import org.jetbrains.annotations.Nullable;
 /**
  * @author Chris Bartley (bartley@cmu.edu)
  */
-public final class DataFileManager implements DataFileUploader.EventListener, DataFileDownloader.EventListener
+public final class DataFileManager implements DataFileUploader.EventListener, DataFileDownloader.EventListener, DiskSpaceGovernor.EventListener
    {
    private static final Logger LOG = Logger.getLogger(DataFileManager.class);
    private static final Logger CONSOLE_LOG = Logger.getLogger("ConsoleLog");
 
    private static final int NUM_DOWNLOAD_RETRIES_FOR_FAILED_CHECKSUM = 10;
+   private static final int DELAY_IN_SECONDS_BETWEEN_DOWNLOADS_WHEN_DISK_SPACE_IS_LOW = 10;
 
    @NotNull
-   private final File dataFileDirectory;
+   private final DataFileDirectory dataFileDirectory;
+
+   @NotNull
+   private final DataFileArchiver dataFileArchiver;
+
+   @NotNull
+   private final DiskSpaceGovernor diskSpaceGovernor;
+
+   /** The disk space state as of the last event from the {@link #diskSpaceGovernor}.  Only accessed on its thread. */
+   @NotNull
+   private DiskSpaceGovernor.State previousDiskSpaceState = DiskSpaceGovernor.State.NORMAL;
 
    @Nullable
    private DataFileUploader dataFileUploader = null;
@@ -46,8 +58,24 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
    private boolean isRunning = false;
    private boolean hasBeenShutdown = false;
 
-   private final Lock lock = new ReentrantLock();
-   private final Map<String, Integer> retryDownloadCountMap = new HashMap<String, Integer>();
+   /** Number of locks among which the per-file locks are striped.  Must be a power of two. */
+   private static final int NUM_FILE_LOCK_STRIPES = 64;
+
+   /** Guards startup and shutdown. */
+   private final Lock lifecycleLock = new ReentrantLock();
+
+   /**
+    * Locks guarding the files on disk, striped by base filename so that operations on independent files (e.g. a save
+    * for one file and an upload completion for another) can proceed in parallel.  Only one stripe is ever held at a
+    * time, so there's no risk of deadlock between stripes.
+    *
+    * @see #getFileLock(String)
+    */
+   private final Lock[] fileLocks = new Lock[NUM_FILE_LOCK_STRIPES];
+
+   private final DownloadRetryTable downloadRetryTable = new DownloadRetryTable();
+   private final DataFileEventJournal eventJournal = DataFileEventJournal.getInstance();
+   private final DataFileTracer tracer = DataFileTracer.getInstance();
    private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(10, new DaemonThreadFactory(this.getClass() + ".executor"));
 
    private final Runnable submitFileListDownloadRunnable =
@@ -91,7 +119,21 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
       {
       this.dataFileUploader = dataFileUploader;
       this.dataFileDownloader = dataFileDownloader;
-      this.dataFileDirectory = LoggingDeviceGatewayConstants.FilePaths.getDeviceDataDirectory(dataStoreServerConfig, loggingDeviceConfig);
+      this.dataFileDirectory = new DataFileDirectory(LoggingDeviceGatewayConstants.FilePaths.getDeviceDataDirectory(dataStoreServerConfig, loggingDeviceConfig));
+      this.dataFileArchiver = new DataFileArchiver(dataFileDirectory,
+                                                   new DataFileArchiver.FileLockProvider()
+                                                   {
+                                                   @NotNull
+                                                   @Override
+                                                   public Lock getFileLock(@NotNull final String baseFilename)
+                                                      {
+                                                      return DataFileManager.this.getFileLock(baseFilename);
+                                                      }
+                                                   });
+      this.diskSpaceGovernor = new DiskSpaceGovernor(dataFileDirectory.getRootDirectory());
+
+      // register self as a listener to the disk space governor so we can throttle downloads when disk space runs low
+      diskSpaceGovernor.addEventListener(this);
 
       // register self as a listener to the uploader so we can get notified when uploads are complete
       if (dataFileUploader != null)
@@ -109,25 +151,59 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
          {
          statistics.put(category, new AtomicInteger(0));
          }
+
+      for (int i = 0; i < fileLocks.length; i++)
+         {
+         fileLocks[i] = new ReentrantLock();
+         }
+      }
+
+   /** Returns the lock guarding files with the given base filename (compared case-insensitively). */
+   @NotNull
+   private Lock getFileLock(@NotNull final String baseFilename)
+      {
+      // spread the hash a bit, since base filenames which are sequential timestamps tend to have similar hash codes
+      int hash = baseFilename.toUpperCase().hashCode();
+      hash ^= (hash >>> 16);
+      return fileLocks[hash & (NUM_FILE_LOCK_STRIPES - 1)];
+      }
+
+   @NotNull
+   private Lock getFileLock(@NotNull final File file)
+      {
+      return getFileLock(DataFileDirectory.computeBaseFilename(file.getName()));
+      }
+
+   /** Acquires the given file lock, tracing the time spent waiting for it. */
+   private void lockFile(@NotNull final Lock fileLock, @NotNull final String filename)
+      {
+      final long startTime = tracer.start();
+      fileLock.lock();  // block until condition holds
+      tracer.end(DataFileTracer.Span.FILE_LOCK_WAIT, filename, startTime);
       }
 
    public void startup()
       {
-      lock.lock();  // block until condition holds
+      lifecycleLock.lock();  // block until condition holds
       try
          {
          if (!isRunning && !hasBeenShutdown)
             {
             isRunning = true;
 
+            // Move any files written under a different directory layout to where the current layout expects them.  This
+            // is done before any downloads or uploads are submitted, so no files can be saved or renamed while they're
+            // being moved.
+            dataFileDirectory.migrate();
+
             // Clean up files in data file directory, in case the program was terminated before while an upload was in
             // progress We'll simply rename any files with the {@link DataFileStatus#UPLOADING} extension so that they
             // have the default extension.
-            final File[] filesInUploadingState = dataFileDirectory.listFiles(new DataFileStatusFilenameFilter(DataFileStatus.UPLOADING));
+            final List<File> filesInUploadingState = dataFileDirectory.listFiles(DataFileStatus.UPLOADING);
 
-            if (filesInUploadingState != null && filesInUploadingState.length > 0)
+            if (!filesInUploadingState.isEmpty())
                {
-               final String msg = "Found " + filesInUploadingState.length + " local file(s) which were being uploaded when the program was last killed.  Renaming them so that they will get uploaded again.";
+               final String msg = "Found " + filesInUploadingState.size() + " local file(s) which were being uploaded when the program was last killed.  Renaming them so that they will get uploaded again.";
                LOG.info("DataFileManager.startup(): " + msg);
                CONSOLE_LOG.info(msg);
                for (final File file : filesInUploadingState)
@@ -139,12 +215,15 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
             //  If the uploader is non-null, then run through all existing downloaded files and kick off an upload job for each one
             if (dataFileUploader != null)
                {
+               // start watching the upload server's reachability, so that uploads are held while it's unreachable
+               dataFileUploader.startup();
+
                // get the list of all downloaded files
-               final File[] filesReadyForUpload = dataFileDirectory.listFiles(new DataFileStatusFilenameFilter(DataFileStatus.DOWNLOADED));
+               final List<File> filesReadyForUpload = dataFileDirectory.listFiles(DataFileStatus.DOWNLOADED);
 
-               if (filesReadyForUpload != null && filesReadyForUpload.length > 0)
+               if (!filesReadyForUpload.isEmpty())
                   {
-                  final String msg = "Found " + filesReadyForUpload.length + " local file(s) to upload.";
+                  final String msg = "Found " + filesReadyForUpload.size() + " local file(s) to upload.";
                   LOG.info("DataFileManager.startup(): " + msg);
                   CONSOLE_LOG.info(msg);
                   for (final File file : filesReadyForUpload)
@@ -162,6 +241,12 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
 
             // schedule the command to get the list of files from the device, which will reschedule itself upon completion
             scheduleNextFileListDownload(0, TimeUnit.SECONDS);
+
+            // start periodic archiving of uploaded files (does nothing if archiving is disabled)
+            dataFileArchiver.startup();
+
+            // start watching the usable disk space
+            diskSpaceGovernor.startup();
             }
          else
             {
@@ -170,7 +255,7 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
          }
       finally
          {
-         lock.unlock();
+         lifecycleLock.unlock();
          }
       }
 
@@ -191,7 +276,7 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
       {
       LOG.debug("DataFileManager.shutdown()");
 
-      lock.lock();  // block until condition holds
+      lifecycleLock.lock();  // block until condition holds
       try
          {
          if (isRunning)
@@ -199,6 +284,13 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
             isRunning = false;
             hasBeenShutdown = true;
 
+            diskSpaceGovernor.shutdown();
+            dataFileArchiver.shutdown();
+            if (dataFileUploader != null)
+               {
+               dataFileUploader.shutdown();
+               }
+
             // shut down the executor
             try
                {
@@ -207,20 +299,19 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
                LOG.debug("DataFileManager.shutdown(): Unexecuted tasks: " + (unexecutedTasks == null ? 0 : unexecutedTasks.size()));
                LOG.debug("DataFileManager.shutdown(): Waiting up to 30 seconds for the executor to shutdown...");
                final boolean terminatedNormally = executor.awaitTermination(30, TimeUnit.SECONDS);
-               if (LOG.isDebugEnabled())
-                  {
-                  LOG.debug("DataFileManager.shutdown(): Executor successfully shutdown (timed out = " + !terminatedNormally + ")");
-                  }
+               LogSF.debug(LOG, "DataFileManager.shutdown(): Executor successfully shutdown (timed out = {})", !terminatedNormally);
                }
             catch (Exception e)
                {
                LOG.error("DataFileManager.shutdown(): Exception while trying to shut down the executor", e);
                }
+
+            eventJournal.force();
             }
          }
       finally
          {
-         lock.unlock();
+         lifecycleLock.unlock();
          }
       }
 
@@ -231,8 +322,9 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
          final File fileToUpload = changeFileExtension(file, DataFileStatus.DOWNLOADED.getFilenameExtension(), DataFileStatus.UPLOADING.getFilenameExtension());
          if (fileToUpload != null)
             {
-            LOG.debug("DataFileManager.submitUploadFileTask(): Submitting file [" + fileToUpload.getName() + "] for uploading...");
+            LogSF.debug(LOG, "DataFileManager.submitUploadFileTask(): Submitting file [{}] for uploading...", fileToUpload.getName());
             dataFileUploader.submitUploadFileTask(fileToUpload, file.getName());
+            eventJournal.record(DataFileEventJournal.Type.FILE_UPLOAD_QUEUED, file.getName(), fileToUpload.length(), 0);
 
             // update statistics
             statistics.get(StatsCategory.UPLOADS_REQUESTED).incrementAndGet();
@@ -248,6 +340,12 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
       {
       if (dataFileDownloader != null)
          {
+         if (DiskSpaceGovernor.State.CRITICAL.equals(diskSpaceGovernor.getState()))
+            {
+            LogSF.debug(LOG, "DataFileManager.submitDownloadDataFileTask(): Not submitting a task to download file [{}] since disk space is critically low.", filename);
+            return;
+            }
+
          dataFileDownloader.submitDownloadDataFileTask(filename);
 
          // update statistics
@@ -269,17 +367,13 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
    @Override
    public void handleFileUploadedEvent(@NotNull final File uploadedFile, @Nullable final DataFileUploadResponse uploadResponse)
       {
-      LOG.debug("DataFileManager.handleFileUploadedEvent(" + uploadedFile + ", " + uploadResponse + ")");
+      LogSF.debug(LOG, "DataFileManager.handleFileUploadedEvent({}, {})", uploadedFile, uploadResponse);
 
       if (DataFileStatus.UPLOADING.hasStatus(uploadedFile))
          {
-         if (LOG.isDebugEnabled())
-            {
-            if (LOG.isDebugEnabled())
-               {
-               LOG.debug("DataFileManager.handleFileUploadedEvent(): file [" + uploadedFile + "], response = [" + uploadResponse + "]");
-               }
-            }
+         LogSF.debug(LOG, "DataFileManager.handleFileUploadedEvent(): file [{}], response = [{}]", uploadedFile, uploadResponse);
+
+         final Lock fileLock = getFileLock(uploadedFile);
 
          if (uploadResponse == null)
             {
@@ -289,13 +383,15 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
             // If the response was null, then a problem occurred during upload, so just rename the file and return it
             // back to the pool of uploadable files.  Also submit a new upload job for it.
 
-            LOG.info("DataFileManager.handleFileUploadedEvent(): Upload failure for file [" + uploadedFile.getName() + "].  Renaming it back to the default and will try again later.");
+            LogSF.info(LOG, "DataFileManager.handleFileUploadedEvent(): Upload failure for file [{}].  Renaming it back to the default and will try again later.", uploadedFile.getName());
 
-            lock.lock();  // block until condition holds
+            lockFile(fileLock, uploadedFile.getName());
             try
                {
                // change the extension back to the default
+               final long renameStartTime = tracer.start();
                final File defaultFilename = changeFileExtension(uploadedFile, DataFileStatus.UPLOADING.getFilenameExtension(), DataFileStatus.DOWNLOADED.getFilenameExtension());
+               tracer.end(DataFileTracer.Span.RENAME, uploadedFile.getName(), renameStartTime);
                if (defaultFilename == null)
                   {
                   LOG.error("DataFileManager.handleFileUploadedEvent(): Failed to rename file [" + uploadedFile + "] back to the default name.  Aborting.");
@@ -303,19 +399,19 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
                   }
                else
                   {
-                  if (LOG.isDebugEnabled())
-                     {
-                     LOG.debug("DataFileManager.handleFileUploadedEvent(): Renamed file [" + uploadedFile + "] to [" + defaultFilename + "].  Will retry upload in 1 minute.");
-                     }
+                  LogSF.debug(LOG, "DataFileManager.handleFileUploadedEvent(): Renamed file [{}] to [{}].  Will retry upload in 1 minute.", uploadedFile, defaultFilename);
+                  eventJournal.record(DataFileEventJournal.Type.FILE_UPLOAD_RETRY_SCHEDULED, defaultFilename.getName(), defaultFilename.length(), 0);
                   CONSOLE_LOG.error("Failed to upload data file " + defaultFilename.getName() + ".  Will retry upload in 1 minute.");
 
                   // schedule the upload again
+                  final long retryDelayStartTime = tracer.start();
                   executor.schedule(
                         new Runnable()
                         {
                         @Override
                         public void run()
                            {
+                           tracer.end(DataFileTracer.Span.UPLOAD_RETRY_DELAY, defaultFilename.getName(), retryDelayStartTime);
                            submitUploadFileTask(defaultFilename);
                            }
                         },
@@ -325,7 +421,7 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
                }
             finally
                {
-               lock.unlock();
+               fileLock.unlock();
                }
             }
          else
@@ -339,14 +435,13 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
                statistics.get(StatsCategory.UPLOADS_FAILED).incrementAndGet();
 
                // we had a failure, so just rename the local file to mark it as having corrupt data
-               if (LOG.isDebugEnabled())
-                  {
-                  LOG.debug("DataFileManager.handleFileUploadedEvent(): num failed binrecs is [" + numFailedBinRecs + "] and errors is [" + errors + "], so mark the file as having corrupt data");
-                  }
-               lock.lock();  // block until condition holds
+               LogSF.debug(LOG, "DataFileManager.handleFileUploadedEvent(): num failed binrecs is [{}] and errors is [{}], so mark the file as having corrupt data", numFailedBinRecs, errors);
+               lockFile(fileLock, uploadedFile.getName());
                try
                   {
+                  final long renameStartTime = tracer.start();
                   final File corruptFile = changeFileExtension(uploadedFile, DataFileStatus.UPLOADING.getFilenameExtension(), DataFileStatus.CORRUPT_DATA.getFilenameExtension());
+                  tracer.end(DataFileTracer.Span.RENAME, uploadedFile.getName(), renameStartTime);
                   if (corruptFile == null)
                      {
                      LOG.error("DataFileManager.handleFileUploadedEvent(): failed to mark file [" + uploadedFile + "] as having corrupt data!  No further action will be taken on this file.");
@@ -354,13 +449,14 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
                      }
                   else
                      {
-                     LOG.info("DataFileManager.handleFileUploadedEvent(): renamed file [" + uploadedFile + "] to [" + corruptFile + "]  to mark it as having corrupt data");
+                     LogSF.info(LOG, "DataFileManager.handleFileUploadedEvent(): renamed file [{}] to [{}]  to mark it as having corrupt data", uploadedFile, corruptFile);
+                     eventJournal.record(DataFileEventJournal.Type.FILE_CORRUPT_DATA, corruptFile.getName(), corruptFile.length(), 0);
                      CONSOLE_LOG.error("File " + corruptFile.getName() + " failed to upload.  Failed binrecs = " + numFailedBinRecs + " and errors = [" + errors + "].");
                      }
                   }
                finally
                   {
-                  lock.unlock();
+                  fileLock.unlock();
                   }
                }
             else
@@ -369,11 +465,13 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
                statistics.get(StatsCategory.UPLOADS_SUCCESSFUL).incrementAndGet();
 
                // no failures!  rename the file to signify that the upload was successful...
-               lock.lock();  // block until condition holds
+               lockFile(fileLock, uploadedFile.getName());
                try
                   {
                   // change the extension to the one used for uploaded files
+                  final long renameStartTime = tracer.start();
                   final File newFile = changeFileExtension(uploadedFile, DataFileStatus.UPLOADING.getFilenameExtension(), DataFileStatus.UPLOADED.getFilenameExtension());
+                  tracer.end(DataFileTracer.Span.RENAME, uploadedFile.getName(), renameStartTime);
                   if (newFile == null)
                      {
                      LOG.error("DataFileManager.handleFileUploadedEvent(): Failed to rename successfully uploaded file [" + uploadedFile.getName() + "]");
@@ -381,19 +479,14 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
                      }
                   else
                      {
-                     if (LOG.isDebugEnabled())
-                        {
-                        LOG.debug("DataFileManager.handleFileUploadedEvent(): Renamed file [" + uploadedFile + "] to [" + newFile + "]");
-                        }
-                     if (CONSOLE_LOG.isInfoEnabled())
-                        {
-                        CONSOLE_LOG.info("File " + newFile.getName() + " uploaded successfully.");
-                        }
+                     LogSF.debug(LOG, "DataFileManager.handleFileUploadedEvent(): Renamed file [{}] to [{}]", uploadedFile, newFile);
+                     eventJournal.record(DataFileEventJournal.Type.FILE_UPLOADED, newFile.getName(), newFile.length(), 0);
+                     LogSF.info(CONSOLE_LOG, "File {} uploaded successfully.", newFile.getName());
                      }
                   }
                finally
                   {
-                  lock.unlock();
+                  fileLock.unlock();
                   }
 
                // Don't worry about telling the downloader that the file can be deleted here--that'll be handled elsewhere
@@ -407,6 +500,9 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
       {
       LOG.debug("DataFileManager.handleFileListEvent()");
 
+      // forget retry state for files which haven't been seen in a while (e.g. they were removed from the device)
+      downloadRetryTable.purgeExpired(System.currentTimeMillis());
+
       int delayUntilNextFileListRequest = 1;
       TimeUnit timeUnit = TimeUnit.SECONDS;
 
@@ -422,10 +518,7 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
          }
       else
          {
-         if (LOG.isDebugEnabled())
-            {
-            LOG.debug("DataFileManager.handleFileListEvent(): Processing [" + availableFilenames.size() + "] file(s)...");
-            }
+         LogSF.debug(LOG, "DataFileManager.handleFileListEvent(): Processing [{}] file(s)...", availableFilenames.size());
          if (LOG.isInfoEnabled())
             {
             CONSOLE_LOG.info("Found " + availableFilenames.size() + " file(s) available for download from the device.");
@@ -433,26 +526,22 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
 
          for (final String filename : availableFilenames)
             {
-            final String processingFileMsg = "Procesing file " + filename + "";
-            if (LOG.isDebugEnabled())
-               {
-               LOG.debug("DataFileManager.handleFileListEvent(): " + processingFileMsg);
-               }
+            final String processingFileMsg = "Procesing file " + filename;
+            LogSF.debug(LOG, "DataFileManager.handleFileListEvent(): {}", processingFileMsg);
             CONSOLE_LOG.info(processingFileMsg);
 
             // determine what action to take for this file
-            lock.lock();  // block until condition holds
+            final String baseFilename = DataFileDirectory.computeBaseFilename(filename);
+            final Lock fileLock = getFileLock(baseFilename);
+            fileLock.lock();  // block until condition holds
             try
                {
                // check whether this file is one we already have and, if so, get its status
-               final DataFileStatus fileStatus = getDataFileStatusForBaseFilename(computeBaseFilename(filename));
+               final DataFileStatus fileStatus = getDataFileStatusForBaseFilename(baseFilename);
 
                if (fileStatus == null)
                   {
-                  if (LOG.isDebugEnabled())
-                     {
-                     LOG.debug("DataFileManager.handleFileListEvent(): DataFileStatus for file [" + filename + "] is null, so submit a task to download it.");
-                     }
+                  LogSF.debug(LOG, "DataFileManager.handleFileListEvent(): DataFileStatus for file [{}] is null, so submit a task to download it.", filename);
                   submitDownloadDataFileTask(filename);
                   }
                else
@@ -462,64 +551,57 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
                      case WRITING:
                         // if the file is currently being written (this shouldn't happen!) then don't do anything
                         final String msg = "File " + filename + " is currently being written, so no further action is required at this time.";
-                        if (LOG.isDebugEnabled())
-                           {
-                           LOG.debug("DataFileManager.handleFileListEvent(): " + msg);
-                           }
+                        LogSF.debug(LOG, "DataFileManager.handleFileListEvent(): {}", msg);
                         CONSOLE_LOG.info(msg);
 
                         break;
 
                      case DOWNLOADED:
                         // if the file has already been downloaded and has the DOWNLOADED status, then its checksum is OK so it can be deleted from the device.
-                        if (LOG.isDebugEnabled())
-                           {
-                           LOG.debug("DataFileManager.handleFileListEvent(): File [" + filename + "] has already been downloaded successfully, so submit a task for it to be deleted from the device.");
-                           }
+                        LogSF.debug(LOG, "DataFileManager.handleFileListEvent(): File [{}] has already been downloaded successfully, so submit a task for it to be deleted from the device.", filename);
                         submitDeleteDataFileTask(filename);
 
                         break;
 
                      case UPLOADING:
                         // if the file is currently uploading, then the checksum must be correct, so we can safely delete the file from the device
-                        if (LOG.isDebugEnabled())
-                           {
-                           LOG.debug("DataFileManager.handleFileListEvent(): File [" + filename + "] is currently being uploaded, so submit a task for it to be deleted from the device.");
-                           }
+                        LogSF.debug(LOG, "DataFileManager.handleFileListEvent(): File [{}] is currently being uploaded, so submit a task for it to be deleted from the device.", filename);
                         submitDeleteDataFileTask(filename);
 
                         break;
 
                      case UPLOADED:
                         // if the file has already been uploaded, then we can safely delete the file from the device
-                        if (LOG.isDebugEnabled())
-                           {
-                           LOG.debug("DataFileManager.handleFileListEvent(): File [" + filename + "] has already been uploaded, so submit a task for it to be deleted from the device.");
-                           }
+                        LogSF.debug(LOG, "DataFileManager.handleFileListEvent(): File [{}] has already been uploaded, so submit a task for it to be deleted from the device.", filename);
                         submitDeleteDataFileTask(filename);
 
                         break;
 
                      case CORRUPT_DATA:
                         // if the file has already been saved to disk and the checksum is correct but the data is correct, then just delete the file from the device
-                        if (LOG.isInfoEnabled())
-                           {
-                           LOG.info("DataFileManager.handleFileListEvent(): File [" + filename + "] has valid checksum but invalid data, so submit a task for it to be deleted from the device.");
-                           }
+                        LogSF.info(LOG, "DataFileManager.handleFileListEvent(): File [{}] has valid checksum but invalid data, so submit a task for it to be deleted from the device.", filename);
                         submitDeleteDataFileTask(filename);
 
                         break;
 
                      case INCORRECT_CHECKSUM:
                         // If the file has already been saved to disk, but the checksum is incorrect, then we should try to
-                        // re-download up to NUM_DOWNLOAD_RETRIES_FOR_FAILED_CHECKSUM times.
-                        if (incrementAndGetRetryDownloadCount(filename) < NUM_DOWNLOAD_RETRIES_FOR_FAILED_CHECKSUM)
+                        // re-download up to NUM_DOWNLOAD_RETRIES_FOR_FAILED_CHECKSUM times, backing off between attempts.
+                        final long retryKey = DownloadRetryTable.computeKey(filename);
+                        final long currentTimeMillis = System.currentTimeMillis();
+                        if (!downloadRetryTable.isRetryDue(retryKey, currentTimeMillis))
+                           {
+                           LogSF.debug(LOG, "DataFileManager.handleFileListEvent(): File [{}] had an incorrect checksum, but it's too soon to retry the download.", filename);
+                           }
+                        else if (DiskSpaceGovernor.State.CRITICAL.equals(diskSpaceGovernor.getState()))
+                           {
+                           // the download would be skipped anyway, so don't count it as an attempt
+                           LogSF.debug(LOG, "DataFileManager.handleFileListEvent(): File [{}] had an incorrect checksum, but disk space is critically low, so not retrying the download yet.", filename);
+                           }
+                        else if (downloadRetryTable.recordAttempt(retryKey, currentTimeMillis) < NUM_DOWNLOAD_RETRIES_FOR_FAILED_CHECKSUM)
                            {
                            final String failedChecksumMsg = "File " + filename + " has already been downloaded but had an incorrect checksum.  Submitting a task to retry the download.";
-                           if (LOG.isInfoEnabled())
-                              {
-                              LOG.debug("DataFileManager.handleFileListEvent(): " + failedChecksumMsg);
-                              }
+                           LogSF.debug(LOG, "DataFileManager.handleFileListEvent(): {}", failedChecksumMsg);
                            CONSOLE_LOG.warn(failedChecksumMsg);
 
                            submitDownloadDataFileTask(filename);
@@ -527,10 +609,7 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
                         else
                            {
                            final String failedChecksumMsg = "File " + filename + " has already been downloaded but had an incorrect checksum.  All attempts to re-download have failed.  Will submit a task to delete the file from the device.";
-                           if (LOG.isInfoEnabled())
-                              {
-                              LOG.debug("DataFileManager.handleFileListEvent(): " + failedChecksumMsg);
-                              }
+                           LogSF.debug(LOG, "DataFileManager.handleFileListEvent(): {}", failedChecksumMsg);
                            CONSOLE_LOG.error(failedChecksumMsg);
 
                            submitDeleteDataFileTask(filename);
@@ -544,7 +623,7 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
                }
             finally
                {
-               lock.unlock();
+               fileLock.unlock();
                }
             }
          }
@@ -556,10 +635,7 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
          CONSOLE_LOG.info(stats);
          }
 
-      if (LOG.isDebugEnabled())
-         {
-         LOG.debug("DataFileManager.handleFileListEvent(): Scheduling the next file list request with a delay of " + delayUntilNextFileListRequest + " " + timeUnit);
-         }
+      LogSF.debug(LOG, "DataFileManager.handleFileListEvent(): Scheduling the next file list request with a delay of {} {}", delayUntilNextFileListRequest, timeUnit);
       scheduleNextFileListDownload(delayUntilNextFileListRequest, timeUnit);
       }
 
@@ -571,10 +647,7 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
          // update statistics
          statistics.get(StatsCategory.DOWNLOADS_SUCCESSFUL).incrementAndGet();
 
-         if (LOG.isDebugEnabled())
-            {
-            LOG.debug("DataFileManager.handleFileDownloadedEvent(" + dataFile.getBaseFilename() + ")");
-            }
+         LogSF.debug(LOG, "DataFileManager.handleFileDownloadedEvent({})", dataFile.getBaseFilename());
          try
             {
             save(dataFile);
@@ -589,29 +662,31 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
    @Override
    public void handleFailedDataFileDownloadEvent(@NotNull final String filename, @NotNull final DataFileDownloader.FailedDataFileDownloadCause cause)
       {
+      if (DataFileDownloader.FailedDataFileDownloadCause.DOWNLOADS_PAUSED.equals(cause))
+         {
+         // not really a failure--the file is still on the device, and will be downloaded once downloads resume
+         statistics.get(StatsCategory.DOWNLOADS_REQUESTED).decrementAndGet();
+         LogSF.debug(LOG, "DataFileManager.handleFailedDataFileDownloadEvent(): Download of file [{}] skipped since downloads are paused.", filename);
+         return;
+         }
+
       // update statistics
       statistics.get(StatsCategory.DOWNLOADS_FAILED).incrementAndGet();
 
-      if (LOG.isDebugEnabled())
-         {
-         LOG.debug("DataFileManager.handleFailedDataFileDownloadEvent(" + filename + "," + cause + ")");
-         }
+      LogSF.debug(LOG, "DataFileManager.handleFailedDataFileDownloadEvent({},{})", filename, cause);
       CONSOLE_LOG.error("File " + filename + " failed to download due to a " + cause + " error.");
       }
 
    @Override
    public void handleDeleteDataFileFromDeviceEvent(@NotNull final String filename, final boolean wasDeleteSuccessful)
       {
-      if (LOG.isDebugEnabled())
-         {
-         LOG.debug("DataFileManager.handleDeleteDataFileFromDeviceEvent(" + filename + "," + wasDeleteSuccessful + ")");
-         }
+      LogSF.debug(LOG, "DataFileManager.handleDeleteDataFileFromDeviceEvent({},{})", filename, wasDeleteSuccessful);
       if (wasDeleteSuccessful)
          {
          // update statistics
          statistics.get(StatsCategory.DELETES_SUCCESSFUL).incrementAndGet();
 
-         CONSOLE_LOG.info("File " + filename + " was successfully deleted from the device.");
+         LogSF.info(CONSOLE_LOG, "File {} was successfully deleted from the device.", filename);
          }
       else
          {
@@ -621,41 +696,127 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
          CONSOLE_LOG.error("File " + filename + " could not be deleted from the device.");
          }
 
-      lock.lock();  // block until condition holds
-      try
+      downloadRetryTable.remove(DownloadRetryTable.computeKey(filename));
+      }
+
+   @Override
+   public void handleDiskSpaceStateEvent(@NotNull final DiskSpaceGovernor.State state, final long usableSpaceInBytes)
+      {
+      LogSF.debug(LOG, "DataFileManager.handleDiskSpaceStateEvent({},{})", state, usableSpaceInBytes);
+
+      // give emergency compaction a fresh start whenever the state changes, since it may now be able to free something
+      if (state != previousDiskSpaceState)
          {
-         retryDownloadCountMap.remove(filename);
+         // Uploaded files are the only ones which can be compacted or evicted, so when space gets tighter, let as many
+         // uploads run at once as the uploader allows.  The limiter still backs off if the server can't keep up.
+         if (state.compareTo(previousDiskSpaceState) > 0 && dataFileUploader != null)
+            {
+            final UploadConcurrencyLimiter concurrencyLimiter = dataFileUploader.getConcurrencyLimiter();
+            if (concurrencyLimiter.getLimit() < concurrencyLimiter.getMaxLimit())
+               {
+               LOG.info("DataFileManager.handleDiskSpaceStateEvent(): disk space is " + state + ", so raising the concurrent upload limit to " + concurrencyLimiter.getMaxLimit());
+               concurrencyLimiter.setLimit(concurrencyLimiter.getMaxLimit());
+               }
+            }
+
+         previousDiskSpaceState = state;
+         dataFileArchiver.resetEmergencyCompactionBackoff();
          }
-      finally
+
+      switch (state)
          {
-         lock.unlock();
+         case NORMAL:
+            if (dataFileDownloader != null)
+               {
+               dataFileDownloader.setPaused(false);
+               dataFileDownloader.setDelayBetweenDownloads(0, TimeUnit.SECONDS);
+               }
+            break;
+
+         case LOW:
+            // throttle downloads, and compact uploaded files to reclaim some space (uploads were sped up above)
+            if (dataFileDownloader != null)
+               {
+               dataFileDownloader.setPaused(false);
+               dataFileDownloader.setDelayBetweenDownloads(DELAY_IN_SECONDS_BETWEEN_DOWNLOADS_WHEN_DISK_SPACE_IS_LOW, TimeUnit.SECONDS);
+               }
+            dataFileArchiver.submitEmergencyCompactionTask();
+            break;
+
+         case CRITICAL:
+            // Pause downloads entirely, since anything we download now probably can't be saved.  Files stay on the
+            // device until they can be saved.  Uploads carry on, and uploaded files are compacted and (if enabled)
+            // evicted to reclaim space.
+            if (dataFileDownloader != null)
+               {
+               dataFileDownloader.setPaused(true);
+               }
+            if (diskSpaceGovernor.willEvictUploadedFiles())
+               {
+               dataFileArchiver.submitEvictionTask(diskSpaceGovernor.getLowThresholdInBytes() - usableSpaceInBytes);
+               }
+            else
+               {
+               dataFileArchiver.submitEmergencyCompactionTask();
+               }
+            break;
+
+         default:
+            LOG.error("DataFileManager.handleDiskSpaceStateEvent(): Unexpected DiskSpaceGovernor.State [" + state + "].  Ignoring.");
          }
       }
 
+   /** Returns the {@link DataFileUploader}, or <code>null</code> if this <code>DataFileManager</code> doesn't upload. */
+   @Nullable
+   public DataFileUploader getDataFileUploader()
+      {
+      return dataFileUploader;
+      }
+
+   /**
+    * Writes the archived uploaded file with the given filename to the given {@link OutputStream}.  Returns
+    * <code>true</code> if the file was found in the archive, <code>false</code> otherwise (e.g. if it was never
+    * archived, or has been evicted).
+    *
+    * @see DataFileArchiver#extract(String, OutputStream)
+    */
+   public boolean extractArchivedFile(@NotNull final String filename, @NotNull final OutputStream outputStream) throws IOException
+      {
+      return dataFileArchiver.extract(filename, outputStream);
+      }
+
    public String getStatistics()
       {
-      lock.lock();  // block until condition holds
-      try
-         {
-         final StringWriter stringWriter = new StringWriter();
-         final PrintWriter printWriter = new PrintWriter(stringWriter);
-
-         printWriter.printf("\n");
-         printWriter.printf(" _________________________________________________________ \n");
-         printWriter.printf("|                                                         |\n");
-         printWriter.printf("|                         Requested   Successful   Failed |\n");
-         printWriter.printf("|                         ---------   ----------   ------ |\n");
-         printWriter.printf("| Downloads from Device      %6d       %6d   %6d |\n", statistics.get(StatsCategory.DOWNLOADS_REQUESTED).get(), statistics.get(StatsCategory.DOWNLOADS_SUCCESSFUL).get(), statistics.get(StatsCategory.DOWNLOADS_FAILED).get());
-         printWriter.printf("| Uploads to Server          %6d       %6d   %6d |\n", statistics.get(StatsCategory.UPLOADS_REQUESTED).get(), statistics.get(StatsCategory.UPLOADS_SUCCESSFUL).get(), statistics.get(StatsCategory.UPLOADS_FAILED).get());
-         printWriter.printf("| Deletes from Device        %6d       %6d   %6d |\n", statistics.get(StatsCategory.DELETES_REQUESTED).get(), statistics.get(StatsCategory.DELETES_SUCCESSFUL).get(), statistics.get(StatsCategory.DELETES_FAILED).get());
-         printWriter.printf("|_________________________________________________________|\n");
-
-         return stringWriter.toString();
-         }
-      finally
+      // no locking required, since the statistics are all atomic
+      final StringWriter stringWriter = new StringWriter();
+      final PrintWriter printWriter = new PrintWriter(stringWriter);
+
+      printWriter.printf("\n");
+      printWriter.printf(" _________________________________________________________ \n");
+      printWriter.printf("|                                                         |\n");
+      printWriter.printf("|                         Requested   Successful   Failed |\n");
+      printWriter.printf("|                         ---------   ----------   ------ |\n");
+      printWriter.printf("| Downloads from Device      %6d       %6d   %6d |\n", statistics.get(StatsCategory.DOWNLOADS_REQUESTED).get(), statistics.get(StatsCategory.DOWNLOADS_SUCCESSFUL).get(), statistics.get(StatsCategory.DOWNLOADS_FAILED).get());
+      printWriter.printf("| Uploads to Server          %6d       %6d   %6d |\n", statistics.get(StatsCategory.UPLOADS_REQUESTED).get(), statistics.get(StatsCategory.UPLOADS_SUCCESSFUL).get(), statistics.get(StatsCategory.UPLOADS_FAILED).get());
+      printWriter.printf("| Deletes from Device        %6d       %6d   %6d |\n", statistics.get(StatsCategory.DELETES_REQUESTED).get(), statistics.get(StatsCategory.DELETES_SUCCESSFUL).get(), statistics.get(StatsCategory.DELETES_FAILED).get());
+      printWriter.printf("|                                                         |\n");
+      printWriter.printf("| Disk Space %-8s                %10d MB usable |\n", diskSpaceGovernor.getState(), diskSpaceGovernor.getUsableSpaceInBytes() / (1024 * 1024));
+      if (dataFileUploader != null)
          {
-         lock.unlock();
+         final ServerReachabilityMonitor serverReachabilityMonitor = dataFileUploader.getServerReachabilityMonitor();
+         printWriter.printf("| Upload Server %-11s %4d outage(s) %7d s down |\n", serverReachabilityMonitor.getState(), serverReachabilityMonitor.getNumOutages(), serverReachabilityMonitor.getTotalUnreachableTimeInMillis() / 1000);
+         printWriter.printf("| Upload Throughput Estimate              %10.1f KB/s |\n", dataFileUploader.getThroughputEstimateInBytesPerSecond() / 1024);
+         final UploadConcurrencyLimiter concurrencyLimiter = dataFileUploader.getConcurrencyLimiter();
+         printWriter.printf("| Upload Queue %6d waiting, new/backfill/aged %-8s |\n", dataFileUploader.getNumPendingUploads(), dataFileUploader.getUploadOrderStatistics());
+         printWriter.printf("| Concurrent Uploads   %3d in flight, limit %3d (%3d-%3d) |\n", concurrencyLimiter.getNumInFlight(), concurrencyLimiter.getLimit(), concurrencyLimiter.getMinLimit(), concurrencyLimiter.getMaxLimit());
+         printWriter.printf("| Upload Transport %-38s |\n", dataFileUploader.getTransportStatistics());
+         printWriter.printf("| Upload Compression %-36s |\n", dataFileUploader.getCompressionStatistics());
+         final UploadBandwidthLimiter bandwidthLimiter = dataFileUploader.getBandwidthLimiter();
+         printWriter.printf("| Upload Bandwidth Limit %-12s %7d s throttled |\n", bandwidthLimiter.describeTotalLimit(), bandwidthLimiter.getTotalWaitTimeInMillis() / 1000);
          }
+      printWriter.printf("|_________________________________________________________|\n");
+
+      return stringWriter.toString();
       }
 
    /**
@@ -665,7 +826,8 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
    @Nullable
    private File changeFileExtension(@NotNull final File file, @NotNull final String existingFilenameExtension, @NotNull final String newFilenameExtension)
       {
-      lock.lock();  // block until condition holds
+      final Lock fileLock = getFileLock(file);
+      fileLock.lock();  // block until condition holds
       try
          {
          // use .toLowerCase() here so we don't have to worry about case (e.g. the .BT files might be .bt if copied manually from the SD card)
@@ -676,10 +838,7 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
             final File newFilename = new File(file.getParentFile(), filenameWithoutOldExtension + newFilenameExtension);
             if (file.renameTo(newFilename))
                {
-               if (LOG.isTraceEnabled())
-                  {
-                  LOG.trace("DataFileManager.changeFileExtension(): renamed file [" + file.getName() + "] to [" + newFilename.getName() + "]");
-                  }
+               LogSF.trace(LOG, "DataFileManager.changeFileExtension(): renamed file [{}] to [{}]", file.getName(), newFilename.getName());
                return newFilename;
                }
             else
@@ -693,7 +852,7 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
          }
       finally
          {
-         lock.unlock();
+         fileLock.unlock();
          }
       return null;
       }
@@ -711,12 +870,10 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
       {
       if (dataFile != null && !dataFile.isEmpty())
          {
-         if (LOG.isDebugEnabled())
-            {
-            LOG.debug("DataFileManager.save(): Request to save DataFile [" + dataFile.getFilename() + "]");
-            }
+         LogSF.debug(LOG, "DataFileManager.save(): Request to save DataFile [{}]", dataFile.getFilename());
 
-         lock.lock();  // block until condition holds
+         final Lock fileLock = getFileLock(dataFile.getBaseFilename());
+         lockFile(fileLock, dataFile.getFilename());
          try
             {
             // see whether the file already exists (in some form)
@@ -730,13 +887,10 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
                if (DataFileStatus.INCORRECT_CHECKSUM.equals(dataFileStatus))
                   {
                   final String nameOfFileToDelete = dataFile.getBaseFilename() + DataFileStatus.INCORRECT_CHECKSUM.getFilenameExtension();
-                  final File fileToDelete = new File(dataFileDirectory, nameOfFileToDelete);
+                  final File fileToDelete = new File(dataFileDirectory.getDirectoryForBaseFilename(dataFile.getBaseFilename()), nameOfFileToDelete);
                   if (fileToDelete.delete())
                      {
-                     if (LOG.isDebugEnabled())
-                        {
-                        LOG.debug("DataFileManager.save(): Deleted incorrect checksum file [" + nameOfFileToDelete + "]");
-                        }
+                     LogSF.debug(LOG, "DataFileManager.save(): Deleted incorrect checksum file [{}]", nameOfFileToDelete);
                      }
                   else
                      {
@@ -745,11 +899,14 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
                   }
 
                // try writing the file
+               final long startTime = System.nanoTime();
                DataOutputStream os = null;
                try
                   {
                   // write the file, but use a filename with a special extension to signify the file is being written
-                  final File tempFile = new File(dataFileDirectory, dataFile.getBaseFilename() + DataFileStatus.WRITING.getFilenameExtension());
+                  final File directory = dataFileDirectory.createDirectoryForBaseFilename(dataFile.getBaseFilename());
+                  final File tempFile = new File(directory, dataFile.getBaseFilename() + DataFileStatus.WRITING.getFilenameExtension());
+                  final long writeStartTime = tracer.start();
                   os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
                   dataFile.writeToOutputStream(os);
 
@@ -765,6 +922,7 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
                      {
                      LOG.error("DataFileManager.save(): IOException while trying to close the DataOutputStream for file [" + tempFile + "].  Oh well.");
                      }
+                  tracer.end(DataFileTracer.Span.DISK_WRITE, dataFile.getFilename(), writeStartTime);
 
                   if (wasClosedSuccessfully)
                      {
@@ -779,13 +937,19 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
                         }
 
                      // rename the file
+                     final long renameStartTime = tracer.start();
                      final File file = changeFileExtension(tempFile, DataFileStatus.WRITING.getFilenameExtension(), status.getFilenameExtension());
+                     tracer.end(DataFileTracer.Span.RENAME, dataFile.getFilename(), renameStartTime);
                      if (file != null)
                         {
                         // success, so return the file
                         final String msg = "Data file " + file + " saved successfully.";
                         LOG.debug("DataFileManager.save(): " + msg);
                         CONSOLE_LOG.info(msg);
+                        eventJournal.record(dataFile.isChecksumCorrect() ? DataFileEventJournal.Type.FILE_SAVED : DataFileEventJournal.Type.FILE_CHECKSUM_FAILED,
+                                            dataFile.getFilename(),
+                                            dataFile.getLength(),
+                                            System.nanoTime() - startTime);
 
                         if (dataFile.isChecksumCorrect())
                            {
@@ -804,10 +968,7 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
                         LOG.error("DataFileManager.save(): Failed to rename file [" + tempFile + "] to have an extension of [" + status.getFilenameExtension() + "].  Attempting to delete temp file...");
                         if (tempFile.delete())
                            {
-                           if (LOG.isInfoEnabled())
-                              {
-                              LOG.info("DataFileManager.save(): deleted temp file [" + tempFile + "]");
-                              }
+                           LogSF.info(LOG, "DataFileManager.save(): deleted temp file [{}]", tempFile);
                            }
                         else
                            {
@@ -838,15 +999,12 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
             else
                {
                // simply log that the file exists and is being skipped
-               if (LOG.isInfoEnabled())
-                  {
-                  LOG.info("DataFileManager.save(): A datafile with the base filename [" + dataFile.getBaseFilename() + "] already exists with DataFileStatus [" + dataFileStatus + "], so this one will be ignored.");
-                  }
+               LogSF.info(LOG, "DataFileManager.save(): A datafile with the base filename [{}] already exists with DataFileStatus [{}], so this one will be ignored.", dataFile.getBaseFilename(), dataFileStatus);
                }
             }
          finally
             {
-            lock.unlock();
+            fileLock.unlock();
             }
          }
       return null;
@@ -860,96 +1018,27 @@ public final class DataFileManager implements DataFileUploader.EventListener, Da
    @Nullable
    private DataFileStatus getDataFileStatusForBaseFilename(@NotNull final String baseFilename)
       {
-      lock.lock();  // block until condition holds
+      final Lock fileLock = getFileLock(baseFilename);
+      fileLock.lock();  // block until condition holds
       try
          {
-         final File[] files = getFilesWithSameBaseFilename(baseFilename);
-         if (files != null && files.length > 0 && files[0] != null)
+         final List<File> files = dataFileDirectory.listFilesWithBaseFilename(baseFilename);
+         if (!files.isEmpty())
             {
-            return DataFileStatus.getStatusForFilename(files[0].getName());
+            return DataFileStatus.getStatusForFilename(files.get(0).getName());
             }
 
-         return null;
-         }
-      finally
-         {
-         lock.unlock();
-         }
-      }
-
-   @NotNull
-   private String computeBaseFilename(@NotNull final String filename)
-      {
-      // get the base filename
-      final int dotPosition = filename.indexOf('.');
-      final String baseFilename;
-      if (dotPosition >= 0)
-         {
-         baseFilename = filename.substring(0, dotPosition);
-         }
-      else
-         {
-         baseFilename = filename;
-         }
-      return baseFilename;
-      }
-
-   private int incrementAndGetRetryDownloadCount(@NotNull final String filename)
-      {
-      lock.lock();  // block until condition holds
-      try
-         {
-         Integer count = retryDownloadCountMap.get(filename);
-         if (count == null)
+         // uploaded files may have been moved into the archive, or evicted from it
+         if (dataFileArchiver.isArchived(baseFilename))
             {
-            count = 0;
+            return DataFileStatus.UPLOADED;
             }
-         retryDownloadCountMap.put(filename, ++count);
-         return count;
-         }
-      finally
-         {
-         lock.unlock();
-         }
-      }
 
-   private File[] getFilesWithSameBaseFilename(final String baseFilename)
-      {
-      lock.lock();  // block until condition holds
-      try
-         {
-         return dataFileDirectory.listFiles(
-               new FilenameFilter()
-               {
-               private final String baseFilenameUppercase = baseFilename.toUpperCase();
-
-               @Override
-               public boolean accept(final File file, final String filename)
-                  {
-                  return file != null && baseFilenameUppercase.equals(computeBaseFilename(filename).toUpperCase());
-                  }
-               });
+         return null;
          }
       finally
          {
-         lock.unlock();
-         }
-      }
-
-   /** Filters {@link DataFile}s based on their {@link DataFileStatus}. */
-   private static class DataFileStatusFilenameFilter implements FilenameFilter
-      {
-      private final DataFileStatus dataFileStatus;
-
-      private DataFileStatusFilenameFilter(@NotNull final DataFileStatus dataFileStatus)
-         {
-         this.dataFileStatus = dataFileStatus;
-         }
-
-      @Override
-      public boolean accept(final File file, final String filename)
-         {
-         return file != null && filename != null && filename.toUpperCase().endsWith(dataFileStatus.getFilenameExtension());
+         fileLock.unlock();
          }
       }
    }
@@ -0,0 +1,251 @@
+package org.bodytrack.loggingdevice;
+
+import java.io.IOException;
+import java.io.Writer;
+import org.apache.log4j.LogSF;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * <p>
+ * <code>DataFileTracer</code> records how long each step of a data file's trip from the device to the server takes,
+ * as {@link Span spans} keyed by base filename.  A file's trip crosses several threads (the downloader's executor, the
+ * manager's file locks and retry scheduler, and the uploader's pool), so the spans are what make it possible to see
+ * where the time for a single file actually goes.
+ * </p>
+ * <p>
+ * Spans are kept in a fixed-size ring of primitive arrays, so the most recent {@link #CAPACITY_SYSTEM_PROPERTY
+ * capacity} spans are always available and recording never allocates.  They can be written out as JSON lines with
+ * {@link #exportAsJsonLines(Writer)}.  Tracing is off unless the {@link #ENABLED_SYSTEM_PROPERTY} system property is
+ * <code>true</code> or it's {@link #setEnabled(boolean) turned on} at runtime.  While it's off, {@link #start()} and
+ * {@link #end(Span, String, long)} do nothing but read a volatile field.
+ * </p>
+ * <p>
+ * Usage:
+ * </p>
+ * <pre>
+ *    final long startTime = tracer.start();
+ *    ...
+ *    tracer.end(DataFileTracer.Span.DISK_WRITE, filename, startTime);
+ * </pre>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class DataFileTracer
+   {
+   private static final Logger LOG = Logger.getLogger(DataFileTracer.class);
+
+   public static final String ENABLED_SYSTEM_PROPERTY = "org.bodytrack.loggingdevice.DataFileTracer.enabled";
+   public static final String CAPACITY_SYSTEM_PROPERTY = "org.bodytrack.loggingdevice.DataFileTracer.capacity";
+
+   private static final int DEFAULT_CAPACITY = 4096;
+   private static final int MAX_CAPACITY = 1024 * 1024;
+
+   public static enum Span
+      {
+         /** Time a download or delete spent waiting for the device executor. */
+         QUEUE_WAIT,
+
+         /** Time spent transferring a file over the serial link. */
+         SERIAL_TRANSFER,
+
+         /** Time spent computing and comparing the file's CRC. */
+         CHECKSUM_CHECK,
+
+         /** Time spent waiting for the lock guarding the file on disk. */
+         FILE_LOCK_WAIT,
+
+         /** Time spent writing the file to disk. */
+         DISK_WRITE,
+
+         /** Time spent renaming the file to change its status. */
+         RENAME,
+
+         /** Time an upload spent waiting for an upload thread. */
+         UPLOAD_QUEUE_WAIT,
+
+         /** Time an upload spent held because the upload server was unreachable. */
+         UPLOAD_SERVER_WAIT,
+
+         /** Time between a failed upload and its retry being submitted. */
+         UPLOAD_RETRY_DELAY,
+
+         /** Time spent sending the file to the server and waiting for the response. */
+         UPLOAD_HTTP,
+
+         /** Time spent reading and parsing the server's response. */
+         RESPONSE_PARSE,
+
+         /** Time spent deleting the file from the device. */
+         DELETE
+      }
+
+   private static final DataFileTracer INSTANCE = new DataFileTracer();
+
+   @NotNull
+   public static DataFileTracer getInstance()
+      {
+      return INSTANCE;
+      }
+
+   private volatile boolean isEnabled;
+
+   /** Used to convert {@link System#nanoTime()} values to wall clock time. */
+   private final long baseTimeInMillis = System.currentTimeMillis();
+   private final long baseNanoTime = System.nanoTime();
+
+   private final int mask;
+   private final long[] fileKeys;
+   private final byte[] spans;
+   private final long[] startTimes;
+   private final long[] durations;
+   private final long[] threadIds;
+   private long numSpansRecorded = 0;
+
+   private DataFileTracer()
+      {
+      isEnabled = Boolean.getBoolean(ENABLED_SYSTEM_PROPERTY);
+
+      int capacity = DEFAULT_CAPACITY;
+      final String capacityStr = System.getProperty(CAPACITY_SYSTEM_PROPERTY);
+      if (capacityStr != null)
+         {
+         try
+            {
+            capacity = Integer.parseInt(capacityStr.trim());
+            }
+         catch (NumberFormatException e)
+            {
+            LOG.error("NumberFormatException while trying to parse [" + capacityStr + "] as an int for the trace capacity.  Defaulting to " + DEFAULT_CAPACITY, e);
+            }
+         }
+
+      // round up to a power of two so the ring index is a simple mask
+      int ringSize = 2;
+      while (ringSize < Math.min(MAX_CAPACITY, capacity))
+         {
+         ringSize <<= 1;
+         }
+      mask = ringSize - 1;
+      fileKeys = new long[ringSize];
+      spans = new byte[ringSize];
+      startTimes = new long[ringSize];
+      durations = new long[ringSize];
+      threadIds = new long[ringSize];
+
+      LogSF.info(LOG, "DataFileTracer: per-file tracing is [{}], keeping the most recent [{}] spans.", isEnabled ? "enabled" : "disabled", ringSize);
+      }
+
+   public boolean isEnabled()
+      {
+      return isEnabled;
+      }
+
+   /** Turns tracing on or off.  Spans which were already recorded are kept. */
+   public void setEnabled(final boolean isEnabled)
+      {
+      if (this.isEnabled != isEnabled)
+         {
+         this.isEnabled = isEnabled;
+         LogSF.info(LOG, "DataFileTracer.setEnabled(): per-file tracing is now [{}]", isEnabled ? "enabled" : "disabled");
+         }
+      }
+
+   /**
+    * Returns the start time to pass to {@link #end(Span, String, long)}, or <code>0</code> if tracing is disabled, in
+    * which case the matching <code>end()</code> won't record anything.
+    */
+   public long start()
+      {
+      return isEnabled ? System.nanoTime() : 0;
+      }
+
+   /**
+    * Records a span from the given <code>startTime</code> (as returned by {@link #start()}) until now.  Does nothing if
+    * the <code>startTime</code> is <code>0</code> or if tracing is disabled.
+    */
+   public void end(@NotNull final Span span, @Nullable final String filename, final long startTime)
+      {
+      if (startTime != 0 && isEnabled)
+         {
+         record(span, filename, startTime, System.nanoTime());
+         }
+      }
+
+   private void record(@NotNull final Span span, @Nullable final String filename, final long startTime, final long endTime)
+      {
+      final long fileKey = (filename == null) ? DataFileEventJournal.NO_FILE_KEY : DownloadRetryTable.computeKey(filename);
+      final long threadId = Thread.currentThread().getId();
+      synchronized (this)
+         {
+         final int i = (int)(numSpansRecorded++ & mask);
+         fileKeys[i] = fileKey;
+         spans[i] = (byte)span.ordinal();
+         startTimes[i] = startTime;
+         durations[i] = endTime - startTime;
+         threadIds[i] = threadId;
+         }
+      }
+
+   /** Forgets all recorded spans. */
+   public synchronized void clear()
+      {
+      numSpansRecorded = 0;
+      }
+
+   /**
+    * Writes the recorded spans, oldest first, to the given {@link Writer} as JSON, one span per line.  Each line looks
+    * like this (times are in microseconds, and <code>start</code> is since the epoch):
+    * <pre>
+    *    {"file":"4F3A12BC","span":"SERIAL_TRANSFER","start":1328156348123456,"duration":2034512,"thread":14}
+    * </pre>
+    * Returns the number of spans written.
+    *
+    * @throws IOException if writing fails
+    */
+   public int exportAsJsonLines(@NotNull final Writer writer) throws IOException
+      {
+      // copy the ring so that tracing isn't blocked while we write
+      final int numSpans;
+      final long[] fileKeysCopy;
+      final byte[] spansCopy;
+      final long[] startTimesCopy;
+      final long[] durationsCopy;
+      final long[] threadIdsCopy;
+      synchronized (this)
+         {
+         numSpans = (int)Math.min(numSpansRecorded, mask + 1);
+         fileKeysCopy = new long[numSpans];
+         spansCopy = new byte[numSpans];
+         startTimesCopy = new long[numSpans];
+         durationsCopy = new long[numSpans];
+         threadIdsCopy = new long[numSpans];
+         for (int j = 0; j < numSpans; j++)
+            {
+            final int i = (int)((numSpansRecorded - numSpans + j) & mask);
+            fileKeysCopy[j] = fileKeys[i];
+            spansCopy[j] = spans[i];
+            startTimesCopy[j] = startTimes[i];
+            durationsCopy[j] = durations[i];
+            threadIdsCopy[j] = threadIds[i];
+            }
+         }
+
+      final Span[] allSpans = Span.values();
+      final StringBuilder line = new StringBuilder(128);
+      for (int j = 0; j < numSpans; j++)
+         {
+         line.setLength(0);
+         line.append("{\"file\":\"").append(DataFileEventJournal.formatFileKey(fileKeysCopy[j]));
+         line.append("\",\"span\":\"").append(allSpans[spansCopy[j]].name());
+         line.append("\",\"start\":").append(baseTimeInMillis * 1000 + (startTimesCopy[j] - baseNanoTime) / 1000);
+         line.append(",\"duration\":").append(durationsCopy[j] / 1000);
+         line.append(",\"thread\":").append(threadIdsCopy[j]);
+         line.append("}\n");
+         writer.write(line.toString());
+         }
+      writer.flush();
+      return numSpans;
+      }
+   }
@@ -1,9 +1,14 @@
 package org.bodytrack.loggingdevice;
 
 import java.io.File;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringWriter;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
 import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -13,20 +18,27 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import edu.cmu.ri.createlab.util.thread.DaemonThreadFactory;
 import org.apache.commons.io.IOUtils;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.conn.ConnectTimeoutException;
 import org.apache.http.entity.FileEntity;
-import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.entity.HttpEntityWrapper;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.CoreConnectionPNames;
 import org.apache.http.params.HttpParams;
 import org.apache.http.util.EntityUtils;
+import org.apache.log4j.LogSF;
 import org.apache.log4j.Logger;
 import org.codehaus.jackson.annotate.JsonAnySetter;
 import org.codehaus.jackson.annotate.JsonProperty;
@@ -43,8 +55,25 @@ public final class DataFileUploader
    private static final Logger CONSOLE_LOG = Logger.getLogger("ConsoleLog");
 
    public static final String MAX_NUM_UPLOAD_THREADS_SYSTEM_PROPERTY = "org.bodytrack.loggingdevice.DataFileUploader.max-num-upload-threads";
+   public static final String MIN_NUM_UPLOAD_THREADS_SYSTEM_PROPERTY = "org.bodytrack.loggingdevice.DataFileUploader.min-num-upload-threads";
+   public static final String MIN_THROUGHPUT_IN_BYTES_PER_SECOND_SYSTEM_PROPERTY = "org.bodytrack.loggingdevice.DataFileUploader.min-throughput-in-bytes-per-second";
+   public static final String STALL_WINDOW_IN_SECONDS_SYSTEM_PROPERTY = "org.bodytrack.loggingdevice.DataFileUploader.stall-window-in-seconds";
    private static final int DEFAULT_MAX_NUM_UPLOAD_THREADS = 1;
+   private static final int DEFAULT_MIN_NUM_UPLOAD_THREADS = 1;
+   private static final int DEFAULT_MIN_THROUGHPUT_IN_BYTES_PER_SECOND = 512;
+   private static final int DEFAULT_STALL_WINDOW_IN_SECONDS = 30;
    private static final int MAX_NUM_UPLOAD_THREADS;
+   private static final int MIN_NUM_UPLOAD_THREADS;
+
+   /**
+    * An upload which sends less than this many bytes per second over a whole {@link #STALL_WINDOW_IN_SECONDS stall
+    * window} is aborted and retried later.  Zero disables the check.  When the {@link UploadBandwidthLimiter bandwidth
+    * limits} leave each upload less than twice this, half of each upload's share is used instead, so that uploads which
+    * are merely being throttled aren't aborted.
+    */
+   private static final int MIN_THROUGHPUT_IN_BYTES_PER_SECOND;
+   private static final int STALL_WINDOW_IN_SECONDS;
+   private static final int WATCHDOG_INTERVAL_IN_SECONDS = 1;
 
    static
       {
@@ -69,21 +98,29 @@ public final class DataFileUploader
          MAX_NUM_UPLOAD_THREADS = Math.max(1, maxNumUploadThreads);
          }
 
-      final String message = "DataFileUploader: using up to [" + MAX_NUM_UPLOAD_THREADS + "] upload thread(s).";
+      MIN_NUM_UPLOAD_THREADS = Math.max(1, Math.min(MAX_NUM_UPLOAD_THREADS, SystemPropertyUtils.getIntegerSystemProperty(MIN_NUM_UPLOAD_THREADS_SYSTEM_PROPERTY, DEFAULT_MIN_NUM_UPLOAD_THREADS)));
+
+      final String message = "DataFileUploader: using between [" + MIN_NUM_UPLOAD_THREADS + "] and [" + MAX_NUM_UPLOAD_THREADS + "] upload thread(s), adapting to how well uploads are going.";
       LOG.info(message);
       CONSOLE_LOG.info(message);
+
+      MIN_THROUGHPUT_IN_BYTES_PER_SECOND = Math.max(0, SystemPropertyUtils.getIntegerSystemProperty(MIN_THROUGHPUT_IN_BYTES_PER_SECOND_SYSTEM_PROPERTY, DEFAULT_MIN_THROUGHPUT_IN_BYTES_PER_SECOND));
+      STALL_WINDOW_IN_SECONDS = Math.max(1, SystemPropertyUtils.getIntegerSystemProperty(STALL_WINDOW_IN_SECONDS_SYSTEM_PROPERTY, DEFAULT_STALL_WINDOW_IN_SECONDS));
+      LOG.info("DataFileUploader: uploads sending less than [" + MIN_THROUGHPUT_IN_BYTES_PER_SECOND + "] bytes/second over [" + STALL_WINDOW_IN_SECONDS + "] seconds will be aborted.");
       }
 
    /**
     * Determines the timeout in milliseconds until a connection is established. A timeout value of zero is interpreted
-    * as an infinite timeout.
+    * as an infinite timeout.  Uploads whose {@link UploadThroughputEstimator#computeDeadlineInMillis(long, double) deadline}
+    * is shorter use the deadline instead.
     */
    public static final int HTTP_TIMEOUT_IN_MILLIS = 5 * 60 * 1000; // 5 minutes
 
    /**
     * Defines the socket timeout in milliseconds, which is the timeout for waiting for data or, put differently, a
     * maximum period inactivity between two consecutive data packets). A timeout value of zero is interpreted as an
-    * infinite timeout.
+    * infinite timeout.  Uploads whose {@link UploadThroughputEstimator#computeDeadlineInMillis(long, double) deadline}
+    * is shorter use the deadline instead.
     */
    public static final int SOCKET_TIMEOUT_IN_MILLIS = 5 * 60 * 1000; // 5 minutes
 
@@ -92,18 +129,97 @@ public final class DataFileUploader
       void handleFileUploadedEvent(@NotNull final File uploadedFile, @Nullable final DataFileUploadResponse uploadResponse);
       }
 
-   private final ExecutorService executor = Executors.newFixedThreadPool(MAX_NUM_UPLOAD_THREADS, new DaemonThreadFactory(this.getClass() + ".executor"));
+   /**
+    * Uploads wait here, newest data first, until the {@link #concurrencyLimiter} lets the
+    * {@link #dispatchRunnable dispatcher} hand them to the {@link #executor}, which therefore never runs more uploads at
+    * once than the current limit.
+    */
+   private final UploadQueue<UploadFileTask> pendingUploads = new UploadQueue<UploadFileTask>();
+   private final UploadConcurrencyLimiter concurrencyLimiter = new UploadConcurrencyLimiter(MIN_NUM_UPLOAD_THREADS, MAX_NUM_UPLOAD_THREADS);
+   private final ExecutorService dispatchExecutor = Executors.newSingleThreadExecutor(new DaemonThreadFactory(this.getClass() + ".dispatchExecutor"));
+   private final ExecutorService executor = Executors.newCachedThreadPool(new DaemonThreadFactory(this.getClass() + ".executor"));
    private final String uploadUrlPrefix;
    private final Set<EventListener> eventListeners = new HashSet<EventListener>();
+   private final DataFileEventJournal eventJournal = DataFileEventJournal.getInstance();
+   private final DataFileTracer tracer = DataFileTracer.getInstance();
+   private final UploadThroughputEstimator throughputEstimator = new UploadThroughputEstimator();
+   private final UploadBandwidthLimiter bandwidthLimiter = new UploadBandwidthLimiter();
+   private final UploadCompressor compressor = new UploadCompressor();
+   private final UploadTransport transport = new UploadTransport(MAX_NUM_UPLOAD_THREADS);
+   private final ScheduledExecutorService watchdogExecutor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory(this.getClass() + ".watchdogExecutor"));
+
+   @NotNull
+   private final ServerReachabilityMonitor serverReachabilityMonitor;
+
+   private final Runnable dispatchRunnable =
+         new Runnable()
+         {
+         @Override
+         public void run()
+            {
+            try
+               {
+               while (!Thread.currentThread().isInterrupted())
+                  {
+                  // Wait for a permit before taking a task, so that the task is chosen when it can actually start,
+                  // rather than being held here while newer data arrives in the queue.
+                  concurrencyLimiter.acquire();
+                  final UploadFileTask task;
+                  try
+                     {
+                     task = pendingUploads.take();
+                     }
+                  catch (InterruptedException e)
+                     {
+                     concurrencyLimiter.release(UploadConcurrencyLimiter.Outcome.OTHER_FAILURE);
+                     throw e;
+                     }
+                  transport.ensureCapacity(concurrencyLimiter.getLimit());
+                  try
+                     {
+                     executor.execute(
+                           new Runnable()
+                           {
+                           @Override
+                           public void run()
+                              {
+                              try
+                                 {
+                                 task.run();
+                                 }
+                              finally
+                                 {
+                                 concurrencyLimiter.release(task.getConcurrencyOutcome());
+                                 }
+                              }
+                           });
+                     }
+                  catch (RejectedExecutionException e)
+                     {
+                     LOG.error("DataFileUploader.dispatchRunnable.run(): RejectedExecutionException while trying to start the upload of [" + task.originalFilename + "]", e);
+                     concurrencyLimiter.release(UploadConcurrencyLimiter.Outcome.OTHER_FAILURE);
+                     }
+                  }
+               }
+            catch (InterruptedException ignored)
+               {
+               LOG.debug("DataFileUploader.dispatchRunnable.run(): Interrupted, so no more uploads will be started.");
+               }
+            }
+         };
 
    /**
     * Constructs a <code>DataFileUploader</code> for the given {@link DataStoreServerConfig} and {@link DataStoreServerConfig}.
+    *
+    * @throws IllegalStateException if uploads should go over HTTPS but it can't be set up
     */
    public DataFileUploader(@NotNull final DataStoreServerConfig serverConfig,
                            @NotNull final LoggingDeviceConfig loggingDeviceConfig)
       {
+      serverReachabilityMonitor = new ServerReachabilityMonitor(serverConfig);
+
       // build the upload URL prefix
-      uploadUrlPrefix = "http://" + serverConfig.getServerName() + ":" + serverConfig.getServerPort() + "/users/" + loggingDeviceConfig.getUsername() + "/binupload?dev_nickname=" + loggingDeviceConfig.getDeviceNickname();
+      uploadUrlPrefix = transport.getScheme() + "://" + serverConfig.getServerName() + ":" + serverConfig.getServerPort() + "/users/" + loggingDeviceConfig.getUsername() + "/binupload?dev_nickname=" + loggingDeviceConfig.getDeviceNickname();
 
       if (LOG.isInfoEnabled())
          {
@@ -111,6 +227,23 @@ public final class DataFileUploader
          LOG.info("DataFileUploader.DataFileUploader(): " + msg);
          CONSOLE_LOG.info(msg);
          }
+
+      dispatchExecutor.execute(dispatchRunnable);
+
+      // connections are kept alive between uploads, but the server may drop them, so weed out stale ones now and then
+      final int idleConnectionTimeoutInSeconds = transport.getIdleConnectionTimeoutInSeconds();
+      watchdogExecutor.scheduleWithFixedDelay(
+            new Runnable()
+            {
+            @Override
+            public void run()
+               {
+               transport.closeIdleConnections();
+               }
+            },
+            idleConnectionTimeoutInSeconds,
+            idleConnectionTimeoutInSeconds,
+            TimeUnit.SECONDS);
       }
 
    public void addEventListener(@Nullable final EventListener listener)
@@ -129,23 +262,121 @@ public final class DataFileUploader
          }
       }
 
-   public void submitUploadFileTask(@Nullable final File fileToUpload, @Nullable final String originalFilename)
+   /** Starts monitoring the reachability of the upload server.  Uploads are held while the server can't be reached. */
+   public void startup()
+      {
+      serverReachabilityMonitor.startup();
+      }
+
+   /** Stops monitoring the reachability of the upload server, and releases any held uploads. */
+   public void shutdown()
+      {
+      LOG.debug("DataFileUploader.shutdown()");
+      serverReachabilityMonitor.shutdown();
+      watchdogExecutor.shutdownNow();
+      dispatchExecutor.shutdownNow();
+      executor.shutdownNow();
+      transport.shutdown();
+      }
+
+   /** Returns the {@link UploadConcurrencyLimiter} which decides how many uploads may run at once. */
+   @NotNull
+   public UploadConcurrencyLimiter getConcurrencyLimiter()
+      {
+      return concurrencyLimiter;
+      }
+
+   /** Returns the {@link UploadBandwidthLimiter} which caps the rate at which uploads are sent. */
+   @NotNull
+   public UploadBandwidthLimiter getBandwidthLimiter()
+      {
+      return bandwidthLimiter;
+      }
+
+   /**
+    * Returns a summary of compressed uploads: whether the server accepts them, how many have been sent, their
+    * compressed size as a percentage of the original, and the CPU time spent compressing.
+    */
+   @NotNull
+   public String getCompressionStatistics()
       {
-      if (LOG.isDebugEnabled())
+      if (!compressor.isEnabled())
          {
-         LOG.debug("DataFileUploader.submitUploadFileTask(" + fileToUpload + ", " + originalFilename + ")");
+         return "disabled";
          }
+      return String.format("%s %d, %.0f%%, %d ms CPU", compressor.getServerSupport(), compressor.getNumCompressedUploads(), compressor.getCompressionRatio() * 100, compressor.getCompressionTimeInMillis());
+      }
+
+   /**
+    * Returns a summary of the connections used for uploading: the protocol, how many connections have been opened, and
+    * for HTTPS, how many TLS handshakes were full and how many resumed a cached session.
+    */
+   @NotNull
+   public String getTransportStatistics()
+      {
+      if (transport.isSecure())
+         {
+         return "HTTPS, " + transport.getNumConnectionsOpened() + " conn, TLS " + transport.getNumFullHandshakes() + " full/" + transport.getNumResumedHandshakes() + " resumed";
+         }
+      return "HTTP, " + transport.getNumConnectionsOpened() + " connection(s)";
+      }
+
+   /** Returns the current estimate of the upload throughput, in bytes per second, which is used to set upload deadlines. */
+   public double getThroughputEstimateInBytesPerSecond()
+      {
+      return throughputEstimator.getEstimateInBytesPerSecond();
+      }
+
+   /** Returns the {@link ServerReachabilityMonitor} which gates uploads, e.g. for registering listeners or reading metrics. */
+   @NotNull
+   public ServerReachabilityMonitor getServerReachabilityMonitor()
+      {
+      return serverReachabilityMonitor;
+      }
+
+   public void submitUploadFileTask(@Nullable final File fileToUpload, @Nullable final String originalFilename)
+      {
+      LogSF.debug(LOG, "DataFileUploader.submitUploadFileTask({}, {})", fileToUpload, originalFilename);
 
       if (fileToUpload != null && originalFilename != null)
          {
-         executor.execute(new UploadFileTask(fileToUpload, originalFilename));
+         pendingUploads.add(new UploadFileTask(fileToUpload, originalFilename), computeDataTimestamp(fileToUpload, originalFilename), fileToUpload.length());
          }
       }
 
+   /**
+    * Returns the timestamp (in epoch seconds) of the data in the given file, which is encoded in hex in the filename.
+    * Falls back to the file's last modification time for files which aren't named that way.
+    */
+   private static long computeDataTimestamp(@NotNull final File file, @NotNull final String originalFilename)
+      {
+      final long key = DownloadRetryTable.computeKey(originalFilename);
+      return (key <= 0xffffffffL) ? key : file.lastModified() / 1000;
+      }
+
+   /** Returns the number of uploads waiting to start. */
+   public int getNumPendingUploads()
+      {
+      return pendingUploads.size();
+      }
+
+   /**
+    * Returns a summary of the order in which uploads have been started: how many were started newest-first, how many as
+    * part of the backfill of the oldest data, and how many because they had waited too long.
+    */
+   @NotNull
+   public String getUploadOrderStatistics()
+      {
+      return pendingUploads.getNumTakenNewest() + "/" + pendingUploads.getNumTakenBackfill() + "/" + pendingUploads.getNumTakenAged();
+      }
+
    private final class UploadFileTask implements Runnable
       {
       private final File fileToUpload;
       private final String originalFilename;
+      private final long submitTime = System.nanoTime();
+      private final long queueStartTime = tracer.start();
+      private UploadConcurrencyLimiter.Outcome concurrencyOutcome = UploadConcurrencyLimiter.Outcome.OTHER_FAILURE;
 
       private UploadFileTask(@NotNull final File fileToUpload, @NotNull final String originalFilename)
          {
@@ -153,47 +384,103 @@ public final class DataFileUploader
          this.originalFilename = originalFilename;
          }
 
+      /** Returns what this upload says about the health of the link and the server.  Only valid after it has run. */
+      @NotNull
+      private UploadConcurrencyLimiter.Outcome getConcurrencyOutcome()
+         {
+         return concurrencyOutcome;
+         }
+
       @Override
       public void run()
          {
+         tracer.end(DataFileTracer.Span.UPLOAD_QUEUE_WAIT, originalFilename, queueStartTime);
+
+         // hold the upload here, rather than in a connect timeout, while the server is unreachable
+         final long serverWaitStartTime = tracer.start();
+         serverReachabilityMonitor.awaitReachable();
+         tracer.end(DataFileTracer.Span.UPLOAD_SERVER_WAIT, originalFilename, serverWaitStartTime);
+
+         final long startTime = System.nanoTime();
+         final long fileLength = fileToUpload.length();
+         eventJournal.record(DataFileEventJournal.Type.UPLOAD_STARTED, originalFilename, fileLength, startTime - submitTime);
+         DataFileEventJournal.Type outcome = DataFileEventJournal.Type.UPLOAD_FAILED;
+
+         // The deadline for the whole upload depends on the file's size and how fast uploads have been going lately, but
+         // the upload can't go faster than its share of the bandwidth limits allows.
+         final long deadlineInMillis = throughputEstimator.computeDeadlineInMillis(fileLength, getBytesPerSecondPerUpload());
+
          // set timeouts
          final HttpParams httpParams = new BasicHttpParams();
 
          // This parameter expects a value of type java.lang.Integer. If this parameter is not set, connect operations
          // will not time out (infinite timeout).
-         httpParams.setParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, HTTP_TIMEOUT_IN_MILLIS);
+         httpParams.setParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, (int)Math.min(HTTP_TIMEOUT_IN_MILLIS, deadlineInMillis));
 
          // This parameter expects a value of type java.lang.Integer. If this parameter is not set, read operations will
          // not time out (infinite timeout).
-         httpParams.setParameter(CoreConnectionPNames.SO_TIMEOUT, SOCKET_TIMEOUT_IN_MILLIS);
+         httpParams.setParameter(CoreConnectionPNames.SO_TIMEOUT, (int)Math.min(SOCKET_TIMEOUT_IN_MILLIS, deadlineInMillis));
 
-         final HttpClient httpClient = new DefaultHttpClient(httpParams);
+         // all uploads share the transport's client, so that connections (and TLS sessions) are reused
+         final HttpClient httpClient = transport.getHttpClient();
 
          final String uploadUrl = uploadUrlPrefix + "&filename=" + originalFilename;
          DataFileUploadResponse dataFileUploadResponse = null;
+         final boolean isCompressed = compressor.shouldCompress();
+         boolean isCompressionRejected = false;
+         UploadWatchdog watchdog = null;
+         ScheduledFuture<?> watchdogFuture = null;
+         HttpPost httpPost = null;
+         boolean isConnectionReleased = false;
          try
             {
-            final HttpPost httpPost = new HttpPost(uploadUrl);
-            final FileEntity entity = new FileEntity(fileToUpload, "application/octet-stream");
+            httpPost = new HttpPost(uploadUrl);
+            httpPost.setParams(httpParams);
+            final HttpEntity fileEntity = new FileEntity(fileToUpload, "application/octet-stream");
+            final ProgressTrackingEntity entity = new ProgressTrackingEntity(isCompressed ? compressor.compress(fileEntity) : fileEntity, bandwidthLimiter);
             httpPost.setEntity(entity);
 
-            if (LOG.isDebugEnabled())
-               {
-               LOG.debug("DataFileUploader$UploadFileTask.run(): uploading file [" + fileToUpload + "] to [" + httpPost.getURI() + "]...");
-               }
+            LogSF.debug(LOG, "DataFileUploader$UploadFileTask.run(): uploading file [{}] to [{}] with a deadline of [{}] ms...", fileToUpload, httpPost.getURI(), deadlineInMillis);
             if (LOG.isInfoEnabled())
                {
                CONSOLE_LOG.info("Uploading file " + originalFilename + " to server...");
                }
+            watchdog = new UploadWatchdog(httpPost, entity, deadlineInMillis);
+            watchdogFuture = watchdogExecutor.scheduleAtFixedRate(watchdog, WATCHDOG_INTERVAL_IN_SECONDS, WATCHDOG_INTERVAL_IN_SECONDS, TimeUnit.SECONDS);
+            final long httpStartTime = tracer.start();
+            final long httpStartNanoTime = System.nanoTime();
             final HttpResponse response = httpClient.execute(httpPost);
-            final HttpEntity responseEntity = response.getEntity();
+            final long httpDurationInNanos = System.nanoTime() - httpStartNanoTime;
+            tracer.end(DataFileTracer.Span.UPLOAD_HTTP, originalFilename, httpStartTime);
+            outcome = DataFileEventJournal.Type.UPLOAD_NO_RESPONSE;
+
+            // A 5xx response means the server is struggling.  Otherwise, the upload is healthy as long as it didn't use
+            // up more than half of its deadline.
+            if (response.getStatusLine().getStatusCode() >= 500)
+               {
+               concurrencyOutcome = UploadConcurrencyLimiter.Outcome.OVERLOAD;
+               }
+            else if (httpDurationInNanos > TimeUnit.MILLISECONDS.toNanos(deadlineInMillis / 2))
+               {
+               concurrencyOutcome = UploadConcurrencyLimiter.Outcome.SLOW;
+               }
+            else
+               {
+               concurrencyOutcome = UploadConcurrencyLimiter.Outcome.SUCCESS;
+               }
+
+            // feed the throughput achieved by this upload back into the estimate used for deadlines
+            throughputEstimator.recordUpload(entity.getNumBytesWritten(), httpDurationInNanos);
             if (LOG.isDebugEnabled())
                {
-               LOG.debug("DataFileUploader$UploadFileTask.run(): response status [" + response.getStatusLine() + "]");
+               LOG.debug("DataFileUploader$UploadFileTask.run(): sent [" + entity.getNumBytesWritten() + "] bytes in [" + (httpDurationInNanos / 1000000) + "] ms, throughput estimate is now [" + (long)throughputEstimator.getEstimateInBytesPerSecond() + "] bytes/second");
                }
+            final HttpEntity responseEntity = response.getEntity();
+            LogSF.debug(LOG, "DataFileUploader$UploadFileTask.run(): response status [{}]", response.getStatusLine());
 
             if (responseEntity != null)
                {
+               final long parseStartTime = tracer.start();
                try
                   {
                   // read the response into a String
@@ -221,16 +508,14 @@ public final class DataFileUploader
                      LOG.error("DataFileUploader$UploadFileTask.run(): Exception while parsing the JSON response", e);
                      }
 
-                  if (LOG.isDebugEnabled())
-                     {
-                     LOG.debug("DataFileUploader$UploadFileTask.run(): response [" + json + "]");
-                     }
+                  LogSF.debug(LOG, "DataFileUploader$UploadFileTask.run(): response [{}]", json);
 
                   if (json != null)
                      {
                      // now parse the response, converting the JSON into a DataFileUploadResponse
                      final ObjectMapper mapper = new ObjectMapper();
                      dataFileUploadResponse = mapper.readValue(json, DataFileUploadResponseImpl.class);
+                     outcome = DataFileEventJournal.Type.UPLOAD_RESPONSE;
                      }
                   }
                catch (IOException e)
@@ -245,8 +530,15 @@ public final class DataFileUploader
                   {
                   LOG.error("DataFileUploader$UploadFileTask.run(): Exception while reading the response", e);
                   }
+               tracer.end(DataFileTracer.Span.RESPONSE_PARSE, originalFilename, parseStartTime);
                }
             EntityUtils.consume(responseEntity);
+            isConnectionReleased = true;
+
+            if (isCompressed)
+               {
+               isCompressionRejected = isCompressionRejected(response.getStatusLine().getStatusCode(), dataFileUploadResponse);
+               }
             }
          catch (ClientProtocolException e)
             {
@@ -257,16 +549,25 @@ public final class DataFileUploader
             final String message = "Connection timeout while trying to upload data file [" + originalFilename + "] to [" + uploadUrl + "]";
             LOG.error("DataFileUploader$UploadFileTask.run(): ConnectTimeoutException: " + message + " (reason: " + e.getMessage() + ")");
             CONSOLE_LOG.error(message);
+            outcome = DataFileEventJournal.Type.UPLOAD_CONNECT_TIMEOUT;
+            concurrencyOutcome = UploadConcurrencyLimiter.Outcome.OVERLOAD;
+            serverReachabilityMonitor.reportConnectionFailure();
             }
          catch (SocketTimeoutException e)
             {
             final String message = "Communication timeout while trying to upload data file [" + originalFilename + "] to [" + uploadUrl + "]";
             LOG.error("DataFileUploader$UploadFileTask.run(): SocketTimeoutException: " + message + " (reason: " + e.getMessage() + ")");
             CONSOLE_LOG.error(message);
+            outcome = DataFileEventJournal.Type.UPLOAD_SOCKET_TIMEOUT;
+            concurrencyOutcome = UploadConcurrencyLimiter.Outcome.OVERLOAD;
             }
          catch (IOException e)
             {
             LOG.error("DataFileUploader$UploadFileTask.run(): IOException while trying to upload data file [" + fileToUpload + "]", e);
+            if (e instanceof ConnectException || e instanceof NoRouteToHostException || e instanceof UnknownHostException)
+               {
+               serverReachabilityMonitor.reportConnectionFailure();
+               }
             }
          catch (Exception e)
             {
@@ -274,9 +575,47 @@ public final class DataFileUploader
             }
          finally
             {
-            // When the HttpClient instance is no longer needed, shut down the connection manager to ensure immediate
-            // deallocation of all system resources
-            httpClient.getConnectionManager().shutdown();
+            if (watchdogFuture != null)
+               {
+               watchdogFuture.cancel(false);
+               }
+
+            // If the response wasn't read to the end, the connection can't be reused, so abort the request to close it
+            // and return it to the pool.
+            if (httpPost != null && !isConnectionReleased)
+               {
+               httpPost.abort();
+               }
+            }
+
+         final AbortReason abortReason = (watchdog == null) ? null : watchdog.getAbortReason();
+         if (isCompressionRejected)
+            {
+            // The server couldn't handle the compressed body, so don't let the response mark the file as bad.  The null
+            // response makes the listeners retry it later, and by then uploads are sent uncompressed.
+            compressor.reportRejected();
+            dataFileUploadResponse = null;
+            concurrencyOutcome = UploadConcurrencyLimiter.Outcome.OTHER_FAILURE;
+            eventJournal.record(DataFileEventJournal.Type.UPLOAD_COMPRESSION_REJECTED, originalFilename, fileLength, System.nanoTime() - startTime);
+            }
+         else if (abortReason == null || dataFileUploadResponse != null)
+            {
+            eventJournal.record(outcome, originalFilename, fileLength, System.nanoTime() - startTime);
+            }
+         else
+            {
+            // The upload was aborted, so whatever exception that caused was logged above as a failure.  The null
+            // response makes the listeners treat it as a failed upload and retry it later.
+            final String message = "Aborted upload of data file [" + originalFilename + "] after sending " + watchdog.getNumBytesWritten() + " of " + fileLength + " bytes because it " + abortReason.getDescription() + ".  It will be retried.";
+            LOG.warn("DataFileUploader$UploadFileTask.run(): " + message);
+
+            // Feed the throughput achieved before the abort into the estimate too.  Otherwise, a link which has become
+            // much slower than the estimate would abort every large upload without ever lengthening the deadlines.
+            throughputEstimator.recordAbortedUpload(watchdog.getNumBytesWritten(), watchdog.getElapsedTimeInNanos());
+            CONSOLE_LOG.warn(message);
+            dataFileUploadResponse = null;
+            concurrencyOutcome = UploadConcurrencyLimiter.Outcome.OVERLOAD;
+            eventJournal.record(DataFileEventJournal.Type.UPLOAD_ABORTED, originalFilename, watchdog.getNumBytesWritten(), System.nanoTime() - startTime);
             }
 
          // notify listeners
@@ -287,6 +626,208 @@ public final class DataFileUploader
          }
       }
 
+   /**
+    * Returns the rate, in bytes per second, at which each upload in flight can send under the bandwidth limits in effect
+    * right now, or {@link Double#POSITIVE_INFINITY} if uploads are unlimited.
+    */
+   private double getBytesPerSecondPerUpload()
+      {
+      return bandwidthLimiter.getBytesPerSecondPerConnection(Math.max(1, concurrencyLimiter.getNumInFlight()));
+      }
+
+   /**
+    * Returns <code>true</code> if the response to a compressed upload shows that the server couldn't handle the
+    * compression, i.e. it rejected the encoding outright (415 or 501), or (before it has ever accepted a compressed
+    * upload) it responded with a 400 or 411, or failed to parse a single binrec.  Once the server has accepted a
+    * compressed upload, a 400 or 411 is more likely a problem with that one file than with compression.
+    */
+   private boolean isCompressionRejected(final int statusCode, @Nullable final DataFileUploadResponse uploadResponse)
+      {
+      if (statusCode == HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE ||
+          statusCode == HttpStatus.SC_NOT_IMPLEMENTED)
+         {
+         return true;
+         }
+
+      if (statusCode == HttpStatus.SC_BAD_REQUEST ||
+          statusCode == HttpStatus.SC_LENGTH_REQUIRED)
+         {
+         return compressor.getServerSupport() == UploadCompressor.ServerSupport.UNKNOWN;
+         }
+
+      if (uploadResponse != null)
+         {
+         final Integer numSuccessfulBinRecs = uploadResponse.getSuccessfulBinRecs();
+         if (numSuccessfulBinRecs != null && numSuccessfulBinRecs > 0)
+            {
+            compressor.reportAccepted();
+            }
+         else if (compressor.getServerSupport() == UploadCompressor.ServerSupport.UNKNOWN)
+            {
+            final Integer numFailedBinRecs = uploadResponse.getFailedBinRecs();
+            final List<String> errors = uploadResponse.getErrors();
+            return (numFailedBinRecs != null && numFailedBinRecs > 0) || (errors != null && !errors.isEmpty());
+            }
+         }
+      return false;
+      }
+
+   /** The reasons the {@link UploadWatchdog} may abort an upload. */
+   private static enum AbortReason
+      {
+         DEADLINE_EXCEEDED("missed its deadline"),
+         TOO_SLOW("was sending too slowly");
+
+      private final String description;
+
+      private AbortReason(final String description)
+         {
+         this.description = description;
+         }
+
+      @NotNull
+      private String getDescription()
+         {
+         return description;
+         }
+      }
+
+   /**
+    * Periodically checks an upload's progress, and aborts it if it has missed its deadline or if it has sent less than
+    * {@link #MIN_THROUGHPUT_IN_BYTES_PER_SECOND} (or half of its share of the bandwidth limits, if that's lower) over
+    * the last {@link #STALL_WINDOW_IN_SECONDS stall window} while sending the file.  Waiting for the server's response
+    * after the file has been sent is only limited by the deadline.
+    */
+   private final class UploadWatchdog implements Runnable
+      {
+      private final HttpPost httpPost;
+      private final ProgressTrackingEntity entity;
+      private final long startTime = System.nanoTime();
+      private final long deadlineInNanos;
+      private final long stallWindowInNanos = TimeUnit.SECONDS.toNanos(STALL_WINDOW_IN_SECONDS);
+      private long windowStartTime = startTime;
+      private long windowStartNumBytesWritten = 0;
+
+      @Nullable
+      private volatile AbortReason abortReason = null;
+
+      private UploadWatchdog(@NotNull final HttpPost httpPost, @NotNull final ProgressTrackingEntity entity, final long deadlineInMillis)
+         {
+         this.httpPost = httpPost;
+         this.entity = entity;
+         this.deadlineInNanos = TimeUnit.MILLISECONDS.toNanos(deadlineInMillis);
+         }
+
+      @Nullable
+      private AbortReason getAbortReason()
+         {
+         return abortReason;
+         }
+
+      private long getNumBytesWritten()
+         {
+         return entity.getNumBytesWritten();
+         }
+
+      private long getElapsedTimeInNanos()
+         {
+         return System.nanoTime() - startTime;
+         }
+
+      @Override
+      public void run()
+         {
+         if (abortReason != null)
+            {
+            return;
+            }
+
+         final long now = System.nanoTime();
+         if (now - startTime > deadlineInNanos)
+            {
+            abort(AbortReason.DEADLINE_EXCEEDED);
+            }
+         else if (now - windowStartTime >= stallWindowInNanos)
+            {
+            final long numBytesWritten = entity.getNumBytesWritten();
+            final double bytesPerSecond = (numBytesWritten - windowStartNumBytesWritten) * 1e9 / (now - windowStartTime);
+            final double minBytesPerSecond = Math.min(MIN_THROUGHPUT_IN_BYTES_PER_SECOND, getBytesPerSecondPerUpload() / 2);
+            if (entity.isSending() && bytesPerSecond < minBytesPerSecond)
+               {
+               abort(AbortReason.TOO_SLOW);
+               }
+            windowStartTime = now;
+            windowStartNumBytesWritten = numBytesWritten;
+            }
+         }
+
+      private void abort(@NotNull final AbortReason reason)
+         {
+         abortReason = reason;
+         LOG.debug("DataFileUploader$UploadWatchdog.run(): aborting upload to [" + httpPost.getURI() + "] because it " + reason.getDescription());
+         httpPost.abort();
+         }
+      }
+
+   /**
+    * An {@link HttpEntity} wrapper which sends within the limits of an {@link UploadBandwidthLimiter}, and counts the
+    * bytes written, so that the {@link UploadWatchdog} can see progress.
+    */
+   private static final class ProgressTrackingEntity extends HttpEntityWrapper
+      {
+      private final UploadBandwidthLimiter bandwidthLimiter;
+      private final AtomicLong numBytesWritten = new AtomicLong(0);
+      private volatile boolean isSending = false;
+
+      private ProgressTrackingEntity(@NotNull final HttpEntity wrappedEntity, @NotNull final UploadBandwidthLimiter bandwidthLimiter)
+         {
+         super(wrappedEntity);
+         this.bandwidthLimiter = bandwidthLimiter;
+         }
+
+      private long getNumBytesWritten()
+         {
+         return numBytesWritten.get();
+         }
+
+      /** Returns <code>true</code> while the entity is being written. */
+      private boolean isSending()
+         {
+         return isSending;
+         }
+
+      @Override
+      public void writeTo(final OutputStream outputStream) throws IOException
+         {
+         numBytesWritten.set(0);
+         isSending = true;
+         try
+            {
+            wrappedEntity.writeTo(
+                  new FilterOutputStream(bandwidthLimiter.wrap(outputStream))
+                  {
+                  @Override
+                  public void write(final int b) throws IOException
+                     {
+                     out.write(b);
+                     numBytesWritten.incrementAndGet();
+                     }
+
+                  @Override
+                  public void write(final byte[] bytes, final int offset, final int length) throws IOException
+                     {
+                     out.write(bytes, offset, length);
+                     numBytesWritten.addAndGet(length);
+                     }
+                  });
+            }
+         finally
+            {
+            isSending = false;
+            }
+         }
+      }
+
    /**
     * @author Chris Bartley (bartley@cmu.edu)
     */
@@ -0,0 +1,247 @@
+package org.bodytrack.loggingdevice;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import edu.cmu.ri.createlab.util.thread.DaemonThreadFactory;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * <p>
+ * <code>DiskSpaceGovernor</code> periodically checks the usable space on the filesystem holding a data file directory
+ * and classifies it into a {@link State}.  Listeners are notified whenever the state changes, and on every check while
+ * the state is not {@link State#NORMAL NORMAL}, so that they can throttle or pause downloads and free up space.
+ * </p>
+ * <p>
+ * The thresholds are set with the {@link #LOW_THRESHOLD_IN_MEGABYTES_SYSTEM_PROPERTY} and
+ * {@link #CRITICAL_THRESHOLD_IN_MEGABYTES_SYSTEM_PROPERTY} system properties.  Each check is a single
+ * {@link FileStore#getUsableSpace()} call, so it's cheap enough to run every
+ * {@link #CHECK_INTERVAL_IN_SECONDS_SYSTEM_PROPERTY few seconds}.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class DiskSpaceGovernor
+   {
+   private static final Logger LOG = Logger.getLogger(DiskSpaceGovernor.class);
+   private static final Logger CONSOLE_LOG = Logger.getLogger("ConsoleLog");
+
+   public static final String LOW_THRESHOLD_IN_MEGABYTES_SYSTEM_PROPERTY = "org.bodytrack.loggingdevice.DiskSpaceGovernor.low-threshold-in-megabytes";
+   public static final String CRITICAL_THRESHOLD_IN_MEGABYTES_SYSTEM_PROPERTY = "org.bodytrack.loggingdevice.DiskSpaceGovernor.critical-threshold-in-megabytes";
+   public static final String CHECK_INTERVAL_IN_SECONDS_SYSTEM_PROPERTY = "org.bodytrack.loggingdevice.DiskSpaceGovernor.check-interval-in-seconds";
+   public static final String EVICT_UPLOADED_FILES_SYSTEM_PROPERTY = "org.bodytrack.loggingdevice.DiskSpaceGovernor.evict-uploaded-files";
+
+   private static final int DEFAULT_LOW_THRESHOLD_IN_MEGABYTES = 256;
+   private static final int DEFAULT_CRITICAL_THRESHOLD_IN_MEGABYTES = 64;
+   private static final int DEFAULT_CHECK_INTERVAL_IN_SECONDS = 30;
+   private static final long BYTES_PER_MEGABYTE = 1024 * 1024;
+
+   private static final long LOW_THRESHOLD_IN_BYTES;
+   private static final long CRITICAL_THRESHOLD_IN_BYTES;
+   private static final int CHECK_INTERVAL_IN_SECONDS;
+   private static final boolean WILL_EVICT_UPLOADED_FILES = Boolean.getBoolean(EVICT_UPLOADED_FILES_SYSTEM_PROPERTY);
+
+   static
+      {
+      final int criticalThresholdInMegabytes = Math.max(0, SystemPropertyUtils.getIntegerSystemProperty(CRITICAL_THRESHOLD_IN_MEGABYTES_SYSTEM_PROPERTY, DEFAULT_CRITICAL_THRESHOLD_IN_MEGABYTES));
+      final int lowThresholdInMegabytes = Math.max(criticalThresholdInMegabytes, SystemPropertyUtils.getIntegerSystemProperty(LOW_THRESHOLD_IN_MEGABYTES_SYSTEM_PROPERTY, DEFAULT_LOW_THRESHOLD_IN_MEGABYTES));
+      CRITICAL_THRESHOLD_IN_BYTES = criticalThresholdInMegabytes * BYTES_PER_MEGABYTE;
+      LOW_THRESHOLD_IN_BYTES = lowThresholdInMegabytes * BYTES_PER_MEGABYTE;
+      CHECK_INTERVAL_IN_SECONDS = Math.max(1, SystemPropertyUtils.getIntegerSystemProperty(CHECK_INTERVAL_IN_SECONDS_SYSTEM_PROPERTY, DEFAULT_CHECK_INTERVAL_IN_SECONDS));
+
+      LOG.info("DiskSpaceGovernor: low threshold is [" + lowThresholdInMegabytes + "] MB, critical threshold is [" + criticalThresholdInMegabytes + "] MB, eviction of uploaded files is [" + (WILL_EVICT_UPLOADED_FILES ? "enabled" : "disabled") + "].");
+      }
+
+   public static enum State
+      {
+         /** Plenty of space, so everything runs normally. */
+         NORMAL,
+
+         /** Usable space is below the low threshold, so downloads should be throttled and space should be reclaimed. */
+         LOW,
+
+         /** Usable space is below the critical threshold, so downloads should be paused until space is reclaimed. */
+         CRITICAL
+      }
+
+   public interface EventListener
+      {
+      /**
+       * Called whenever the {@link State} changes, and after every check while the state is not
+       * {@link State#NORMAL NORMAL}.
+       */
+      void handleDiskSpaceStateEvent(@NotNull final State state, final long usableSpaceInBytes);
+      }
+
+   @NotNull
+   private final File directory;
+
+   private final long lowThresholdInBytes;
+   private final long criticalThresholdInBytes;
+
+   private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory(this.getClass() + ".executor"));
+   private final Set<EventListener> eventListeners = new CopyOnWriteArraySet<EventListener>();
+
+   @Nullable
+   private FileStore fileStore = null;
+
+   private volatile State state = State.NORMAL;
+   private volatile long usableSpaceInBytes = -1;
+
+   private final Runnable checkRunnable =
+         new Runnable()
+         {
+         @Override
+         public void run()
+            {
+            try
+               {
+               check();
+               }
+            catch (Exception e)
+               {
+               LOG.error("DiskSpaceGovernor.checkRunnable.run(): Exception while checking usable disk space", e);
+               }
+            }
+         };
+
+   /** Creates a <code>DiskSpaceGovernor</code> for the given directory, using the thresholds from the system properties. */
+   public DiskSpaceGovernor(@NotNull final File directory)
+      {
+      this(directory, LOW_THRESHOLD_IN_BYTES, CRITICAL_THRESHOLD_IN_BYTES);
+      }
+
+   public DiskSpaceGovernor(@NotNull final File directory, final long lowThresholdInBytes, final long criticalThresholdInBytes)
+      {
+      this.directory = directory;
+      this.criticalThresholdInBytes = Math.max(0, criticalThresholdInBytes);
+      this.lowThresholdInBytes = Math.max(this.criticalThresholdInBytes, lowThresholdInBytes);
+      }
+
+   /** Returns whether uploaded files may be deleted to reclaim space when the state is {@link State#CRITICAL CRITICAL}. */
+   public boolean willEvictUploadedFiles()
+      {
+      return WILL_EVICT_UPLOADED_FILES;
+      }
+
+   public long getLowThresholdInBytes()
+      {
+      return lowThresholdInBytes;
+      }
+
+   public void addEventListener(@Nullable final EventListener listener)
+      {
+      if (listener != null)
+         {
+         eventListeners.add(listener);
+         }
+      }
+
+   public void removeEventListener(@Nullable final EventListener listener)
+      {
+      if (listener != null)
+         {
+         eventListeners.remove(listener);
+         }
+      }
+
+   /** Performs an immediate check, then starts checking periodically. */
+   public void startup()
+      {
+      executor.scheduleWithFixedDelay(checkRunnable, 0, CHECK_INTERVAL_IN_SECONDS, TimeUnit.SECONDS);
+      }
+
+   public void shutdown()
+      {
+      LOG.debug("DiskSpaceGovernor.shutdown()");
+      executor.shutdownNow();
+      }
+
+   /** Returns the {@link State} as of the most recent check. */
+   @NotNull
+   public State getState()
+      {
+      return state;
+      }
+
+   /** Returns the usable space, in bytes, as of the most recent check, or -1 if it has never been checked successfully. */
+   public long getUsableSpaceInBytes()
+      {
+      return usableSpaceInBytes;
+      }
+
+   /** Checks the usable space, updates the {@link State}, and notifies listeners as necessary.  Returns the new state. */
+   @NotNull
+   public State check()
+      {
+      try
+         {
+         if (fileStore == null)
+            {
+            fileStore = Files.getFileStore(directory.toPath());
+            }
+         usableSpaceInBytes = fileStore.getUsableSpace();
+         }
+      catch (IOException e)
+         {
+         // the FileStore may have gone away (e.g. a removable drive), so look it up again next time
+         fileStore = null;
+         LOG.error("DiskSpaceGovernor.check(): IOException while checking usable space for [" + directory + "].  Keeping state [" + state + "].", e);
+         return state;
+         }
+
+      final State previousState = state;
+      if (usableSpaceInBytes < criticalThresholdInBytes)
+         {
+         state = State.CRITICAL;
+         }
+      else if (usableSpaceInBytes < lowThresholdInBytes)
+         {
+         state = State.LOW;
+         }
+      else
+         {
+         state = State.NORMAL;
+         }
+
+      if (state != previousState)
+         {
+         final String msg = "Disk space state changed from " + previousState + " to " + state + " (" + (usableSpaceInBytes / BYTES_PER_MEGABYTE) + " MB usable).";
+         if (state == State.NORMAL)
+            {
+            LOG.info("DiskSpaceGovernor.check(): " + msg);
+            CONSOLE_LOG.info(msg);
+            }
+         else
+            {
+            LOG.warn("DiskSpaceGovernor.check(): " + msg);
+            CONSOLE_LOG.warn(msg);
+            }
+         }
+
+      if (state != previousState || state != State.NORMAL)
+         {
+         for (final EventListener listener : eventListeners)
+            {
+            try
+               {
+               listener.handleDiskSpaceStateEvent(state, usableSpaceInBytes);
+               }
+            catch (Exception e)
+               {
+               LOG.error("DiskSpaceGovernor.check(): Exception while notifying listener [" + listener + "]", e);
+               }
+            }
+         }
+
+      return state;
+      }
+   }
@@ -0,0 +1,243 @@
+package org.bodytrack.loggingdevice;
+
+import java.util.Arrays;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * <p>
+ * <code>DownloadRetryTable</code> tracks re-download attempts for files which were downloaded with an incorrect
+ * checksum.  Entries are keyed by the file's timestamp (the base filename parsed as hex epoch seconds) and stored in
+ * primitive arrays with open addressing, so the table never boxes and never grows beyond its fixed capacity.
+ * </p>
+ * <p>
+ * Each entry records the number of attempts and the earliest time at which the next attempt is allowed.  The delay
+ * between attempts doubles after each one (up to a maximum), so a flaky file is retried at widening intervals rather
+ * than on every file list poll.  Entries which haven't been touched within the time-to-live are evicted by
+ * {@link #purgeExpired(long)}, so files which disappear from the device without an explicit delete don't leak entries.
+ * If the table fills up anyway, the least recently touched entry is evicted to make room.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+final class DownloadRetryTable
+   {
+   private static final Logger LOG = Logger.getLogger(DownloadRetryTable.class);
+
+   private static final int DEFAULT_MAX_ENTRIES = 1024;
+   private static final long DEFAULT_INITIAL_BACKOFF_IN_MILLIS = 5 * 1000;
+   private static final long DEFAULT_MAX_BACKOFF_IN_MILLIS = 15 * 60 * 1000;
+   private static final long DEFAULT_TIME_TO_LIVE_IN_MILLIS = 2 * 60 * 60 * 1000;
+
+   /** Marks an empty slot.  Valid keys are never negative (see {@link #computeKey(String)}). */
+   private static final long EMPTY = -1;
+
+   /**
+    * Returns the key for the given filename, which is the base filename parsed as a hex timestamp.  Filenames which
+    * aren't valid hex timestamps get a key derived from the hash of the base filename, offset so that it can't collide
+    * with a real (32-bit) timestamp.
+    */
+   static long computeKey(@NotNull final String filename)
+      {
+      final String baseFilename = DataFileDirectory.computeBaseFilename(filename).toUpperCase();
+      if (baseFilename.length() > 0 && baseFilename.length() <= 8)
+         {
+         try
+            {
+            return Long.parseLong(baseFilename, 16);
+            }
+         catch (NumberFormatException ignored)
+            {
+            // fall through
+            }
+         }
+      return 0x100000000L | (baseFilename.hashCode() & 0xffffffffL);
+      }
+
+   private final int maxEntries;
+   private final long initialBackoffInMillis;
+   private final long maxBackoffInMillis;
+   private final long timeToLiveInMillis;
+
+   private final long[] keys;
+   private final int[] attemptCounts;
+   private final long[] nextAttemptTimes;
+   private final long[] lastTouchedTimes;
+   private final int mask;
+   private int size = 0;
+
+   DownloadRetryTable()
+      {
+      this(DEFAULT_MAX_ENTRIES, DEFAULT_INITIAL_BACKOFF_IN_MILLIS, DEFAULT_MAX_BACKOFF_IN_MILLIS, DEFAULT_TIME_TO_LIVE_IN_MILLIS);
+      }
+
+   DownloadRetryTable(final int maxEntries, final long initialBackoffInMillis, final long maxBackoffInMillis, final long timeToLiveInMillis)
+      {
+      this.maxEntries = Math.max(1, maxEntries);
+      this.initialBackoffInMillis = Math.max(0, initialBackoffInMillis);
+      this.maxBackoffInMillis = Math.max(this.initialBackoffInMillis, maxBackoffInMillis);
+      this.timeToLiveInMillis = Math.max(this.maxBackoffInMillis, timeToLiveInMillis);
+
+      // keep the load factor at or below 0.5 so probe sequences stay short
+      int capacity = 2;
+      while (capacity < this.maxEntries * 2)
+         {
+         capacity <<= 1;
+         }
+      mask = capacity - 1;
+      keys = new long[capacity];
+      attemptCounts = new int[capacity];
+      nextAttemptTimes = new long[capacity];
+      lastTouchedTimes = new long[capacity];
+      Arrays.fill(keys, EMPTY);
+      }
+
+   /** Returns <code>true</code> if no attempt is pending for the given key, or if its backoff delay has elapsed. */
+   synchronized boolean isRetryDue(final long key, final long currentTimeMillis)
+      {
+      final int slot = findSlot(key);
+      return keys[slot] == EMPTY || currentTimeMillis >= nextAttemptTimes[slot];
+      }
+
+   /**
+    * Records an attempt for the given key, schedules the earliest time for the next one, and returns the total number
+    * of attempts recorded for the key.
+    */
+   synchronized int recordAttempt(final long key, final long currentTimeMillis)
+      {
+      int slot = findSlot(key);
+      if (keys[slot] == EMPTY)
+         {
+         if (size >= maxEntries)
+            {
+            if (purgeExpired(currentTimeMillis) == 0)
+               {
+               evictLeastRecentlyTouched();
+               }
+            slot = findSlot(key);
+            }
+         keys[slot] = key;
+         attemptCounts[slot] = 0;
+         size++;
+         }
+
+      final int attempts = ++attemptCounts[slot];
+      nextAttemptTimes[slot] = currentTimeMillis + computeBackoff(attempts);
+      lastTouchedTimes[slot] = currentTimeMillis;
+      return attempts;
+      }
+
+   /** Forgets any attempts recorded for the given key. */
+   synchronized void remove(final long key)
+      {
+      final int slot = findSlot(key);
+      if (keys[slot] != EMPTY)
+         {
+         removeSlot(slot);
+         }
+      }
+
+   /** Evicts all entries which haven't been touched within the time-to-live, and returns the number evicted. */
+   synchronized int purgeExpired(final long currentTimeMillis)
+      {
+      int numEvicted = 0;
+      int slot = 0;
+      while (slot < keys.length)
+         {
+         if (keys[slot] != EMPTY && currentTimeMillis - lastTouchedTimes[slot] >= timeToLiveInMillis)
+            {
+            // don't advance, since removal may shift another entry into this slot
+            removeSlot(slot);
+            numEvicted++;
+            }
+         else
+            {
+            slot++;
+            }
+         }
+
+      if (numEvicted > 0 && LOG.isDebugEnabled())
+         {
+         LOG.debug("DownloadRetryTable.purgeExpired(): evicted [" + numEvicted + "] expired entries, [" + size + "] remain.");
+         }
+      return numEvicted;
+      }
+
+   synchronized int size()
+      {
+      return size;
+      }
+
+   private long computeBackoff(final int attempts)
+      {
+      // doubles with each attempt, capped at the max (guard the shift so it can't overflow)
+      final int shift = Math.min(attempts - 1, 30);
+      final long backoff = initialBackoffInMillis << shift;
+      return (backoff < 0 || backoff > maxBackoffInMillis) ? maxBackoffInMillis : backoff;
+      }
+
+   /** Returns the slot holding the given key, or the empty slot where it would be inserted. */
+   private int findSlot(final long key)
+      {
+      int slot = hash(key) & mask;
+      while (keys[slot] != EMPTY && keys[slot] != key)
+         {
+         slot = (slot + 1) & mask;
+         }
+      return slot;
+      }
+
+   static int hash(final long key)
+      {
+      // timestamps of neighboring files differ only in the low bits, so mix them before masking
+      long h = key * 0x9E3779B97F4A7C15L;
+      h ^= (h >>> 32);
+      return (int)h;
+      }
+
+   private void evictLeastRecentlyTouched()
+      {
+      int oldestSlot = -1;
+      for (int slot = 0; slot < keys.length; slot++)
+         {
+         if (keys[slot] != EMPTY && (oldestSlot < 0 || lastTouchedTimes[slot] < lastTouchedTimes[oldestSlot]))
+            {
+            oldestSlot = slot;
+            }
+         }
+      if (oldestSlot >= 0)
+         {
+         if (LOG.isDebugEnabled())
+            {
+            LOG.debug("DownloadRetryTable.evictLeastRecentlyTouched(): table is full, so evicting entry for key [" + Long.toHexString(keys[oldestSlot]).toUpperCase() + "]");
+            }
+         removeSlot(oldestSlot);
+         }
+      }
+
+   /** Empties the given slot, shifting later entries of the probe sequence back so that lookups never hit a hole. */
+   private void removeSlot(int slot)
+      {
+      keys[slot] = EMPTY;
+      size--;
+
+      int next = (slot + 1) & mask;
+      while (keys[next] != EMPTY)
+         {
+         final int home = hash(keys[next]) & mask;
+
+         // move the entry back if its home slot isn't cyclically within (slot, next]
+         final boolean isHomeInRange = (slot <= next) ? (slot < home && home <= next) : (slot < home || home <= next);
+         if (!isHomeInRange)
+            {
+            keys[slot] = keys[next];
+            attemptCounts[slot] = attemptCounts[next];
+            nextAttemptTimes[slot] = nextAttemptTimes[next];
+            lastTouchedTimes[slot] = lastTouchedTimes[next];
+            keys[next] = EMPTY;
+            slot = next;
+            }
+         next = (next + 1) & mask;
+         }
+      }
+   }
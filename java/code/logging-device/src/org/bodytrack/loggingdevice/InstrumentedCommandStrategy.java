@@ -0,0 +1,244 @@
+package org.bodytrack.loggingdevice;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import edu.cmu.ri.createlab.serial.SerialDeviceCommandResponse;
+import edu.cmu.ri.createlab.serial.SerialDeviceIOHelper;
+import edu.cmu.ri.createlab.serial.SerialDeviceReturnValueCommandStrategy;
+import edu.cmu.ri.createlab.util.commandexecution.CommandStrategy;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * <p>
+ * <code>InstrumentedCommandStrategy</code> wraps a {@link CommandStrategy} for a single execution, and reports the
+ * execution to a {@link SerialLinkStatistics}.  The time between construction and the start of
+ * {@link #execute(SerialDeviceIOHelper)} is the time spent waiting in the command queue.  The strategy being wrapped
+ * gets a {@link SerialDeviceIOHelper} which counts the bytes written and read.
+ * </p>
+ * <p>
+ * Since the command queue doesn't tell the caller why a command failed, the strategy also keeps track of how far the
+ * execution got, so that the caller can report the {@link SerialLinkStatistics.FailureCause cause} with
+ * {@link #recordCompletion(boolean)} once the command queue returns.  Instances must not be reused.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+class InstrumentedCommandStrategy implements CommandStrategy<SerialDeviceIOHelper, SerialDeviceCommandResponse>
+   {
+   @NotNull
+   private final SerialLinkStatistics statistics;
+
+   @NotNull
+   private final SerialLinkStatistics.Command command;
+
+   @NotNull
+   private final CommandStrategy<SerialDeviceIOHelper, SerialDeviceCommandResponse> delegate;
+
+   private final long submitTime = System.nanoTime();
+   private volatile boolean wasExecuted = false;
+   private volatile boolean didThrowException = false;
+   private volatile boolean wasResponseSuccessful = false;
+
+   InstrumentedCommandStrategy(@NotNull final SerialLinkStatistics statistics,
+                               @NotNull final SerialLinkStatistics.Command command,
+                               @NotNull final CommandStrategy<SerialDeviceIOHelper, SerialDeviceCommandResponse> delegate)
+      {
+      this.statistics = statistics;
+      this.command = command;
+      this.delegate = delegate;
+      }
+
+   @NotNull
+   final SerialLinkStatistics getStatistics()
+      {
+      return statistics;
+      }
+
+   @NotNull
+   final SerialLinkStatistics.Command getCommand()
+      {
+      return command;
+      }
+
+   @Override
+   public final SerialDeviceCommandResponse execute(final SerialDeviceIOHelper ioHelper) throws Exception
+      {
+      final long startTime = System.nanoTime();
+      final CountingSerialDeviceIOHelper countingIOHelper = new CountingSerialDeviceIOHelper(ioHelper);
+      try
+         {
+         final SerialDeviceCommandResponse response = delegate.execute(countingIOHelper);
+         wasResponseSuccessful = response != null && response.wasSuccessful();
+         return response;
+         }
+      catch (Exception e)
+         {
+         didThrowException = true;
+         throw e;
+         }
+      finally
+         {
+         statistics.recordExecution(command,
+                                    startTime - submitTime,
+                                    System.nanoTime() - startTime,
+                                    countingIOHelper.bytesWritten,
+                                    countingIOHelper.bytesRead);
+         wasExecuted = true;
+         }
+      }
+
+   /** Records the outcome of this command, given whether the command queue reported it as successful. */
+   final void recordCompletion(final boolean wasSuccessful)
+      {
+      statistics.recordCompletion(command, wasSuccessful ? null : getFailureCause());
+      }
+
+   @NotNull
+   final SerialLinkStatistics.FailureCause getFailureCause()
+      {
+      if (!wasExecuted)
+         {
+         return SerialLinkStatistics.FailureCause.NOT_EXECUTED;
+         }
+      if (didThrowException)
+         {
+         return SerialLinkStatistics.FailureCause.EXCEPTION;
+         }
+      if (!wasResponseSuccessful)
+         {
+         return SerialLinkStatistics.FailureCause.NO_RESPONSE;
+         }
+      return SerialLinkStatistics.FailureCause.INVALID_RESPONSE;
+      }
+
+   /**
+    * An {@link InstrumentedCommandStrategy} for a {@link SerialDeviceReturnValueCommandStrategy}.  A <code>null</code>
+    * return value means the command failed.
+    */
+   static final class ReturnValue<T> extends InstrumentedCommandStrategy implements SerialDeviceReturnValueCommandStrategy<T>
+      {
+      @NotNull
+      private final SerialDeviceReturnValueCommandStrategy<T> delegate;
+
+      ReturnValue(@NotNull final SerialLinkStatistics statistics,
+                  @NotNull final SerialLinkStatistics.Command command,
+                  @NotNull final SerialDeviceReturnValueCommandStrategy<T> delegate)
+         {
+         super(statistics, command, delegate);
+         this.delegate = delegate;
+         }
+
+      @Override
+      public T convertResponse(final SerialDeviceCommandResponse response)
+         {
+         return delegate.convertResponse(response);
+         }
+
+      /** Records the outcome of this command, given the value returned by the executor. */
+      void recordCompletion(@Nullable final T returnValue)
+         {
+         recordCompletion(returnValue != null);
+         }
+      }
+
+   /** Counts the bytes going through a {@link SerialDeviceIOHelper}.  Only used by the command queue's thread. */
+   private static final class CountingSerialDeviceIOHelper implements SerialDeviceIOHelper
+      {
+      private final SerialDeviceIOHelper ioHelper;
+      private long bytesWritten = 0;
+      private long bytesRead = 0;
+
+      private CountingSerialDeviceIOHelper(@NotNull final SerialDeviceIOHelper ioHelper)
+         {
+         this.ioHelper = ioHelper;
+         }
+
+      @Override
+      public int available() throws IOException
+         {
+         return ioHelper.available();
+         }
+
+      @Override
+      public boolean isDataAvailable() throws IOException
+         {
+         return ioHelper.isDataAvailable();
+         }
+
+      @Override
+      public InputStream getInputStream()
+         {
+         return new FilterInputStream(ioHelper.getInputStream())
+         {
+         @Override
+         public int read() throws IOException
+            {
+            final int b = super.read();
+            if (b >= 0)
+               {
+               bytesRead++;
+               }
+            return b;
+            }
+
+         @Override
+         public int read(final byte[] buffer, final int offset, final int length) throws IOException
+            {
+            final int numBytesRead = super.read(buffer, offset, length);
+            if (numBytesRead > 0)
+               {
+               bytesRead += numBytesRead;
+               }
+            return numBytesRead;
+            }
+         };
+         }
+
+      @Override
+      public OutputStream getOutputStream()
+         {
+         return new FilterOutputStream(ioHelper.getOutputStream())
+         {
+         @Override
+         public void write(final int b) throws IOException
+            {
+            super.write(b);
+            bytesWritten++;
+            }
+         };
+         }
+
+      @Override
+      public int read() throws IOException
+         {
+         final int b = ioHelper.read();
+         if (b >= 0)
+            {
+            bytesRead++;
+            }
+         return b;
+         }
+
+      @Override
+      public int read(final byte[] buffer) throws IOException
+         {
+         final int numBytesRead = ioHelper.read(buffer);
+         if (numBytesRead > 0)
+            {
+            bytesRead += numBytesRead;
+            }
+         return numBytesRead;
+         }
+
+      @Override
+      public void write(final byte[] data) throws IOException
+         {
+         ioHelper.write(data);
+         bytesWritten += data.length;
+         }
+      }
+   }
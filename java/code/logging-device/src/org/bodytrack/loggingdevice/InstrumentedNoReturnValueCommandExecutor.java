@@ -0,0 +1,43 @@
+package org.bodytrack.loggingdevice;
+
+import edu.cmu.ri.createlab.serial.SerialDeviceCommandResponse;
+import edu.cmu.ri.createlab.serial.SerialDeviceIOHelper;
+import edu.cmu.ri.createlab.serial.SerialDeviceNoReturnValueCommandExecutor;
+import edu.cmu.ri.createlab.util.commandexecution.CommandStrategy;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * <code>InstrumentedNoReturnValueCommandExecutor</code> wraps a {@link SerialDeviceNoReturnValueCommandExecutor} so
+ * that every command it executes is recorded in a {@link SerialLinkStatistics}.
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+final class InstrumentedNoReturnValueCommandExecutor
+   {
+   @NotNull
+   private final SerialDeviceNoReturnValueCommandExecutor executor;
+
+   @NotNull
+   private final SerialLinkStatistics statistics;
+
+   InstrumentedNoReturnValueCommandExecutor(@NotNull final SerialDeviceNoReturnValueCommandExecutor executor,
+                                            @NotNull final SerialLinkStatistics statistics)
+      {
+      this.executor = executor;
+      this.statistics = statistics;
+      }
+
+   /**
+    * Executes the given <code>commandStrategy</code>, recording it as the given <code>command</code>.  Returns the
+    * status of the response.
+    *
+    * @see SerialDeviceNoReturnValueCommandExecutor#execute
+    */
+   boolean execute(@NotNull final SerialLinkStatistics.Command command, @NotNull final CommandStrategy<SerialDeviceIOHelper, SerialDeviceCommandResponse> commandStrategy)
+      {
+      final InstrumentedCommandStrategy instrumentedCommandStrategy = new InstrumentedCommandStrategy(statistics, command, commandStrategy);
+      final boolean wasSuccessful = executor.execute(instrumentedCommandStrategy);
+      instrumentedCommandStrategy.recordCompletion(wasSuccessful);
+      return wasSuccessful;
+      }
+   }
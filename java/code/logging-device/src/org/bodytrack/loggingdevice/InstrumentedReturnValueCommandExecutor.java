@@ -0,0 +1,43 @@
+package org.bodytrack.loggingdevice;
+
+import edu.cmu.ri.createlab.serial.SerialDeviceReturnValueCommandExecutor;
+import edu.cmu.ri.createlab.serial.SerialDeviceReturnValueCommandStrategy;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * <code>InstrumentedReturnValueCommandExecutor</code> wraps a {@link SerialDeviceReturnValueCommandExecutor} so that
+ * every command it executes is recorded in a {@link SerialLinkStatistics}.
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+final class InstrumentedReturnValueCommandExecutor<T>
+   {
+   @NotNull
+   private final SerialDeviceReturnValueCommandExecutor<T> executor;
+
+   @NotNull
+   private final SerialLinkStatistics statistics;
+
+   InstrumentedReturnValueCommandExecutor(@NotNull final SerialDeviceReturnValueCommandExecutor<T> executor,
+                                          @NotNull final SerialLinkStatistics statistics)
+      {
+      this.executor = executor;
+      this.statistics = statistics;
+      }
+
+   /**
+    * Executes the given <code>commandStrategy</code>, recording it as the given <code>command</code>.  Returns the
+    * converted response, or <code>null</code> if the command failed.
+    *
+    * @see SerialDeviceReturnValueCommandExecutor#execute
+    */
+   @Nullable
+   T execute(@NotNull final SerialLinkStatistics.Command command, @NotNull final SerialDeviceReturnValueCommandStrategy<T> commandStrategy)
+      {
+      final InstrumentedCommandStrategy.ReturnValue<T> instrumentedCommandStrategy = new InstrumentedCommandStrategy.ReturnValue<T>(statistics, command, commandStrategy);
+      final T returnValue = executor.execute(instrumentedCommandStrategy);
+      instrumentedCommandStrategy.recordCompletion(returnValue);
+      return returnValue;
+      }
+   }
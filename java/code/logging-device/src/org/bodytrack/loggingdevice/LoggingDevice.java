@@ -46,4 +46,11 @@ public interface LoggingDevice extends CreateLabDeviceProxy
    /** Returns the {@link DataStoreConnectionConfig configuration} for this <code>LoggingDevice</code>. */
    @Nullable
    DataStoreConnectionConfig getDataStoreConnectionConfig();
+
+   /**
+    * Returns a report of the latency, throughput, and failures of the commands sent to the logging device, or
+    * <code>null</code> if this <code>LoggingDevice</code> isn't connected over a serial link.
+    */
+   @Nullable
+   String getSerialLinkStatistics();
    }
\ No newline at end of file
@@ -47,6 +47,7 @@ class LoggingDeviceProxy implements LoggingDevice
 
    public static final String APPLICATION_NAME = "LoggingDeviceProxy";
    private static final int DELAY_IN_SECONDS_BETWEEN_PINGS = 2;
+   private static final BaudRate BAUD_RATE = BaudRate.BAUD_460800;
 
    /**
     * Tries to create a <code>LoggingDeviceProxy</code> for the the serial port specified by the given
@@ -67,7 +68,7 @@ class LoggingDeviceProxy implements LoggingDevice
 
       // create the serial port configuration
       final SerialIOConfiguration config = new SerialIOConfiguration(serialPortName,
-                                                                     BaudRate.BAUD_460800,
+                                                                     BAUD_RATE,
                                                                      CharacterSize.EIGHT,
                                                                      Parity.NONE,
                                                                      StopBits.ONE,
@@ -141,15 +142,18 @@ class LoggingDeviceProxy implements LoggingDevice
    private final SerialDeviceReturnValueCommandStrategy<String> getAvilableFilenamesCommandStrategy = new GetAvailableFilenamesCommandStrategy();
    private final CreateLabSerialDeviceCommandStrategy setCurrentTimeCommandStrategy = new SetCurrentTimeCommandStrategy();
 
-   private final SerialDeviceReturnValueCommandExecutor<DataFile> dataFileReturnValueCommandExecutor;
-   private final SerialDeviceReturnValueCommandExecutor<Boolean> booleanReturnValueCommandExecutor;
-   private final SerialDeviceReturnValueCommandExecutor<String> stringReturnValueCommandExecutor;
+   private final SerialLinkStatistics serialLinkStatistics = new SerialLinkStatistics(BAUD_RATE);
+   private final InstrumentedReturnValueCommandExecutor<DataFile> dataFileReturnValueCommandExecutor;
+   private final InstrumentedReturnValueCommandExecutor<Boolean> booleanReturnValueCommandExecutor;
+   private final InstrumentedReturnValueCommandExecutor<String> stringReturnValueCommandExecutor;
 
    private final Pinger pinger = new Pinger();
    private final ScheduledExecutorService pingExecutorService = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory(this.getClass() + ".pingExecutorService"));
    private final ScheduledFuture<?> pingScheduledFuture;
    private final Collection<CreateLabDevicePingFailureEventListener> createLabDevicePingFailureEventListeners = new HashSet<CreateLabDevicePingFailureEventListener>();
 
+   private final DataFileEventJournal eventJournal = DataFileEventJournal.getInstance();
+
    private final LoggingDeviceConfig loggingDeviceConfig;
    private final DataStoreServerConfig dataStoreServerConfig;
    private final DataStoreConnectionConfig dataStoreConnectionConfig;
@@ -167,10 +171,10 @@ class LoggingDeviceProxy implements LoggingDevice
                pinger.forceFailure();
                }
             };
-      dataFileReturnValueCommandExecutor = new SerialDeviceReturnValueCommandExecutor<DataFile>(commandQueue, commandExecutionFailureHandler);
-      booleanReturnValueCommandExecutor = new SerialDeviceReturnValueCommandExecutor<Boolean>(commandQueue, commandExecutionFailureHandler);
-      stringReturnValueCommandExecutor = new SerialDeviceReturnValueCommandExecutor<String>(commandQueue, commandExecutionFailureHandler);
-      final SerialDeviceNoReturnValueCommandExecutor noReturnValueCommandExecutor = new SerialDeviceNoReturnValueCommandExecutor(commandQueue, commandExecutionFailureHandler);
+      dataFileReturnValueCommandExecutor = new InstrumentedReturnValueCommandExecutor<DataFile>(new SerialDeviceReturnValueCommandExecutor<DataFile>(commandQueue, commandExecutionFailureHandler), serialLinkStatistics);
+      booleanReturnValueCommandExecutor = new InstrumentedReturnValueCommandExecutor<Boolean>(new SerialDeviceReturnValueCommandExecutor<Boolean>(commandQueue, commandExecutionFailureHandler), serialLinkStatistics);
+      stringReturnValueCommandExecutor = new InstrumentedReturnValueCommandExecutor<String>(new SerialDeviceReturnValueCommandExecutor<String>(commandQueue, commandExecutionFailureHandler), serialLinkStatistics);
+      final InstrumentedNoReturnValueCommandExecutor noReturnValueCommandExecutor = new InstrumentedNoReturnValueCommandExecutor(new SerialDeviceNoReturnValueCommandExecutor(commandQueue, commandExecutionFailureHandler), serialLinkStatistics);
 
       final Boolean timeSuccess =
             new RetryingActionExecutor<Boolean>()
@@ -186,7 +190,7 @@ class LoggingDeviceProxy implements LoggingDevice
                   LOG.info("LoggingDeviceProxy.executionWorkhorse(): " + msg);
                   }
 
-               final boolean success = noReturnValueCommandExecutor.execute(setCurrentTimeCommandStrategy);
+               final boolean success = noReturnValueCommandExecutor.execute(SerialLinkStatistics.Command.SET_CURRENT_TIME, setCurrentTimeCommandStrategy);
                if (success)
                   {
                   final String message = "Time set successfully!";
@@ -225,8 +229,8 @@ class LoggingDeviceProxy implements LoggingDevice
                   {
                   LOG.info("LoggingDeviceProxy.executionWorkhorse(): " + msg);
                   }
-               final String username = trim(stringReturnValueCommandExecutor.execute(new VariableLengthStringResponseCommandStrategy('U')));
-               final String deviceNickname = trim(stringReturnValueCommandExecutor.execute(new VariableLengthStringResponseCommandStrategy('N')));
+               final String username = trim(stringReturnValueCommandExecutor.execute(SerialLinkStatistics.Command.GET_USERNAME, new VariableLengthStringResponseCommandStrategy('U')));
+               final String deviceNickname = trim(stringReturnValueCommandExecutor.execute(SerialLinkStatistics.Command.GET_DEVICE_NICKNAME, new VariableLengthStringResponseCommandStrategy('N')));
 
                if (isNonNullAndNonEmpty(username) && isNonNullAndNonEmpty(deviceNickname))
                   {
@@ -265,8 +269,8 @@ class LoggingDeviceProxy implements LoggingDevice
                   {
                   LOG.info("LoggingDeviceProxy.executionWorkhorse(): " + msg);
                   }
-               final String serverName = trim(stringReturnValueCommandExecutor.execute(new VariableLengthStringResponseCommandStrategy('V')));
-               final String serverPort = trim(stringReturnValueCommandExecutor.execute(new VariableLengthStringResponseCommandStrategy('O')));
+               final String serverName = trim(stringReturnValueCommandExecutor.execute(SerialLinkStatistics.Command.GET_SERVER_NAME, new VariableLengthStringResponseCommandStrategy('V')));
+               final String serverPort = trim(stringReturnValueCommandExecutor.execute(SerialLinkStatistics.Command.GET_SERVER_PORT, new VariableLengthStringResponseCommandStrategy('O')));
 
                if (isNonNullAndNonEmpty(serverName) && isNonNullAndNonEmpty(serverPort))
                   {
@@ -304,9 +308,9 @@ class LoggingDeviceProxy implements LoggingDevice
                   {
                   LOG.info("LoggingDeviceProxy.executionWorkhorse(): " + msg);
                   }
-               final String wirelessSsid = trim(stringReturnValueCommandExecutor.execute(new VariableLengthStringResponseCommandStrategy('S')));
-               final WirelessAuthorizationType wirelessAuthorizationType = WirelessAuthorizationType.findById(trim(stringReturnValueCommandExecutor.execute(new VariableLengthStringResponseCommandStrategy('A'))));
-               final String wirelessAuthorizationKey = trim(stringReturnValueCommandExecutor.execute(new VariableLengthStringResponseCommandStrategy('K')));
+               final String wirelessSsid = trim(stringReturnValueCommandExecutor.execute(SerialLinkStatistics.Command.GET_WIRELESS_SSID, new VariableLengthStringResponseCommandStrategy('S')));
+               final WirelessAuthorizationType wirelessAuthorizationType = WirelessAuthorizationType.findById(trim(stringReturnValueCommandExecutor.execute(SerialLinkStatistics.Command.GET_WIRELESS_AUTH_TYPE, new VariableLengthStringResponseCommandStrategy('A'))));
+               final String wirelessAuthorizationKey = trim(stringReturnValueCommandExecutor.execute(SerialLinkStatistics.Command.GET_WIRELESS_AUTH_KEY, new VariableLengthStringResponseCommandStrategy('K')));
 
                if (isNonNullAndNonEmpty(wirelessSsid) && wirelessAuthorizationType != null && isNonNullAndNonEmpty(wirelessAuthorizationKey))
                   {
@@ -382,11 +386,12 @@ class LoggingDeviceProxy implements LoggingDevice
       {
       String commaDelimitedFilenames = null;
 
+      final long startTime = System.nanoTime();
       try
          {
          // pause the pinger since downloading the list of filenames may take a long time
          pinger.setPaused(true);
-         commaDelimitedFilenames = stringReturnValueCommandExecutor.execute(getAvilableFilenamesCommandStrategy);
+         commaDelimitedFilenames = stringReturnValueCommandExecutor.execute(SerialLinkStatistics.Command.GET_AVAILABLE_FILENAMES, getAvilableFilenamesCommandStrategy);
          }
       catch (Exception e)
          {
@@ -415,9 +420,11 @@ class LoggingDeviceProxy implements LoggingDevice
                }
             }
 
+         eventJournal.record(DataFileEventJournal.Type.DEVICE_LIST_FILES, null, availableFiles.size(), System.nanoTime() - startTime);
          return availableFiles;
          }
 
+      eventJournal.record(DataFileEventJournal.Type.DEVICE_LIST_FILES_FAILED, null, 0, System.nanoTime() - startTime);
       return null;
       }
 
@@ -429,13 +436,14 @@ class LoggingDeviceProxy implements LoggingDevice
 
       if (filename != null)
          {
+         final long startTime = System.nanoTime();
          try
             {
             // pause the pinger since file transfers may take a long time
             pinger.setPaused(true);
 
             // get the file
-            dataFile = dataFileReturnValueCommandExecutor.execute(new GetFileCommandStrategy(filename));
+            dataFile = dataFileReturnValueCommandExecutor.execute(SerialLinkStatistics.Command.GET_FILE, new GetFileCommandStrategy(filename));
             }
          catch (Exception e)
             {
@@ -446,6 +454,20 @@ class LoggingDeviceProxy implements LoggingDevice
             // make sure the pinger is unpaused
             pinger.setPaused(false);
             }
+
+         final long duration = System.nanoTime() - startTime;
+         if (dataFile == null)
+            {
+            eventJournal.record(DataFileEventJournal.Type.DEVICE_GET_FILE_FAILED, filename, 0, duration);
+            }
+         else if (dataFile.isEmpty())
+            {
+            eventJournal.record(DataFileEventJournal.Type.DEVICE_NO_SUCH_FILE, filename, 0, duration);
+            }
+         else
+            {
+            eventJournal.record(DataFileEventJournal.Type.DEVICE_GET_FILE, filename, dataFile.getLength(), duration);
+            }
          }
 
       if (dataFile != null && dataFile.isEmpty())
@@ -461,15 +483,19 @@ class LoggingDeviceProxy implements LoggingDevice
       {
       if (filename != null && filename.length() > 0)
          {
+         final long startTime = System.nanoTime();
          try
             {
             // pause the pinger since deletes may take a long time
             pinger.setPaused(true);
-            return booleanReturnValueCommandExecutor.execute(new DeleteFileCommandStrategy(filename));
+            final boolean wasDeleteSuccessful = booleanReturnValueCommandExecutor.execute(SerialLinkStatistics.Command.DELETE_FILE, new DeleteFileCommandStrategy(filename));
+            eventJournal.record(wasDeleteSuccessful ? DataFileEventJournal.Type.DEVICE_DELETE_FILE : DataFileEventJournal.Type.DEVICE_DELETE_FILE_FAILED, filename, 0, System.nanoTime() - startTime);
+            return wasDeleteSuccessful;
             }
          catch (Exception e)
             {
             LOG.error("Exception while deleting file [" + filename + "]", e);
+            eventJournal.record(DataFileEventJournal.Type.DEVICE_DELETE_FILE_FAILED, filename, 0, System.nanoTime() - startTime);
             }
          finally
             {
@@ -505,6 +531,13 @@ class LoggingDeviceProxy implements LoggingDevice
       return dataStoreConnectionConfig;
       }
 
+   @Override
+   @NotNull
+   public String getSerialLinkStatistics()
+      {
+      return serialLinkStatistics.getReport();
+      }
+
    public void disconnect()
       {
       disconnect(true);
@@ -535,7 +568,10 @@ class LoggingDeviceProxy implements LoggingDevice
          LOG.debug("LoggingDeviceProxy.disconnect(): Now attempting to send the disconnect command to the BodyTrack Logging Device");
          try
             {
-            if (commandQueue.executeAndReturnStatus(disconnectCommandStrategy))
+            final InstrumentedCommandStrategy instrumentedDisconnectCommandStrategy = new InstrumentedCommandStrategy(serialLinkStatistics, SerialLinkStatistics.Command.DISCONNECT, disconnectCommandStrategy);
+            final boolean wasSuccessful = commandQueue.executeAndReturnStatus(instrumentedDisconnectCommandStrategy);
+            instrumentedDisconnectCommandStrategy.recordCompletion(wasSuccessful);
+            if (wasSuccessful)
                {
                LOG.debug("LoggingDeviceProxy.disconnect(): Successfully disconnected from the BodyTrack Logging Device.");
                }
@@ -561,6 +597,11 @@ class LoggingDeviceProxy implements LoggingDevice
          {
          LOG.error("LoggingDeviceProxy.disconnect(): Exception while trying to shut down the SerialDeviceCommandExecutionQueue", e);
          }
+
+      if (LOG.isInfoEnabled())
+         {
+         LOG.info("LoggingDeviceProxy.disconnect(): serial link statistics for this connection:" + serialLinkStatistics.getReport());
+         }
       }
 
    private abstract static class RetryingActionExecutor<ReturnType>
@@ -879,7 +920,17 @@ class LoggingDeviceProxy implements LoggingDevice
                {
                // Ping the device.  We typically just request the username and make sure it was successful, but every
                // NUM_COUNTS_BETWEEN_TIME_PINGS we send the time to make sure the device has the correct time
-               final boolean pingSuccessful = commandQueue.executeAndReturnStatus(counter == NUM_COUNTS_BETWEEN_TIME_PINGS ? setCurrentTimeCommandStrategy : pingCommandStrategy);
+               final InstrumentedCommandStrategy instrumentedCommandStrategy;
+               if (counter == NUM_COUNTS_BETWEEN_TIME_PINGS)
+                  {
+                  instrumentedCommandStrategy = new InstrumentedCommandStrategy(serialLinkStatistics, SerialLinkStatistics.Command.SET_CURRENT_TIME, setCurrentTimeCommandStrategy);
+                  }
+               else
+                  {
+                  instrumentedCommandStrategy = new InstrumentedCommandStrategy(serialLinkStatistics, SerialLinkStatistics.Command.PING, pingCommandStrategy);
+                  }
+               final boolean pingSuccessful = commandQueue.executeAndReturnStatus(instrumentedCommandStrategy);
+               instrumentedCommandStrategy.recordCompletion(pingSuccessful);
 
                // if the ping failed, then we know we have a problem, so disconnect (which
                // probably won't work) and then notify the listeners
@@ -910,6 +961,8 @@ class LoggingDeviceProxy implements LoggingDevice
 
       private void handlePingFailure()
          {
+         eventJournal.record(DataFileEventJournal.Type.DEVICE_PING_FAILED, null, 0, 0);
+
          try
             {
             LOG.debug("LoggingDeviceProxy$Pinger.handlePingFailure(): Ping failed.  Attempting to disconnect...");
@@ -0,0 +1,261 @@
+package org.bodytrack.loggingdevice;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import edu.cmu.ri.createlab.serial.config.BaudRate;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * <p>
+ * <code>SerialLinkStatistics</code> collects per-{@link Command command} statistics for the serial link to the logging
+ * device: how long commands wait in the command queue, how long they take to execute (as log2 histograms), how many
+ * bytes they write and read, and why they fail.  Statistics are fed by the {@link InstrumentedCommandStrategy}, so every
+ * command sent through the instrumented executors is counted.
+ * </p>
+ * <p>
+ * Effective throughput is computed as the bytes written plus bytes read, divided by the time spent executing, and is
+ * reported as a percentage of what the link can carry at the configured {@link BaudRate}.  Each byte takes 10 bits on the
+ * wire (one start bit, eight data bits, and one stop bit).
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+final class SerialLinkStatistics
+   {
+   private static final int BITS_PER_BYTE_ON_THE_WIRE = 10;
+
+   static enum Command
+      {
+         PING('U', "Ping"),
+         SET_CURRENT_TIME('T', "Set Current Time"),
+         GET_AVAILABLE_FILENAMES('F', "List Files"),
+         GET_FILE('D', "Get File"),
+         DELETE_FILE('E', "Delete File"),
+         GET_USERNAME('U', "Get Username"),
+         GET_DEVICE_NICKNAME('N', "Get Nickname"),
+         GET_SERVER_NAME('V', "Get Server Name"),
+         GET_SERVER_PORT('O', "Get Server Port"),
+         GET_WIRELESS_SSID('S', "Get Wireless SSID"),
+         GET_WIRELESS_AUTH_TYPE('A', "Get Auth Type"),
+         GET_WIRELESS_AUTH_KEY('K', "Get Auth Key"),
+         DISCONNECT('R', "Disconnect");
+
+      private final char commandCharacter;
+      private final String name;
+
+      Command(final char commandCharacter, final String name)
+         {
+         this.commandCharacter = commandCharacter;
+         this.name = name;
+         }
+
+      char getCommandCharacter()
+         {
+         return commandCharacter;
+         }
+
+      @NotNull
+      String getName()
+         {
+         return name;
+         }
+      }
+
+   static enum FailureCause
+      {
+         /** The command was never run, or hadn't finished when the command queue gave up on it. */
+         NOT_EXECUTED,
+
+         /** The device didn't respond, or the response was unsuccessful (e.g. it timed out while reading). */
+         NO_RESPONSE,
+
+         /** The device responded, but the response couldn't be converted (e.g. a bad checksum). */
+         INVALID_RESPONSE,
+
+         /** An exception was thrown while executing the command. */
+         EXCEPTION
+      }
+
+   private final long linkCapacityInBytesPerSecond;
+   private final Map<Command, CommandStatistics> statistics = new EnumMap<Command, CommandStatistics>(Command.class);
+
+   SerialLinkStatistics(@NotNull final BaudRate baudRate)
+      {
+      linkCapacityInBytesPerSecond = baudRate.getValue() / BITS_PER_BYTE_ON_THE_WIRE;
+      for (final Command command : Command.values())
+         {
+         statistics.put(command, new CommandStatistics());
+         }
+      }
+
+   /** Records that the given <code>command</code> ran on the serial link. */
+   void recordExecution(@NotNull final Command command,
+                        final long queueWaitInNanos,
+                        final long executionTimeInNanos,
+                        final long bytesWritten,
+                        final long bytesRead)
+      {
+      final CommandStatistics commandStatistics = statistics.get(command);
+      commandStatistics.queueWait.record(queueWaitInNanos);
+      commandStatistics.executionTime.record(executionTimeInNanos);
+      commandStatistics.totalExecutionTimeInNanos.addAndGet(executionTimeInNanos);
+      commandStatistics.bytesWritten.addAndGet(bytesWritten);
+      commandStatistics.bytesRead.addAndGet(bytesRead);
+      }
+
+   /** Records the outcome of the given <code>command</code>, as seen by the caller.  A <code>null</code> cause means success. */
+   void recordCompletion(@NotNull final Command command, @Nullable final FailureCause failureCause)
+      {
+      final CommandStatistics commandStatistics = statistics.get(command);
+      commandStatistics.numCompleted.incrementAndGet();
+      if (failureCause != null)
+         {
+         commandStatistics.failures.incrementAndGet(failureCause.ordinal());
+         }
+      }
+
+   @NotNull
+   String getReport()
+      {
+      // no locking required, since the statistics are all atomic
+      final StringWriter stringWriter = new StringWriter();
+      final PrintWriter printWriter = new PrintWriter(stringWriter);
+
+      long allBytes = 0;
+      long allExecutionTimeInNanos = 0;
+
+      printWriter.printf("\n");
+      printWriter.printf(" __________________________________________________________________________________________________________ \n");
+      printWriter.printf("|                                                                                                          |\n");
+      printWriter.printf("|                       Failed (no run/       Queue ms     Execution ms            Bytes       Throughput |\n");
+      printWriter.printf("| Command          Count   resp/invalid/exc)  p50    p99   p50    p99     max     Written     Read   KB/s   %% |\n");
+      printWriter.printf("| ---------------- ------ ------------------ ------ ------ ------ ------ ------- -------- -------- ----- --- |\n");
+      for (final Command command : Command.values())
+         {
+         final CommandStatistics s = statistics.get(command);
+         final long numCompleted = s.numCompleted.get();
+         if (numCompleted > 0 || s.executionTime.getCount() > 0)
+            {
+            final long bytes = s.bytesWritten.get() + s.bytesRead.get();
+            final long executionTimeInNanos = s.totalExecutionTimeInNanos.get();
+            allBytes += bytes;
+            allExecutionTimeInNanos += executionTimeInNanos;
+            final double bytesPerSecond = computeBytesPerSecond(bytes, executionTimeInNanos);
+            printWriter.printf("| %c %-14s %6d %4d/%4d/%4d/%3d %6s %6s %6s %6s %7s %8d %8d %5.1f %3.0f |\n",
+                               command.getCommandCharacter(),
+                               command.getName(),
+                               numCompleted,
+                               s.failures.get(FailureCause.NOT_EXECUTED.ordinal()),
+                               s.failures.get(FailureCause.NO_RESPONSE.ordinal()),
+                               s.failures.get(FailureCause.INVALID_RESPONSE.ordinal()),
+                               s.failures.get(FailureCause.EXCEPTION.ordinal()),
+                               formatMillis(s.queueWait.getPercentileInNanos(50)),
+                               formatMillis(s.queueWait.getPercentileInNanos(99)),
+                               formatMillis(s.executionTime.getPercentileInNanos(50)),
+                               formatMillis(s.executionTime.getPercentileInNanos(99)),
+                               formatMillis(s.executionTime.getMaxInNanos()),
+                               s.bytesWritten.get(),
+                               s.bytesRead.get(),
+                               bytesPerSecond / 1024,
+                               100 * bytesPerSecond / linkCapacityInBytesPerSecond);
+            }
+         }
+      final double allBytesPerSecond = computeBytesPerSecond(allBytes, allExecutionTimeInNanos);
+      printWriter.printf("|                                                                                                          |\n");
+      printWriter.printf("| Effective link throughput: %8.1f KB/s (%3.0f%% of %6.1f KB/s available at %6d baud)                     |\n",
+                         allBytesPerSecond / 1024,
+                         100 * allBytesPerSecond / linkCapacityInBytesPerSecond,
+                         linkCapacityInBytesPerSecond / 1024.0,
+                         linkCapacityInBytesPerSecond * BITS_PER_BYTE_ON_THE_WIRE);
+      printWriter.printf("|__________________________________________________________________________________________________________|\n");
+      printWriter.printf("Percentiles are upper bounds of log2 histogram buckets.\n");
+
+      return stringWriter.toString();
+      }
+
+   private static double computeBytesPerSecond(final long bytes, final long timeInNanos)
+      {
+      return (timeInNanos > 0) ? bytes * 1e9 / timeInNanos : 0;
+      }
+
+   @NotNull
+   private static String formatMillis(final long nanos)
+      {
+      final double millis = nanos / 1e6;
+      return (millis < 100) ? String.format("%.2f", millis) : String.format("%.0f", millis);
+      }
+
+   private static final class CommandStatistics
+      {
+      private final AtomicLong numCompleted = new AtomicLong(0);
+      private final AtomicLongArray failures = new AtomicLongArray(FailureCause.values().length);
+      private final Histogram queueWait = new Histogram();
+      private final Histogram executionTime = new Histogram();
+      private final AtomicLong totalExecutionTimeInNanos = new AtomicLong(0);
+      private final AtomicLong bytesWritten = new AtomicLong(0);
+      private final AtomicLong bytesRead = new AtomicLong(0);
+      }
+
+   /**
+    * A histogram of durations with power-of-two buckets in microseconds: bucket <code>0</code> holds durations under
+    * 1 microsecond, and bucket <code>i</code> holds durations of at least 2<sup>i-1</sup> and under 2<sup>i</sup>
+    * microseconds.  The last bucket holds everything longer.
+    */
+   private static final class Histogram
+      {
+      private static final int NUM_BUCKETS = 32;
+
+      private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+      private final AtomicLong count = new AtomicLong(0);
+      private final AtomicLong maxInNanos = new AtomicLong(0);
+
+      private void record(final long nanos)
+         {
+         final long micros = Math.max(0, nanos / 1000);
+         counts.incrementAndGet(Math.min(NUM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros)));
+         count.incrementAndGet();
+
+         long max = maxInNanos.get();
+         while (nanos > max && !maxInNanos.compareAndSet(max, nanos))
+            {
+            max = maxInNanos.get();
+            }
+         }
+
+      private long getCount()
+         {
+         return count.get();
+         }
+
+      private long getMaxInNanos()
+         {
+         return maxInNanos.get();
+         }
+
+      /** Returns the upper bound of the bucket holding the given percentile, capped at the maximum recorded duration. */
+      private long getPercentileInNanos(final int percentile)
+         {
+         final long total = count.get();
+         if (total == 0)
+            {
+            return 0;
+            }
+         final long rank = Math.max(1, (total * percentile + 99) / 100);
+         long cumulativeCount = 0;
+         for (int i = 0; i < NUM_BUCKETS; i++)
+            {
+            cumulativeCount += counts.get(i);
+            if (cumulativeCount >= rank)
+               {
+               return Math.min((1L << i) * 1000, maxInNanos.get());
+               }
+            }
+         return maxInNanos.get();
+         }
+      }
+   }
@@ -0,0 +1,411 @@
+package org.bodytrack.loggingdevice;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import edu.cmu.ri.createlab.util.thread.DaemonThreadFactory;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * <p>
+ * <code>ServerReachabilityMonitor</code> periodically probes the upload server by opening (and immediately closing) a
+ * TCP connection to its host and port, and classifies the server as {@link State#REACHABLE REACHABLE} or
+ * {@link State#UNREACHABLE UNREACHABLE}.  Upload threads call {@link #awaitReachable()} before each upload, so that
+ * while the server is unreachable they wait here instead of each sitting in a multi-minute connect timeout, and are all
+ * released as soon as a probe succeeds.
+ * </p>
+ * <p>
+ * While the server is reachable it is probed {@link #PROBE_INTERVAL_IN_SECONDS_SYSTEM_PROPERTY once a minute} (by
+ * default), and while it is unreachable it is probed
+ * {@link #UNREACHABLE_PROBE_INTERVAL_IN_SECONDS_SYSTEM_PROPERTY every few seconds} so that recovery is noticed quickly.  Uploads which fail to connect {@link #reportConnectionFailure() report} it, which
+ * triggers an immediate probe.  Listeners are notified of every state change, and each change is also recorded in the
+ * {@link DataFileEventJournal}.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class ServerReachabilityMonitor
+   {
+   private static final Logger LOG = Logger.getLogger(ServerReachabilityMonitor.class);
+   private static final Logger CONSOLE_LOG = Logger.getLogger("ConsoleLog");
+
+   public static final String ENABLED_SYSTEM_PROPERTY = "org.bodytrack.loggingdevice.ServerReachabilityMonitor.enabled";
+   public static final String PROBE_INTERVAL_IN_SECONDS_SYSTEM_PROPERTY = "org.bodytrack.loggingdevice.ServerReachabilityMonitor.probe-interval-in-seconds";
+   public static final String UNREACHABLE_PROBE_INTERVAL_IN_SECONDS_SYSTEM_PROPERTY = "org.bodytrack.loggingdevice.ServerReachabilityMonitor.unreachable-probe-interval-in-seconds";
+   public static final String PROBE_TIMEOUT_IN_MILLIS_SYSTEM_PROPERTY = "org.bodytrack.loggingdevice.ServerReachabilityMonitor.probe-timeout-in-millis";
+
+   private static final int DEFAULT_PROBE_INTERVAL_IN_SECONDS = 60;
+   private static final int DEFAULT_UNREACHABLE_PROBE_INTERVAL_IN_SECONDS = 5;
+   private static final int DEFAULT_PROBE_TIMEOUT_IN_MILLIS = 5000;
+   private static final int DEFAULT_SERVER_PORT = 80;
+
+   private static final boolean IS_ENABLED = Boolean.parseBoolean(System.getProperty(ENABLED_SYSTEM_PROPERTY, "true"));
+   private static final int PROBE_INTERVAL_IN_SECONDS;
+   private static final int UNREACHABLE_PROBE_INTERVAL_IN_SECONDS;
+   private static final int PROBE_TIMEOUT_IN_MILLIS;
+
+   static
+      {
+      PROBE_INTERVAL_IN_SECONDS = Math.max(1, SystemPropertyUtils.getIntegerSystemProperty(PROBE_INTERVAL_IN_SECONDS_SYSTEM_PROPERTY, DEFAULT_PROBE_INTERVAL_IN_SECONDS));
+      UNREACHABLE_PROBE_INTERVAL_IN_SECONDS = Math.max(1, SystemPropertyUtils.getIntegerSystemProperty(UNREACHABLE_PROBE_INTERVAL_IN_SECONDS_SYSTEM_PROPERTY, DEFAULT_UNREACHABLE_PROBE_INTERVAL_IN_SECONDS));
+      PROBE_TIMEOUT_IN_MILLIS = Math.max(100, SystemPropertyUtils.getIntegerSystemProperty(PROBE_TIMEOUT_IN_MILLIS_SYSTEM_PROPERTY, DEFAULT_PROBE_TIMEOUT_IN_MILLIS));
+
+      if (IS_ENABLED)
+         {
+         LOG.info("ServerReachabilityMonitor: probing every [" + PROBE_INTERVAL_IN_SECONDS + "] second(s) while reachable, every [" + UNREACHABLE_PROBE_INTERVAL_IN_SECONDS + "] second(s) while unreachable, with a [" + PROBE_TIMEOUT_IN_MILLIS + "] ms timeout.");
+         }
+      else
+         {
+         LOG.info("ServerReachabilityMonitor: reachability probing is disabled, so uploads will never be held.");
+         }
+      }
+
+   public static enum State
+      {
+         /** The most recent probe connected, so uploads may proceed. */
+         REACHABLE,
+
+         /** The most recent probe failed to connect, so uploads are held until a probe succeeds. */
+         UNREACHABLE
+      }
+
+   public interface EventListener
+      {
+      /**
+       * Called whenever the {@link State} changes.  The <code>durationOfPreviousStateInMillis</code> is how long the
+       * server was in the previous state.
+       */
+      void handleServerReachabilityEvent(@NotNull final State state, final long durationOfPreviousStateInMillis);
+      }
+
+   @NotNull
+   private final String serverName;
+
+   private final int serverPort;
+
+   private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory(this.getClass() + ".executor"));
+   private final Set<EventListener> eventListeners = new CopyOnWriteArraySet<EventListener>();
+   private final DataFileEventJournal eventJournal = DataFileEventJournal.getInstance();
+
+   /** Guards the state and the next scheduled probe, and is used to hold upload threads while the server is unreachable. */
+   private final Lock lock = new ReentrantLock();
+   private final Condition reachableCondition = lock.newCondition();
+
+   private volatile State state = State.REACHABLE;
+   private volatile boolean isRunning = false;
+   private long stateChangeTimeInMillis = System.currentTimeMillis();
+
+   @Nullable
+   private ScheduledFuture<?> nextProbe = null;
+
+   private final AtomicLong numProbes = new AtomicLong(0);
+   private final AtomicLong numFailedProbes = new AtomicLong(0);
+   private final AtomicLong numOutages = new AtomicLong(0);
+   private final AtomicLong totalUnreachableTimeInMillis = new AtomicLong(0);
+
+   private final Runnable probeRunnable =
+         new Runnable()
+         {
+         @Override
+         public void run()
+            {
+            try
+               {
+               probe();
+               }
+            catch (Exception e)
+               {
+               LOG.error("ServerReachabilityMonitor.probeRunnable.run(): Exception while probing the server", e);
+               }
+            finally
+               {
+               scheduleNextProbe(state == State.REACHABLE ? PROBE_INTERVAL_IN_SECONDS : UNREACHABLE_PROBE_INTERVAL_IN_SECONDS);
+               }
+            }
+         };
+
+   /**
+    * Creates a <code>ServerReachabilityMonitor</code> for the given {@link DataStoreServerConfig}.  If the port can't be
+    * parsed, port {@value #DEFAULT_SERVER_PORT} is probed.
+    */
+   public ServerReachabilityMonitor(@NotNull final DataStoreServerConfig serverConfig)
+      {
+      this.serverName = serverConfig.getServerName();
+
+      int port;
+      try
+         {
+         port = Integer.parseInt(serverConfig.getServerPort().trim());
+         }
+      catch (NumberFormatException e)
+         {
+         LOG.error("ServerReachabilityMonitor.ServerReachabilityMonitor(): NumberFormatException while trying to parse server port [" + serverConfig.getServerPort() + "].  Defaulting to " + DEFAULT_SERVER_PORT, e);
+         port = DEFAULT_SERVER_PORT;
+         }
+      this.serverPort = port;
+      }
+
+   public void addEventListener(@Nullable final EventListener listener)
+      {
+      if (listener != null)
+         {
+         eventListeners.add(listener);
+         }
+      }
+
+   public void removeEventListener(@Nullable final EventListener listener)
+      {
+      if (listener != null)
+         {
+         eventListeners.remove(listener);
+         }
+      }
+
+   /** Performs an immediate probe, then starts probing periodically.  Does nothing if probing is disabled. */
+   public void startup()
+      {
+      if (IS_ENABLED)
+         {
+         isRunning = true;
+         scheduleNextProbe(0);
+         }
+      }
+
+   /** Stops probing, and releases any threads waiting in {@link #awaitReachable()}. */
+   public void shutdown()
+      {
+      LOG.debug("ServerReachabilityMonitor.shutdown()");
+      lock.lock();  // block until condition holds
+      try
+         {
+         isRunning = false;
+         reachableCondition.signalAll();
+         }
+      finally
+         {
+         lock.unlock();
+         }
+      executor.shutdownNow();
+      }
+
+   /** Returns the {@link State} as of the most recent probe. */
+   @NotNull
+   public State getState()
+      {
+      return state;
+      }
+
+   /**
+    * Blocks the calling thread while the server is {@link State#UNREACHABLE UNREACHABLE}.  Returns immediately if the
+    * server is reachable, or if the monitor isn't running.  Returns early, with the thread's interrupt status set, if
+    * the thread is interrupted while waiting.
+    */
+   public void awaitReachable()
+      {
+      if (state == State.REACHABLE || !isRunning)
+         {
+         return;
+         }
+
+      lock.lock();  // block until condition holds
+      try
+         {
+         while (state == State.UNREACHABLE && isRunning)
+            {
+            reachableCondition.await();
+            }
+         }
+      catch (InterruptedException e)
+         {
+         Thread.currentThread().interrupt();
+         }
+      finally
+         {
+         lock.unlock();
+         }
+      }
+
+   /**
+    * Tells the monitor that an upload failed to connect to the server, so that it can probe right away instead of
+    * waiting for the next scheduled probe.  Does nothing if the server is already known to be unreachable, since it's
+    * being probed frequently anyway.
+    */
+   public void reportConnectionFailure()
+      {
+      if (state == State.REACHABLE && isRunning)
+         {
+         lock.lock();  // block until condition holds
+         try
+            {
+            // if the probe is already running, there's no need for another
+            if (nextProbe != null && nextProbe.cancel(false))
+               {
+               scheduleNextProbe(0);
+               }
+            }
+         finally
+            {
+            lock.unlock();
+            }
+         }
+      }
+
+   private void scheduleNextProbe(final int delayInSeconds)
+      {
+      lock.lock();  // block until condition holds
+      try
+         {
+         if (isRunning)
+            {
+            nextProbe = executor.schedule(probeRunnable, delayInSeconds, TimeUnit.SECONDS);
+            }
+         }
+      catch (Exception e)
+         {
+         // the executor may have been shut down since we checked isRunning
+         LOG.debug("ServerReachabilityMonitor.scheduleNextProbe(): Exception while scheduling the next probe", e);
+         }
+      finally
+         {
+         lock.unlock();
+         }
+      }
+
+   /** Probes the server, updates the {@link State}, and notifies listeners if it changed.  Returns the new state. */
+   @NotNull
+   public State probe()
+      {
+      numProbes.incrementAndGet();
+      final long startTime = System.nanoTime();
+      boolean isReachable = false;
+      final Socket socket = new Socket();
+      try
+         {
+         socket.connect(new InetSocketAddress(serverName, serverPort), PROBE_TIMEOUT_IN_MILLIS);
+         isReachable = true;
+         }
+      catch (IOException e)
+         {
+         numFailedProbes.incrementAndGet();
+         if (LOG.isDebugEnabled())
+            {
+            LOG.debug("ServerReachabilityMonitor.probe(): Failed to connect to [" + serverName + ":" + serverPort + "] (reason: " + e.getMessage() + ")");
+            }
+         }
+      finally
+         {
+         try
+            {
+            socket.close();
+            }
+         catch (IOException ignored)
+            {
+            // nothing we can do
+            }
+         }
+
+      final State newState = isReachable ? State.REACHABLE : State.UNREACHABLE;
+      final State previousState;
+      final long durationOfPreviousStateInMillis;
+      lock.lock();  // block until condition holds
+      try
+         {
+         previousState = state;
+         if (newState == previousState)
+            {
+            return newState;
+            }
+
+         final long now = System.currentTimeMillis();
+         durationOfPreviousStateInMillis = now - stateChangeTimeInMillis;
+         stateChangeTimeInMillis = now;
+         state = newState;
+         if (newState == State.REACHABLE)
+            {
+            totalUnreachableTimeInMillis.addAndGet(durationOfPreviousStateInMillis);
+            reachableCondition.signalAll();
+            }
+         else
+            {
+            numOutages.incrementAndGet();
+            }
+         }
+      finally
+         {
+         lock.unlock();
+         }
+
+      final String msg = "Upload server " + serverName + ":" + serverPort + " is now " + newState.toString().toLowerCase() + " (was " + previousState.toString().toLowerCase() + " for " + (durationOfPreviousStateInMillis / 1000) + " seconds).";
+      if (newState == State.REACHABLE)
+         {
+         LOG.info("ServerReachabilityMonitor.probe(): " + msg);
+         CONSOLE_LOG.info(msg + "  Resuming uploads.");
+         eventJournal.record(DataFileEventJournal.Type.SERVER_REACHABLE, null, 0, System.nanoTime() - startTime);
+         }
+      else
+         {
+         LOG.warn("ServerReachabilityMonitor.probe(): " + msg);
+         CONSOLE_LOG.warn(msg + "  Holding uploads until it can be reached.");
+         eventJournal.record(DataFileEventJournal.Type.SERVER_UNREACHABLE, null, 0, System.nanoTime() - startTime);
+         }
+
+      for (final EventListener listener : eventListeners)
+         {
+         try
+            {
+            listener.handleServerReachabilityEvent(newState, durationOfPreviousStateInMillis);
+            }
+         catch (Exception e)
+            {
+            LOG.error("ServerReachabilityMonitor.probe(): Exception while notifying listener [" + listener + "]", e);
+            }
+         }
+
+      return newState;
+      }
+
+   /** Returns the number of probes performed so far. */
+   public long getNumProbes()
+      {
+      return numProbes.get();
+      }
+
+   /** Returns the number of probes which failed to connect. */
+   public long getNumFailedProbes()
+      {
+      return numFailedProbes.get();
+      }
+
+   /** Returns the number of times the server went from reachable to unreachable. */
+   public long getNumOutages()
+      {
+      return numOutages.get();
+      }
+
+   /** Returns the total time, in milliseconds, that the server has been unreachable, including the current outage. */
+   public long getTotalUnreachableTimeInMillis()
+      {
+      lock.lock();  // block until condition holds
+      try
+         {
+         final long currentOutageInMillis = (state == State.UNREACHABLE) ? System.currentTimeMillis() - stateChangeTimeInMillis : 0;
+         return totalUnreachableTimeInMillis.get() + currentOutageInMillis;
+         }
+      finally
+         {
+         lock.unlock();
+         }
+      }
+   }
@@ -0,0 +1,43 @@
+package org.bodytrack.loggingdevice;
+
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * <p>
+ * <code>SystemPropertyUtils</code> provides helper methods for reading the system properties used to configure the
+ * gateway.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class SystemPropertyUtils
+   {
+   private static final Logger LOG = Logger.getLogger(SystemPropertyUtils.class);
+
+   /**
+    * Returns the value of the system property with the given <code>key</code> parsed as an int, or the given
+    * <code>defaultValue</code> if the property isn't set or can't be parsed (which is logged).
+    */
+   public static int getIntegerSystemProperty(@NotNull final String key, final int defaultValue)
+      {
+      final String valueStr = System.getProperty(key);
+      if (valueStr != null)
+         {
+         try
+            {
+            return Integer.parseInt(valueStr.trim());
+            }
+         catch (NumberFormatException e)
+            {
+            LOG.error("NumberFormatException while trying to parse [" + valueStr + "] as an int for system property [" + key + "].  Defaulting to " + defaultValue, e);
+            }
+         }
+      return defaultValue;
+      }
+
+   private SystemPropertyUtils()
+      {
+      // private to prevent instantiation
+      }
+   }
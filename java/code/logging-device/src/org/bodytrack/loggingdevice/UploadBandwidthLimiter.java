@@ -0,0 +1,348 @@
+package org.bodytrack.loggingdevice;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * <p>
+ * <code>UploadBandwidthLimiter</code> caps the rate at which upload bodies are sent, using token buckets: one shared by
+ * all uploads (the {@link #TOTAL_KILOBYTES_PER_SECOND_SYSTEM_PROPERTY total limit}) and one per upload (the
+ * {@link #PER_CONNECTION_KILOBYTES_PER_SECOND_SYSTEM_PROPERTY per-connection limit}).  A limit of zero means unlimited.
+ * Each bucket holds at most one second's worth of tokens, so short bursts are allowed but the average rate is capped.
+ * </p>
+ * <p>
+ * The total limit can vary by time of day with a {@link #SCHEDULE_SYSTEM_PROPERTY schedule} such as
+ * <code>22:00-06:00=0,09:00-17:00=32</code>, where each entry is a time window (which may span midnight) and the total
+ * limit in KB/s during it.  Outside the windows, the configured total limit applies.  The total limit can also be
+ * {@link #setTotalLimitOverride(int) overridden} at runtime, which takes precedence over the schedule until it's
+ * {@link #clearTotalLimitOverride() cleared}.
+ * </p>
+ * <p>
+ * The {@link #wrap(OutputStream) throttled stream} hands the caller's buffers straight to the underlying stream, so
+ * throttling never copies data, and while no limit applies each write costs only a check of the current limits.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class UploadBandwidthLimiter
+   {
+   private static final Logger LOG = Logger.getLogger(UploadBandwidthLimiter.class);
+
+   public static final String TOTAL_KILOBYTES_PER_SECOND_SYSTEM_PROPERTY = "org.bodytrack.loggingdevice.UploadBandwidthLimiter.total-kilobytes-per-second";
+   public static final String PER_CONNECTION_KILOBYTES_PER_SECOND_SYSTEM_PROPERTY = "org.bodytrack.loggingdevice.UploadBandwidthLimiter.per-connection-kilobytes-per-second";
+   public static final String SCHEDULE_SYSTEM_PROPERTY = "org.bodytrack.loggingdevice.UploadBandwidthLimiter.schedule";
+
+   private static final int UNLIMITED = 0;
+   private static final int BYTES_PER_KILOBYTE = 1024;
+   private static final int MINUTES_PER_DAY = 24 * 60;
+
+   /** Writes are split into chunks of at most this fraction of a second's worth of bytes, so progress stays smooth. */
+   private static final int CHUNKS_PER_SECOND = 4;
+   private static final int MIN_CHUNK_SIZE_IN_BYTES = 1024;
+
+   private static final int TOTAL_KILOBYTES_PER_SECOND;
+   private static final int PER_CONNECTION_KILOBYTES_PER_SECOND;
+   private static final List<ScheduleEntry> SCHEDULE;
+
+   static
+      {
+      TOTAL_KILOBYTES_PER_SECOND = Math.max(UNLIMITED, SystemPropertyUtils.getIntegerSystemProperty(TOTAL_KILOBYTES_PER_SECOND_SYSTEM_PROPERTY, UNLIMITED));
+      PER_CONNECTION_KILOBYTES_PER_SECOND = Math.max(UNLIMITED, SystemPropertyUtils.getIntegerSystemProperty(PER_CONNECTION_KILOBYTES_PER_SECOND_SYSTEM_PROPERTY, UNLIMITED));
+      SCHEDULE = parseSchedule(System.getProperty(SCHEDULE_SYSTEM_PROPERTY));
+
+      LOG.info("UploadBandwidthLimiter: total limit is [" + describeLimit(TOTAL_KILOBYTES_PER_SECOND) + "], per-connection limit is [" + describeLimit(PER_CONNECTION_KILOBYTES_PER_SECOND) + "], schedule is " + SCHEDULE + ".");
+      }
+
+   /** Parses a schedule of the form <code>HH:MM-HH:MM=KB/s[,...]</code>, skipping (and logging) invalid entries. */
+   @NotNull
+   private static List<ScheduleEntry> parseSchedule(@Nullable final String scheduleStr)
+      {
+      final List<ScheduleEntry> schedule = new ArrayList<ScheduleEntry>();
+      if (scheduleStr != null)
+         {
+         for (final String entryStr : scheduleStr.split(","))
+            {
+            if (entryStr.trim().length() > 0)
+               {
+               try
+                  {
+                  final String[] windowAndLimit = entryStr.trim().split("=");
+                  final String[] startAndEnd = windowAndLimit[0].trim().split("-");
+                  schedule.add(new ScheduleEntry(parseMinuteOfDay(startAndEnd[0]),
+                                                 parseMinuteOfDay(startAndEnd[1]),
+                                                 Math.max(UNLIMITED, Integer.parseInt(windowAndLimit[1].trim()))));
+                  }
+               catch (Exception e)
+                  {
+                  LOG.error("UploadBandwidthLimiter.parseSchedule(): Ignoring invalid schedule entry [" + entryStr + "].  Expected HH:MM-HH:MM=KB/s", e);
+                  }
+               }
+            }
+         }
+      return Collections.unmodifiableList(schedule);
+      }
+
+   private static int parseMinuteOfDay(@NotNull final String timeStr)
+      {
+      final String[] hoursAndMinutes = timeStr.trim().split(":");
+      final int hours = Integer.parseInt(hoursAndMinutes[0]);
+      final int minutes = Integer.parseInt(hoursAndMinutes[1]);
+      if (hours < 0 || hours > 24 || minutes < 0 || minutes > 59)
+         {
+         throw new IllegalArgumentException("Invalid time [" + timeStr + "]");
+         }
+      return (hours * 60 + minutes) % MINUTES_PER_DAY;
+      }
+
+   @NotNull
+   private static String describeLimit(final int kilobytesPerSecond)
+      {
+      return (kilobytesPerSecond == UNLIMITED) ? "unlimited" : kilobytesPerSecond + " KB/s";
+      }
+
+   private static final class ScheduleEntry
+      {
+      private final int startMinuteOfDay;
+      private final int endMinuteOfDay;
+      private final int kilobytesPerSecond;
+
+      private ScheduleEntry(final int startMinuteOfDay, final int endMinuteOfDay, final int kilobytesPerSecond)
+         {
+         this.startMinuteOfDay = startMinuteOfDay;
+         this.endMinuteOfDay = endMinuteOfDay;
+         this.kilobytesPerSecond = kilobytesPerSecond;
+         }
+
+      private boolean contains(final int minuteOfDay)
+         {
+         if (startMinuteOfDay == endMinuteOfDay)
+            {
+            // e.g. 00:00-24:00
+            return true;
+            }
+         if (startMinuteOfDay < endMinuteOfDay)
+            {
+            return minuteOfDay >= startMinuteOfDay && minuteOfDay < endMinuteOfDay;
+            }
+
+         // the window spans midnight
+         return minuteOfDay >= startMinuteOfDay || minuteOfDay < endMinuteOfDay;
+         }
+
+      @Override
+      public String toString()
+         {
+         return String.format("%02d:%02d-%02d:%02d=%s", startMinuteOfDay / 60, startMinuteOfDay % 60, endMinuteOfDay / 60, endMinuteOfDay % 60, describeLimit(kilobytesPerSecond));
+         }
+      }
+
+   /**
+    * A token bucket which allows debt: a caller takes the tokens it needs right away, and then waits until the bucket
+    * would have refilled enough to cover them.  Callers therefore wait in the order in which they asked.
+    */
+   private static final class TokenBucket
+      {
+      private double numTokens = 0;
+      private long lastRefillTime = System.nanoTime();
+
+      /** Takes the given number of tokens, and returns how long the caller must wait, in nanoseconds. */
+      private synchronized long take(final long numBytes, final long bytesPerSecond)
+         {
+         final long now = System.nanoTime();
+         numTokens = Math.min(bytesPerSecond, numTokens + (now - lastRefillTime) * bytesPerSecond / 1e9);
+         lastRefillTime = now;
+         numTokens -= numBytes;
+         return (numTokens >= 0) ? 0 : (long)(-numTokens * 1e9 / bytesPerSecond);
+         }
+      }
+
+   private final TokenBucket totalBucket = new TokenBucket();
+   private final int defaultTotalKilobytesPerSecond;
+   private final int perConnectionKilobytesPerSecond;
+   private final List<ScheduleEntry> schedule;
+
+   /** The runtime override of the total limit, or <code>-1</code> if there isn't one. */
+   private volatile int totalLimitOverrideInKilobytesPerSecond = -1;
+
+   private final AtomicLong numBytesSent = new AtomicLong(0);
+   private final AtomicLong totalWaitTimeInNanos = new AtomicLong(0);
+
+   /** Creates an <code>UploadBandwidthLimiter</code> using the limits and schedule from the system properties. */
+   public UploadBandwidthLimiter()
+      {
+      this(TOTAL_KILOBYTES_PER_SECOND, PER_CONNECTION_KILOBYTES_PER_SECOND, SCHEDULE);
+      }
+
+   private UploadBandwidthLimiter(final int defaultTotalKilobytesPerSecond,
+                                  final int perConnectionKilobytesPerSecond,
+                                  @NotNull final List<ScheduleEntry> schedule)
+      {
+      this.defaultTotalKilobytesPerSecond = defaultTotalKilobytesPerSecond;
+      this.perConnectionKilobytesPerSecond = perConnectionKilobytesPerSecond;
+      this.schedule = schedule;
+      }
+
+   /** Overrides the total limit (zero means unlimited), ignoring the schedule until the override is cleared. */
+   public void setTotalLimitOverride(final int kilobytesPerSecond)
+      {
+      totalLimitOverrideInKilobytesPerSecond = Math.max(UNLIMITED, kilobytesPerSecond);
+      LOG.info("UploadBandwidthLimiter.setTotalLimitOverride(): total limit is now [" + describeLimit(totalLimitOverrideInKilobytesPerSecond) + "]");
+      }
+
+   /** Clears any override, so the total limit comes from the schedule and the configured limit again. */
+   public void clearTotalLimitOverride()
+      {
+      totalLimitOverrideInKilobytesPerSecond = -1;
+      LOG.info("UploadBandwidthLimiter.clearTotalLimitOverride(): total limit is now [" + describeLimit(getTotalLimitInKilobytesPerSecond()) + "] (from the schedule and configured limit)");
+      }
+
+   /** Returns the total limit in effect right now, in KB/s, or zero if uploads are unlimited. */
+   public int getTotalLimitInKilobytesPerSecond()
+      {
+      final int override = totalLimitOverrideInKilobytesPerSecond;
+      if (override >= 0)
+         {
+         return override;
+         }
+
+      if (!schedule.isEmpty())
+         {
+         final Calendar now = Calendar.getInstance();
+         final int minuteOfDay = now.get(Calendar.HOUR_OF_DAY) * 60 + now.get(Calendar.MINUTE);
+         for (final ScheduleEntry entry : schedule)
+            {
+            if (entry.contains(minuteOfDay))
+               {
+               return entry.kilobytesPerSecond;
+               }
+            }
+         }
+      return defaultTotalKilobytesPerSecond;
+      }
+
+   public int getPerConnectionLimitInKilobytesPerSecond()
+      {
+      return perConnectionKilobytesPerSecond;
+      }
+
+   /**
+    * Returns the rate, in bytes per second, at which each of the given number of concurrent uploads can send under the
+    * limits in effect right now, or {@link Double#POSITIVE_INFINITY} if uploads are unlimited.
+    */
+   public double getBytesPerSecondPerConnection(final int numConnections)
+      {
+      final int totalKilobytesPerSecond = getTotalLimitInKilobytesPerSecond();
+      final double totalShare = (totalKilobytesPerSecond == UNLIMITED) ? Double.POSITIVE_INFINITY : totalKilobytesPerSecond * 1024.0 / Math.max(1, numConnections);
+      return (perConnectionKilobytesPerSecond == UNLIMITED) ? totalShare : Math.min(totalShare, perConnectionKilobytesPerSecond * 1024.0);
+      }
+
+   /** Returns a description of the total limit in effect right now, e.g. "unlimited" or "64 KB/s". */
+   @NotNull
+   public String describeTotalLimit()
+      {
+      return describeLimit(getTotalLimitInKilobytesPerSecond());
+      }
+
+   /** Returns the number of bytes sent through throttled streams. */
+   public long getNumBytesSent()
+      {
+      return numBytesSent.get();
+      }
+
+   /** Returns the total time, in milliseconds, that uploads have been held back by the limits. */
+   public long getTotalWaitTimeInMillis()
+      {
+      return TimeUnit.NANOSECONDS.toMillis(totalWaitTimeInNanos.get());
+      }
+
+   /** Returns an {@link OutputStream} which sends to the given stream within the limits, with its own per-connection bucket. */
+   @NotNull
+   public OutputStream wrap(@NotNull final OutputStream outputStream)
+      {
+      return new ThrottledOutputStream(outputStream);
+      }
+
+   private final class ThrottledOutputStream extends FilterOutputStream
+      {
+      private final TokenBucket connectionBucket = new TokenBucket();
+
+      private ThrottledOutputStream(@NotNull final OutputStream outputStream)
+         {
+         super(outputStream);
+         }
+
+      @Override
+      public void write(final int b) throws IOException
+         {
+         throttle(1, getTotalLimitInKilobytesPerSecond() * (long)BYTES_PER_KILOBYTE, perConnectionKilobytesPerSecond * (long)BYTES_PER_KILOBYTE);
+         out.write(b);
+         numBytesSent.incrementAndGet();
+         }
+
+      @Override
+      public void write(final byte[] bytes, final int offset, final int length) throws IOException
+         {
+         final long totalBytesPerSecond = getTotalLimitInKilobytesPerSecond() * (long)BYTES_PER_KILOBYTE;
+         final long connectionBytesPerSecond = perConnectionKilobytesPerSecond * (long)BYTES_PER_KILOBYTE;
+         if (totalBytesPerSecond == UNLIMITED && connectionBytesPerSecond == UNLIMITED)
+            {
+            out.write(bytes, offset, length);
+            numBytesSent.addAndGet(length);
+            return;
+            }
+
+         // send in chunks so that each wait is short and progress is smooth
+         final long slowestBytesPerSecond = Math.min(totalBytesPerSecond == UNLIMITED ? Long.MAX_VALUE : totalBytesPerSecond,
+                                                     connectionBytesPerSecond == UNLIMITED ? Long.MAX_VALUE : connectionBytesPerSecond);
+         final int chunkSize = (int)Math.max(MIN_CHUNK_SIZE_IN_BYTES, Math.min(Integer.MAX_VALUE, slowestBytesPerSecond / CHUNKS_PER_SECOND));
+         int position = offset;
+         final int end = offset + length;
+         while (position < end)
+            {
+            final int numBytes = Math.min(chunkSize, end - position);
+            throttle(numBytes, totalBytesPerSecond, connectionBytesPerSecond);
+            out.write(bytes, position, numBytes);
+            numBytesSent.addAndGet(numBytes);
+            position += numBytes;
+            }
+         }
+
+      private void throttle(final int numBytes, final long totalBytesPerSecond, final long connectionBytesPerSecond) throws InterruptedIOException
+         {
+         long waitTimeInNanos = 0;
+         if (totalBytesPerSecond != UNLIMITED)
+            {
+            waitTimeInNanos = totalBucket.take(numBytes, totalBytesPerSecond);
+            }
+         if (connectionBytesPerSecond != UNLIMITED)
+            {
+            waitTimeInNanos = Math.max(waitTimeInNanos, connectionBucket.take(numBytes, connectionBytesPerSecond));
+            }
+
+         if (waitTimeInNanos > 0)
+            {
+            totalWaitTimeInNanos.addAndGet(waitTimeInNanos);
+            try
+               {
+               TimeUnit.NANOSECONDS.sleep(waitTimeInNanos);
+               }
+            catch (InterruptedException e)
+               {
+               Thread.currentThread().interrupt();
+               throw new InterruptedIOException("Interrupted while waiting for upload bandwidth");
+               }
+            }
+         }
+      }
+   }
@@ -0,0 +1,333 @@
+package org.bodytrack.loggingdevice;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHeader;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * <p>
+ * <code>UploadCompressor</code> gzips upload bodies on the fly as they're sent, so no temporary files are needed, and
+ * the request is sent with <code>Content-Encoding: gzip</code> (and chunked, since the compressed length isn't known up
+ * front).  Compression is off unless the {@link #ENABLED_SYSTEM_PROPERTY} system property is <code>true</code>.
+ * </p>
+ * <p>
+ * Servers which don't understand compressed bodies either reject them or fail to parse the binrecs inside, so the
+ * {@link DataFileUploader} {@link #reportRejected() reports} such responses and compression is turned off until the
+ * gateway restarts.  Once the server has {@link #reportAccepted() accepted} a compressed upload, only an outright
+ * rejection of the encoding turns it off.
+ * </p>
+ * <p>
+ * Deflaters hold a sizeable native buffer, so they're pooled and reused rather than created per upload.  The
+ * compression ratio and the CPU time spent compressing are tracked, so operators can tell whether compression pays off
+ * on their link.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+final class UploadCompressor
+   {
+   private static final Logger LOG = Logger.getLogger(UploadCompressor.class);
+   private static final Logger CONSOLE_LOG = Logger.getLogger("ConsoleLog");
+
+   public static final String ENABLED_SYSTEM_PROPERTY = "org.bodytrack.loggingdevice.UploadCompressor.enabled";
+   public static final String LEVEL_SYSTEM_PROPERTY = "org.bodytrack.loggingdevice.UploadCompressor.level";
+
+   private static final int DEFAULT_LEVEL = Deflater.DEFAULT_COMPRESSION;
+   private static final int BUFFER_SIZE = 8192;
+
+   /** Deflaters beyond this many are ended rather than returned to the pool. */
+   private static final int MAX_POOL_SIZE = 8;
+
+   /** The gzip header: magic number, deflate method, no flags, no modification time, no extra flags, unknown OS. */
+   private static final byte[] GZIP_HEADER = new byte[]{(byte)0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte)0xff};
+
+   private static final boolean IS_ENABLED;
+   private static final int LEVEL;
+
+   static
+      {
+      IS_ENABLED = Boolean.parseBoolean(System.getProperty(ENABLED_SYSTEM_PROPERTY, "false"));
+      int level = DEFAULT_LEVEL;
+      final String levelStr = System.getProperty(LEVEL_SYSTEM_PROPERTY);
+      if (levelStr != null)
+         {
+         try
+            {
+            level = Integer.parseInt(levelStr.trim());
+            }
+         catch (NumberFormatException e)
+            {
+            LOG.error("NumberFormatException while trying to parse [" + levelStr + "] as an int for system property [" + LEVEL_SYSTEM_PROPERTY + "].  Defaulting to " + DEFAULT_LEVEL, e);
+            }
+         }
+      LEVEL = (level >= Deflater.BEST_SPEED && level <= Deflater.BEST_COMPRESSION) ? level : DEFAULT_LEVEL;
+
+      LOG.info("UploadCompressor: compressed uploads are " + (IS_ENABLED ? "enabled, using compression level [" + LEVEL + "]." : "disabled."));
+      }
+
+   public static enum ServerSupport
+      {
+         UNKNOWN, SUPPORTED, UNSUPPORTED
+      }
+
+   private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+   private final boolean isCpuTimeSupported = threadMXBean.isCurrentThreadCpuTimeSupported();
+   private final BlockingQueue<Deflater> deflaterPool = new LinkedBlockingQueue<Deflater>(MAX_POOL_SIZE);
+   private final boolean isEnabled;
+   private final int level;
+   private volatile ServerSupport serverSupport = ServerSupport.UNKNOWN;
+
+   private final AtomicLong numCompressedUploads = new AtomicLong(0);
+   private final AtomicLong numUncompressedBytes = new AtomicLong(0);
+   private final AtomicLong numCompressedBytes = new AtomicLong(0);
+   private final AtomicLong compressionTimeInNanos = new AtomicLong(0);
+   private final AtomicLong numDeflatersCreated = new AtomicLong(0);
+
+   UploadCompressor()
+      {
+      this(IS_ENABLED, LEVEL);
+      }
+
+   UploadCompressor(final boolean isEnabled, final int level)
+      {
+      this.isEnabled = isEnabled;
+      this.level = level;
+      }
+
+   /** Returns <code>true</code> if uploads should be compressed, i.e. if enabled and not rejected by the server. */
+   boolean shouldCompress()
+      {
+      return isEnabled && serverSupport != ServerSupport.UNSUPPORTED;
+      }
+
+   boolean isEnabled()
+      {
+      return isEnabled;
+      }
+
+   @NotNull
+   ServerSupport getServerSupport()
+      {
+      return serverSupport;
+      }
+
+   /** Records that the server successfully processed a compressed upload. */
+   void reportAccepted()
+      {
+      if (serverSupport == ServerSupport.UNKNOWN)
+         {
+         serverSupport = ServerSupport.SUPPORTED;
+         LOG.info("UploadCompressor.reportAccepted(): the server accepts compressed uploads.");
+         }
+      }
+
+   /** Records that the server couldn't handle a compressed upload, so that uploads are sent uncompressed from now on. */
+   void reportRejected()
+      {
+      if (serverSupport != ServerSupport.UNSUPPORTED)
+         {
+         serverSupport = ServerSupport.UNSUPPORTED;
+         final String msg = "The server does not accept compressed uploads, so uploads will be sent uncompressed.";
+         LOG.warn("UploadCompressor.reportRejected(): " + msg);
+         CONSOLE_LOG.warn(msg);
+         }
+      }
+
+   /** Returns an entity which sends the given entity gzipped, with the appropriate <code>Content-Encoding</code>. */
+   @NotNull
+   HttpEntity compress(@NotNull final HttpEntity entity)
+      {
+      return new GzipCompressingEntity(entity);
+      }
+
+   long getNumCompressedUploads()
+      {
+      return numCompressedUploads.get();
+      }
+
+   /** Returns the ratio of compressed to uncompressed bytes over all compressed uploads, or 1 if there haven't been any. */
+   double getCompressionRatio()
+      {
+      final long numUncompressed = numUncompressedBytes.get();
+      return (numUncompressed == 0) ? 1 : (double)numCompressedBytes.get() / numUncompressed;
+      }
+
+   /** Returns the CPU time spent compressing (or the elapsed time, if the JVM can't measure CPU time), in milliseconds. */
+   long getCompressionTimeInMillis()
+      {
+      return compressionTimeInNanos.get() / 1000000;
+      }
+
+   long getNumDeflatersCreated()
+      {
+      return numDeflatersCreated.get();
+      }
+
+   @NotNull
+   private Deflater borrowDeflater()
+      {
+      final Deflater deflater = deflaterPool.poll();
+      if (deflater != null)
+         {
+         return deflater;
+         }
+      numDeflatersCreated.incrementAndGet();
+      return new Deflater(level, true);   // raw deflate, since the gzip header and trailer are written separately
+      }
+
+   private void returnDeflater(@NotNull final Deflater deflater)
+      {
+      deflater.reset();
+      if (!deflaterPool.offer(deflater))
+         {
+         deflater.end();
+         }
+      }
+
+   private long getTime()
+      {
+      return isCpuTimeSupported ? threadMXBean.getCurrentThreadCpuTime() : System.nanoTime();
+      }
+
+   private final class GzipCompressingEntity extends HttpEntityWrapper
+      {
+      private GzipCompressingEntity(@NotNull final HttpEntity wrappedEntity)
+         {
+         super(wrappedEntity);
+         }
+
+      @Override
+      public Header getContentEncoding()
+         {
+         return new BasicHeader("Content-Encoding", "gzip");
+         }
+
+      @Override
+      public long getContentLength()
+         {
+         return -1;
+         }
+
+      @Override
+      public boolean isChunked()
+         {
+         return true;
+         }
+
+      @Override
+      public void writeTo(final OutputStream outputStream) throws IOException
+         {
+         final Deflater deflater = borrowDeflater();
+         try
+            {
+            final GzipOutputStream gzipOutputStream = new GzipOutputStream(outputStream, deflater);
+            wrappedEntity.writeTo(gzipOutputStream);
+            gzipOutputStream.finish();
+
+            numCompressedUploads.incrementAndGet();
+            numUncompressedBytes.addAndGet(deflater.getBytesRead());
+            numCompressedBytes.addAndGet(GZIP_HEADER.length + deflater.getBytesWritten() + 8);
+            }
+         finally
+            {
+            returnDeflater(deflater);
+            }
+         }
+      }
+
+   /**
+    * Writes gzip to the underlying stream using the given {@link Deflater}.  Unlike {@link java.util.zip.GZIPOutputStream},
+    * it works with a pooled deflater, times the deflater calls, and doesn't close the underlying stream on finish.
+    */
+   private final class GzipOutputStream extends FilterOutputStream
+      {
+      private final Deflater deflater;
+      private final CRC32 crc = new CRC32();
+      private final byte[] buffer = new byte[BUFFER_SIZE];
+      private boolean isHeaderWritten = false;
+
+      private GzipOutputStream(@NotNull final OutputStream outputStream, @NotNull final Deflater deflater)
+         {
+         super(outputStream);
+         this.deflater = deflater;
+         }
+
+      @Override
+      public void write(final int b) throws IOException
+         {
+         write(new byte[]{(byte)b}, 0, 1);
+         }
+
+      @Override
+      public void write(final byte[] bytes, final int offset, final int length) throws IOException
+         {
+         writeHeaderIfNecessary();
+         if (length > 0)
+            {
+            crc.update(bytes, offset, length);
+            deflater.setInput(bytes, offset, length);
+            while (!deflater.needsInput())
+               {
+               deflate();
+               }
+            }
+         }
+
+      private void finish() throws IOException
+         {
+         writeHeaderIfNecessary();
+         deflater.finish();
+         while (!deflater.finished())
+            {
+            deflate();
+            }
+
+         final byte[] trailer = new byte[8];
+         writeLittleEndianInt(trailer, 0, crc.getValue());
+         writeLittleEndianInt(trailer, 4, deflater.getBytesRead());
+         out.write(trailer);
+         out.flush();
+         }
+
+      private void deflate() throws IOException
+         {
+         final long startTime = getTime();
+         final int numBytes = deflater.deflate(buffer);
+         compressionTimeInNanos.addAndGet(getTime() - startTime);
+         if (numBytes > 0)
+            {
+            out.write(buffer, 0, numBytes);
+            }
+         }
+
+      private void writeHeaderIfNecessary() throws IOException
+         {
+         if (!isHeaderWritten)
+            {
+            out.write(GZIP_HEADER);
+            isHeaderWritten = true;
+            }
+         }
+
+      private void writeLittleEndianInt(@NotNull final byte[] bytes, final int offset, final long value)
+         {
+         bytes[offset] = (byte)value;
+         bytes[offset + 1] = (byte)(value >> 8);
+         bytes[offset + 2] = (byte)(value >> 16);
+         bytes[offset + 3] = (byte)(value >> 24);
+         }
+      }
+   }
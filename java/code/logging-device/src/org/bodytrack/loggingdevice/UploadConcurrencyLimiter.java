@@ -0,0 +1,240 @@
+package org.bodytrack.loggingdevice;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * <p>
+ * <code>UploadConcurrencyLimiter</code> limits the number of uploads in flight, and adapts the limit to how well
+ * uploads are going, using additive increase and multiplicative decrease (AIMD).  Each upload {@link #acquire()
+ * acquires} a permit before it starts, and {@link #release(Outcome) releases} it with its {@link Outcome} when it's
+ * done:
+ * </p>
+ * <ul>
+ *    <li>once as many uploads have {@link Outcome#SUCCESS succeeded} in a row as the current limit, the limit grows by
+ *        one (so it grows by about one per round of uploads)</li>
+ *    <li>an upload which timed out or got a 5xx response ({@link Outcome#OVERLOAD}) halves the limit, at most once per
+ *        {@link #DECREASE_COOLDOWN_IN_MILLIS cooldown period} so that a burst of failures from the same round of uploads
+ *        only counts once</li>
+ *    <li>an upload which succeeded but was {@link Outcome#SLOW slow}, or which failed for some other reason, leaves the
+ *        limit alone, but does stop it from growing</li>
+ * </ul>
+ * <p>
+ * The limit starts at the maximum given to the constructor, so the configured number of upload threads is used right
+ * away, and only backs off once uploads run into trouble.  It always stays within the minimum and maximum given to the
+ * constructor.  It can also be {@link #setLimit(int) set} at any time, after which it keeps adapting from the new value.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class UploadConcurrencyLimiter
+   {
+   private static final Logger LOG = Logger.getLogger(UploadConcurrencyLimiter.class);
+   private static final Logger CONSOLE_LOG = Logger.getLogger("ConsoleLog");
+
+   private static final long DECREASE_COOLDOWN_IN_MILLIS = 5000;
+
+   public static enum Outcome
+      {
+         /** The upload succeeded in a reasonable time. */
+         SUCCESS,
+
+         /** The upload succeeded, but took long enough to suggest that the link or the server is struggling. */
+         SLOW,
+
+         /** The upload timed out, or the server responded with a 5xx error. */
+         OVERLOAD,
+
+         /** The upload failed for a reason which says nothing about the link or the server's load. */
+         OTHER_FAILURE
+      }
+
+   private final Lock lock = new ReentrantLock();
+   private final Condition permitAvailableCondition = lock.newCondition();
+
+   private int minLimit;
+   private int maxLimit;
+   private int limit;
+   private int numInFlight = 0;
+   private int numSuccessesSinceLastChange = 0;
+   private long lastDecreaseTimeInMillis = 0;
+
+   private final AtomicLong numIncreases = new AtomicLong(0);
+   private final AtomicLong numDecreases = new AtomicLong(0);
+
+   /** Creates an <code>UploadConcurrencyLimiter</code> which starts at the maximum limit. */
+   public UploadConcurrencyLimiter(final int minLimit, final int maxLimit)
+      {
+      this.minLimit = Math.max(1, minLimit);
+      this.maxLimit = Math.max(this.minLimit, maxLimit);
+      this.limit = this.maxLimit;
+      }
+
+   /** Blocks until fewer uploads are in flight than the current limit, then counts the caller as in flight. */
+   public void acquire() throws InterruptedException
+      {
+      lock.lock();  // block until condition holds
+      try
+         {
+         while (numInFlight >= limit)
+            {
+            permitAvailableCondition.await();
+            }
+         numInFlight++;
+         }
+      finally
+         {
+         lock.unlock();
+         }
+      }
+
+   /** Counts the caller as no longer in flight, and adapts the limit according to the given {@link Outcome}. */
+   public void release(@NotNull final Outcome outcome)
+      {
+      final int previousLimit;
+      final int newLimit;
+      lock.lock();  // block until condition holds
+      try
+         {
+         numInFlight = Math.max(0, numInFlight - 1);
+         previousLimit = limit;
+
+         switch (outcome)
+            {
+            case SUCCESS:
+               numSuccessesSinceLastChange++;
+               if (numSuccessesSinceLastChange >= limit && limit < maxLimit)
+                  {
+                  limit++;
+                  numSuccessesSinceLastChange = 0;
+                  numIncreases.incrementAndGet();
+                  }
+               break;
+
+            case OVERLOAD:
+               numSuccessesSinceLastChange = 0;
+               final long now = System.currentTimeMillis();
+               if (limit > minLimit && now - lastDecreaseTimeInMillis >= DECREASE_COOLDOWN_IN_MILLIS)
+                  {
+                  limit = Math.max(minLimit, limit / 2);
+                  lastDecreaseTimeInMillis = now;
+                  numDecreases.incrementAndGet();
+                  }
+               break;
+
+            default:
+               numSuccessesSinceLastChange = 0;
+            }
+
+         newLimit = limit;
+         permitAvailableCondition.signalAll();
+         }
+      finally
+         {
+         lock.unlock();
+         }
+
+      if (newLimit < previousLimit)
+         {
+         final String msg = "Upload problems detected, so reducing the number of concurrent uploads from " + previousLimit + " to " + newLimit + ".";
+         LOG.info("UploadConcurrencyLimiter.release(): " + msg);
+         CONSOLE_LOG.info(msg);
+         }
+      else if (newLimit > previousLimit && LOG.isDebugEnabled())
+         {
+         LOG.debug("UploadConcurrencyLimiter.release(): uploads are healthy, so increasing the number of concurrent uploads from " + previousLimit + " to " + newLimit);
+         }
+      }
+
+   /**
+    * Sets the current limit.  If it's outside the bounds given to the constructor, the bounds are widened to include it.
+    * The limit keeps adapting from the new value.
+    */
+   public void setLimit(final int newLimit)
+      {
+      lock.lock();  // block until condition holds
+      try
+         {
+         limit = Math.max(1, newLimit);
+         minLimit = Math.min(minLimit, limit);
+         maxLimit = Math.max(maxLimit, limit);
+         numSuccessesSinceLastChange = 0;
+         permitAvailableCondition.signalAll();
+         }
+      finally
+         {
+         lock.unlock();
+         }
+      LOG.info("UploadConcurrencyLimiter.setLimit(): limit set to [" + newLimit + "]");
+      }
+
+   /** Returns the current limit on the number of uploads in flight. */
+   public int getLimit()
+      {
+      lock.lock();  // block until condition holds
+      try
+         {
+         return limit;
+         }
+      finally
+         {
+         lock.unlock();
+         }
+      }
+
+   public int getMinLimit()
+      {
+      lock.lock();  // block until condition holds
+      try
+         {
+         return minLimit;
+         }
+      finally
+         {
+         lock.unlock();
+         }
+      }
+
+   public int getMaxLimit()
+      {
+      lock.lock();  // block until condition holds
+      try
+         {
+         return maxLimit;
+         }
+      finally
+         {
+         lock.unlock();
+         }
+      }
+
+   /** Returns the number of uploads currently in flight. */
+   public int getNumInFlight()
+      {
+      lock.lock();  // block until condition holds
+      try
+         {
+         return numInFlight;
+         }
+      finally
+         {
+         lock.unlock();
+         }
+      }
+
+   /** Returns the number of times the limit has been increased. */
+   public long getNumIncreases()
+      {
+      return numIncreases.get();
+      }
+
+   /** Returns the number of times the limit has been decreased. */
+   public long getNumDecreases()
+      {
+      return numDecreases.get();
+      }
+   }
@@ -0,0 +1,252 @@
+package org.bodytrack.loggingdevice;
+
+import java.util.Comparator;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * <p>
+ * <code>UploadQueue</code> orders pending uploads by the timestamp of the data they hold, so that after an outage the
+ * freshest data is uploaded first and users' dashboards catch up right away, while the backlog drains in the
+ * background.  {@link #take()} normally returns the newest element, but:
+ * </p>
+ * <ul>
+ *    <li>a {@link #BACKFILL_SHARE_IN_PERCENT_SYSTEM_PROPERTY share} of the bytes taken is reserved for the oldest
+ *        elements, so that the backlog keeps moving even while new data keeps arriving</li>
+ *    <li>an element which has been waiting longer than the {@link #MAX_WAIT_IN_MINUTES_SYSTEM_PROPERTY maximum wait}
+ *        is taken first within that share, oldest-enqueued first, so that nothing starves</li>
+ * </ul>
+ * <p>
+ * Aged elements are charged to the backfill share rather than jumping ahead of everything, since after a long outage
+ * nearly everything in the queue has waited longer than the maximum wait, and letting all of it jump the queue would
+ * turn the queue back into plain FIFO.
+ * </p>
+ * <p>
+ * Ties (and elements with the same timestamp) are broken by the order in which they were added.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+final class UploadQueue<E>
+   {
+   private static final Logger LOG = Logger.getLogger(UploadQueue.class);
+
+   public static final String BACKFILL_SHARE_IN_PERCENT_SYSTEM_PROPERTY = "org.bodytrack.loggingdevice.UploadQueue.backfill-share-in-percent";
+   public static final String MAX_WAIT_IN_MINUTES_SYSTEM_PROPERTY = "org.bodytrack.loggingdevice.UploadQueue.max-wait-in-minutes";
+
+   private static final int DEFAULT_BACKFILL_SHARE_IN_PERCENT = 25;
+   private static final int DEFAULT_MAX_WAIT_IN_MINUTES = 60;
+
+   private static final int BACKFILL_SHARE_IN_PERCENT;
+   private static final int MAX_WAIT_IN_MINUTES;
+
+   static
+      {
+      BACKFILL_SHARE_IN_PERCENT = Math.max(0, Math.min(100, SystemPropertyUtils.getIntegerSystemProperty(BACKFILL_SHARE_IN_PERCENT_SYSTEM_PROPERTY, DEFAULT_BACKFILL_SHARE_IN_PERCENT)));
+      MAX_WAIT_IN_MINUTES = Math.max(1, SystemPropertyUtils.getIntegerSystemProperty(MAX_WAIT_IN_MINUTES_SYSTEM_PROPERTY, DEFAULT_MAX_WAIT_IN_MINUTES));
+
+      LOG.info("UploadQueue: uploading newest data first, reserving [" + BACKFILL_SHARE_IN_PERCENT + "]% of bytes for the oldest data, and promoting uploads which have waited more than [" + MAX_WAIT_IN_MINUTES + "] minute(s).");
+      }
+
+   private static final class Entry<E>
+      {
+      private final E element;
+      private final long dataTimestamp;
+      private final long sizeInBytes;
+      private final long sequenceNumber;
+      private final long enqueueTime = System.nanoTime();
+
+      private Entry(@NotNull final E element, final long dataTimestamp, final long sizeInBytes, final long sequenceNumber)
+         {
+         this.element = element;
+         this.dataTimestamp = dataTimestamp;
+         this.sizeInBytes = Math.max(1, sizeInBytes);   // so that even empty files count towards the shares
+         this.sequenceNumber = sequenceNumber;
+         }
+      }
+
+   private final Comparator<Entry<E>> byDataTimestamp =
+         new Comparator<Entry<E>>()
+         {
+         @Override
+         public int compare(final Entry<E> entry1, final Entry<E> entry2)
+            {
+            if (entry1.dataTimestamp != entry2.dataTimestamp)
+               {
+               return entry1.dataTimestamp < entry2.dataTimestamp ? -1 : 1;
+               }
+            return compareSequenceNumbers(entry1, entry2);
+            }
+         };
+
+   private final Comparator<Entry<E>> bySequenceNumber =
+         new Comparator<Entry<E>>()
+         {
+         @Override
+         public int compare(final Entry<E> entry1, final Entry<E> entry2)
+            {
+            return compareSequenceNumbers(entry1, entry2);
+            }
+         };
+
+   private static int compareSequenceNumbers(@NotNull final Entry<?> entry1, @NotNull final Entry<?> entry2)
+      {
+      return entry1.sequenceNumber < entry2.sequenceNumber ? -1 : (entry1.sequenceNumber == entry2.sequenceNumber ? 0 : 1);
+      }
+
+   private final int backfillShareInPercent;
+   private final long maxWaitInNanos;
+
+   private final Lock lock = new ReentrantLock();
+   private final Condition notEmptyCondition = lock.newCondition();
+
+   /** The same entries, in two orders.  Guarded by the {@link #lock}. */
+   private final TreeSet<Entry<E>> entriesByDataTimestamp = new TreeSet<Entry<E>>(byDataTimestamp);
+   private final TreeSet<Entry<E>> entriesBySequenceNumber = new TreeSet<Entry<E>>(bySequenceNumber);
+
+   private long nextSequenceNumber = 0;
+   private long numBytesTaken = 0;
+   private long numBackfillBytesTaken = 0;
+   private long numTakenNewest = 0;
+   private long numTakenBackfill = 0;
+   private long numTakenAged = 0;
+
+   UploadQueue()
+      {
+      this(BACKFILL_SHARE_IN_PERCENT, TimeUnit.MINUTES.toMillis(MAX_WAIT_IN_MINUTES));
+      }
+
+   UploadQueue(final int backfillShareInPercent, final long maxWaitInMillis)
+      {
+      this.backfillShareInPercent = Math.max(0, Math.min(100, backfillShareInPercent));
+      this.maxWaitInNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitInMillis));
+      }
+
+   /**
+    * Adds the given element.  The <code>dataTimestamp</code> orders it among the other elements (bigger is newer), and
+    * the <code>sizeInBytes</code> counts towards the backfill share when it's taken.
+    */
+   void add(@NotNull final E element, final long dataTimestamp, final long sizeInBytes)
+      {
+      lock.lock();  // block until condition holds
+      try
+         {
+         final Entry<E> entry = new Entry<E>(element, dataTimestamp, sizeInBytes, nextSequenceNumber++);
+         entriesByDataTimestamp.add(entry);
+         entriesBySequenceNumber.add(entry);
+         notEmptyCondition.signal();
+         }
+      finally
+         {
+         lock.unlock();
+         }
+      }
+
+   /** Blocks until the queue is non-empty, then removes and returns the element which should be uploaded next. */
+   @NotNull
+   E take() throws InterruptedException
+      {
+      lock.lock();  // block until condition holds
+      try
+         {
+         while (entriesByDataTimestamp.isEmpty())
+            {
+            notEmptyCondition.await();
+            }
+
+         final Entry<E> entry;
+         if (numBackfillBytesTaken * 100 < numBytesTaken * backfillShareInPercent)
+            {
+            // The backfill is behind its share, so take whichever has waited longest if it has waited too long, and
+            // the oldest data otherwise.
+            final Entry<E> longestWaitingEntry = entriesBySequenceNumber.first();
+            if (System.nanoTime() - longestWaitingEntry.enqueueTime > maxWaitInNanos)
+               {
+               entry = longestWaitingEntry;
+               numTakenAged++;
+               }
+            else
+               {
+               entry = entriesByDataTimestamp.first();
+               numTakenBackfill++;
+               }
+            numBackfillBytesTaken += entry.sizeInBytes;
+            }
+         else
+            {
+            entry = entriesByDataTimestamp.last();
+            numTakenNewest++;
+            }
+         numBytesTaken += entry.sizeInBytes;
+
+         entriesByDataTimestamp.remove(entry);
+         entriesBySequenceNumber.remove(entry);
+         return entry.element;
+         }
+      finally
+         {
+         lock.unlock();
+         }
+      }
+
+   /** Returns the number of elements waiting in the queue. */
+   int size()
+      {
+      lock.lock();  // block until condition holds
+      try
+         {
+         return entriesByDataTimestamp.size();
+         }
+      finally
+         {
+         lock.unlock();
+         }
+      }
+
+   /** Returns the number of elements taken newest-first. */
+   long getNumTakenNewest()
+      {
+      lock.lock();  // block until condition holds
+      try
+         {
+         return numTakenNewest;
+         }
+      finally
+         {
+         lock.unlock();
+         }
+      }
+
+   /** Returns the number of elements taken oldest-first as part of the backfill share. */
+   long getNumTakenBackfill()
+      {
+      lock.lock();  // block until condition holds
+      try
+         {
+         return numTakenBackfill;
+         }
+      finally
+         {
+         lock.unlock();
+         }
+      }
+
+   /** Returns the number of elements taken as part of the backfill share because they had waited too long. */
+   long getNumTakenAged()
+      {
+      lock.lock();  // block until condition holds
+      try
+         {
+         return numTakenAged;
+         }
+      finally
+         {
+         lock.unlock();
+         }
+      }
+   }
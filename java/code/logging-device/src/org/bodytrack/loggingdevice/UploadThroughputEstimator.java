@@ -0,0 +1,131 @@
+package org.bodytrack.loggingdevice;
+
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * <code>UploadThroughputEstimator</code> keeps an exponentially weighted moving average of the throughput achieved by
+ * uploads, and uses it to compute a deadline for each upload from the size of the file.  A deadline is the
+ * {@link #BASE_DEADLINE_IN_SECONDS_SYSTEM_PROPERTY base deadline} (which covers connecting and waiting for the server's
+ * response) plus the time the file would take to send at a {@link #SAFETY_FACTOR fraction} of the estimated throughput,
+ * capped at the {@link #MAX_DEADLINE_IN_SECONDS_SYSTEM_PROPERTY maximum deadline}.  The estimate used for a deadline is
+ * itself capped at the rate the upload may send at under the {@link UploadBandwidthLimiter bandwidth limits}, since the
+ * estimate may have been measured while the limits were looser.
+ * </p>
+ * <p>
+ * Only completed uploads of at least {@link #MIN_SAMPLE_SIZE_IN_BYTES} are used as samples, since smaller uploads are
+ * dominated by connection setup and server latency rather than the speed of the link.  Aborted uploads are always used,
+ * since the rate at which they were sending is all there is to go on when the link slows down: without them, an
+ * estimate which is too high would keep producing deadlines which are too short, which would abort every large upload
+ * without ever correcting the estimate.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+final class UploadThroughputEstimator
+   {
+   private static final Logger LOG = Logger.getLogger(UploadThroughputEstimator.class);
+
+   public static final String INITIAL_ESTIMATE_IN_KILOBYTES_PER_SECOND_SYSTEM_PROPERTY = "org.bodytrack.loggingdevice.UploadThroughputEstimator.initial-estimate-in-kilobytes-per-second";
+   public static final String BASE_DEADLINE_IN_SECONDS_SYSTEM_PROPERTY = "org.bodytrack.loggingdevice.UploadThroughputEstimator.base-deadline-in-seconds";
+   public static final String MAX_DEADLINE_IN_SECONDS_SYSTEM_PROPERTY = "org.bodytrack.loggingdevice.UploadThroughputEstimator.max-deadline-in-seconds";
+
+   private static final int DEFAULT_INITIAL_ESTIMATE_IN_KILOBYTES_PER_SECOND = 32;
+   private static final int DEFAULT_BASE_DEADLINE_IN_SECONDS = 60;
+   private static final int DEFAULT_MAX_DEADLINE_IN_SECONDS = 60 * 60;
+
+   /** Deadlines allow for the file to be sent at this fraction of the estimated throughput. */
+   private static final double SAFETY_FACTOR = 0.25;
+
+   /** Weight given to each new sample. */
+   private static final double SMOOTHING_FACTOR = 0.2;
+
+   static final long MIN_SAMPLE_SIZE_IN_BYTES = 16 * 1024;
+
+   /** The estimate never drops below this, so that one terrible upload can't produce absurd deadlines. */
+   private static final double MIN_ESTIMATE_IN_BYTES_PER_SECOND = 1024;
+
+   private static final int INITIAL_ESTIMATE_IN_KILOBYTES_PER_SECOND;
+   private static final int BASE_DEADLINE_IN_SECONDS;
+   private static final int MAX_DEADLINE_IN_SECONDS;
+
+   static
+      {
+      INITIAL_ESTIMATE_IN_KILOBYTES_PER_SECOND = Math.max(1, SystemPropertyUtils.getIntegerSystemProperty(INITIAL_ESTIMATE_IN_KILOBYTES_PER_SECOND_SYSTEM_PROPERTY, DEFAULT_INITIAL_ESTIMATE_IN_KILOBYTES_PER_SECOND));
+      BASE_DEADLINE_IN_SECONDS = Math.max(1, SystemPropertyUtils.getIntegerSystemProperty(BASE_DEADLINE_IN_SECONDS_SYSTEM_PROPERTY, DEFAULT_BASE_DEADLINE_IN_SECONDS));
+      MAX_DEADLINE_IN_SECONDS = Math.max(BASE_DEADLINE_IN_SECONDS, SystemPropertyUtils.getIntegerSystemProperty(MAX_DEADLINE_IN_SECONDS_SYSTEM_PROPERTY, DEFAULT_MAX_DEADLINE_IN_SECONDS));
+
+      LOG.info("UploadThroughputEstimator: initial estimate is [" + INITIAL_ESTIMATE_IN_KILOBYTES_PER_SECOND + "] KB/s, upload deadlines range from [" + BASE_DEADLINE_IN_SECONDS + "] to [" + MAX_DEADLINE_IN_SECONDS + "] seconds.");
+      }
+
+   private final long baseDeadlineInMillis;
+   private final long maxDeadlineInMillis;
+
+   private double estimateInBytesPerSecond;
+   private long numSamples = 0;
+
+   UploadThroughputEstimator()
+      {
+      this(INITIAL_ESTIMATE_IN_KILOBYTES_PER_SECOND * 1024.0, BASE_DEADLINE_IN_SECONDS * 1000L, MAX_DEADLINE_IN_SECONDS * 1000L);
+      }
+
+   UploadThroughputEstimator(final double initialEstimateInBytesPerSecond, final long baseDeadlineInMillis, final long maxDeadlineInMillis)
+      {
+      this.estimateInBytesPerSecond = Math.max(MIN_ESTIMATE_IN_BYTES_PER_SECOND, initialEstimateInBytesPerSecond);
+      this.baseDeadlineInMillis = Math.max(0, baseDeadlineInMillis);
+      this.maxDeadlineInMillis = Math.max(this.baseDeadlineInMillis, maxDeadlineInMillis);
+      }
+
+   /**
+    * Records an upload of the given number of bytes which took the given time, from the start of the request until the
+    * response arrived.  Uploads smaller than {@link #MIN_SAMPLE_SIZE_IN_BYTES} are ignored.
+    */
+   synchronized void recordUpload(final long numBytes, final long durationInNanos)
+      {
+      if (numBytes >= MIN_SAMPLE_SIZE_IN_BYTES && durationInNanos > 0)
+         {
+         final double sampleInBytesPerSecond = numBytes * 1e9 / durationInNanos;
+         estimateInBytesPerSecond = Math.max(MIN_ESTIMATE_IN_BYTES_PER_SECOND,
+                                             SMOOTHING_FACTOR * sampleInBytesPerSecond + (1 - SMOOTHING_FACTOR) * estimateInBytesPerSecond);
+         numSamples++;
+         }
+      }
+
+   /**
+    * Records an upload which was aborted after sending the given number of bytes in the given time, from the start of
+    * the request until it was aborted.
+    */
+   synchronized void recordAbortedUpload(final long numBytes, final long durationInNanos)
+      {
+      if (durationInNanos > 0)
+         {
+         final double sampleInBytesPerSecond = Math.max(0, numBytes) * 1e9 / durationInNanos;
+         estimateInBytesPerSecond = Math.max(MIN_ESTIMATE_IN_BYTES_PER_SECOND,
+                                             SMOOTHING_FACTOR * sampleInBytesPerSecond + (1 - SMOOTHING_FACTOR) * estimateInBytesPerSecond);
+         numSamples++;
+         }
+      }
+
+   /** Returns the current throughput estimate, in bytes per second. */
+   synchronized double getEstimateInBytesPerSecond()
+      {
+      return estimateInBytesPerSecond;
+      }
+
+   /** Returns the number of uploads which have contributed to the estimate. */
+   synchronized long getNumSamples()
+      {
+      return numSamples;
+      }
+
+   /**
+    * Returns the deadline, in milliseconds, for uploading a file of the given length, assuming that it can't be sent
+    * faster than <code>maxBytesPerSecond</code> (which may be {@link Double#POSITIVE_INFINITY}).
+    */
+   synchronized long computeDeadlineInMillis(final long fileLength, final double maxBytesPerSecond)
+      {
+      final double bytesPerSecond = Math.max(1, Math.min(estimateInBytesPerSecond, maxBytesPerSecond));
+      final double sendTimeInMillis = Math.max(0, fileLength) * 1000.0 / (bytesPerSecond * SAFETY_FACTOR);
+      return (long)Math.min(maxDeadlineInMillis, baseDeadlineInMillis + sendTimeInMillis);
+      }
+   }
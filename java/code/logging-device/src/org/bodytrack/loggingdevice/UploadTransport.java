@@ -0,0 +1,306 @@
+package org.bodytrack.loggingdevice;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.security.KeyStore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import org.apache.http.client.HttpClient;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * <p>
+ * <code>UploadTransport</code> owns the single {@link HttpClient} shared by all uploads.  Its connections are pooled and
+ * kept alive between uploads, so a burst of small files doesn't pay for a new connection (or, over HTTPS, a new TLS
+ * handshake) per file.  Connections which have sat idle for longer than the
+ * {@link #IDLE_CONNECTION_TIMEOUT_IN_SECONDS_SYSTEM_PROPERTY idle timeout} are {@link #closeIdleConnections() closed}.
+ * </p>
+ * <p>
+ * Uploads go over HTTPS if the {@link #USE_HTTPS_SYSTEM_PROPERTY} system property is <code>true</code>.  All HTTPS
+ * connections share one {@link SSLContext}, whose client session cache lets new connections resume an earlier TLS
+ * session with an abbreviated handshake.  By default, the server's certificate is checked against the JVM's trusted
+ * certificates, but a different {@link #TRUST_STORE_SYSTEM_PROPERTY trust store} may be given, e.g. for a server with a
+ * self-signed certificate.  If HTTPS is requested but can't be set up (e.g. the trust store is missing), construction
+ * fails rather than quietly falling back to HTTP, since the uploads carry the user's data.
+ * </p>
+ * <p>
+ * The client never sends <code>Expect: 100-continue</code>.  The server accepts (almost) every upload, so waiting for
+ * its go-ahead would just add a round trip to every upload.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+final class UploadTransport
+   {
+   private static final Logger LOG = Logger.getLogger(UploadTransport.class);
+   private static final Logger CONSOLE_LOG = Logger.getLogger("ConsoleLog");
+
+   public static final String USE_HTTPS_SYSTEM_PROPERTY = "org.bodytrack.loggingdevice.UploadTransport.use-https";
+   public static final String TRUST_STORE_SYSTEM_PROPERTY = "org.bodytrack.loggingdevice.UploadTransport.trust-store";
+   public static final String TRUST_STORE_PASSWORD_SYSTEM_PROPERTY = "org.bodytrack.loggingdevice.UploadTransport.trust-store-password";
+   public static final String TRUST_STORE_TYPE_SYSTEM_PROPERTY = "org.bodytrack.loggingdevice.UploadTransport.trust-store-type";
+   public static final String SESSION_CACHE_SIZE_SYSTEM_PROPERTY = "org.bodytrack.loggingdevice.UploadTransport.session-cache-size";
+   public static final String SESSION_TIMEOUT_IN_SECONDS_SYSTEM_PROPERTY = "org.bodytrack.loggingdevice.UploadTransport.session-timeout-in-seconds";
+   public static final String IDLE_CONNECTION_TIMEOUT_IN_SECONDS_SYSTEM_PROPERTY = "org.bodytrack.loggingdevice.UploadTransport.idle-connection-timeout-in-seconds";
+
+   private static final int DEFAULT_SESSION_CACHE_SIZE = 16;
+   private static final int DEFAULT_SESSION_TIMEOUT_IN_SECONDS = 24 * 60 * 60;
+   private static final int DEFAULT_IDLE_CONNECTION_TIMEOUT_IN_SECONDS = 30;
+
+   private static final boolean USE_HTTPS;
+   private static final int SESSION_CACHE_SIZE;
+   private static final int SESSION_TIMEOUT_IN_SECONDS;
+   private static final int IDLE_CONNECTION_TIMEOUT_IN_SECONDS;
+
+   static
+      {
+      USE_HTTPS = Boolean.parseBoolean(System.getProperty(USE_HTTPS_SYSTEM_PROPERTY, "false"));
+      SESSION_CACHE_SIZE = Math.max(0, SystemPropertyUtils.getIntegerSystemProperty(SESSION_CACHE_SIZE_SYSTEM_PROPERTY, DEFAULT_SESSION_CACHE_SIZE));
+      SESSION_TIMEOUT_IN_SECONDS = Math.max(0, SystemPropertyUtils.getIntegerSystemProperty(SESSION_TIMEOUT_IN_SECONDS_SYSTEM_PROPERTY, DEFAULT_SESSION_TIMEOUT_IN_SECONDS));
+      IDLE_CONNECTION_TIMEOUT_IN_SECONDS = Math.max(1, SystemPropertyUtils.getIntegerSystemProperty(IDLE_CONNECTION_TIMEOUT_IN_SECONDS_SYSTEM_PROPERTY, DEFAULT_IDLE_CONNECTION_TIMEOUT_IN_SECONDS));
+
+      LOG.info("UploadTransport: uploading over " + (USE_HTTPS ? "HTTPS" : "HTTP") + " with persistent connections, closed after [" + IDLE_CONNECTION_TIMEOUT_IN_SECONDS + "] idle second(s).");
+      }
+
+   /**
+    * Creates the {@link SSLContext} shared by all HTTPS connections, trusting the certificates in the configured trust
+    * store, or the JVM's trusted certificates if there isn't one.
+    */
+   @NotNull
+   private static SSLContext createSslContext() throws Exception
+      {
+      TrustManagerFactory trustManagerFactory = null;
+      final String trustStorePath = System.getProperty(TRUST_STORE_SYSTEM_PROPERTY);
+      if (trustStorePath != null)
+         {
+         final String password = System.getProperty(TRUST_STORE_PASSWORD_SYSTEM_PROPERTY);
+         final KeyStore trustStore = KeyStore.getInstance(System.getProperty(TRUST_STORE_TYPE_SYSTEM_PROPERTY, KeyStore.getDefaultType()));
+         final InputStream inputStream = new FileInputStream(new File(trustStorePath));
+         try
+            {
+            trustStore.load(inputStream, (password == null) ? null : password.toCharArray());
+            }
+         finally
+            {
+            inputStream.close();
+            }
+         trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+         trustManagerFactory.init(trustStore);
+         LOG.info("UploadTransport.createSslContext(): trusting the certificates in [" + trustStorePath + "]");
+         }
+
+      final SSLContext sslContext = SSLContext.getInstance(SSLSocketFactory.TLS);
+      sslContext.init(null, (trustManagerFactory == null) ? null : trustManagerFactory.getTrustManagers(), null);
+
+      final SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+      if (sessionContext != null)
+         {
+         sessionContext.setSessionCacheSize(SESSION_CACHE_SIZE);
+         sessionContext.setSessionTimeout(SESSION_TIMEOUT_IN_SECONDS);
+         }
+      return sslContext;
+      }
+
+   private final boolean isSecure;
+   private final ThreadSafeClientConnManager connectionManager;
+   private final DefaultHttpClient httpClient;
+
+   private final AtomicLong numConnectionsOpened = new AtomicLong(0);
+   private final AtomicLong numFullHandshakes = new AtomicLong(0);
+   private final AtomicLong numResumedHandshakes = new AtomicLong(0);
+
+   /**
+    * Creates an <code>UploadTransport</code> whose pool holds up to the given number of connections, using HTTPS if the
+    * {@link #USE_HTTPS_SYSTEM_PROPERTY} system property is <code>true</code>.
+    *
+    * @throws IllegalStateException if HTTPS is requested but can't be set up
+    */
+   UploadTransport(final int maxNumConnections)
+      {
+      this(maxNumConnections, USE_HTTPS ? createSslContextOrFail() : null);
+      }
+
+   /**
+    * Creates an <code>UploadTransport</code> whose pool holds up to the given number of connections, using HTTPS with
+    * the given {@link SSLContext}, or HTTP if it's <code>null</code>.
+    */
+   UploadTransport(final int maxNumConnections, @Nullable final SSLContext sslContext)
+      {
+      final SchemeRegistry schemeRegistry = new SchemeRegistry();
+      if (sslContext == null)
+         {
+         schemeRegistry.register(new Scheme("http", 80, new CountingPlainSocketFactory()));
+         }
+      else
+         {
+         // only register https, so that nothing can be sent in the clear by mistake
+         schemeRegistry.register(new Scheme("https", 443, new CountingSSLSocketFactory(sslContext)));
+         }
+      this.isSecure = sslContext != null;
+
+      connectionManager = new ThreadSafeClientConnManager(schemeRegistry);
+      setMaxNumConnections(maxNumConnections);
+      httpClient = new DefaultHttpClient(connectionManager);
+      HttpProtocolParams.setUseExpectContinue(httpClient.getParams(), false);
+      }
+
+   @NotNull
+   private static SSLContext createSslContextOrFail()
+      {
+      try
+         {
+         return createSslContext();
+         }
+      catch (Exception e)
+         {
+         final String msg = "Failed to set up HTTPS (" + e.getMessage() + "), so no data files will be uploaded.  Fix the configuration, or turn HTTPS off with -D" + USE_HTTPS_SYSTEM_PROPERTY + "=false.";
+         LOG.error("UploadTransport.createSslContextOrFail(): " + msg, e);
+         CONSOLE_LOG.error(msg);
+         throw new IllegalStateException(msg, e);
+         }
+      }
+
+   /** Returns <code>true</code> if uploads go over HTTPS. */
+   boolean isSecure()
+      {
+      return isSecure;
+      }
+
+   /** Returns the URL scheme uploads should use, i.e. "https" or "http". */
+   @NotNull
+   String getScheme()
+      {
+      return isSecure ? "https" : "http";
+      }
+
+   /** Returns the shared {@link HttpClient}.  Per-upload settings such as timeouts belong in the request's params. */
+   @NotNull
+   HttpClient getHttpClient()
+      {
+      return httpClient;
+      }
+
+   /** Grows the pool, if necessary, so that it can hold the given number of connections. */
+   void ensureCapacity(final int numConnections)
+      {
+      if (numConnections > connectionManager.getMaxTotal())
+         {
+         setMaxNumConnections(numConnections);
+         }
+      }
+
+   private void setMaxNumConnections(final int maxNumConnections)
+      {
+      // all uploads go to the same server, so one route may use the whole pool
+      connectionManager.setMaxTotal(Math.max(1, maxNumConnections));
+      connectionManager.setDefaultMaxPerRoute(Math.max(1, maxNumConnections));
+      }
+
+   /** Closes connections which the server has expired, or which have been idle for longer than the idle timeout. */
+   void closeIdleConnections()
+      {
+      connectionManager.closeExpiredConnections();
+      connectionManager.closeIdleConnections(IDLE_CONNECTION_TIMEOUT_IN_SECONDS, TimeUnit.SECONDS);
+      }
+
+   int getIdleConnectionTimeoutInSeconds()
+      {
+      return IDLE_CONNECTION_TIMEOUT_IN_SECONDS;
+      }
+
+   /** Closes all connections.  The transport can't be used afterwards. */
+   void shutdown()
+      {
+      connectionManager.shutdown();
+      }
+
+   /** Returns the number of connections opened to the server. */
+   long getNumConnectionsOpened()
+      {
+      return numConnectionsOpened.get();
+      }
+
+   /** Returns the number of TLS handshakes which established a new session. */
+   long getNumFullHandshakes()
+      {
+      return numFullHandshakes.get();
+      }
+
+   /** Returns the number of TLS handshakes which resumed a cached session. */
+   long getNumResumedHandshakes()
+      {
+      return numResumedHandshakes.get();
+      }
+
+   private final class CountingPlainSocketFactory extends PlainSocketFactory
+      {
+      @Override
+      public Socket connectSocket(final Socket socket,
+                                  final InetSocketAddress remoteAddress,
+                                  final InetSocketAddress localAddress,
+                                  final HttpParams params) throws IOException, ConnectTimeoutException
+         {
+         final Socket connectedSocket = super.connectSocket(socket, remoteAddress, localAddress, params);
+         numConnectionsOpened.incrementAndGet();
+         return connectedSocket;
+         }
+      }
+
+   /** Counts connections and handshakes, telling resumed sessions apart by whether they were created before the connection. */
+   private final class CountingSSLSocketFactory extends SSLSocketFactory
+      {
+      private CountingSSLSocketFactory(@NotNull final SSLContext sslContext)
+         {
+         super(sslContext, SSLSocketFactory.BROWSER_COMPATIBLE_HOSTNAME_VERIFIER);
+         }
+
+      @Override
+      public Socket connectSocket(final Socket socket,
+                                  final InetSocketAddress remoteAddress,
+                                  final InetSocketAddress localAddress,
+                                  final HttpParams params) throws IOException, ConnectTimeoutException
+         {
+         final long startTime = System.currentTimeMillis();
+
+         // the hostname verification done by the superclass completes the handshake
+         final Socket connectedSocket = super.connectSocket(socket, remoteAddress, localAddress, params);
+         numConnectionsOpened.incrementAndGet();
+         countHandshake(connectedSocket, startTime);
+         return connectedSocket;
+         }
+
+      private void countHandshake(@Nullable final Socket socket, final long connectStartTime)
+         {
+         if (socket instanceof SSLSocket)
+            {
+            if (((SSLSocket)socket).getSession().getCreationTime() < connectStartTime)
+               {
+               numResumedHandshakes.incrementAndGet();
+               }
+            else
+               {
+               numFullHandshakes.incrementAndGet();
+               }
+            }
+         }
+      }
+   }
@@ -13,6 +13,7 @@ import edu.cmu.ri.createlab.serial.CreateLabSerialDeviceVariableLengthReturnValu
 import edu.cmu.ri.createlab.serial.SerialDeviceCommandResponse;
 import org.apache.log4j.Logger;
 import org.bodytrack.loggingdevice.DataFile;
+import org.bodytrack.loggingdevice.DataFileTracer;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -23,6 +24,7 @@ public final class GetFileCommandStrategy extends CreateLabSerialDeviceVariableL
    {
    private static final Logger LOG = Logger.getLogger(GetFileCommandStrategy.class);
    private static final Logger CONSOLE_LOG = Logger.getLogger("ConsoleLog");
+   private static final DataFileTracer TRACER = DataFileTracer.getInstance();
 
    public static final int READ_TIMEOUT = 15;
    public static final TimeUnit READ_TIMEOUT_UNITS = TimeUnit.MINUTES;
@@ -211,12 +213,14 @@ public final class GetFileCommandStrategy extends CreateLabSerialDeviceVariableL
             final long expectedChecksum = ByteBuffer.wrap(checksumBytes).getLong();
 
             // calculate the actual checksum
+            final long checksumStartTime = TRACER.start();
             final Checksum checksum = new CRC32();
             checksum.update(data, SIZE_IN_BYTES_OF_EXPECTED_RESPONSE_HEADER, fileLength);
             final long actualChecksum = checksum.getValue();
 
             // compare expected checksum to actual
             isChecksumCorrect = (expectedChecksum == actualChecksum);
+            TRACER.end(DataFileTracer.Span.CHECKSUM_CHECK, filename, checksumStartTime);
             if (LOG.isDebugEnabled())
                {
                if (!isChecksumCorrect)
@@ -0,0 +1,200 @@
+package org.bodytrack.loggingdevice;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class DownloadRetryTableTest
+   {
+   /** A table with room for 4 entries has 8 slots. */
+   private static final int MAX_ENTRIES = 4;
+   private static final int MASK = 7;
+
+   private static final long INITIAL_BACKOFF_IN_MILLIS = 1000;
+   private static final long MAX_BACKOFF_IN_MILLIS = 4000;
+   private static final long TIME_TO_LIVE_IN_MILLIS = 60000;
+
+   private static final long FIRST_KEY = 0x50000000L;
+
+   @Test
+   public void testBackoffDoublesUpToTheMax()
+      {
+      final DownloadRetryTable table = createTable();
+      final long key = DownloadRetryTable.computeKey("4F3A2B1C.BT");
+
+      assertTrue(table.isRetryDue(key, 0));
+      assertEquals(1, table.recordAttempt(key, 0));
+      assertFalse(table.isRetryDue(key, 999));
+      assertTrue(table.isRetryDue(key, 1000));
+
+      assertEquals(2, table.recordAttempt(key, 1000));
+      assertFalse(table.isRetryDue(key, 2999));
+      assertTrue(table.isRetryDue(key, 3000));
+
+      assertEquals(3, table.recordAttempt(key, 3000));
+      assertEquals(4, table.recordAttempt(key, 7000));
+      assertFalse(table.isRetryDue(key, 10999));
+      assertTrue(table.isRetryDue(key, 11000));
+      }
+
+   @Test
+   public void testCollidingKeysAreKeptApart()
+      {
+      final DownloadRetryTable table = createTable();
+      final List<Long> keys = findKeysWithHomeSlot(3, 3);
+
+      for (final Long key : keys)
+         {
+         assertEquals(1, table.recordAttempt(key, 0));
+         }
+      assertEquals(3, table.size());
+      for (final Long key : keys)
+         {
+         assertFalse(table.isRetryDue(key, 0));
+         assertEquals(2, table.recordAttempt(key, 1000));
+         }
+      assertEquals(3, table.size());
+      }
+
+   @Test
+   public void testRemoveFromTheMiddleOfAProbeSequence()
+      {
+      final DownloadRetryTable table = createTable();
+      final List<Long> keys = findKeysWithHomeSlot(3, 3);
+      for (final Long key : keys)
+         {
+         table.recordAttempt(key, 0);
+         }
+
+      table.remove(keys.get(1));
+      assertEquals(2, table.size());
+      assertTrue(table.isRetryDue(keys.get(1), 0));
+
+      // the entry after the removed one must still be found
+      assertFalse(table.isRetryDue(keys.get(2), 0));
+      assertEquals(2, table.recordAttempt(keys.get(2), 1000));
+      assertEquals(2, table.recordAttempt(keys.get(0), 1000));
+      assertEquals(2, table.size());
+      }
+
+   @Test
+   public void testProbeSequenceWrapsAround()
+      {
+      final DownloadRetryTable table = createTable();
+
+      // three keys whose home is the last slot fill it and wrap around into slots 0 and 1, which pushes a key whose home
+      // is slot 0 into slot 2
+      final List<Long> keys = findKeysWithHomeSlot(MASK, 3);
+      keys.addAll(findKeysWithHomeSlot(0, 1));
+      for (final Long key : keys)
+         {
+         assertEquals(1, table.recordAttempt(key, 0));
+         }
+      assertEquals(4, table.size());
+
+      // removing the first key shifts the rest back across the end of the table
+      table.remove(keys.get(0));
+      assertEquals(3, table.size());
+      assertTrue(table.isRetryDue(keys.get(0), 0));
+      for (final Long key : keys.subList(1, keys.size()))
+         {
+         assertFalse(table.isRetryDue(key, 0));
+         assertEquals(2, table.recordAttempt(key, 1000));
+         }
+      assertEquals(3, table.size());
+      }
+
+   @Test
+   public void testExpiredEntriesArePurged()
+      {
+      final DownloadRetryTable table = createTable();
+      final long oldKey = FIRST_KEY;
+      final long newKey = FIRST_KEY + 1;
+      table.recordAttempt(oldKey, 0);
+      table.recordAttempt(newKey, TIME_TO_LIVE_IN_MILLIS / 2);
+
+      assertEquals(0, table.purgeExpired(TIME_TO_LIVE_IN_MILLIS - 1));
+      assertEquals(1, table.purgeExpired(TIME_TO_LIVE_IN_MILLIS));
+      assertEquals(1, table.size());
+
+      // the purged entry starts over, the other one is untouched
+      assertEquals(1, table.recordAttempt(oldKey, TIME_TO_LIVE_IN_MILLIS));
+      assertEquals(2, table.recordAttempt(newKey, TIME_TO_LIVE_IN_MILLIS));
+      }
+
+   @Test
+   public void testFullTableEvictsTheLeastRecentlyTouchedEntry()
+      {
+      final DownloadRetryTable table = createTable();
+      final int numKeys = MAX_ENTRIES * 3;
+      for (int i = 0; i < numKeys; i++)
+         {
+         table.recordAttempt(FIRST_KEY + i, i);
+         assertEquals(Math.min(i + 1, MAX_ENTRIES), table.size());
+         }
+
+      // only the most recently touched entries are left
+      for (int i = 0; i < numKeys - MAX_ENTRIES; i++)
+         {
+         assertTrue(table.isRetryDue(FIRST_KEY + i, numKeys));
+         }
+      for (int i = numKeys - MAX_ENTRIES; i < numKeys; i++)
+         {
+         assertFalse(table.isRetryDue(FIRST_KEY + i, numKeys));
+         }
+      }
+
+   @Test
+   public void testFullTablePrefersPurgingExpiredEntries()
+      {
+      final DownloadRetryTable table = createTable();
+      table.recordAttempt(FIRST_KEY, 0);
+      for (int i = 1; i < MAX_ENTRIES; i++)
+         {
+         table.recordAttempt(FIRST_KEY + i, TIME_TO_LIVE_IN_MILLIS);
+         }
+
+      // the expired entry makes room, so the entries which are still live all survive
+      table.recordAttempt(FIRST_KEY + MAX_ENTRIES, TIME_TO_LIVE_IN_MILLIS + 1);
+      assertEquals(MAX_ENTRIES, table.size());
+      assertTrue(table.isRetryDue(FIRST_KEY, TIME_TO_LIVE_IN_MILLIS + 1));
+      for (int i = 1; i <= MAX_ENTRIES; i++)
+         {
+         assertFalse(table.isRetryDue(FIRST_KEY + i, TIME_TO_LIVE_IN_MILLIS + 1));
+         }
+      }
+
+   @Test
+   public void testComputeKey()
+      {
+      assertEquals(0x4F3A2B1CL, DownloadRetryTable.computeKey("4F3A2B1C.BT"));
+      assertEquals(0x4F3A2B1CL, DownloadRetryTable.computeKey("4f3a2b1c.BTU"));
+      assertTrue(DownloadRetryTable.computeKey("NOTHEX.BT") > 0xffffffffL);
+      }
+
+   private static DownloadRetryTable createTable()
+      {
+      return new DownloadRetryTable(MAX_ENTRIES, INITIAL_BACKOFF_IN_MILLIS, MAX_BACKOFF_IN_MILLIS, TIME_TO_LIVE_IN_MILLIS);
+      }
+
+   /** Returns the first <code>numKeys</code> keys, starting at {@link #FIRST_KEY}, whose home is the given slot. */
+   private static List<Long> findKeysWithHomeSlot(final int homeSlot, final int numKeys)
+      {
+      final List<Long> keys = new ArrayList<Long>();
+      for (long key = FIRST_KEY; keys.size() < numKeys; key++)
+         {
+         if ((DownloadRetryTable.hash(key) & MASK) == homeSlot)
+            {
+            keys.add(key);
+            }
+         }
+      return keys;
+      }
+   }
@@ -0,0 +1,152 @@
+package org.bodytrack.loggingdevice;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class UploadCompressorTest
+   {
+   @Test
+   public void testRoundTrip() throws IOException
+      {
+      final UploadCompressor compressor = new UploadCompressor(true, Deflater.DEFAULT_COMPRESSION);
+
+      // larger than the compressor's buffer, so the deflater has to be drained more than once
+      final byte[] body = createBody(100000, 1);
+      final byte[] gzipped = compress(compressor, body);
+
+      assertArrayEquals(body, gunzip(gzipped));
+      assertHeaderAndTrailer(body, gzipped);
+      assertEquals(1, compressor.getNumCompressedUploads());
+      assertTrue(compressor.getCompressionRatio() < 1);
+      }
+
+   @Test
+   public void testRoundTripOfEmptyBody() throws IOException
+      {
+      final UploadCompressor compressor = new UploadCompressor(true, Deflater.DEFAULT_COMPRESSION);
+      final byte[] gzipped = compress(compressor, new byte[0]);
+
+      assertArrayEquals(new byte[0], gunzip(gzipped));
+      assertHeaderAndTrailer(new byte[0], gzipped);
+      }
+
+   @Test
+   public void testDeflaterIsReusedAfterReset() throws IOException
+      {
+      final UploadCompressor compressor = new UploadCompressor(true, Deflater.BEST_SPEED);
+      final byte[] firstBody = createBody(50000, 2);
+      final byte[] secondBody = createBody(20000, 3);
+
+      // a deflater which wasn't reset properly would carry state from the first upload into the second
+      final byte[] firstGzipped = compress(compressor, firstBody);
+      final byte[] secondGzipped = compress(compressor, secondBody);
+      final byte[] secondGzippedAgain = compress(compressor, secondBody);
+
+      assertEquals(1, compressor.getNumDeflatersCreated());
+      assertArrayEquals(firstBody, gunzip(firstGzipped));
+      assertArrayEquals(secondBody, gunzip(secondGzipped));
+      assertHeaderAndTrailer(secondBody, secondGzipped);
+      assertArrayEquals(secondGzipped, secondGzippedAgain);
+      assertEquals(3, compressor.getNumCompressedUploads());
+      }
+
+   @Test
+   public void testRejectionDisablesCompression()
+      {
+      final UploadCompressor compressor = new UploadCompressor(true, Deflater.DEFAULT_COMPRESSION);
+      assertTrue(compressor.shouldCompress());
+
+      compressor.reportAccepted();
+      assertEquals(UploadCompressor.ServerSupport.SUPPORTED, compressor.getServerSupport());
+      assertTrue(compressor.shouldCompress());
+
+      compressor.reportRejected();
+      assertEquals(UploadCompressor.ServerSupport.UNSUPPORTED, compressor.getServerSupport());
+      assertFalse(compressor.shouldCompress());
+      }
+
+   /** Returns compressible bytes: runs of a few distinct values, of random lengths. */
+   private static byte[] createBody(final int length, final long seed)
+      {
+      final Random random = new Random(seed);
+      final byte[] body = new byte[length];
+      int i = 0;
+      while (i < length)
+         {
+         final int runLength = Math.min(length - i, 1 + random.nextInt(16));
+         Arrays.fill(body, i, i + runLength, (byte)random.nextInt(8));
+         i += runLength;
+         }
+      return body;
+      }
+
+   private static byte[] compress(final UploadCompressor compressor, final byte[] body) throws IOException
+      {
+      final HttpEntity entity = compressor.compress(new ByteArrayEntity(body));
+      assertEquals("gzip", entity.getContentEncoding().getValue());
+
+      final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+      entity.writeTo(outputStream);
+      return outputStream.toByteArray();
+      }
+
+   /** Decompresses with the JDK's own gzip reader, which checks the header, and the CRC and size in the trailer. */
+   private static byte[] gunzip(final byte[] gzipped) throws IOException
+      {
+      final InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(gzipped));
+      try
+         {
+         final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+         final byte[] buffer = new byte[4096];
+         int numBytes;
+         while ((numBytes = inputStream.read(buffer)) != -1)
+            {
+            outputStream.write(buffer, 0, numBytes);
+            }
+         return outputStream.toByteArray();
+         }
+      finally
+         {
+         inputStream.close();
+         }
+      }
+
+   /** Checks the header's magic number and method, and the trailer's CRC-32 and ISIZE fields, byte by byte. */
+   private static void assertHeaderAndTrailer(final byte[] body, final byte[] gzipped)
+      {
+      assertEquals((byte)0x1f, gzipped[0]);
+      assertEquals((byte)0x8b, gzipped[1]);
+      assertEquals(Deflater.DEFLATED, gzipped[2]);
+
+      final CRC32 crc = new CRC32();
+      crc.update(body);
+      assertEquals(crc.getValue(), readLittleEndianInt(gzipped, gzipped.length - 8));
+      assertEquals(body.length & 0xffffffffL, readLittleEndianInt(gzipped, gzipped.length - 4));
+      }
+
+   private static long readLittleEndianInt(final byte[] bytes, final int offset)
+      {
+      return (bytes[offset] & 0xffL) |
+             ((bytes[offset + 1] & 0xffL) << 8) |
+             ((bytes[offset + 2] & 0xffL) << 16) |
+             ((bytes[offset + 3] & 0xffL) << 24);
+      }
+   }
@@ -0,0 +1,113 @@
+package org.bodytrack.loggingdevice;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class UploadQueueTest
+   {
+   private static final int NUM_ELEMENTS = 100;
+   private static final int SIZE_IN_BYTES = 1000;
+
+   @Test
+   public void testNewestFirst() throws InterruptedException
+      {
+      final UploadQueue<Integer> queue = new UploadQueue<Integer>(0, Long.MAX_VALUE / 1000000);
+      addInOrder(queue);
+
+      for (int i = NUM_ELEMENTS - 1; i >= 0; i--)
+         {
+         assertEquals(Integer.valueOf(i), queue.take());
+         }
+      assertEquals(NUM_ELEMENTS, queue.getNumTakenNewest());
+      }
+
+   @Test
+   public void testBackfillShare() throws InterruptedException
+      {
+      final UploadQueue<Integer> queue = new UploadQueue<Integer>(25, Long.MAX_VALUE / 1000000);
+      addInOrder(queue);
+
+      // every fourth byte goes to the oldest data
+      final List<Integer> taken = take(queue, 8);
+      assertEquals(list(99, 0, 98, 97, 96, 1, 95, 94), taken);
+      assertEquals(6, queue.getNumTakenNewest());
+      assertEquals(2, queue.getNumTakenBackfill());
+      assertEquals(0, queue.getNumTakenAged());
+      }
+
+   @Test
+   public void testAgedEntriesStayWithinTheBackfillShare() throws InterruptedException
+      {
+      final UploadQueue<Integer> queue = new UploadQueue<Integer>(25, 1);
+
+      // after a long outage, everything in the queue has waited too long
+      addInOrder(queue);
+      Thread.sleep(20);
+
+      final List<Integer> taken = take(queue, 80);
+      int numNewest = 0;
+      for (final Integer element : taken)
+         {
+         if (element >= NUM_ELEMENTS - 60)
+            {
+            numNewest++;
+            }
+         }
+      assertEquals(60, numNewest);
+      assertEquals(60, queue.getNumTakenNewest());
+      assertEquals(20, queue.getNumTakenAged());
+      assertEquals(0, queue.getNumTakenBackfill());
+      assertEquals(Integer.valueOf(NUM_ELEMENTS - 1), taken.get(0));
+      }
+
+   @Test
+   public void testAgedEntriesAreTakenLongestWaitingFirst() throws InterruptedException
+      {
+      final UploadQueue<Integer> queue = new UploadQueue<Integer>(50, 1);
+
+      // the oldest data is enqueued last, so the longest-waiting element isn't the one with the oldest data
+      queue.add(1, 1, SIZE_IN_BYTES);
+      queue.add(2, 2, SIZE_IN_BYTES);
+      queue.add(3, 3, SIZE_IN_BYTES);
+      queue.add(0, 0, SIZE_IN_BYTES);
+      Thread.sleep(20);
+
+      assertEquals(list(3, 1, 2, 0), take(queue, 4));
+      assertEquals(2, queue.getNumTakenNewest());
+      assertEquals(2, queue.getNumTakenAged());
+      }
+
+   private static void addInOrder(final UploadQueue<Integer> queue)
+      {
+      for (int i = 0; i < NUM_ELEMENTS; i++)
+         {
+         queue.add(i, i, SIZE_IN_BYTES);
+         }
+      }
+
+   private static List<Integer> take(final UploadQueue<Integer> queue, final int numElements) throws InterruptedException
+      {
+      final List<Integer> taken = new ArrayList<Integer>();
+      for (int i = 0; i < numElements; i++)
+         {
+         taken.add(queue.take());
+         }
+      return taken;
+      }
+
+   private static List<Integer> list(final Integer... elements)
+      {
+      final List<Integer> list = new ArrayList<Integer>();
+      for (final Integer element : elements)
+         {
+         list.add(element);
+         }
+      return list;
+      }
+   }
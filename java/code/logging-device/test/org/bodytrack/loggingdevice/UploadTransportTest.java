@@ -0,0 +1,161 @@
+package org.bodytrack.loggingdevice;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.security.KeyStore;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Uploads to an in-process HTTPS server, to check that the {@link UploadTransport} reuses connections between uploads,
+ * resumes TLS sessions when it does have to reconnect, and doesn't wait for <code>100 Continue</code>.
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class UploadTransportTest
+   {
+   private static final String KEY_STORE_RESOURCE = "upload-transport-test.jks";
+   private static final char[] KEY_STORE_PASSWORD = "password".toCharArray();
+
+   private final List<Integer> clientPorts = new CopyOnWriteArrayList<Integer>();
+   private final List<String> expectHeaders = new CopyOnWriteArrayList<String>();
+
+   private HttpsServer server;
+   private UploadTransport transport;
+
+   @Before
+   public void setUp() throws Exception
+      {
+      final KeyStore keyStore = KeyStore.getInstance("JKS");
+      final InputStream inputStream = UploadTransportTest.class.getResourceAsStream(KEY_STORE_RESOURCE);
+      try
+         {
+         keyStore.load(inputStream, KEY_STORE_PASSWORD);
+         }
+      finally
+         {
+         inputStream.close();
+         }
+
+      final KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+      keyManagerFactory.init(keyStore, KEY_STORE_PASSWORD);
+      final SSLContext serverSslContext = SSLContext.getInstance("TLS");
+      serverSslContext.init(keyManagerFactory.getKeyManagers(), null, null);
+
+      server = HttpsServer.create(new InetSocketAddress("localhost", 0), 0);
+      server.setHttpsConfigurator(new HttpsConfigurator(serverSslContext));
+      server.createContext("/",
+                           new HttpHandler()
+                           {
+                           @Override
+                           public void handle(final HttpExchange exchange) throws IOException
+                              {
+                              clientPorts.add(exchange.getRemoteAddress().getPort());
+                              expectHeaders.add(exchange.getRequestHeaders().getFirst("Expect"));
+
+                              final InputStream requestBody = exchange.getRequestBody();
+                              final byte[] buffer = new byte[1024];
+                              while (requestBody.read(buffer) != -1)
+                                 {
+                                 // drain the request, so that the connection can be reused
+                                 }
+
+                              final byte[] response = "{}".getBytes("UTF-8");
+                              exchange.sendResponseHeaders(200, response.length);
+                              final OutputStream responseBody = exchange.getResponseBody();
+                              responseBody.write(response);
+                              responseBody.close();
+                              }
+                           });
+      server.start();
+
+      final TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+      trustManagerFactory.init(keyStore);
+      final SSLContext clientSslContext = SSLContext.getInstance("TLS");
+      clientSslContext.init(null, trustManagerFactory.getTrustManagers(), null);
+
+      transport = new UploadTransport(1, clientSslContext);
+      }
+
+   @After
+   public void tearDown()
+      {
+      if (transport != null)
+         {
+         transport.shutdown();
+         }
+      if (server != null)
+         {
+         server.stop(0);
+         }
+      }
+
+   @Test
+   public void testConnectionReuse() throws Exception
+      {
+      upload();
+      upload();
+      upload();
+
+      assertEquals(1, transport.getNumConnectionsOpened());
+      assertEquals(1, transport.getNumFullHandshakes());
+      assertEquals(0, transport.getNumResumedHandshakes());
+      assertEquals(3, clientPorts.size());
+      assertEquals(clientPorts.get(0), clientPorts.get(1));
+      assertEquals(clientPorts.get(0), clientPorts.get(2));
+      }
+
+   @Test
+   public void testSessionResumption() throws Exception
+      {
+      upload();
+
+      // force a new connection, which should resume the session rather than doing a full handshake
+      transport.getHttpClient().getConnectionManager().closeIdleConnections(0, TimeUnit.MILLISECONDS);
+      upload();
+
+      assertEquals(2, transport.getNumConnectionsOpened());
+      assertEquals(1, transport.getNumFullHandshakes());
+      assertEquals(1, transport.getNumResumedHandshakes());
+      assertFalse(clientPorts.get(0).equals(clientPorts.get(1)));
+      }
+
+   @Test
+   public void testNoExpectContinue() throws Exception
+      {
+      upload();
+
+      assertEquals(1, expectHeaders.size());
+      assertNull(expectHeaders.get(0));
+      }
+
+   private void upload() throws IOException
+      {
+      final HttpPost httpPost = new HttpPost("https://localhost:" + server.getAddress().getPort() + "/upload");
+      httpPost.setEntity(new ByteArrayEntity(new byte[64 * 1024]));
+      final HttpResponse response = transport.getHttpClient().execute(httpPost);
+      assertEquals(200, response.getStatusLine().getStatusCode());
+      EntityUtils.consume(response.getEntity());
+      }
+   }
@@ -0,0 +1,709 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.log4j;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.Enumeration;
+import org.apache.log4j.helpers.AppenderAttachableImpl;
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.spi.AppenderAttachable;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * <code>AsyncRingBufferAppender</code> decouples the threads which log from the
+ * attached appenders, so that logging threads never wait on file I/O.
+ * <p>
+ * Events are placed into a fixed-size ring buffer of preallocated slots and
+ * dispatched to the attached appenders by a single writer thread, which drains
+ * the buffer in batches.  Attached appenders which implement {@link Flushable}
+ * (such as {@link org.apache.log4j.rolling.RollingFileAppender}) are flushed at
+ * most once every <code>FlushInterval</code> milliseconds, so they may be
+ * configured with <code>ImmediateFlush</code> set to false.  All buffered events
+ * are written and flushed when the appender is closed, including at JVM shutdown.
+ *
+ * <p>What happens when the buffer is full is controlled by the
+ * <code>OverflowPolicy</code> option:
+ * <dl>
+ * <dt><code>Block</code></dt>
+ * <dd>The logging thread waits until the writer thread frees a slot.  This is
+ * the default, and never loses events.</dd>
+ * <dt><code>DropDebugFirst</code></dt>
+ * <dd>Once the buffer is 80% full, events below <code>INFO</code> are discarded
+ * so that the remaining slots are kept for more important events, which block
+ * only when the buffer is completely full.</dd>
+ * <dt><code>Drop</code></dt>
+ * <dd>The event is discarded.  Logging threads never block.</dd>
+ * </dl>
+ * A summary of discarded events is logged at <code>WARN</code> level.
+ *
+ * <p>Sample configuration:
+ * <pre>
+ &lt;appender name="ASYNC" class="org.apache.log4j.AsyncRingBufferAppender">
+ &lt;param name="BufferSize" value="4096"/>
+ &lt;param name="OverflowPolicy" value="DropDebugFirst"/>
+ &lt;appender-ref ref="ROLL"/>
+ &lt;/appender>
+ * </pre>
+ *
+ */
+public final class AsyncRingBufferAppender extends AppenderSkeleton
+      implements AppenderAttachable
+   {
+   /**
+    * Default number of slots in the ring buffer.
+    */
+   public static final int DEFAULT_BUFFER_SIZE = 1024;
+
+   /**
+    * Default maximum number of events dispatched per batch.
+    */
+   public static final int DEFAULT_BATCH_SIZE = 64;
+
+   /**
+    * Default flush interval, in milliseconds.
+    */
+   public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
+   /**
+    * Overflow policy which blocks logging threads until there's room.
+    */
+   public static final String BLOCK = "Block";
+
+   /**
+    * Overflow policy which discards events below INFO first.
+    */
+   public static final String DROP_DEBUG_FIRST = "DropDebugFirst";
+
+   /**
+    * Overflow policy which discards events.
+    */
+   public static final String DROP = "Drop";
+
+   /**
+    * Fraction of the buffer which may be filled before DropDebugFirst starts
+    * discarding events below INFO.
+    */
+   private static final double DROP_DEBUG_THRESHOLD = 0.8;
+
+   /**
+    * Fully qualified name of this class, used for summary events.
+    */
+   private static final String FQCN = AsyncRingBufferAppender.class.getName();
+
+   /**
+    * Attached appenders.  All access is synchronized on this object.
+    */
+   private final AppenderAttachableImpl appenders = new AppenderAttachableImpl();
+
+   /**
+    * Guards the ring buffer state below.
+    */
+   private final Object bufferLock = new Object();
+
+   /**
+    * Preallocated ring buffer slots, reused for the life of the appender.
+    */
+   private Slot[] slots = null;
+
+   /**
+    * Index of the oldest buffered event.
+    */
+   private int head = 0;
+
+   /**
+    * Number of buffered events.
+    */
+   private int count = 0;
+
+   /**
+    * Number of buffered events beyond which DropDebugFirst discards
+    * events below INFO.
+    */
+   private int dropDebugThreshold = 0;
+
+   /**
+    * Number of events discarded since the last summary.
+    */
+   private int discardCount = 0;
+
+   /**
+    * Whether close has been requested.
+    */
+   private boolean closing = false;
+
+   private int bufferSize = DEFAULT_BUFFER_SIZE;
+   private int batchSize = DEFAULT_BATCH_SIZE;
+   private long flushInterval = DEFAULT_FLUSH_INTERVAL;
+   private String overflowPolicy = BLOCK;
+   private boolean locationInfo = false;
+
+   /**
+    * Writer thread, or null if not yet activated.
+    */
+   private Thread writer = null;
+
+   /**
+    * Shutdown hook which drains the buffer if the JVM exits before close.
+    */
+   private Thread shutdownHook = null;
+
+   /**
+    * Construct a new instance.
+    */
+   public AsyncRingBufferAppender()
+      {
+      }
+
+   /**
+    * Allocates the ring buffer and starts the writer thread.
+    */
+   public void activateOptions()
+      {
+      synchronized (bufferLock)
+         {
+         if (writer != null)
+            {
+            return;
+            }
+
+         slots = new Slot[bufferSize];
+         for (int i = 0; i < slots.length; i++)
+            {
+            slots[i] = new Slot();
+            }
+         head = 0;
+         count = 0;
+         dropDebugThreshold = Math.max(1, (int)(bufferSize * DROP_DEBUG_THRESHOLD));
+
+         writer = new Thread(new Dispatcher(), "AsyncRingBufferAppender-Writer-" + getName());
+         writer.setDaemon(true);
+         writer.start();
+         }
+
+      shutdownHook = new Thread(new Runnable()
+      {
+      public void run()
+         {
+         shutdownHook = null;
+         close();
+         }
+      }, "AsyncRingBufferAppender-Shutdown-" + getName());
+      try
+         {
+         Runtime.getRuntime().addShutdownHook(shutdownHook);
+         }
+      catch (IllegalStateException e)
+         {
+         // already shutting down
+         shutdownHook = null;
+         }
+      }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void append(final LoggingEvent event)
+      {
+      final Thread writerThread;
+      synchronized (bufferLock)
+         {
+         writerThread = writer;
+         }
+
+      //
+      //   if not activated, or if the writer thread is logging
+      //     (e.g. from within an attached appender), dispatch directly
+      //
+      if (writerThread == null || writerThread == Thread.currentThread())
+         {
+         dispatch(event);
+         return;
+         }
+
+      // Capture the thread-specific state before the event is handed to the
+      // writer thread, since these are evaluated lazily on first access.
+      event.getNDC();
+      event.getThreadName();
+      event.getMDCCopy();
+      event.getRenderedMessage();
+      event.getThrowableStrRep();
+      if (locationInfo)
+         {
+         event.getLocationInformation();
+         }
+
+      final boolean isBelowInfo = !event.getLevel().isGreaterOrEqual(Level.INFO);
+
+      synchronized (bufferLock)
+         {
+         while (true)
+            {
+            if (closing)
+               {
+               // the writer is draining or gone, so write synchronously
+               break;
+               }
+
+            if (DROP_DEBUG_FIRST.equals(overflowPolicy) && isBelowInfo && count >= dropDebugThreshold)
+               {
+               discardCount++;
+               return;
+               }
+
+            if (count < slots.length)
+               {
+               slots[(head + count) % slots.length].event = event;
+               count++;
+               if (count == 1)
+                  {
+                  bufferLock.notifyAll();
+                  }
+               return;
+               }
+
+            if (DROP.equals(overflowPolicy))
+               {
+               discardCount++;
+               return;
+               }
+
+            // Block, or DropDebugFirst for INFO and above
+            try
+               {
+               bufferLock.wait();
+               }
+            catch (InterruptedException e)
+               {
+               Thread.currentThread().interrupt();
+               discardCount++;
+               return;
+               }
+            }
+         }
+
+      dispatch(event);
+      }
+
+   /**
+    * Dispatches an event to the attached appenders.
+    * @param event event.
+    */
+   private void dispatch(final LoggingEvent event)
+      {
+      synchronized (appenders)
+         {
+         appenders.appendLoopOnAppenders(event);
+         }
+      }
+
+   /**
+    * Flushes all attached appenders which support it.
+    */
+   private void flushAppenders()
+      {
+      synchronized (appenders)
+         {
+         final Enumeration iter = appenders.getAllAppenders();
+         if (iter != null)
+            {
+            while (iter.hasMoreElements())
+               {
+               final Object appender = iter.nextElement();
+               if (appender instanceof Flushable)
+                  {
+                  try
+                     {
+                     ((Flushable)appender).flush();
+                     }
+                  catch (IOException e)
+                     {
+                     LogLog.error("Exception while flushing appender [" + ((Appender)appender).getName() + "].", e);
+                     }
+                  }
+               }
+            }
+         }
+      }
+
+   /**
+    * Writes all buffered events, stops the writer thread, and closes the
+    * attached appenders.
+    */
+   public void close()
+      {
+      final Thread writerThread;
+      synchronized (bufferLock)
+         {
+         if (closing)
+            {
+            return;
+            }
+         closing = true;
+         writerThread = writer;
+         bufferLock.notifyAll();
+         }
+
+      if (writerThread != null && writerThread != Thread.currentThread())
+         {
+         try
+            {
+            writerThread.join();
+            }
+         catch (InterruptedException e)
+            {
+            Thread.currentThread().interrupt();
+            LogLog.error("Got an InterruptedException while waiting for the writer thread to finish.", e);
+            }
+         }
+
+      final Thread hook = shutdownHook;
+      if (hook != null)
+         {
+         shutdownHook = null;
+         try
+            {
+            Runtime.getRuntime().removeShutdownHook(hook);
+            }
+         catch (IllegalStateException e)
+            {
+            // already shutting down
+            }
+         }
+
+      synchronized (appenders)
+         {
+         final Enumeration iter = appenders.getAllAppenders();
+         if (iter != null)
+            {
+            while (iter.hasMoreElements())
+               {
+               ((Appender)iter.nextElement()).close();
+               }
+            }
+         }
+
+      this.closed = true;
+      }
+
+   /**
+    * {@inheritDoc}
+    */
+   public boolean requiresLayout()
+      {
+      return false;
+      }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void addAppender(final Appender newAppender)
+      {
+      synchronized (appenders)
+         {
+         appenders.addAppender(newAppender);
+         }
+      }
+
+   /**
+    * {@inheritDoc}
+    */
+   public Enumeration getAllAppenders()
+      {
+      synchronized (appenders)
+         {
+         return appenders.getAllAppenders();
+         }
+      }
+
+   /**
+    * {@inheritDoc}
+    */
+   public Appender getAppender(final String name)
+      {
+      synchronized (appenders)
+         {
+         return appenders.getAppender(name);
+         }
+      }
+
+   /**
+    * {@inheritDoc}
+    */
+   public boolean isAttached(final Appender appender)
+      {
+      synchronized (appenders)
+         {
+         return appenders.isAttached(appender);
+         }
+      }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void removeAllAppenders()
+      {
+      synchronized (appenders)
+         {
+         appenders.removeAllAppenders();
+         }
+      }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void removeAppender(final Appender appender)
+      {
+      synchronized (appenders)
+         {
+         appenders.removeAppender(appender);
+         }
+      }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void removeAppender(final String name)
+      {
+      synchronized (appenders)
+         {
+         appenders.removeAppender(name);
+         }
+      }
+
+   /**
+    * Gets the number of slots in the ring buffer.
+    * @return buffer size.
+    */
+   public int getBufferSize()
+      {
+      return bufferSize;
+      }
+
+   /**
+    * Sets the number of slots in the ring buffer.  Takes effect on
+    * {@link #activateOptions()}.
+    * @param size buffer size, must be positive.
+    */
+   public void setBufferSize(final int size)
+      {
+      if (size < 1)
+         {
+         throw new IllegalArgumentException("BufferSize must be positive");
+         }
+      bufferSize = size;
+      }
+
+   /**
+    * Gets the maximum number of events dispatched per batch.
+    * @return batch size.
+    */
+   public int getBatchSize()
+      {
+      return batchSize;
+      }
+
+   /**
+    * Sets the maximum number of events dispatched per batch.
+    * @param size batch size, must be positive.
+    */
+   public void setBatchSize(final int size)
+      {
+      if (size < 1)
+         {
+         throw new IllegalArgumentException("BatchSize must be positive");
+         }
+      batchSize = size;
+      }
+
+   /**
+    * Gets the maximum time, in milliseconds, that written events may remain
+    * unflushed.
+    * @return flush interval.
+    */
+   public long getFlushInterval()
+      {
+      return flushInterval;
+      }
+
+   /**
+    * Sets the maximum time, in milliseconds, that written events may remain
+    * unflushed.  Zero flushes after every batch.
+    * @param interval flush interval, must not be negative.
+    */
+   public void setFlushInterval(final long interval)
+      {
+      if (interval < 0)
+         {
+         throw new IllegalArgumentException("FlushInterval must not be negative");
+         }
+      flushInterval = interval;
+      }
+
+   /**
+    * Gets the overflow policy.
+    * @return one of {@link #BLOCK}, {@link #DROP_DEBUG_FIRST} or {@link #DROP}.
+    */
+   public String getOverflowPolicy()
+      {
+      return overflowPolicy;
+      }
+
+   /**
+    * Sets the overflow policy.  Unrecognized values are reported and ignored.
+    * @param policy one of {@link #BLOCK}, {@link #DROP_DEBUG_FIRST} or
+    * {@link #DROP}, case insensitive.
+    */
+   public void setOverflowPolicy(final String policy)
+      {
+      if (BLOCK.equalsIgnoreCase(policy))
+         {
+         overflowPolicy = BLOCK;
+         }
+      else if (DROP_DEBUG_FIRST.equalsIgnoreCase(policy))
+         {
+         overflowPolicy = DROP_DEBUG_FIRST;
+         }
+      else if (DROP.equalsIgnoreCase(policy))
+         {
+         overflowPolicy = DROP;
+         }
+      else
+         {
+         LogLog.warn("Unrecognized OverflowPolicy [" + policy + "], using [" + overflowPolicy + "].");
+         }
+      }
+
+   /**
+    * Gets whether location information is captured before dispatch.
+    * @return true if location information is captured.
+    */
+   public boolean getLocationInfo()
+      {
+      return locationInfo;
+      }
+
+   /**
+    * Sets whether location information is captured before dispatch.  This
+    * is expensive, so it should only be enabled if a layout needs it.
+    * @param flag true to capture location information.
+    */
+   public void setLocationInfo(final boolean flag)
+      {
+      locationInfo = flag;
+      }
+
+   /**
+    * Ring buffer slot.
+    */
+   private static final class Slot
+      {
+      private LoggingEvent event;
+      }
+
+   /**
+    * Drains the ring buffer into the attached appenders.
+    */
+   private final class Dispatcher implements Runnable
+      {
+      public void run()
+         {
+         final LoggingEvent[] batch = new LoggingEvent[batchSize];
+         long lastFlushTime = System.currentTimeMillis();
+         boolean isDirty = false;
+         boolean isDone = false;
+
+         while (!isDone)
+            {
+            int n = 0;
+            int discarded;
+
+            synchronized (bufferLock)
+               {
+               try
+                  {
+                  while (count == 0 && !closing)
+                     {
+                     if (isDirty)
+                        {
+                        final long remaining = lastFlushTime + flushInterval - System.currentTimeMillis();
+                        if (remaining <= 0)
+                           {
+                           break;
+                           }
+                        bufferLock.wait(remaining);
+                        }
+                     else
+                        {
+                        bufferLock.wait();
+                        }
+                     }
+                  }
+               catch (InterruptedException e)
+                  {
+                  // drain what's left and exit
+                  closing = true;
+                  }
+
+               final int capacity = slots.length;
+               while (n < batch.length && count > 0)
+                  {
+                  final Slot slot = slots[head];
+                  batch[n++] = slot.event;
+                  slot.event = null;
+                  head = (head + 1) % capacity;
+                  count--;
+                  }
+
+               discarded = discardCount;
+               discardCount = 0;
+               isDone = closing && count == 0;
+               bufferLock.notifyAll();
+               }
+
+            if (discarded > 0)
+               {
+               final String msg = "Discarded " + discarded + " logging event(s) because the buffer of appender [" + getName() + "] was full.";
+               dispatch(new LoggingEvent(FQCN, Logger.getLogger(FQCN), Level.WARN, msg, null));
+               isDirty = true;
+               }
+
+            for (int i = 0; i < n; i++)
+               {
+               try
+                  {
+                  dispatch(batch[i]);
+                  }
+               catch (RuntimeException e)
+                  {
+                  LogLog.error("Exception while dispatching logging event.", e);
+                  }
+               batch[i] = null;
+               isDirty = true;
+               }
+
+            if (isDirty && (isDone || System.currentTimeMillis() - lastFlushTime >= flushInterval))
+               {
+               flushAppenders();
+               lastFlushTime = System.currentTimeMillis();
+               isDirty = false;
+               }
+            }
+         }
+      }
+   }
@@ -17,9 +17,13 @@
 
 package org.apache.log4j;
 
+import java.io.IOException;
+import java.io.Writer;
+import org.apache.log4j.extras.StreamingLayout;
 import org.apache.log4j.helpers.OptionConverter;
 import org.apache.log4j.helpers.PatternConverter;
 import org.apache.log4j.pattern.BridgePatternConverter;
+import org.apache.log4j.pattern.CompiledPattern;
 import org.apache.log4j.spi.LoggingEvent;
 
 // Contributors:   Nelson Minar <nelson@monkey.org>
@@ -403,7 +407,7 @@ import org.apache.log4j.spi.LoggingEvent;
 
 
  @since 0.8.2 */
-public class EnhancedPatternLayout extends Layout
+public class EnhancedPatternLayout extends Layout implements StreamingLayout
    {
    /** Default pattern string for log output. Currently set to the
     string <b>"%m%n"</b> which just prints the application supplied
@@ -448,6 +452,27 @@ public class EnhancedPatternLayout extends Layout
     */
    private boolean handlesExceptions;
 
+   /**
+    * True if the pattern should be compiled.
+    */
+   private boolean compiled = false;
+
+   /**
+    * Compiled pattern, or null if not compiled.
+    */
+   private CompiledPattern compiledPattern;
+
+   /**
+    * Per-thread buffers used with the compiled pattern.
+    */
+   private final ThreadLocal buffers = new ThreadLocal()
+   {
+   protected Object initialValue()
+      {
+      return new Buffers();
+      }
+   };
+
    /**
     Constructs a EnhancedPatternLayout using the DEFAULT_LAYOUT_PATTERN.
 
@@ -475,6 +500,7 @@ public class EnhancedPatternLayout extends Layout
          {
          handlesExceptions = false;
          }
+      compilePattern();
       }
 
    /**
@@ -497,6 +523,7 @@ public class EnhancedPatternLayout extends Layout
          {
          handlesExceptions = false;
          }
+      compilePattern();
       }
 
    /**
@@ -508,6 +535,47 @@ public class EnhancedPatternLayout extends Layout
       return conversionPattern;
       }
 
+   /**
+    * Set the <b>Compiled</b> option.  If true, the pattern is compiled once
+    * into a flat array of converters and events are formatted into a
+    * per-thread reusable buffer, so formatting an event doesn't allocate
+    * beyond the returned string, and {@link #format(LoggingEvent, Writer)}
+    * doesn't allocate at all.  Only takes effect for patterns parsed by
+    * the default pattern parser.
+    *
+    * @param compiled true to compile the pattern.
+    */
+   public void setCompiled(final boolean compiled)
+      {
+      this.compiled = compiled;
+      compilePattern();
+      }
+
+   /**
+    * Returns the value of the <b>Compiled</b> option.
+    * @return true if the pattern is compiled.
+    */
+   public boolean getCompiled()
+      {
+      return compiled;
+      }
+
+   /**
+    * Compiles the conversion pattern if the <b>Compiled</b> option is set.
+    */
+   private void compilePattern()
+      {
+      if (compiled && head instanceof BridgePatternConverter)
+         {
+         compiledPattern = new CompiledPattern(
+               (conversionPattern == null) ? DEFAULT_CONVERSION_PATTERN : conversionPattern);
+         }
+      else
+         {
+         compiledPattern = null;
+         }
+      }
+
    /**
     Returns PatternParser used to parse the conversion string. Subclasses
     may override this to return a subclass of PatternParser which recognize
@@ -535,6 +603,17 @@ public class EnhancedPatternLayout extends Layout
     */
    public String format(final LoggingEvent event)
       {
+      CompiledPattern pattern = compiledPattern;
+      if (pattern != null)
+         {
+         Buffers b = (Buffers)buffers.get();
+         b.builder.setLength(0);
+         pattern.format(event, b.builder);
+         String result = b.builder.toString();
+         b.trim();
+         return result;
+         }
+
       StringBuffer buf = new StringBuffer();
       for (PatternConverter c = head;
            c != null;
@@ -545,6 +624,36 @@ public class EnhancedPatternLayout extends Layout
       return buf.toString();
       }
 
+   /**
+    * Formats a logging event to a writer.  With a compiled pattern, the
+    * event is written from a reusable buffer without creating a string.
+    * @param event logging event to be formatted.
+    * @param writer writer to receive the formatted event.
+    * @throws IOException if the writer fails.
+    */
+   public void format(final LoggingEvent event, final Writer writer)
+         throws IOException
+      {
+      CompiledPattern pattern = compiledPattern;
+      if (pattern == null)
+         {
+         writer.write(format(event));
+         return;
+         }
+
+      Buffers b = (Buffers)buffers.get();
+      b.builder.setLength(0);
+      pattern.format(event, b.builder);
+      int length = b.builder.length();
+      if (b.chars.length < length)
+         {
+         b.chars = new char[Math.max(length, b.chars.length * 2)];
+         }
+      b.builder.getChars(0, length, b.chars, 0);
+      writer.write(b.chars, 0, length);
+      b.trim();
+      }
+
    /**
     * Will return false if any of the conversion specifiers in the pattern
     * handles {@link Exception Exceptions}.
@@ -554,4 +663,40 @@ public class EnhancedPatternLayout extends Layout
       {
       return !handlesExceptions;
       }
+
+   /**
+    * Per-thread buffers used with the compiled pattern.
+    */
+   private static final class Buffers
+      {
+      /**
+       * Largest buffer kept for reuse, in characters.
+       */
+      private static final int MAX_RETAINED_SIZE = 4096;
+
+      /**
+       * Builder which receives the formatted event.
+       */
+      private StringBuilder builder = new StringBuilder(256);
+
+      /**
+       * Characters copied from the builder for writing.
+       */
+      private char[] chars = new char[256];
+
+      /**
+       * Drops buffers which have grown too large, e.g. for a stack trace.
+       */
+      private void trim()
+         {
+         if (builder.capacity() > MAX_RETAINED_SIZE)
+            {
+            builder = new StringBuilder(256);
+            }
+         if (chars.length > MAX_RETAINED_SIZE)
+            {
+            chars = new char[256];
+            }
+         }
+      }
    }
@@ -16,10 +16,6 @@
  */
 package org.apache.log4j;
 
-import java.text.DateFormat;
-import java.text.MessageFormat;
-import java.text.NumberFormat;
-import java.util.Date;
 import java.util.ResourceBundle;
 import org.apache.log4j.spi.LoggingEvent;
 
@@ -66,7 +62,7 @@ public final class LogMF
     */
    private static Character valueOf(final char c)
       {
-      return new Character(c);
+      return Character.valueOf(c);
       }
 
    /**
@@ -77,7 +73,7 @@ public final class LogMF
     */
    private static Byte valueOf(final byte b)
       {
-      return new Byte(b);
+      return Byte.valueOf(b);
       }
 
    /**
@@ -88,7 +84,7 @@ public final class LogMF
     */
    private static Short valueOf(final short b)
       {
-      return new Short(b);
+      return Short.valueOf(b);
       }
 
    /**
@@ -99,7 +95,7 @@ public final class LogMF
     */
    private static Integer valueOf(final int b)
       {
-      return new Integer(b);
+      return Integer.valueOf(b);
       }
 
    /**
@@ -110,7 +106,7 @@ public final class LogMF
     */
    private static Long valueOf(final long b)
       {
-      return new Long(b);
+      return Long.valueOf(b);
       }
 
    /**
@@ -121,7 +117,7 @@ public final class LogMF
     */
    private static Float valueOf(final float b)
       {
-      return new Float(b);
+      return Float.valueOf(b);
       }
 
    /**
@@ -132,7 +128,7 @@ public final class LogMF
     */
    private static Double valueOf(final double b)
       {
-      return new Double(b);
+      return Double.valueOf(b);
       }
 
    /**
@@ -195,77 +191,6 @@ public final class LogMF
       };
       }
 
-   /**
-    * Formats arguments using a minimal subset
-    * of MessageFormat syntax.
-    * @param pattern pattern, may not be null.
-    * @param arg0 argument, may be null.
-    * @return Message string or null if pattern
-    * is not supported.
-    */
-   private static String subsetFormat(final String pattern,
-                                      final Object arg0)
-      {
-      if (pattern != null)
-         {
-         //
-         //  find position of first brace
-         //    if none then format is a literal
-         int bracePos = pattern.indexOf("{");
-
-         //
-         //  if the first format is {0}
-         //    and there are no other format specifiers
-         //    and no quotes then substitute for {0}
-         if (bracePos != -1)
-            {
-            if ((pattern.indexOf("{0}", bracePos) == bracePos)
-                && (pattern.indexOf("{", bracePos + 1) == -1)
-                && (pattern.indexOf("'") == -1))
-               {
-               String replacement;
-
-               if (arg0 instanceof String)
-                  {
-                  replacement = arg0.toString();
-                  }
-               else if (arg0 instanceof Number)
-                  {
-                  replacement = NumberFormat.getInstance().format(arg0);
-                  }
-               else if (arg0 instanceof Date)
-                  {
-                  replacement = DateFormat.getDateTimeInstance(
-                        DateFormat.SHORT,
-                        DateFormat.SHORT).format(arg0);
-                  }
-               else
-                  {
-                  replacement = String.valueOf(arg0);
-                  }
-
-               final StringBuffer buf = new StringBuffer(pattern);
-               buf.replace(bracePos,
-                           bracePos + "{0}".length(), replacement);
-
-               return buf.toString();
-               }
-            }
-         else
-            {
-            //
-            //   pattern is a literal with no braces
-            //    and not quotes, return pattern.
-            if (pattern.indexOf("'") == -1)
-               {
-               return pattern;
-               }
-            }
-         }
-
-      return null;
-      }
-
    /**
     * Formats arguments using MessageFormat.
     * @param pattern pattern, may be malformed or null.
@@ -281,7 +206,7 @@ public final class LogMF
          }
       try
          {
-         return MessageFormat.format(pattern, arguments);
+         return MessageTemplate.forMessageFormat(pattern).format(arguments);
          }
       catch (IllegalArgumentException ex)
          {
@@ -297,14 +222,7 @@ public final class LogMF
     */
    private static String format(final String pattern, final Object arg0)
       {
-      String msg = subsetFormat(pattern, arg0);
-
-      if (msg == null)
-         {
-         msg = format(pattern, toArray(arg0));
-         }
-
-      return msg;
+      return format(pattern, toArray(arg0));
       }
 
    /**
@@ -1280,6 +1198,21 @@ public final class LogMF
          }
       }
 
+   /**
+    * Log a parameterized message at error level.
+    * @param logger logger, may not be null.
+    * @param pattern pattern, may be null.
+    * @param argument a value to be formatted and substituted.
+    */
+   public static void error(final Logger logger, final String pattern,
+                            final Object argument)
+      {
+      if (logger.isEnabledFor(Level.ERROR))
+         {
+         forcedLog(logger, Level.ERROR, format(pattern, argument));
+         }
+      }
+
    /**
     * Log a parameterized message at warn level.
     * @param logger logger, may not be null.
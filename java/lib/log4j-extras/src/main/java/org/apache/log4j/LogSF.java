@@ -63,7 +63,7 @@ public final class LogSF
     */
    private static Character valueOf(final char c)
       {
-      return new Character(c);
+      return Character.valueOf(c);
       }
 
    /**
@@ -74,7 +74,7 @@ public final class LogSF
     */
    private static Byte valueOf(final byte b)
       {
-      return new Byte(b);
+      return Byte.valueOf(b);
       }
 
    /**
@@ -85,7 +85,7 @@ public final class LogSF
     */
    private static Short valueOf(final short b)
       {
-      return new Short(b);
+      return Short.valueOf(b);
       }
 
    /**
@@ -96,7 +96,7 @@ public final class LogSF
     */
    private static Integer valueOf(final int b)
       {
-      return new Integer(b);
+      return Integer.valueOf(b);
       }
 
    /**
@@ -107,7 +107,7 @@ public final class LogSF
     */
    private static Long valueOf(final long b)
       {
-      return new Long(b);
+      return Long.valueOf(b);
       }
 
    /**
@@ -118,7 +118,7 @@ public final class LogSF
     */
    private static Float valueOf(final float b)
       {
-      return new Float(b);
+      return Float.valueOf(b);
       }
 
    /**
@@ -129,7 +129,7 @@ public final class LogSF
     */
    private static Double valueOf(final double b)
       {
-      return new Double(b);
+      return Double.valueOf(b);
       }
 
    /**
@@ -205,23 +205,7 @@ public final class LogSF
          {
          return pattern;
          }
-      StringBuffer buf = new StringBuffer(pattern);
-      int index = 0;
-      int pos = buf.indexOf("{");
-      while (pos >= 0 && pos < buf.length() - 1 && index < arguments.length)
-         {
-         if (buf.charAt(pos + 1) == '}')
-            {
-            String subst = String.valueOf(arguments[index++]);
-            buf.replace(pos, pos + 2, subst);
-            pos += subst.length();
-            }
-         else
-            {
-            pos = buf.indexOf("{", pos + 1);
-            }
-         }
-      return buf.toString();
+      return MessageTemplate.forSLF4J(pattern).format(arguments);
       }
 
    /**
@@ -515,7 +499,7 @@ public final class LogSF
       {
       if (logger.isEnabledFor(TRACE))
          {
-         forcedLog(logger, TRACE, format(pattern, valueOf(argument)));
+         forcedLog(logger, TRACE, format(pattern, String.valueOf(argument)));
          }
       }
 
@@ -530,7 +514,7 @@ public final class LogSF
       {
       if (logger.isEnabledFor(TRACE))
          {
-         forcedLog(logger, TRACE, format(pattern, valueOf(argument)));
+         forcedLog(logger, TRACE, format(pattern, String.valueOf(argument)));
          }
       }
 
@@ -545,7 +529,7 @@ public final class LogSF
       {
       if (logger.isEnabledFor(TRACE))
          {
-         forcedLog(logger, TRACE, format(pattern, valueOf(argument)));
+         forcedLog(logger, TRACE, format(pattern, String.valueOf(argument)));
          }
       }
 
@@ -560,7 +544,7 @@ public final class LogSF
       {
       if (logger.isEnabledFor(TRACE))
          {
-         forcedLog(logger, TRACE, format(pattern, valueOf(argument)));
+         forcedLog(logger, TRACE, format(pattern, String.valueOf(argument)));
          }
       }
 
@@ -575,7 +559,7 @@ public final class LogSF
       {
       if (logger.isEnabledFor(TRACE))
          {
-         forcedLog(logger, TRACE, format(pattern, valueOf(argument)));
+         forcedLog(logger, TRACE, format(pattern, String.valueOf(argument)));
          }
       }
 
@@ -590,7 +574,7 @@ public final class LogSF
       {
       if (logger.isEnabledFor(TRACE))
          {
-         forcedLog(logger, TRACE, format(pattern, valueOf(argument)));
+         forcedLog(logger, TRACE, format(pattern, String.valueOf(argument)));
          }
       }
 
@@ -605,7 +589,7 @@ public final class LogSF
       {
       if (logger.isEnabledFor(TRACE))
          {
-         forcedLog(logger, TRACE, format(pattern, valueOf(argument)));
+         forcedLog(logger, TRACE, format(pattern, String.valueOf(argument)));
          }
       }
 
@@ -620,7 +604,7 @@ public final class LogSF
       {
       if (logger.isEnabledFor(TRACE))
          {
-         forcedLog(logger, TRACE, format(pattern, valueOf(argument)));
+         forcedLog(logger, TRACE, format(pattern, String.valueOf(argument)));
          }
       }
 
@@ -705,7 +689,7 @@ public final class LogSF
       {
       if (logger.isDebugEnabled())
          {
-         forcedLog(logger, Level.DEBUG, format(pattern, valueOf(argument)));
+         forcedLog(logger, Level.DEBUG, format(pattern, String.valueOf(argument)));
          }
       }
 
@@ -720,7 +704,7 @@ public final class LogSF
       {
       if (logger.isDebugEnabled())
          {
-         forcedLog(logger, Level.DEBUG, format(pattern, valueOf(argument)));
+         forcedLog(logger, Level.DEBUG, format(pattern, String.valueOf(argument)));
          }
       }
 
@@ -735,7 +719,7 @@ public final class LogSF
       {
       if (logger.isDebugEnabled())
          {
-         forcedLog(logger, Level.DEBUG, format(pattern, valueOf(argument)));
+         forcedLog(logger, Level.DEBUG, format(pattern, String.valueOf(argument)));
          }
       }
 
@@ -750,7 +734,7 @@ public final class LogSF
       {
       if (logger.isDebugEnabled())
          {
-         forcedLog(logger, Level.DEBUG, format(pattern, valueOf(argument)));
+         forcedLog(logger, Level.DEBUG, format(pattern, String.valueOf(argument)));
          }
       }
 
@@ -765,7 +749,7 @@ public final class LogSF
       {
       if (logger.isDebugEnabled())
          {
-         forcedLog(logger, Level.DEBUG, format(pattern, valueOf(argument)));
+         forcedLog(logger, Level.DEBUG, format(pattern, String.valueOf(argument)));
          }
       }
 
@@ -780,7 +764,7 @@ public final class LogSF
       {
       if (logger.isDebugEnabled())
          {
-         forcedLog(logger, Level.DEBUG, format(pattern, valueOf(argument)));
+         forcedLog(logger, Level.DEBUG, format(pattern, String.valueOf(argument)));
          }
       }
 
@@ -795,7 +779,7 @@ public final class LogSF
       {
       if (logger.isDebugEnabled())
          {
-         forcedLog(logger, Level.DEBUG, format(pattern, valueOf(argument)));
+         forcedLog(logger, Level.DEBUG, format(pattern, String.valueOf(argument)));
          }
       }
 
@@ -810,7 +794,7 @@ public final class LogSF
       {
       if (logger.isDebugEnabled())
          {
-         forcedLog(logger, Level.DEBUG, format(pattern, valueOf(argument)));
+         forcedLog(logger, Level.DEBUG, format(pattern, String.valueOf(argument)));
          }
       }
 
@@ -895,7 +879,7 @@ public final class LogSF
       {
       if (logger.isInfoEnabled())
          {
-         forcedLog(logger, Level.INFO, format(pattern, valueOf(argument)));
+         forcedLog(logger, Level.INFO, format(pattern, String.valueOf(argument)));
          }
       }
 
@@ -910,7 +894,7 @@ public final class LogSF
       {
       if (logger.isInfoEnabled())
          {
-         forcedLog(logger, Level.INFO, format(pattern, valueOf(argument)));
+         forcedLog(logger, Level.INFO, format(pattern, String.valueOf(argument)));
          }
       }
 
@@ -925,7 +909,7 @@ public final class LogSF
       {
       if (logger.isInfoEnabled())
          {
-         forcedLog(logger, Level.INFO, format(pattern, valueOf(argument)));
+         forcedLog(logger, Level.INFO, format(pattern, String.valueOf(argument)));
          }
       }
 
@@ -940,7 +924,7 @@ public final class LogSF
       {
       if (logger.isInfoEnabled())
          {
-         forcedLog(logger, Level.INFO, format(pattern, valueOf(argument)));
+         forcedLog(logger, Level.INFO, format(pattern, String.valueOf(argument)));
          }
       }
 
@@ -955,7 +939,7 @@ public final class LogSF
       {
       if (logger.isInfoEnabled())
          {
-         forcedLog(logger, Level.INFO, format(pattern, valueOf(argument)));
+         forcedLog(logger, Level.INFO, format(pattern, String.valueOf(argument)));
          }
       }
 
@@ -970,7 +954,7 @@ public final class LogSF
       {
       if (logger.isInfoEnabled())
          {
-         forcedLog(logger, Level.INFO, format(pattern, valueOf(argument)));
+         forcedLog(logger, Level.INFO, format(pattern, String.valueOf(argument)));
          }
       }
 
@@ -985,7 +969,7 @@ public final class LogSF
       {
       if (logger.isInfoEnabled())
          {
-         forcedLog(logger, Level.INFO, format(pattern, valueOf(argument)));
+         forcedLog(logger, Level.INFO, format(pattern, String.valueOf(argument)));
          }
       }
 
@@ -1000,7 +984,7 @@ public final class LogSF
       {
       if (logger.isInfoEnabled())
          {
-         forcedLog(logger, Level.INFO, format(pattern, valueOf(argument)));
+         forcedLog(logger, Level.INFO, format(pattern, String.valueOf(argument)));
          }
       }
 
@@ -1084,7 +1068,7 @@ public final class LogSF
       {
       if (logger.isEnabledFor(Level.WARN))
          {
-         forcedLog(logger, Level.WARN, format(pattern, valueOf(argument)));
+         forcedLog(logger, Level.WARN, format(pattern, String.valueOf(argument)));
          }
       }
 
@@ -1099,7 +1083,7 @@ public final class LogSF
       {
       if (logger.isEnabledFor(Level.WARN))
          {
-         forcedLog(logger, Level.WARN, format(pattern, valueOf(argument)));
+         forcedLog(logger, Level.WARN, format(pattern, String.valueOf(argument)));
          }
       }
 
@@ -1114,7 +1098,7 @@ public final class LogSF
       {
       if (logger.isEnabledFor(Level.WARN))
          {
-         forcedLog(logger, Level.WARN, format(pattern, valueOf(argument)));
+         forcedLog(logger, Level.WARN, format(pattern, String.valueOf(argument)));
          }
       }
 
@@ -1129,7 +1113,7 @@ public final class LogSF
       {
       if (logger.isEnabledFor(Level.WARN))
          {
-         forcedLog(logger, Level.WARN, format(pattern, valueOf(argument)));
+         forcedLog(logger, Level.WARN, format(pattern, String.valueOf(argument)));
          }
       }
 
@@ -1144,7 +1128,7 @@ public final class LogSF
       {
       if (logger.isEnabledFor(Level.WARN))
          {
-         forcedLog(logger, Level.WARN, format(pattern, valueOf(argument)));
+         forcedLog(logger, Level.WARN, format(pattern, String.valueOf(argument)));
          }
       }
 
@@ -1159,7 +1143,7 @@ public final class LogSF
       {
       if (logger.isEnabledFor(Level.WARN))
          {
-         forcedLog(logger, Level.WARN, format(pattern, valueOf(argument)));
+         forcedLog(logger, Level.WARN, format(pattern, String.valueOf(argument)));
          }
       }
 
@@ -1174,7 +1158,7 @@ public final class LogSF
       {
       if (logger.isEnabledFor(Level.WARN))
          {
-         forcedLog(logger, Level.WARN, format(pattern, valueOf(argument)));
+         forcedLog(logger, Level.WARN, format(pattern, String.valueOf(argument)));
          }
       }
 
@@ -1189,7 +1173,7 @@ public final class LogSF
       {
       if (logger.isEnabledFor(Level.WARN))
          {
-         forcedLog(logger, Level.WARN, format(pattern, valueOf(argument)));
+         forcedLog(logger, Level.WARN, format(pattern, String.valueOf(argument)));
          }
       }
 
@@ -1208,6 +1192,21 @@ public final class LogSF
          }
       }
 
+   /**
+    * Log a parameterized message at error level.
+    * @param logger logger, may not be null.
+    * @param pattern pattern, may be null.
+    * @param argument a value to be formatted and substituted.
+    */
+   public static void error(final Logger logger, final String pattern,
+                            final Object argument)
+      {
+      if (logger.isEnabledFor(Level.ERROR))
+         {
+         forcedLog(logger, Level.ERROR, format(pattern, argument));
+         }
+      }
+
    /**
     * Log a parameterized message at warn level.
     * @param logger logger, may not be null.
@@ -0,0 +1,407 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.log4j;
+
+import java.text.DateFormat;
+import java.text.MessageFormat;
+import java.text.NumberFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiled message pattern used by {@link LogMF} and {@link LogSF}.
+ * <p>
+ * Patterns are compiled once and cached, so formatting a message doesn't
+ * rescan its pattern.  A pattern whose only placeholders are positional
+ * ({0}, {1}... for LogMF, {} for LogSF) is split into its literal text and
+ * placeholder positions, and formats straight into a per-thread
+ * StringBuilder.  Any other LogMF pattern keeps a parsed MessageFormat,
+ * which is cloned for each use since MessageFormat isn't thread-safe.
+ * <p>
+ * As with MessageFormat, numbers and dates are formatted for the default
+ * locale; for cached patterns, that is the default when the pattern was
+ * first used.
+ *
+ */
+final class MessageTemplate
+   {
+   /**
+    * Maximum number of patterns to cache for each syntax.
+    */
+   private static final int MAX_CACHED_TEMPLATES = 512;
+
+   /**
+    * Largest builder kept for reuse by a thread, in characters.
+    */
+   private static final int MAX_RETAINED_BUILDER_SIZE = 4096;
+
+   /**
+    * Compiled MessageFormat patterns.
+    */
+   private static final Map MESSAGE_FORMAT_TEMPLATES = new ConcurrentHashMap();
+
+   /**
+    * Compiled SLF4J-style patterns.
+    */
+   private static final Map SLF4J_TEMPLATES = new ConcurrentHashMap();
+
+   /**
+    * Per-thread formatting state.
+    */
+   private static final ThreadLocal BUFFERS = new ThreadLocal()
+   {
+   protected Object initialValue()
+      {
+      return new Buffers();
+      }
+   };
+
+   /**
+    * Pattern.
+    */
+   private final String pattern;
+
+   /**
+    * Start of each placeholder in the pattern, or null if the pattern must
+    * be formatted with messageFormat.
+    */
+   private final int[] placeholderStarts;
+
+   /**
+    * End (exclusive) of each placeholder in the pattern.
+    */
+   private final int[] placeholderEnds;
+
+   /**
+    * Argument index for each placeholder.
+    */
+   private final int[] argumentIndexes;
+
+   /**
+    * Whether arguments are formatted as MessageFormat would.
+    */
+   private final boolean isMessageFormat;
+
+   /**
+    * Parsed pattern for patterns which aren't just positional placeholders,
+    * null otherwise or if the pattern is malformed.
+    */
+   private final MessageFormat messageFormat;
+
+   /**
+    * Create new instance.
+    * @param pattern pattern.
+    * @param placeholderStarts start of each placeholder, or null.
+    * @param placeholderEnds end of each placeholder, or null.
+    * @param argumentIndexes argument index for each placeholder, or null.
+    * @param isMessageFormat whether arguments are formatted as MessageFormat would.
+    * @param messageFormat parsed pattern, or null.
+    */
+   private MessageTemplate(final String pattern,
+                           final int[] placeholderStarts,
+                           final int[] placeholderEnds,
+                           final int[] argumentIndexes,
+                           final boolean isMessageFormat,
+                           final MessageFormat messageFormat)
+      {
+      this.pattern = pattern;
+      this.placeholderStarts = placeholderStarts;
+      this.placeholderEnds = placeholderEnds;
+      this.argumentIndexes = argumentIndexes;
+      this.isMessageFormat = isMessageFormat;
+      this.messageFormat = messageFormat;
+      }
+
+   /**
+    * Gets the compiled form of a java.text.MessageFormat pattern.
+    * @param pattern pattern, may not be null.
+    * @return compiled pattern.
+    */
+   static MessageTemplate forMessageFormat(final String pattern)
+      {
+      MessageTemplate template = (MessageTemplate)MESSAGE_FORMAT_TEMPLATES.get(pattern);
+      if (template == null)
+         {
+         template = compileMessageFormat(pattern);
+         cache(MESSAGE_FORMAT_TEMPLATES, pattern, template);
+         }
+      return template;
+      }
+
+   /**
+    * Gets the compiled form of an SLF4J-style pattern.
+    * @param pattern pattern, may not be null.
+    * @return compiled pattern.
+    */
+   static MessageTemplate forSLF4J(final String pattern)
+      {
+      MessageTemplate template = (MessageTemplate)SLF4J_TEMPLATES.get(pattern);
+      if (template == null)
+         {
+         template = compileSLF4J(pattern);
+         cache(SLF4J_TEMPLATES, pattern, template);
+         }
+      return template;
+      }
+
+   /**
+    * Adds a template to a cache.
+    * @param cache cache.
+    * @param pattern pattern.
+    * @param template template.
+    */
+   private static void cache(final Map cache, final String pattern, final MessageTemplate template)
+      {
+      //  patterns are normally string constants, so the cache only fills
+      //  if patterns are being built dynamically; then just start over
+      if (cache.size() >= MAX_CACHED_TEMPLATES)
+         {
+         cache.clear();
+         }
+      cache.put(pattern, template);
+      }
+
+   /**
+    * Compiles a MessageFormat pattern.
+    * @param pattern pattern.
+    * @return compiled pattern.
+    */
+   private static MessageTemplate compileMessageFormat(final String pattern)
+      {
+      //
+      //   quotes change the meaning of braces,
+      //     so leave them to MessageFormat
+      if (pattern.indexOf('\'') == -1)
+         {
+         int count = 0;
+         for (int i = pattern.indexOf('{'); i != -1; i = pattern.indexOf('{', i + 1))
+            {
+            count++;
+            }
+
+         int[] starts = new int[count];
+         int[] ends = new int[count];
+         int[] indexes = new int[count];
+         int n = 0;
+         boolean isSimple = true;
+         for (int i = pattern.indexOf('{'); i != -1 && isSimple; i = pattern.indexOf('{', i + 1))
+            {
+            int end = pattern.indexOf('}', i);
+            int index = (end == -1) ? -1 : parseArgumentIndex(pattern, i + 1, end);
+            if (index == -1)
+               {
+               isSimple = false;
+               }
+            else
+               {
+               starts[n] = i;
+               ends[n] = end + 1;
+               indexes[n] = index;
+               n++;
+               }
+            }
+
+         if (isSimple)
+            {
+            return new MessageTemplate(pattern, starts, ends, indexes, true, null);
+            }
+         }
+
+      MessageFormat format;
+      try
+         {
+         format = new MessageFormat(pattern);
+         }
+      catch (IllegalArgumentException ex)
+         {
+         //   malformed patterns are logged as is
+         return new MessageTemplate(pattern, new int[0], new int[0], new int[0], true, null);
+         }
+      return new MessageTemplate(pattern, null, null, null, true, format);
+      }
+
+   /**
+    * Parses the argument index of a {n} placeholder.
+    * @param pattern pattern.
+    * @param start start of the index.
+    * @param end end (exclusive) of the index.
+    * @return argument index, or -1 if the placeholder isn't just a
+    *   canonical decimal number.
+    */
+   private static int parseArgumentIndex(final String pattern, final int start, final int end)
+      {
+      if (start == end || end - start > 4 || (pattern.charAt(start) == '0' && end - start > 1))
+         {
+         return -1;
+         }
+      int index = 0;
+      for (int i = start; i < end; i++)
+         {
+         char c = pattern.charAt(i);
+         if (c < '0' || c > '9')
+            {
+            return -1;
+            }
+         index = index * 10 + (c - '0');
+         }
+      return index;
+      }
+
+   /**
+    * Compiles an SLF4J-style pattern.
+    * @param pattern pattern.
+    * @return compiled pattern.
+    */
+   private static MessageTemplate compileSLF4J(final String pattern)
+      {
+      int count = 0;
+      for (int i = pattern.indexOf("{}"); i != -1; i = pattern.indexOf("{}", i + 2))
+         {
+         count++;
+         }
+
+      int[] starts = new int[count];
+      int[] ends = new int[count];
+      int[] indexes = new int[count];
+      int n = 0;
+      for (int i = pattern.indexOf("{}"); i != -1; i = pattern.indexOf("{}", i + 2))
+         {
+         starts[n] = i;
+         ends[n] = i + 2;
+         indexes[n] = n;
+         n++;
+         }
+      return new MessageTemplate(pattern, starts, ends, indexes, false, null);
+      }
+
+   /**
+    * Formats arguments.
+    * @param arguments arguments, may be null or mismatched.
+    * @return formatted message.
+    */
+   String format(final Object[] arguments)
+      {
+      if (placeholderStarts == null)
+         {
+         return ((MessageFormat)messageFormat.clone()).format(arguments);
+         }
+      if (placeholderStarts.length == 0)
+         {
+         return pattern;
+         }
+
+      Buffers buffers = (Buffers)BUFFERS.get();
+      StringBuilder buf = buffers.builder;
+      buf.setLength(0);
+
+      int last = 0;
+      for (int i = 0; i < placeholderStarts.length; i++)
+         {
+         int index = argumentIndexes[i];
+         if (arguments == null || index >= arguments.length)
+            {
+            if (!isMessageFormat)
+               {
+               //  unmatched placeholders and the rest of the pattern are kept
+               break;
+               }
+            //  as MessageFormat, leave the placeholder in the message
+            continue;
+            }
+         buf.append(pattern, last, placeholderStarts[i]);
+         if (isMessageFormat)
+            {
+            appendMessageFormatArgument(buf, arguments[index], buffers);
+            }
+         else
+            {
+            buf.append(String.valueOf(arguments[index]));
+            }
+         last = placeholderEnds[i];
+         }
+      buf.append(pattern, last, pattern.length());
+
+      String msg = buf.toString();
+      if (buf.capacity() > MAX_RETAINED_BUILDER_SIZE)
+         {
+         buffers.builder = new StringBuilder(256);
+         }
+      return msg;
+      }
+
+   /**
+    * Appends an argument as MessageFormat would for a placeholder
+    * without a format type.
+    * @param buf buffer.
+    * @param argument argument, may be null.
+    * @param buffers per-thread formatters.
+    */
+   private static void appendMessageFormatArgument(final StringBuilder buf,
+                                                   final Object argument,
+                                                   final Buffers buffers)
+      {
+      if (argument instanceof String)
+         {
+         buf.append((String)argument);
+         }
+      else if (argument instanceof Number)
+         {
+         if (buffers.numberFormat == null)
+            {
+            buffers.numberFormat = NumberFormat.getInstance();
+            }
+         buf.append(buffers.numberFormat.format(argument));
+         }
+      else if (argument instanceof Date)
+         {
+         if (buffers.dateFormat == null)
+            {
+            buffers.dateFormat = DateFormat.getDateTimeInstance(
+                  DateFormat.SHORT,
+                  DateFormat.SHORT);
+            }
+         buf.append(buffers.dateFormat.format(argument));
+         }
+      else
+         {
+         buf.append(String.valueOf(argument));
+         }
+      }
+
+   /**
+    * Per-thread builder and formatters.
+    */
+   private static final class Buffers
+      {
+      /**
+       * Message builder.
+       */
+      private StringBuilder builder = new StringBuilder(256);
+
+      /**
+       * Number format, created on first use.
+       */
+      private NumberFormat numberFormat;
+
+      /**
+       * Date format, created on first use.
+       */
+      private DateFormat dateFormat;
+      }
+   }
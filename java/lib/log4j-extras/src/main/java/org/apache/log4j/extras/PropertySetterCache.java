@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.log4j.extras;
+
+import java.beans.Introspector;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.log4j.Level;
+import org.apache.log4j.Priority;
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.helpers.OptionConverter;
+import org.apache.log4j.spi.ErrorHandler;
+
+/**
+ * Sets bean properties from configuration strings, like
+ * {@link org.apache.log4j.config.PropertySetter}, but looks up the setters
+ * of each class only once.
+ * <p>
+ * PropertySetter introspects the full bean info of every object it
+ * configures.  Here, the public single-argument setters of a class are
+ * collected on first use and kept, keyed by property name, so configuring
+ * further instances of the class is a map lookup.  Property names and
+ * argument conversions are the same as for PropertySetter.
+ *
+ */
+final class PropertySetterCache
+   {
+   /**
+    * Setters by property name, by class.
+    */
+   private static final Map SETTERS = new ConcurrentHashMap();
+
+   /**
+    * Prevent instantiation.
+    */
+   private PropertySetterCache()
+      {
+      }
+
+   /**
+    * Sets a property.  Failures are logged and otherwise ignored.
+    * @param obj object to configure, may not be null.
+    * @param name property name, may not be null.
+    * @param value property value, ignored if null.
+    */
+   static void setProperty(final Object obj, final String name, final String value)
+      {
+      if (value == null)
+         {
+         return;
+         }
+
+      String propertyName = Introspector.decapitalize(name);
+      Method setter = (Method)getSetters(obj.getClass()).get(propertyName);
+      if (setter == null)
+         {
+         LogLog.warn("No such property [" + propertyName + "] in " + obj.getClass().getName() + ".");
+         return;
+         }
+
+      Class type = setter.getParameterTypes()[0];
+      Object arg;
+      try
+         {
+         arg = convertArg(value, type);
+         }
+      catch (Throwable t)
+         {
+         LogLog.warn("Failed to set property [" + propertyName + "] to value \"" + value
+                     + "\". Conversion to type [" + type + "] failed. Reason: " + t);
+         return;
+         }
+      if (arg == null)
+         {
+         LogLog.warn("Failed to set property [" + propertyName + "] to value \"" + value
+                     + "\". Conversion to type [" + type + "] failed.");
+         return;
+         }
+
+      LogLog.debug("Setting property [" + propertyName + "] to [" + arg + "].");
+      try
+         {
+         setter.invoke(obj, new Object[]{arg});
+         }
+      catch (IllegalAccessException ex)
+         {
+         LogLog.warn("Failed to set property [" + propertyName + "] to value \"" + value + "\". ", ex);
+         }
+      catch (InvocationTargetException ex)
+         {
+         if (ex.getTargetException() instanceof InterruptedException)
+            {
+            Thread.currentThread().interrupt();
+            }
+         LogLog.warn("Failed to set property [" + propertyName + "] to value \"" + value + "\". ",
+                     ex.getTargetException());
+         }
+      catch (RuntimeException ex)
+         {
+         LogLog.warn("Failed to set property [" + propertyName + "] to value \"" + value + "\". ", ex);
+         }
+      }
+
+   /**
+    * Gets the setters of a class, collecting them on first use.
+    * @param clazz class.
+    * @return map of property name to setter.
+    */
+   private static Map getSetters(final Class clazz)
+      {
+      Map setters = (Map)SETTERS.get(clazz);
+      if (setters == null)
+         {
+         setters = new HashMap();
+         Method[] methods = clazz.getMethods();
+         for (int i = 0; i < methods.length; i++)
+            {
+            Method method = methods[i];
+            String methodName = method.getName();
+            if (methodName.length() > 3
+                && methodName.startsWith("set")
+                && !Modifier.isStatic(method.getModifiers())
+                && method.getParameterTypes().length == 1
+                && isConvertible(method.getParameterTypes()[0]))
+               {
+               String propertyName = Introspector.decapitalize(methodName.substring(3));
+               Method previous = (Method)setters.get(propertyName);
+               //  if a setter is overloaded, prefer the String version
+               if (previous == null || method.getParameterTypes()[0] == String.class)
+                  {
+                  setters.put(propertyName, method);
+                  }
+               }
+            }
+         SETTERS.put(clazz, setters);
+         }
+      return setters;
+      }
+
+   /**
+    * Determines whether a configuration string can be converted to a type.
+    * @param type type.
+    * @return true if {@link #convertArg} supports the type.
+    */
+   private static boolean isConvertible(final Class type)
+      {
+      return String.class.isAssignableFrom(type)
+             || type == Integer.TYPE
+             || type == Long.TYPE
+             || type == Boolean.TYPE
+             || Priority.class.isAssignableFrom(type)
+             || ErrorHandler.class.isAssignableFrom(type);
+      }
+
+   /**
+    * Converts a configuration string to a setter argument, as PropertySetter does.
+    * @param val value.
+    * @param type setter parameter type.
+    * @return converted value, or null if it couldn't be converted.
+    */
+   private static Object convertArg(final String val, final Class type)
+      {
+      String v = val.trim();
+      if (String.class.isAssignableFrom(type))
+         {
+         return val;
+         }
+      else if (type == Integer.TYPE)
+         {
+         return Integer.valueOf(v);
+         }
+      else if (type == Long.TYPE)
+         {
+         return Long.valueOf(v);
+         }
+      else if (type == Boolean.TYPE)
+         {
+         if ("true".equalsIgnoreCase(v))
+            {
+            return Boolean.TRUE;
+            }
+         else if ("false".equalsIgnoreCase(v))
+            {
+            return Boolean.FALSE;
+            }
+         }
+      else if (Priority.class.isAssignableFrom(type))
+         {
+         return OptionConverter.toLevel(v, Level.DEBUG);
+         }
+      else if (ErrorHandler.class.isAssignableFrom(type))
+         {
+         return OptionConverter.instantiateByClassName(v, ErrorHandler.class, null);
+         }
+      return null;
+      }
+   }
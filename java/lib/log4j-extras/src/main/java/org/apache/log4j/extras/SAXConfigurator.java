@@ -0,0 +1,1283 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.log4j.extras;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.Reader;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import org.apache.log4j.Appender;
+import org.apache.log4j.Layout;
+import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.apache.log4j.helpers.Loader;
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.helpers.OptionConverter;
+import org.apache.log4j.or.RendererMap;
+import org.apache.log4j.spi.AppenderAttachable;
+import org.apache.log4j.spi.Configurator;
+import org.apache.log4j.spi.ErrorHandler;
+import org.apache.log4j.spi.Filter;
+import org.apache.log4j.spi.LoggerFactory;
+import org.apache.log4j.spi.LoggerRepository;
+import org.apache.log4j.spi.OptionHandler;
+import org.apache.log4j.spi.RendererSupport;
+import org.apache.log4j.xml.SAXErrorHandler;
+import org.apache.log4j.xml.UnrecognizedElementHandler;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Streaming counterpart to {@link DOMConfigurator}.
+ * <p>
+ * Reads the same log4j.dtd configuration files, but with a SAX parser, so
+ * no document tree is built: appenders, layouts, filters and error handlers
+ * are created and configured as their elements are read, and activated as
+ * soon as each element ends.  Setter lookups are cached per class by
+ * {@link PropertySetterCache}, so configuring several appenders of the same
+ * class only introspects it once.  Elements which the configurator doesn't
+ * recognize, such as the rollingPolicy of a
+ * {@link org.apache.log4j.rolling.RollingFileAppender}, are still handed to
+ * {@link UnrecognizedElementHandler} as small DOM fragments.
+ * <p>
+ * Loggers are configured once the whole document has been read, so that a
+ * loggerFactory anywhere in the file applies to all of them and appenders
+ * may be referenced before they are defined, as with DOMConfigurator.
+ * Unlike DOMConfigurator, every appender in the file is created, whether
+ * or not it is referenced; appenders which turn out to be unreferenced are
+ * closed at the end of the document.  The document isn't validated against
+ * the DTD.
+ * <p>
+ * To have log4j use this configurator for its default initialization, set
+ * the <code>log4j.configuratorClass</code> system property to this class.
+ *
+ */
+public class SAXConfigurator implements Configurator
+   {
+   /**
+    * Root element.
+    */
+   private static final int CONFIGURATION = 0;
+
+   /**
+    * Appender element.
+    */
+   private static final int APPENDER = 1;
+
+   /**
+    * Layout element.
+    */
+   private static final int LAYOUT = 2;
+
+   /**
+    * Filter element.
+    */
+   private static final int FILTER = 3;
+
+   /**
+    * Error handler element.
+    */
+   private static final int ERROR_HANDLER = 4;
+
+   /**
+    * Logger factory element.
+    */
+   private static final int FACTORY = 5;
+
+   /**
+    * Logger, category or root element.
+    */
+   private static final int LOGGER = 6;
+
+   /**
+    * Element being captured for an UnrecognizedElementHandler.
+    */
+   private static final int FRAGMENT = 7;
+
+   /**
+    * Element whose content is ignored.
+    */
+   private static final int IGNORED = 8;
+
+   private static final String RESET_ATTR = "reset";
+
+   /**
+    * Appenders by name.
+    */
+   private final Hashtable appenderBag = new Hashtable();
+
+   /**
+    * Names of the appenders which have been referenced.
+    */
+   private final Set referenced = new HashSet();
+
+   /**
+    * References to appenders which hadn't been defined yet, as
+    * {owner, appender name} pairs.
+    */
+   private final List pendingRefs = new ArrayList();
+
+   /**
+    * Loggers and unrecognized top-level elements, in document order, to be
+    * processed at the end of the document.
+    */
+   private final List deferred = new ArrayList();
+
+   private Properties props;
+   private LoggerRepository repository;
+
+   private LoggerFactory catFactory = null;
+
+   /**
+    * Document which owns the captured fragments, created on first use.
+    */
+   private Document fragments;
+
+   /**
+    No argument constructor.
+    */
+   public SAXConfigurator()
+      {
+      }
+
+   /**
+    A static version of {@link #doConfigure(String, LoggerRepository)}.
+    */
+   static
+   public void configure(String filename)
+      {
+      new SAXConfigurator().doConfigure(filename, LogManager.getLoggerRepository());
+      }
+
+   /**
+    A static version of {@link #doConfigure(URL, LoggerRepository)}.
+    */
+   static
+   public void configure(URL url)
+      {
+      new SAXConfigurator().doConfigure(url, LogManager.getLoggerRepository());
+      }
+
+   public void doConfigure(final String filename, LoggerRepository repository)
+      {
+      doConfigure(new InputSource(new File(filename).toURI().toString()),
+                  "file [" + filename + "]",
+                  repository);
+      }
+
+   public void doConfigure(final URL url, LoggerRepository repository)
+      {
+      doConfigure(new InputSource(url.toString()), "url [" + url.toString() + "]", repository);
+      }
+
+   /**
+    Configure log4j by reading in a log4j.dtd compliant XML
+    configuration file.
+
+    */
+   public void doConfigure(final InputStream inputStream, LoggerRepository repository)
+      {
+      InputSource inputSource = new InputSource(inputStream);
+      inputSource.setSystemId("dummy://log4j.dtd");
+      doConfigure(inputSource, "input stream [" + inputStream.toString() + "]", repository);
+      }
+
+   /**
+    Configure log4j by reading in a log4j.dtd compliant XML
+    configuration file.
+
+    */
+   public void doConfigure(final Reader reader, LoggerRepository repository)
+      {
+      InputSource inputSource = new InputSource(reader);
+      inputSource.setSystemId("dummy://log4j.dtd");
+      doConfigure(inputSource, "reader [" + reader.toString() + "]", repository);
+      }
+
+   /**
+    Configure log4j by reading in a log4j.dtd compliant XML
+    configuration file.
+
+    */
+   protected void doConfigure(final InputSource inputSource, LoggerRepository repository)
+      {
+      if (inputSource.getSystemId() == null)
+         {
+         inputSource.setSystemId("dummy://log4j.dtd");
+         }
+      doConfigure(inputSource, "input source [" + inputSource.toString() + "]", repository);
+      }
+
+   private void doConfigure(final InputSource inputSource,
+                            final String description,
+                            final LoggerRepository repository)
+      {
+      this.repository = repository;
+      try
+         {
+         SAXParserFactory spf = SAXParserFactory.newInstance();
+         spf.setNamespaceAware(false);
+         spf.setValidating(false);
+         SAXParser parser = spf.newSAXParser();
+         parser.parse(inputSource, new Handler());
+         }
+      catch (Exception e)
+         {
+         LogLog.error("Could not parse " + description + ".", e);
+         abandon();
+         }
+      }
+
+   /**
+    * Closes the appenders created so far when the document can't be read to
+    * the end.
+    */
+   private void abandon()
+      {
+      for (Iterator iter = appenderBag.values().iterator(); iter.hasNext();)
+         {
+         ((Appender)iter.next()).close();
+         }
+      appenderBag.clear();
+      }
+
+   protected String subst(final String value)
+      {
+      return DOMConfigurator.subst(value, props);
+      }
+
+   /**
+    * Gets an attribute value, with property references substituted.
+    * @param attributes attributes.
+    * @param name attribute name.
+    * @return value, or an empty string if the attribute is absent.
+    */
+   private String getAttribute(final Attributes attributes, final String name)
+      {
+      String value = attributes.getValue(name);
+      return (value == null) ? DOMConfigurator.EMPTY_STR : subst(value);
+      }
+
+   /**
+    * Sets a parameter from a param element.
+    * @param component object to configure.
+    * @param attributes attributes of the param element.
+    */
+   private void setParameter(final Object component, final Attributes attributes)
+      {
+      String name = getAttribute(attributes, DOMConfigurator.NAME_ATTR);
+      String value = attributes.getValue(DOMConfigurator.VALUE_ATTR);
+      value = subst(OptionConverter.convertSpecialChars(value == null ? DOMConfigurator.EMPTY_STR : value));
+      PropertySetterCache.setProperty(component, name, value);
+      }
+
+   /**
+    * Activates a component's options, if it has any.
+    * @param component component.
+    */
+   private static void activate(final Object component)
+      {
+      if (component instanceof OptionHandler)
+         {
+         ((OptionHandler)component).activateOptions();
+         }
+      }
+
+   /**
+    * Delegates unrecognized content to created instance if
+    * it supports UnrecognizedElementParser.
+    * @param instance instance, may be null.
+    * @param element element, may not be null.
+    * @throws Exception thrown if configuration of owner object
+    * should be abandoned.
+    */
+   private void parseUnrecognizedElement(final Object instance, final Element element) throws Exception
+      {
+      boolean recognized = false;
+      if (instance instanceof UnrecognizedElementHandler)
+         {
+         recognized = ((UnrecognizedElementHandler)instance).parseUnrecognizedElement(element, props);
+         }
+      if (!recognized)
+         {
+         LogLog.warn("Unrecognized element " + element.getNodeName());
+         }
+      }
+
+   /**
+    * Delegates unrecognized content to created instance if
+    * it supports UnrecognizedElementParser and catches and
+    *  logs any exception.
+    * @param instance instance, may be null.
+    * @param element element, may not be null.
+    */
+   private void quietParseUnrecognizedElement(final Object instance, final Element element)
+      {
+      try
+         {
+         parseUnrecognizedElement(instance, element);
+         }
+      catch (Exception ex)
+         {
+         LogLog.error("Error in extension content: ", ex);
+         }
+      }
+
+   /**
+    * Creates an element for a fragment.
+    * @param qName element name.
+    * @param attributes attributes, added without substitution.
+    * @return element.
+    * @throws SAXException if no DOM implementation is available.
+    */
+   private Element createElement(final String qName, final Attributes attributes) throws SAXException
+      {
+      if (fragments == null)
+         {
+         try
+            {
+            fragments = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+            }
+         catch (ParserConfigurationException ex)
+            {
+            throw new SAXException(ex);
+            }
+         }
+      Element element = fragments.createElement(qName);
+      for (int i = 0; i < attributes.getLength(); i++)
+         {
+         element.setAttribute(attributes.getQName(i), attributes.getValue(i));
+         }
+      return element;
+      }
+
+   /**
+    * Attaches an appender to an appender or error handler, now if it has
+    * already been defined or else at the end of the document.
+    * @param owner AppenderAttachable or ErrorHandler.
+    * @param refName name of the appender.
+    */
+   private void attachAppender(final Object owner, final String refName)
+      {
+      Appender appender = (Appender)appenderBag.get(refName);
+      if (appender == null)
+         {
+         pendingRefs.add(new Object[]{owner, refName});
+         }
+      else
+         {
+         attachAppender(owner, refName, appender);
+         }
+      }
+
+   /**
+    * Attaches an appender to an appender or error handler.
+    * @param owner AppenderAttachable or ErrorHandler.
+    * @param refName name of the appender.
+    * @param appender appender.
+    */
+   private void attachAppender(final Object owner, final String refName, final Appender appender)
+      {
+      referenced.add(refName);
+      if (owner instanceof ErrorHandler)
+         {
+         ((ErrorHandler)owner).setBackupAppender(appender);
+         }
+      else
+         {
+         ((AppenderAttachable)owner).addAppender(appender);
+         }
+      }
+
+   /**
+    * Processes the configuration element's attributes.
+    * @param attributes attributes.
+    */
+   private void parseConfiguration(final Attributes attributes)
+      {
+      String debugAttrib = getAttribute(attributes, DOMConfigurator.INTERNAL_DEBUG_ATTR);
+
+      LogLog.debug("debug attribute= \"" + debugAttrib + "\".");
+      if (!debugAttrib.equals("") && !debugAttrib.equals("null"))
+         {
+         LogLog.setInternalDebugging(OptionConverter.toBoolean(debugAttrib, true));
+         }
+      else
+         {
+         LogLog.debug("Ignoring " + DOMConfigurator.INTERNAL_DEBUG_ATTR + " attribute.");
+         }
+
+      String resetAttrib = getAttribute(attributes, RESET_ATTR);
+      LogLog.debug("reset attribute= \"" + resetAttrib + "\".");
+      if (!("".equals(resetAttrib)))
+         {
+         if (OptionConverter.toBoolean(resetAttrib, false))
+            {
+            repository.resetConfiguration();
+            }
+         }
+
+      String confDebug = getAttribute(attributes, DOMConfigurator.CONFIG_DEBUG_ATTR);
+      if (!confDebug.equals("") && !confDebug.equals("null"))
+         {
+         LogLog.warn("The \"" + DOMConfigurator.CONFIG_DEBUG_ATTR + "\" attribute is deprecated.");
+         LogLog.warn("Use the \"" + DOMConfigurator.INTERNAL_DEBUG_ATTR + "\" attribute instead.");
+         LogLog.setInternalDebugging(OptionConverter.toBoolean(confDebug, true));
+         }
+
+      String thresholdStr = getAttribute(attributes, DOMConfigurator.THRESHOLD_ATTR);
+      LogLog.debug("Threshold =\"" + thresholdStr + "\".");
+      if (!"".equals(thresholdStr) && !"null".equals(thresholdStr))
+         {
+         repository.setThreshold(thresholdStr);
+         }
+      }
+
+   /**
+    * Creates the appender for an appender element.
+    * @param attributes attributes.
+    * @return appender, or null if it couldn't be created.
+    */
+   private Appender createAppender(final Attributes attributes)
+      {
+      String className = getAttribute(attributes, DOMConfigurator.CLASS_ATTR);
+      LogLog.debug("Class name: [" + className + ']');
+      try
+         {
+         Appender appender = (Appender)Loader.loadClass(className).newInstance();
+         appender.setName(getAttribute(attributes, DOMConfigurator.NAME_ATTR));
+         return appender;
+         }
+      catch (Exception oops)
+         {
+         LogLog.error("Could not create an Appender. Reported error follows.", oops);
+         return null;
+         }
+      }
+
+   /**
+    * Creates the layout for a layout element.
+    * @param attributes attributes.
+    * @return layout, or null if it couldn't be created.
+    */
+   private Layout createLayout(final Attributes attributes)
+      {
+      String className = getAttribute(attributes, DOMConfigurator.CLASS_ATTR);
+      LogLog.debug("Parsing layout of class: \"" + className + "\"");
+      try
+         {
+         return (Layout)Loader.loadClass(className).newInstance();
+         }
+      catch (Exception oops)
+         {
+         LogLog.error("Could not create the Layout. Reported error follows.", oops);
+         return null;
+         }
+      }
+
+   /**
+    * Creates the logger factory for a categoryFactory or loggerFactory element.
+    * @param attributes attributes.
+    * @return factory, or null if none was configured.
+    */
+   private Object createCategoryFactory(final Attributes attributes)
+      {
+      String className = getAttribute(attributes, DOMConfigurator.CLASS_ATTR);
+
+      if (DOMConfigurator.EMPTY_STR.equals(className))
+         {
+         LogLog.error("Category Factory tag " + DOMConfigurator.CLASS_ATTR + " attribute not found.");
+         LogLog.debug("No Category Factory configured.");
+         return null;
+         }
+
+      LogLog.debug("Desired category factory: [" + className + ']');
+      Object factory = OptionConverter.instantiateByClassName(className,
+                                                              LoggerFactory.class,
+                                                              null);
+      if (factory instanceof LoggerFactory)
+         {
+         catFactory = (LoggerFactory)factory;
+         }
+      else
+         {
+         LogLog.error("Category Factory class " + className + " does not implement org.apache.log4j.LoggerFactory");
+         }
+      return factory;
+      }
+
+   /**
+    * Processes the content of the document which was deferred to its end.
+    */
+   private void finish()
+      {
+      for (Iterator iter = pendingRefs.iterator(); iter.hasNext();)
+         {
+         Object[] ref = (Object[])iter.next();
+         String refName = (String)ref[1];
+         Appender appender = (Appender)appenderBag.get(refName);
+         if (appender == null)
+            {
+            LogLog.error("No appender named [" + refName + "] could be found.");
+            }
+         else
+            {
+            attachAppender(ref[0], refName, appender);
+            }
+         }
+
+      for (Iterator iter = deferred.iterator(); iter.hasNext();)
+         {
+         Object item = iter.next();
+         if (item instanceof LoggerElement)
+            {
+            configureLogger((LoggerElement)item);
+            }
+         else
+            {
+            quietParseUnrecognizedElement(repository, (Element)item);
+            }
+         }
+
+      for (Iterator iter = appenderBag.entrySet().iterator(); iter.hasNext();)
+         {
+         Map.Entry entry = (Map.Entry)iter.next();
+         if (!referenced.contains(entry.getKey()))
+            {
+            LogLog.debug("Closing unreferenced appender named [" + entry.getKey() + "].");
+            ((Appender)entry.getValue()).close();
+            }
+         }
+      }
+
+   /**
+    * Configures a logger from its element.
+    * @param loggerElement logger element.
+    */
+   private void configureLogger(final LoggerElement loggerElement)
+      {
+      Logger cat;
+      if (loggerElement.isRoot)
+         {
+         cat = repository.getRootLogger();
+         }
+      else if (DOMConfigurator.EMPTY_STR.equals(loggerElement.className))
+         {
+         LogLog.debug("Retreiving an instance of org.apache.log4j.Logger.");
+         cat = (catFactory == null) ? repository.getLogger(loggerElement.name)
+                                    : repository.getLogger(loggerElement.name, catFactory);
+         }
+      else
+         {
+         LogLog.debug("Desired logger sub-class: [" + loggerElement.className + ']');
+         try
+            {
+            Class clazz = Loader.loadClass(loggerElement.className);
+            Method getInstanceMethod = clazz.getMethod("getLogger",
+                                                       DOMConfigurator.ONE_STRING_PARAM);
+            cat = (Logger)getInstanceMethod.invoke(null, new Object[]{loggerElement.name});
+            }
+         catch (Exception oops)
+            {
+            LogLog.error("Could not retrieve category [" + loggerElement.name +
+                         "]. Reported error follows.", oops);
+            return;
+            }
+         }
+
+      // Setting up a category needs to be an atomic operation, in order
+      // to protect potential log operations while category
+      // configuration is in progress.
+      synchronized (cat)
+         {
+         if (!loggerElement.isRoot)
+            {
+            boolean additivity = OptionConverter.toBoolean(loggerElement.additivity, true);
+            LogLog.debug("Setting [" + cat.getName() + "] additivity to [" + additivity + "].");
+            cat.setAdditivity(additivity);
+            }
+
+         // Remove all existing appenders from cat. They will be
+         // reconstructed if need be.
+         cat.removeAllAppenders();
+
+         for (Iterator iter = loggerElement.children.iterator(); iter.hasNext();)
+            {
+            Object child = iter.next();
+            if (child instanceof Element)
+               {
+               quietParseUnrecognizedElement(cat, (Element)child);
+               continue;
+               }
+
+            String[] values = (String[])child;
+            if (values[0].equals(DOMConfigurator.APPENDER_REF_TAG))
+               {
+               String refName = values[1];
+               Appender appender = (Appender)appenderBag.get(refName);
+               if (appender != null)
+                  {
+                  referenced.add(refName);
+                  LogLog.debug("Adding appender named [" + refName +
+                               "] to category [" + cat.getName() + "].");
+                  cat.addAppender(appender);
+                  }
+               else
+                  {
+                  LogLog.error("No appender named [" + refName + "] could be found.");
+                  LogLog.debug("Appender named [" + refName + "] not found.");
+                  }
+               }
+            else if (values[0].equals(DOMConfigurator.LEVEL_TAG))
+               {
+               parseLevel(values[1], values[2], cat, loggerElement.isRoot);
+               }
+            else
+               {
+               PropertySetterCache.setProperty(cat, values[1], values[2]);
+               }
+            }
+         }
+      }
+
+   /**
+    Used internally to parse a level  element.
+    */
+   private void parseLevel(final String priStr, final String className, Logger logger, boolean isRoot)
+      {
+      String catName = logger.getName();
+      if (isRoot)
+         {
+         catName = "root";
+         }
+
+      LogLog.debug("Level value for " + catName + " is  [" + priStr + "].");
+
+      if ("inherited".equalsIgnoreCase(priStr) || "null".equalsIgnoreCase(priStr))
+         {
+         if (isRoot)
+            {
+            LogLog.error("Root level cannot be inherited. Ignoring directive.");
+            }
+         else
+            {
+            logger.setLevel(null);
+            }
+         }
+      else
+         {
+         if (DOMConfigurator.EMPTY_STR.equals(className))
+            {
+            logger.setLevel(OptionConverter.toLevel(priStr, Level.DEBUG));
+            }
+         else
+            {
+            LogLog.debug("Desired Level sub-class: [" + className + ']');
+            try
+               {
+               Class clazz = Loader.loadClass(className);
+               Method toLevelMethod = clazz.getMethod("toLevel",
+                                                      DOMConfigurator.ONE_STRING_PARAM);
+               Level pri = (Level)toLevelMethod.invoke(null,
+                                                       new Object[]{priStr});
+               logger.setLevel(pri);
+               }
+            catch (Exception oops)
+               {
+               LogLog.error("Could not create level [" + priStr +
+                            "]. Reported error follows.", oops);
+               return;
+               }
+            }
+         }
+      LogLog.debug(catName + " level set to " + logger.getLevel());
+      }
+
+   /**
+    * Logger, category or root element, recorded until the end of the document.
+    */
+   private static final class LoggerElement
+      {
+      /**
+       * Logger name.
+       */
+      private final String name;
+
+      /**
+       * Logger class name, or empty.
+       */
+      private final String className;
+
+      /**
+       * Additivity attribute, or empty.
+       */
+      private final String additivity;
+
+      /**
+       * Whether this is the root element.
+       */
+      private final boolean isRoot;
+
+      /**
+       * Child elements in document order: {tag, value, class} for level and
+       * priority, {tag, ref} for appender-ref, {tag, name, value} for param,
+       * or an Element for anything else.
+       */
+      private final List children = new ArrayList();
+
+      /**
+       * Create new instance.
+       * @param name logger name.
+       * @param className logger class name, or empty.
+       * @param additivity additivity attribute, or empty.
+       * @param isRoot whether this is the root element.
+       */
+      private LoggerElement(final String name,
+                            final String className,
+                            final String additivity,
+                            final boolean isRoot)
+         {
+         this.name = name;
+         this.className = className;
+         this.additivity = additivity;
+         this.isRoot = isRoot;
+         }
+      }
+
+   /**
+    * Element being parsed.
+    */
+   private static final class Frame
+      {
+      /**
+       * Kind of element.
+       */
+      private final int kind;
+
+      /**
+       * Object being configured by the element: an Appender, Layout,
+       * Filter, ErrorHandler, logger factory or LoggerElement.
+       */
+      private final Object component;
+
+      /**
+       * Captured element, for fragments.
+       */
+      private final Element element;
+
+      /**
+       * Whether configuration of the component has been abandoned.
+       */
+      private boolean failed;
+
+      /**
+       * Create new instance.
+       * @param kind kind of element.
+       * @param component object being configured, may be null.
+       * @param element captured element, may be null.
+       */
+      private Frame(final int kind, final Object component, final Element element)
+         {
+         this.kind = kind;
+         this.component = component;
+         this.element = element;
+         }
+      }
+
+   /**
+    * Receives the parser's events.
+    */
+   private final class Handler extends DefaultHandler
+      {
+      /**
+       * Elements being parsed, innermost last.
+       */
+      private final List stack = new ArrayList();
+
+      public InputSource resolveEntity(final String publicId, final String systemId)
+         {
+         //  the document isn't validated, so there's no need to read the DTD
+         if (systemId != null && systemId.endsWith("log4j.dtd"))
+            {
+            return new InputSource(new ByteArrayInputStream(new byte[0]));
+            }
+         return null;
+         }
+
+      public void warning(final SAXParseException ex)
+         {
+         new SAXErrorHandler().warning(ex);
+         }
+
+      public void error(final SAXParseException ex)
+         {
+         new SAXErrorHandler().error(ex);
+         }
+
+      public void startElement(final String uri,
+                               final String localName,
+                               final String qName,
+                               final Attributes attributes) throws SAXException
+         {
+         if (stack.isEmpty())
+            {
+            push(startConfiguration(qName, attributes));
+            return;
+            }
+
+         Frame parent = (Frame)stack.get(stack.size() - 1);
+         switch (parent.kind)
+            {
+            case CONFIGURATION:
+               push(startTopLevelElement(qName, attributes));
+               break;
+
+            case APPENDER:
+               push(startAppenderChild(parent, qName, attributes));
+               break;
+
+            case LAYOUT:
+            case FILTER:
+            case FACTORY:
+               if (qName.equals(DOMConfigurator.PARAM_TAG))
+                  {
+                  setParameter(parent.component, attributes);
+                  push(new Frame(IGNORED, null, null));
+                  }
+               else
+                  {
+                  push(new Frame(FRAGMENT, null, createElement(qName, attributes)));
+                  }
+               break;
+
+            case ERROR_HANDLER:
+               push(startErrorHandlerChild(parent, qName, attributes));
+               break;
+
+            case LOGGER:
+               push(startLoggerChild((LoggerElement)parent.component, qName, attributes));
+               break;
+
+            case FRAGMENT:
+               Element element = createElement(qName, attributes);
+               parent.element.appendChild(element);
+               push(new Frame(FRAGMENT, null, element));
+               break;
+
+            default:
+               push(new Frame(IGNORED, null, null));
+               break;
+            }
+         }
+
+      public void characters(final char[] ch, final int start, final int length)
+         {
+         if (!stack.isEmpty())
+            {
+            Frame frame = (Frame)stack.get(stack.size() - 1);
+            if (frame.kind == FRAGMENT)
+               {
+               frame.element.appendChild(fragments.createTextNode(new String(ch, start, length)));
+               }
+            }
+         }
+
+      public void endElement(final String uri, final String localName, final String qName)
+         {
+         Frame frame = (Frame)stack.remove(stack.size() - 1);
+         Frame parent = stack.isEmpty() ? null : (Frame)stack.get(stack.size() - 1);
+         switch (frame.kind)
+            {
+            case CONFIGURATION:
+               finish();
+               break;
+
+            case APPENDER:
+               endAppender(frame);
+               break;
+
+            case LAYOUT:
+               Appender appender = (Appender)parent.component;
+               if (frame.failed)
+                  {
+                  appender.setLayout(null);
+                  }
+               else
+                  {
+                  activate(frame.component);
+                  appender.setLayout((Layout)frame.component);
+                  }
+               break;
+
+            case FILTER:
+               activate(frame.component);
+               LogLog.debug("Adding filter of type [" + frame.component.getClass()
+                            + "] to appender named [" + ((Appender)parent.component).getName() + "].");
+               ((Appender)parent.component).addFilter((Filter)frame.component);
+               break;
+
+            case ERROR_HANDLER:
+               activate(frame.component);
+               ((Appender)parent.component).setErrorHandler((ErrorHandler)frame.component);
+               break;
+
+            case LOGGER:
+               deferred.add(frame.component);
+               break;
+
+            case FRAGMENT:
+               //  only complete fragments are delivered
+               if (parent.kind != FRAGMENT)
+                  {
+                  endFragment(parent, frame.element);
+                  }
+               break;
+
+            default:
+               break;
+            }
+         }
+
+      /**
+       * Pushes a frame.
+       * @param frame frame.
+       */
+      private void push(final Frame frame)
+         {
+         stack.add(frame);
+         }
+
+      /**
+       * Starts the root element.
+       * @param qName element name.
+       * @param attributes attributes.
+       * @return frame.
+       */
+      private Frame startConfiguration(final String qName, final Attributes attributes)
+         {
+         if (!qName.equals(DOMConfigurator.CONFIGURATION_TAG))
+            {
+            if (qName.equals(DOMConfigurator.OLD_CONFIGURATION_TAG))
+               {
+               LogLog.warn("The <" + DOMConfigurator.OLD_CONFIGURATION_TAG +
+                           "> element has been deprecated.");
+               LogLog.warn("Use the <" + DOMConfigurator.CONFIGURATION_TAG + "> element instead.");
+               }
+            else
+               {
+               LogLog.error("DOM element is - not a <" + DOMConfigurator.CONFIGURATION_TAG + "> element.");
+               return new Frame(IGNORED, null, null);
+               }
+            }
+         parseConfiguration(attributes);
+         return new Frame(CONFIGURATION, null, null);
+         }
+
+      /**
+       * Starts a child of the root element.
+       * @param qName element name.
+       * @param attributes attributes.
+       * @return frame.
+       * @throws SAXException if a fragment can't be created.
+       */
+      private Frame startTopLevelElement(final String qName, final Attributes attributes) throws SAXException
+         {
+         if (qName.equals(DOMConfigurator.APPENDER_TAG))
+            {
+            Appender appender = createAppender(attributes);
+            return (appender == null) ? new Frame(IGNORED, null, null)
+                                      : new Frame(APPENDER, appender, null);
+            }
+         if (qName.equals(DOMConfigurator.CATEGORY) || qName.equals(DOMConfigurator.LOGGER))
+            {
+            return new Frame(LOGGER,
+                             new LoggerElement(getAttribute(attributes, DOMConfigurator.NAME_ATTR),
+                                               getAttribute(attributes, DOMConfigurator.CLASS_ATTR),
+                                               getAttribute(attributes, DOMConfigurator.ADDITIVITY_ATTR),
+                                               false),
+                             null);
+            }
+         if (qName.equals(DOMConfigurator.ROOT_TAG))
+            {
+            return new Frame(LOGGER, new LoggerElement("root", "", "", true), null);
+            }
+         if (qName.equals(DOMConfigurator.RENDERER_TAG))
+            {
+            String renderingClass = getAttribute(attributes, DOMConfigurator.RENDERING_CLASS_ATTR);
+            String renderedClass = getAttribute(attributes, DOMConfigurator.RENDERED_CLASS_ATTR);
+            if (repository instanceof RendererSupport)
+               {
+               RendererMap.addRenderer((RendererSupport)repository, renderedClass,
+                                       renderingClass);
+               }
+            return new Frame(IGNORED, null, null);
+            }
+         if (qName.equals(DOMConfigurator.CATEGORY_FACTORY_TAG)
+             || qName.equals(DOMConfigurator.LOGGER_FACTORY_TAG))
+            {
+            Object factory = createCategoryFactory(attributes);
+            return (factory == null) ? new Frame(IGNORED, null, null)
+                                     : new Frame(FACTORY, factory, null);
+            }
+         return new Frame(FRAGMENT, null, createElement(qName, attributes));
+         }
+
+      /**
+       * Starts a child of an appender element.
+       * @param parent appender frame.
+       * @param qName element name.
+       * @param attributes attributes.
+       * @return frame.
+       * @throws SAXException if a fragment can't be created.
+       */
+      private Frame startAppenderChild(final Frame parent,
+                                       final String qName,
+                                       final Attributes attributes) throws SAXException
+         {
+         Appender appender = (Appender)parent.component;
+         if (qName.equals(DOMConfigurator.PARAM_TAG))
+            {
+            setParameter(appender, attributes);
+            }
+         else if (qName.equals(DOMConfigurator.LAYOUT_TAG))
+            {
+            Layout layout = createLayout(attributes);
+            if (layout == null)
+               {
+               appender.setLayout(null);
+               }
+            else
+               {
+               return new Frame(LAYOUT, layout, null);
+               }
+            }
+         else if (qName.equals(DOMConfigurator.FILTER_TAG))
+            {
+            Filter filter = (Filter)OptionConverter.instantiateByClassName(
+                  getAttribute(attributes, DOMConfigurator.CLASS_ATTR), Filter.class, null);
+            if (filter != null)
+               {
+               return new Frame(FILTER, filter, null);
+               }
+            }
+         else if (qName.equals(DOMConfigurator.ERROR_HANDLER_TAG))
+            {
+            ErrorHandler eh = (ErrorHandler)OptionConverter.instantiateByClassName(
+                  getAttribute(attributes, DOMConfigurator.CLASS_ATTR), ErrorHandler.class, null);
+            if (eh != null)
+               {
+               eh.setAppender(appender);
+               return new Frame(ERROR_HANDLER, eh, null);
+               }
+            }
+         else if (qName.equals(DOMConfigurator.APPENDER_REF_TAG))
+            {
+            String refName = getAttribute(attributes, DOMConfigurator.REF_ATTR);
+            if (appender instanceof AppenderAttachable)
+               {
+               LogLog.debug("Attaching appender named [" + refName +
+                            "] to appender named [" + appender.getName() + "].");
+               attachAppender(appender, refName);
+               }
+            else
+               {
+               LogLog.error("Requesting attachment of appender named [" +
+                            refName + "] to appender named [" + appender.getName() +
+                            "] which does not implement org.apache.log4j.spi.AppenderAttachable.");
+               }
+            }
+         else
+            {
+            return new Frame(FRAGMENT, null, createElement(qName, attributes));
+            }
+         return new Frame(IGNORED, null, null);
+         }
+
+      /**
+       * Starts a child of an errorHandler element.
+       * @param parent error handler frame.
+       * @param qName element name.
+       * @param attributes attributes.
+       * @return frame.
+       * @throws SAXException if a fragment can't be created.
+       */
+      private Frame startErrorHandlerChild(final Frame parent,
+                                           final String qName,
+                                           final Attributes attributes) throws SAXException
+         {
+         ErrorHandler eh = (ErrorHandler)parent.component;
+         if (qName.equals(DOMConfigurator.PARAM_TAG))
+            {
+            setParameter(eh, attributes);
+            }
+         else if (qName.equals(DOMConfigurator.APPENDER_REF_TAG))
+            {
+            attachAppender(eh, getAttribute(attributes, DOMConfigurator.REF_ATTR));
+            }
+         else if (qName.equals(DOMConfigurator.LOGGER_REF))
+            {
+            String loggerName = attributes.getValue(DOMConfigurator.REF_ATTR);
+            Logger logger = (catFactory == null) ? repository.getLogger(loggerName)
+                                                 : repository.getLogger(loggerName, catFactory);
+            eh.setLogger(logger);
+            }
+         else if (qName.equals(DOMConfigurator.ROOT_REF))
+            {
+            eh.setLogger(repository.getRootLogger());
+            }
+         else
+            {
+            return new Frame(FRAGMENT, null, createElement(qName, attributes));
+            }
+         return new Frame(IGNORED, null, null);
+         }
+
+      /**
+       * Starts a child of a logger, category or root element.
+       * @param loggerElement logger element.
+       * @param qName element name.
+       * @param attributes attributes.
+       * @return frame.
+       * @throws SAXException if a fragment can't be created.
+       */
+      private Frame startLoggerChild(final LoggerElement loggerElement,
+                                     final String qName,
+                                     final Attributes attributes) throws SAXException
+         {
+         if (qName.equals(DOMConfigurator.APPENDER_REF_TAG))
+            {
+            loggerElement.children.add(new String[]{
+                  DOMConfigurator.APPENDER_REF_TAG,
+                  getAttribute(attributes, DOMConfigurator.REF_ATTR)});
+            }
+         else if (qName.equals(DOMConfigurator.LEVEL_TAG) || qName.equals(DOMConfigurator.PRIORITY_TAG))
+            {
+            loggerElement.children.add(new String[]{
+                  DOMConfigurator.LEVEL_TAG,
+                  getAttribute(attributes, DOMConfigurator.VALUE_ATTR),
+                  getAttribute(attributes, DOMConfigurator.CLASS_ATTR)});
+            }
+         else if (qName.equals(DOMConfigurator.PARAM_TAG))
+            {
+            String value = attributes.getValue(DOMConfigurator.VALUE_ATTR);
+            loggerElement.children.add(new String[]{
+                  DOMConfigurator.PARAM_TAG,
+                  getAttribute(attributes, DOMConfigurator.NAME_ATTR),
+                  subst(OptionConverter.convertSpecialChars(value == null ? DOMConfigurator.EMPTY_STR : value))});
+            }
+         else
+            {
+            return new Frame(FRAGMENT, null, createElement(qName, attributes));
+            }
+         return new Frame(IGNORED, null, null);
+         }
+
+      /**
+       * Ends an appender element.
+       * @param frame appender frame.
+       */
+      private void endAppender(final Frame frame)
+         {
+         if (frame.failed)
+            {
+            return;
+            }
+         Appender appender = (Appender)frame.component;
+         activate(appender);
+         if (appenderBag.containsKey(appender.getName()))
+            {
+            //  as with DOMConfigurator, the first definition is used
+            LogLog.warn("Ignoring duplicate appender named [" + appender.getName() + "].");
+            appender.close();
+            }
+         else
+            {
+            appenderBag.put(appender.getName(), appender);
+            }
+         }
+
+      /**
+       * Delivers a complete fragment to the element which contains it.
+       * @param parent frame of the containing element.
+       * @param element fragment.
+       */
+      private void endFragment(final Frame parent, final Element element)
+         {
+         switch (parent.kind)
+            {
+            case CONFIGURATION:
+               deferred.add(element);
+               break;
+
+            case LOGGER:
+               ((LoggerElement)parent.component).children.add(element);
+               break;
+
+            case APPENDER:
+               try
+                  {
+                  parseUnrecognizedElement(parent.component, element);
+                  }
+               catch (Exception oops)
+                  {
+                  LogLog.error("Could not create an Appender. Reported error follows.",
+                               oops);
+                  parent.failed = true;
+                  }
+               break;
+
+            case LAYOUT:
+               try
+                  {
+                  parseUnrecognizedElement(parent.component, element);
+                  }
+               catch (Exception oops)
+                  {
+                  LogLog.error("Could not create the Layout. Reported error follows.",
+                               oops);
+                  parent.failed = true;
+                  }
+               break;
+
+            default:
+               quietParseUnrecognizedElement(parent.component, element);
+               break;
+            }
+         }
+      }
+   }
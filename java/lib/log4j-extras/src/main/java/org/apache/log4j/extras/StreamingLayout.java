@@ -0,0 +1,44 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.log4j.extras;
+
+import java.io.IOException;
+import java.io.Writer;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * A layout which can write a formatted event straight to a writer,
+ * without first creating a string.
+ * <p>
+ * Appenders discover this capability with an instanceof check, so a
+ * layout which doesn't implement this interface (e.g. the
+ * EnhancedPatternLayout in log4j.jar itself, should it be loaded ahead of
+ * the one in the extras) is simply formatted to a string as usual.
+ *
+ */
+public interface StreamingLayout
+   {
+   /**
+    * Formats a logging event to a writer.  What is written is the same as
+    * what {@link org.apache.log4j.Layout#format(LoggingEvent)} returns.
+    * @param event logging event to be formatted.
+    * @param writer writer to receive the formatted event.
+    * @throws IOException if the writer fails.
+    */
+   void format(LoggingEvent event, Writer writer) throws IOException;
+   }
@@ -42,7 +42,7 @@ public final class MDCKeySetExtractor
       try
          {
          getMethod = LoggingEvent.class.getMethod(
-               "getPropertyKeySet", null);
+               "getPropertyKeySet", (Class[]) null);
          }
       catch (Exception ex)
          {
@@ -59,7 +59,7 @@ public final class MDCKeySetExtractor
       Set keySet = null;
       if (getKeySetMethod != null)
          {
-         keySet = (Set)getKeySetMethod.invoke(event, null);
+         keySet = (Set)getKeySetMethod.invoke(event, (Object[]) null);
          }
       else
          {
@@ -0,0 +1,273 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.log4j.pattern;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * Conversion pattern compiled into a flat array of segments.
+ * <p>
+ * Parsing is the same as for {@link BridgePatternConverter}, but the
+ * result is specialized once, up front: text which doesn't depend on the
+ * event, such as literals and line separators, is formatted and padded at
+ * compile time and adjacent runs of it are merged; dates, levels, thread
+ * names and messages are appended directly, and padding is only applied to
+ * fields which have a width.  Other converters are run through a per-thread
+ * scratch buffer.  Events are formatted into a caller-supplied
+ * StringBuilder, so a caller which reuses its builder formats an event
+ * without allocating.
+ *
+ */
+public final class CompiledPattern
+   {
+   /**
+    * Constant text.
+    */
+   private static final int LITERAL = 0;
+
+   /**
+    * Event time stamp.
+    */
+   private static final int DATE = 1;
+
+   /**
+    * Event level.
+    */
+   private static final int LEVEL = 2;
+
+   /**
+    * Name of the thread which logged the event.
+    */
+   private static final int THREAD = 3;
+
+   /**
+    * Rendered message.
+    */
+   private static final int MESSAGE = 4;
+
+   /**
+    * Any other converter.
+    */
+   private static final int OTHER = 5;
+
+   /**
+    * Per-thread scratch buffer for converters which only format to a StringBuffer.
+    */
+   private static final ThreadLocal SCRATCH = new ThreadLocal()
+   {
+   protected Object initialValue()
+      {
+      return new StringBuffer(64);
+      }
+   };
+
+   /**
+    * Kind of each segment.
+    */
+   private final int[] kinds;
+
+   /**
+    * Text of each literal segment.
+    */
+   private final String[] literals;
+
+   /**
+    * Converter for each non-literal segment.
+    */
+   private final LoggingEventPatternConverter[] converters;
+
+   /**
+    * Field width and alignment for each non-literal segment, or null if the
+    * field has no width.
+    */
+   private final FormattingInfo[] fields;
+
+   /**
+    * Does pattern process exceptions.
+    */
+   private final boolean handlesExceptions;
+
+   /**
+    * Create a new instance.
+    * @param pattern pattern, may not be null.
+    */
+   public CompiledPattern(final String pattern)
+      {
+      List converterList = new ArrayList();
+      List fieldList = new ArrayList();
+
+      PatternParser.parse(
+            pattern, converterList, fieldList, null,
+            PatternParser.getPatternLayoutRules());
+
+      List kindList = new ArrayList();
+      List literalList = new ArrayList();
+      List segmentConverters = new ArrayList();
+      List segmentFields = new ArrayList();
+      StringBuffer literal = null;
+      boolean exceptions = false;
+
+      for (int i = 0; i < converterList.size(); i++)
+         {
+         LoggingEventPatternConverter converter;
+         if (converterList.get(i) instanceof LoggingEventPatternConverter)
+            {
+            converter = (LoggingEventPatternConverter)converterList.get(i);
+            exceptions |= converter.handlesThrowable();
+            }
+         else
+            {
+            converter = new LiteralPatternConverter("");
+            }
+
+         FormattingInfo field = (i < fieldList.size())
+                                ? (FormattingInfo)fieldList.get(i)
+                                : FormattingInfo.getDefault();
+
+         if (converter instanceof LiteralPatternConverter
+             || converter instanceof LineSeparatorPatternConverter)
+            {
+            //  output doesn't depend on the event, so format it now
+            if (literal == null)
+               {
+               literal = new StringBuffer();
+               }
+            int start = literal.length();
+            converter.format((LoggingEvent)null, literal);
+            field.format(start, literal);
+            }
+         else
+            {
+            if (literal != null)
+               {
+               kindList.add(Integer.valueOf(LITERAL));
+               literalList.add(literal.toString());
+               segmentConverters.add(null);
+               segmentFields.add(null);
+               literal = null;
+               }
+
+            int kind;
+            if (converter instanceof DatePatternConverter)
+               {
+               kind = DATE;
+               }
+            else if (converter instanceof LevelPatternConverter)
+               {
+               kind = LEVEL;
+               }
+            else if (converter instanceof ThreadPatternConverter)
+               {
+               kind = THREAD;
+               }
+            else if (converter instanceof MessagePatternConverter)
+               {
+               kind = MESSAGE;
+               }
+            else
+               {
+               kind = OTHER;
+               }
+            kindList.add(Integer.valueOf(kind));
+            literalList.add(null);
+            segmentConverters.add(converter);
+            segmentFields.add(
+                  (field.getMinLength() == 0 && field.getMaxLength() == Integer.MAX_VALUE)
+                  ? null : field);
+            }
+         }
+
+      if (literal != null)
+         {
+         kindList.add(Integer.valueOf(LITERAL));
+         literalList.add(literal.toString());
+         segmentConverters.add(null);
+         segmentFields.add(null);
+         }
+
+      kinds = new int[kindList.size()];
+      for (int i = 0; i < kinds.length; i++)
+         {
+         kinds[i] = ((Integer)kindList.get(i)).intValue();
+         }
+      literals = (String[])literalList.toArray(new String[literalList.size()]);
+      converters = (LoggingEventPatternConverter[])segmentConverters.toArray(
+            new LoggingEventPatternConverter[segmentConverters.size()]);
+      fields = (FormattingInfo[])segmentFields.toArray(new FormattingInfo[segmentFields.size()]);
+      handlesExceptions = exceptions;
+      }
+
+   /**
+    * Format event to string builder.
+    * @param event event to format, may not be null.
+    * @param buf string builder to receive formatted event, may not be null.
+    */
+   public void format(final LoggingEvent event, final StringBuilder buf)
+      {
+      for (int i = 0; i < kinds.length; i++)
+         {
+         int fieldStart = buf.length();
+         switch (kinds[i])
+            {
+            case LITERAL:
+               buf.append(literals[i]);
+               continue;
+
+            case DATE:
+               ((DatePatternConverter)converters[i]).format(event.timeStamp, buf);
+               break;
+
+            case LEVEL:
+               buf.append(event.getLevel().toString());
+               break;
+
+            case THREAD:
+               buf.append(event.getThreadName());
+               break;
+
+            case MESSAGE:
+               buf.append(event.getRenderedMessage());
+               break;
+
+            default:
+               StringBuffer scratch = (StringBuffer)SCRATCH.get();
+               scratch.setLength(0);
+               converters[i].format(event, scratch);
+               buf.append(scratch);
+               break;
+            }
+
+         if (fields[i] != null)
+            {
+            fields[i].format(fieldStart, buf);
+            }
+         }
+      }
+
+   /**
+    * Will return false if any of the conversion specifiers in the pattern
+    * handles {@link Exception Exceptions}.
+    * @return true if the pattern formats any information from exceptions.
+    */
+   public boolean ignoresThrowable()
+      {
+      return !handlesExceptions;
+      }
+   }
@@ -0,0 +1,235 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.log4j.pattern;
+
+import java.text.DateFormat;
+import java.util.Date;
+
+/**
+ * Thread-safe, lock-free counterpart to {@link CachedDateFormat}.
+ * <p>
+ * The most recent conversion is published as an immutable snapshot through a
+ * volatile field.  Requests within the same integral second as the snapshot
+ * copy its text and patch the millisecond digits in place, using the position
+ * found by {@link CachedDateFormat#findMillisecondStart}, so the common case
+ * takes no lock and allocates nothing.  On a miss, the date is formatted with
+ * a per-thread clone of the wrapped DateFormat and a new snapshot replaces the
+ * old one.  Concurrent misses may race to publish, which is harmless since
+ * every snapshot is correct for its own second.
+ *
+ */
+public final class ConcurrentCachedDateFormat
+   {
+   /**
+    *  Supported digit set.
+    */
+   private static final String DIGITS = "0123456789";
+
+   /**
+    *   Per-thread clones of the wrapped formatter, which isn't thread-safe.
+    */
+   private final ThreadLocal formatters;
+
+   /**
+    *  Maximum validity period for the cache.
+    *  Typically 1, use cache for duplicate requests only, or
+    *  1000, use cache for requests within the same integral second.
+    */
+   private final int expiration;
+
+   /**
+    *  Most recent conversion, or null if none yet.
+    */
+   private volatile Snapshot snapshot = null;
+
+   /**
+    *  Creates a new ConcurrentCachedDateFormat object.
+    *  @param dateFormat Date format, may not be null.  It is cloned, and not
+    *    used directly, so later changes to it have no effect.
+    *  @param expiration maximum cached range in milliseconds.
+    *    If the dateFormat is known to be incompatible with the
+    *      caching algorithm, use a value of 0 to totally disable
+    *      caching or 1 to only use cache for duplicate requests.
+    */
+   public ConcurrentCachedDateFormat(final DateFormat dateFormat, final int expiration)
+      {
+      if (dateFormat == null)
+         {
+         throw new IllegalArgumentException("dateFormat cannot be null");
+         }
+
+      if (expiration < 0)
+         {
+         throw new IllegalArgumentException("expiration must be non-negative");
+         }
+
+      final DateFormat prototype = (DateFormat)dateFormat.clone();
+      formatters = new ThreadLocal()
+      {
+      protected Object initialValue()
+         {
+         return prototype.clone();
+         }
+      };
+      this.expiration = expiration;
+      }
+
+   /**
+    * Formats a millisecond count into a date/time string.
+    *
+    *  @param now Number of milliseconds after midnight 1 Jan 1970 GMT.
+    *  @param buf the string builder to append to, may not be null.
+    *  @return buf.
+    */
+   public StringBuilder format(final long now, final StringBuilder buf)
+      {
+      Snapshot s = getSnapshot(now);
+      int start = buf.length();
+      buf.append(s.text);
+
+      if (s.millisecondStart >= 0 && now != s.time)
+         {
+         int millis = (int)(now - s.slotBegin);
+         int offset = start + s.millisecondStart;
+         buf.setCharAt(offset, DIGITS.charAt(millis / 100));
+         buf.setCharAt(offset + 1, DIGITS.charAt((millis / 10) % 10));
+         buf.setCharAt(offset + 2, DIGITS.charAt(millis % 10));
+         }
+
+      return buf;
+      }
+
+   /**
+    * Formats a millisecond count into a date/time string.
+    *
+    *  @param now Number of milliseconds after midnight 1 Jan 1970 GMT.
+    *  @param buf the string buffer to append to, may not be null.
+    *  @return buf.
+    */
+   public StringBuffer format(final long now, final StringBuffer buf)
+      {
+      Snapshot s = getSnapshot(now);
+      int start = buf.length();
+      buf.append(s.text);
+
+      if (s.millisecondStart >= 0 && now != s.time)
+         {
+         int millis = (int)(now - s.slotBegin);
+         int offset = start + s.millisecondStart;
+         buf.setCharAt(offset, DIGITS.charAt(millis / 100));
+         buf.setCharAt(offset + 1, DIGITS.charAt((millis / 10) % 10));
+         buf.setCharAt(offset + 2, DIGITS.charAt(millis % 10));
+         }
+
+      return buf;
+      }
+
+   /**
+    * Formats a millisecond count into a date/time string.
+    *
+    *  @param now Number of milliseconds after midnight 1 Jan 1970 GMT.
+    *  @return formatted string.
+    */
+   public String format(final long now)
+      {
+      return format(now, new StringBuilder(32)).toString();
+      }
+
+   /**
+    * Gets a snapshot which can produce the text for the given time, either
+    * the current one or a newly published one.
+    *
+    * @param now Number of milliseconds after midnight 1 Jan 1970 GMT.
+    * @return snapshot, never null.
+    */
+   private Snapshot getSnapshot(final long now)
+      {
+      Snapshot s = snapshot;
+
+      if (s != null
+            && (now == s.time
+            || (s.millisecondStart != CachedDateFormat.UNRECOGNIZED_MILLISECONDS
+            && now >= s.slotBegin
+            && now < s.slotBegin + expiration
+            && now < s.slotBegin + 1000L)))
+         {
+         return s;
+         }
+
+      DateFormat formatter = (DateFormat)formatters.get();
+      String text = formatter.format(new Date(now));
+
+      long slotBegin = (now / 1000) * 1000;
+
+      if (slotBegin > now)
+         {
+         slotBegin -= 1000;
+         }
+
+      int millisecondStart =
+            CachedDateFormat.findMillisecondStart(now, text, formatter);
+
+      s = new Snapshot(now, slotBegin, text, millisecondStart);
+      snapshot = s;
+
+      return s;
+      }
+
+   /**
+    * Immutable result of a conversion.
+    */
+   private static final class Snapshot
+      {
+      /**
+       * Time which was formatted.
+       */
+      private final long time;
+
+      /**
+       * Integral second preceding the time.
+       */
+      private final long slotBegin;
+
+      /**
+       * Formatted text.
+       */
+      private final String text;
+
+      /**
+       * Index of initial digit of millisecond field, or
+       * UNRECOGNIZED_MILLISECONDS or NO_MILLISECONDS.
+       */
+      private final int millisecondStart;
+
+      /**
+       * Create a new instance.
+       * @param time time which was formatted.
+       * @param slotBegin integral second preceding the time.
+       * @param text formatted text.
+       * @param millisecondStart index of the millisecond field.
+       */
+      private Snapshot(final long time, final long slotBegin,
+                       final String text, final int millisecondStart)
+         {
+         this.time = time;
+         this.slotBegin = slotBegin;
+         this.text = text;
+         this.millisecondStart = millisecondStart;
+         }
+      }
+   }
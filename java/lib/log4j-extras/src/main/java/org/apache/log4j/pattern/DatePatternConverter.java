@@ -57,9 +57,9 @@ public final class DatePatternConverter extends LoggingEventPatternConverter
     */
    private static final String ISO8601_PATTERN = "yyyy-MM-dd HH:mm:ss,SSS";
    /**
-    * Date format.
+    * Date format, safe for concurrent use without locking.
     */
-   private final CachedDateFormat df;
+   private final ConcurrentCachedDateFormat df;
 
    /**
     * Private constructor.
@@ -128,7 +128,7 @@ public final class DatePatternConverter extends LoggingEventPatternConverter
          simpleFormat.setTimeZone(tz);
          }
 
-      df = new CachedDateFormat(simpleFormat, maximumCacheValidity);
+      df = new ConcurrentCachedDateFormat(simpleFormat, maximumCacheValidity);
       }
 
    /**
@@ -147,10 +147,7 @@ public final class DatePatternConverter extends LoggingEventPatternConverter
     */
    public void format(final LoggingEvent event, final StringBuffer output)
       {
-      synchronized (this)
-         {
-         df.format(event.timeStamp, output);
-         }
+      df.format(event.timeStamp, output);
       }
 
    /**
@@ -173,9 +170,16 @@ public final class DatePatternConverter extends LoggingEventPatternConverter
     */
    public void format(final Date date, final StringBuffer toAppendTo)
       {
-      synchronized (this)
-         {
-         df.format(date.getTime(), toAppendTo);
-         }
+      df.format(date.getTime(), toAppendTo);
+      }
+
+   /**
+    * Append formatted time to string builder.
+    * @param timeStamp milliseconds since 1 Jan 1970 GMT.
+    * @param toAppendTo builder to which formatted time is appended.
+    */
+   public void format(final long timeStamp, final StringBuilder toAppendTo)
+      {
+      df.format(timeStamp, toAppendTo);
       }
    }
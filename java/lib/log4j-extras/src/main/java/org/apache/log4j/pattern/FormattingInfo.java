@@ -114,35 +114,70 @@ public final class FormattingInfo
     */
    public void format(final int fieldStart, final StringBuffer buffer)
       {
-      final int rawLength = buffer.length() - fieldStart;
+      final int adjustment = computeAdjustment(buffer.length() - fieldStart);
 
-      if (rawLength > maxLength)
+      if (adjustment < 0)
          {
-         buffer.delete(fieldStart, buffer.length() - maxLength);
+         buffer.delete(fieldStart, fieldStart - adjustment);
          }
-      else if (rawLength < minLength)
+      else if (adjustment > 0)
          {
-         if (leftAlign)
-            {
-            final int fieldEnd = buffer.length();
-            buffer.setLength(fieldStart + minLength);
+         final int padStart = leftAlign ? buffer.length() : fieldStart;
 
-            for (int i = fieldEnd; i < buffer.length(); i++)
-               {
-               buffer.setCharAt(i, ' ');
-               }
-            }
-         else
+         for (int padLength = adjustment; padLength > 0; padLength -= SPACES.length)
             {
-            int padLength = minLength - rawLength;
+            buffer.insert(padStart, SPACES, 0, Math.min(padLength, SPACES.length));
+            }
+         }
+      }
 
-            for (; padLength > 8; padLength -= 8)
-               {
-               buffer.insert(fieldStart, SPACES);
-               }
+   /**
+    * Adjust the content of the buffer based on the specified lengths and alignment.
+    *
+    * @param fieldStart start of field in buffer.
+    * @param buffer builder to be modified.
+    */
+   public void format(final int fieldStart, final StringBuilder buffer)
+      {
+      final int adjustment = computeAdjustment(buffer.length() - fieldStart);
+
+      if (adjustment < 0)
+         {
+         buffer.delete(fieldStart, fieldStart - adjustment);
+         }
+      else if (adjustment > 0)
+         {
+         final int padStart = leftAlign ? buffer.length() : fieldStart;
 
-            buffer.insert(fieldStart, SPACES, 0, padLength);
+         for (int padLength = adjustment; padLength > 0; padLength -= SPACES.length)
+            {
+            buffer.insert(padStart, SPACES, 0, Math.min(padLength, SPACES.length));
             }
          }
       }
+
+   /**
+    * Computes how a field must change to fit the minimum and maximum lengths.
+    * StringBuffer and StringBuilder share no public type with insert and
+    * delete, so each format method applies the result itself.
+    *
+    * @param rawLength length of the field before adjustment.
+    * @return number of characters to truncate from the start of the field,
+    * as a negative number, or number of spaces to pad it with (on the right
+    * if left aligned, on the left otherwise), or 0 if it already fits.
+    */
+   private int computeAdjustment(final int rawLength)
+      {
+      if (rawLength > maxLength)
+         {
+         return maxLength - rawLength;
+         }
+
+      if (rawLength < minLength)
+         {
+         return minLength - rawLength;
+         }
+
+      return 0;
+      }
    }
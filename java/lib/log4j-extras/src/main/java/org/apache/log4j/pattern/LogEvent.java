@@ -462,8 +462,8 @@ public class LogEvent implements java.io.Serializable
                m = clazz.getDeclaredMethod(TO_LEVEL, TO_LEVEL_PARAMS);
                methodCache.put(className, m);
                }
-            PARAM_ARRAY[0] = new Integer(p);
-            level = (Level)m.invoke(null, PARAM_ARRAY);
+            PARAM_ARRAY[0] = Integer.valueOf(p);
+            level = (Level)m.invoke(null, (Object[]) PARAM_ARRAY);
             }
          }
       catch (Exception e)
@@ -149,7 +149,7 @@ public final class FixedWindowRollingPolicy extends RollingPolicyBase
       if (!explicitActiveFile)
          {
          StringBuffer buf = new StringBuffer();
-         formatFileName(new Integer(minIndex), buf);
+         formatFileName(Integer.valueOf(minIndex), buf);
          newActiveFile = buf.toString();
          }
 
@@ -176,7 +176,7 @@ public final class FixedWindowRollingPolicy extends RollingPolicyBase
             }
 
          StringBuffer buf = new StringBuffer();
-         formatFileName(new Integer(purgeStart), buf);
+         formatFileName(Integer.valueOf(purgeStart), buf);
 
          String renameTo = buf.toString();
          String compressedName = renameTo;
@@ -257,7 +257,7 @@ public final class FixedWindowRollingPolicy extends RollingPolicyBase
 
       List renames = new ArrayList();
       StringBuffer buf = new StringBuffer();
-      formatFileName(new Integer(lowIndex), buf);
+      formatFileName(Integer.valueOf(lowIndex), buf);
 
       String lowFilename = buf.toString();
 
@@ -315,7 +315,7 @@ public final class FixedWindowRollingPolicy extends RollingPolicyBase
             //   if intermediate index
             //     add a rename action to the list
             buf.setLength(0);
-            formatFileName(new Integer(i + 1), buf);
+            formatFileName(Integer.valueOf(i + 1), buf);
 
             String highFilename = buf.toString();
             String renameTo = highFilename;
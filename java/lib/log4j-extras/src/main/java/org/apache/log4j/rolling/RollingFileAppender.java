@@ -18,17 +18,24 @@ package org.apache.log4j.rolling;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.Flushable;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.util.Properties;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.log4j.Appender;
 import org.apache.log4j.FileAppender;
+import org.apache.log4j.Layout;
 import org.apache.log4j.Logger;
+import org.apache.log4j.extras.StreamingLayout;
 import org.apache.log4j.helpers.LogLog;
 import org.apache.log4j.helpers.QuietWriter;
 import org.apache.log4j.rolling.helper.Action;
+import org.apache.log4j.rolling.helper.RolloverActionExecutor;
+import org.apache.log4j.spi.ErrorCode;
 import org.apache.log4j.spi.ErrorHandler;
 import org.apache.log4j.spi.LoggingEvent;
 import org.apache.log4j.spi.OptionHandler;
@@ -82,7 +89,7 @@ import org.w3c.dom.Element;
  * @since 1.3
  * */
 public final class RollingFileAppender extends FileAppender
-      implements UnrecognizedElementHandler
+      implements UnrecognizedElementHandler, Flushable
    {
    /**
     * Triggering policy.
@@ -95,14 +102,15 @@ public final class RollingFileAppender extends FileAppender
    private RollingPolicy rollingPolicy;
 
    /**
-    * Length of current active log file.
+    * Length of current active log file.  Updated on every write without
+    * taking the appender's lock.
     */
-   private long fileLength = 0;
+   private final AtomicLong fileLength = new AtomicLong(0);
 
    /**
-    * Asynchronous action (like compression) from previous rollover.
+    * Completion of the asynchronous action (like compression) from previous rollover.
     */
-   private Action lastRolloverAsyncAction = null;
+   private Future lastRolloverAsyncFuture = null;
 
    /**
     * Construct a new instance.
@@ -166,12 +174,11 @@ public final class RollingFileAppender extends FileAppender
 
                setFile(rollover.getActiveFileName());
                setAppend(rollover.getAppend());
-               lastRolloverAsyncAction = rollover.getAsynchronous();
+               Action asyncAction = rollover.getAsynchronous();
 
-               if (lastRolloverAsyncAction != null)
+               if (asyncAction != null)
                   {
-                  Thread runner = new Thread(lastRolloverAsyncAction);
-                  runner.start();
+                  lastRolloverAsyncFuture = RolloverActionExecutor.submit(asyncAction);
                   }
                }
 
@@ -179,11 +186,11 @@ public final class RollingFileAppender extends FileAppender
 
             if (getAppend())
                {
-               fileLength = activeFile.length();
+               fileLength.set(activeFile.length());
                }
             else
                {
-               fileLength = 0;
+               fileLength.set(0);
                }
 
             super.activateOptions();
@@ -239,20 +246,12 @@ public final class RollingFileAppender extends FileAppender
          synchronized (this)
             {
             //
-            //   if a previous async task is still running
-            //}
-            if (lastRolloverAsyncAction != null)
-               {
-               //
-               //  block until complete
-               //
-               lastRolloverAsyncAction.close();
-
-               //
-               //    or don't block and return to rollover later
-               //
-               //if (!lastRolloverAsyncAction.isComplete()) return false;
-               }
+            //   if a previous async task is still queued or running,
+            //     block until complete (the next rollover may rename
+            //     the files it's working on)
+            //
+            RolloverActionExecutor.await(lastRolloverAsyncFuture);
+            lastRolloverAsyncFuture = null;
 
             try
                {
@@ -284,17 +283,17 @@ public final class RollingFileAppender extends FileAppender
                         {
                         if (rollover.getAppend())
                            {
-                           fileLength = new File(rollover.getActiveFileName()).length();
+                           fileLength.set(new File(rollover.getActiveFileName()).length());
                            }
                         else
                            {
-                           fileLength = 0;
+                           fileLength.set(0);
                            }
 
                         if (rollover.getAsynchronous() != null)
                            {
-                           lastRolloverAsyncAction = rollover.getAsynchronous();
-                           new Thread(lastRolloverAsyncAction).start();
+                           lastRolloverAsyncFuture =
+                                 RolloverActionExecutor.submit(rollover.getAsynchronous());
                            }
 
                         setFile(
@@ -347,17 +346,17 @@ public final class RollingFileAppender extends FileAppender
                         {
                         if (rollover.getAppend())
                            {
-                           fileLength = new File(rollover.getActiveFileName()).length();
+                           fileLength.set(new File(rollover.getActiveFileName()).length());
                            }
                         else
                            {
-                           fileLength = 0;
+                           fileLength.set(0);
                            }
 
                         if (rollover.getAsynchronous() != null)
                            {
-                           lastRolloverAsyncAction = rollover.getAsynchronous();
-                           new Thread(lastRolloverAsyncAction).start();
+                           lastRolloverAsyncFuture =
+                                 RolloverActionExecutor.submit(rollover.getAsynchronous());
                            }
                         }
 
@@ -390,9 +389,7 @@ public final class RollingFileAppender extends FileAppender
       {
       // The rollover check must precede actual writing. This is the
       // only correct behavior for time driven triggers.
-      if (
-            triggeringPolicy.isTriggeringEvent(
-                  this, event, getFile(), getFileLength()))
+      if (isTriggeringEvent(event))
          {
          //
          //   wrap rollover request in try block since
@@ -409,7 +406,56 @@ public final class RollingFileAppender extends FileAppender
             }
          }
 
-      super.subAppend(event);
+      if (layout instanceof StreamingLayout)
+         {
+         // let the layout write the event from its own buffer, without creating a string
+         try
+            {
+            ((StreamingLayout)layout).format(event, qw);
+            }
+         catch (IOException ex)
+            {
+            errorHandler.error("Failed to write logging event.", ex, ErrorCode.WRITE_FAILURE);
+            }
+
+         if (layout.ignoresThrowable())
+            {
+            String[] s = event.getThrowableStrRep();
+            if (s != null)
+               {
+               for (int i = 0; i < s.length; i++)
+                  {
+                  qw.write(s[i]);
+                  qw.write(Layout.LINE_SEP);
+                  }
+               }
+            }
+
+         if (shouldFlush(event))
+            {
+            qw.flush();
+            }
+         }
+      else
+         {
+         super.subAppend(event);
+         }
+      }
+
+   /**
+    * Determines whether a rollover is due before appending an event.  The
+    * common size-based check only compares two values; other policies are
+    * asked in full.
+    * @param event event about to be appended.
+    * @return true if a rollover should be attempted.
+    */
+   private boolean isTriggeringEvent(final LoggingEvent event)
+      {
+      if (triggeringPolicy instanceof SizeBasedTriggeringPolicy)
+         {
+         return fileLength.get() >= ((SizeBasedTriggeringPolicy)triggeringPolicy).getMaxFileSize();
+         }
+      return triggeringPolicy.isTriggeringEvent(this, event, getFile(), getFileLength());
       }
 
    /**
@@ -455,10 +501,8 @@ public final class RollingFileAppender extends FileAppender
       {
       synchronized (this)
          {
-         if (lastRolloverAsyncAction != null)
-            {
-            lastRolloverAsyncAction.close();
-            }
+         RolloverActionExecutor.await(lastRolloverAsyncFuture);
+         lastRolloverAsyncFuture = null;
          }
 
       super.close();
@@ -475,7 +519,20 @@ public final class RollingFileAppender extends FileAppender
     */
    protected OutputStreamWriter createWriter(final OutputStream os)
       {
-      return super.createWriter(new CountingOutputStream(os, this));
+      return super.createWriter(new CountingOutputStream(os, fileLength));
+      }
+
+   /**
+    * Flushes any buffered output to the active log file.  Allows the appender
+    * to be used with <code>ImmediateFlush</code> set to false behind an
+    * {@link org.apache.log4j.AsyncRingBufferAppender}, which flushes periodically.
+    */
+   public synchronized void flush()
+      {
+      if (qw != null)
+         {
+         qw.flush();
+         }
       }
 
    /**
@@ -484,16 +541,16 @@ public final class RollingFileAppender extends FileAppender
     */
    public long getFileLength()
       {
-      return fileLength;
+      return fileLength.get();
       }
 
    /**
     * Increments estimated byte length of current active log file.
     * @param increment additional bytes written to log file.
     */
-   public synchronized void incrementFileLength(int increment)
+   public void incrementFileLength(int increment)
       {
-      fileLength += increment;
+      fileLength.addAndGet(increment);
       }
 
    /**
@@ -531,8 +588,8 @@ public final class RollingFileAppender extends FileAppender
       }
 
    /**
-    * Wrapper for OutputStream that will report all write
-    * operations back to this class for file length calculations.
+    * Wrapper for OutputStream that will add all writes
+    * to this class's file length.
     */
    private static class CountingOutputStream extends OutputStream
       {
@@ -542,20 +599,20 @@ public final class RollingFileAppender extends FileAppender
       private final OutputStream os;
 
       /**
-       * Rolling file appender to inform of stream writes.
+       * File length to update on stream writes.
        */
-      private final RollingFileAppender rfa;
+      private final AtomicLong fileLength;
 
       /**
        * Constructor.
        * @param os output stream to wrap.
-       * @param rfa rolling file appender to inform.
+       * @param fileLength file length to update.
        */
       public CountingOutputStream(
-            final OutputStream os, final RollingFileAppender rfa)
+            final OutputStream os, final AtomicLong fileLength)
          {
          this.os = os;
-         this.rfa = rfa;
+         this.fileLength = fileLength;
          }
 
       /**
@@ -580,7 +637,7 @@ public final class RollingFileAppender extends FileAppender
       public void write(final byte[] b) throws IOException
          {
          os.write(b);
-         rfa.incrementFileLength(b.length);
+         fileLength.addAndGet(b.length);
          }
 
       /**
@@ -590,7 +647,7 @@ public final class RollingFileAppender extends FileAppender
             throws IOException
          {
          os.write(b, off, len);
-         rfa.incrementFileLength(len);
+         fileLength.addAndGet(len);
          }
 
       /**
@@ -599,7 +656,7 @@ public final class RollingFileAppender extends FileAppender
       public void write(final int b) throws IOException
          {
          os.write(b);
-         rfa.incrementFileLength(1);
+         fileLength.incrementAndGet();
          }
       }
 
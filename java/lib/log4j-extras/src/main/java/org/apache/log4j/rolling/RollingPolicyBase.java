@@ -18,10 +18,12 @@ package org.apache.log4j.rolling;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.regex.Pattern;
 import org.apache.log4j.helpers.LogLog;
 import org.apache.log4j.pattern.DatePatternConverter;
 import org.apache.log4j.pattern.FormattingInfo;
 import org.apache.log4j.pattern.IntegerPatternConverter;
+import org.apache.log4j.pattern.LiteralPatternConverter;
 import org.apache.log4j.pattern.PatternConverter;
 import org.apache.log4j.pattern.PatternParser;
 import org.apache.log4j.spi.OptionHandler;
@@ -165,6 +167,76 @@ public abstract class RollingPolicyBase
          }
       }
 
+   /**
+    * Creates a regular expression matching the names (without directory) of
+    * files produced by the file name pattern, by quoting the literal parts and
+    * matching anything in place of the converters.
+    *
+    * @return regular expression.
+    */
+   protected final Pattern getFileNameRegex()
+      {
+      return getFileNameRegex(0);
+      }
+
+   /**
+    * Creates a regular expression like {@link #getFileNameRegex()}, but in
+    * which the last <code>optionalSuffixLength</code> characters of the
+    * pattern (e.g. a compression suffix such as ".gz") may be missing, so
+    * that archives written before compression was enabled match too.
+    *
+    * @param optionalSuffixLength length of the optional suffix, or 0 for none.
+    * @return regular expression.
+    */
+   protected final Pattern getFileNameRegex(final int optionalSuffixLength)
+      {
+      StringBuffer regex = new StringBuffer();
+
+      for (int i = 0; i < patternConverters.length; i++)
+         {
+         if (patternConverters[i] instanceof LiteralPatternConverter)
+            {
+            StringBuffer literal = new StringBuffer();
+            patternConverters[i].format(null, literal);
+
+            String text = literal.toString();
+            int separator = Math.max(text.lastIndexOf('/'), text.lastIndexOf('\\'));
+
+            if (separator >= 0)
+               {
+               //  only the file name part is of interest
+               regex.setLength(0);
+               text = text.substring(separator + 1);
+               }
+
+            String suffix = "";
+            if (i == patternConverters.length - 1
+                  && optionalSuffixLength > 0
+                  && optionalSuffixLength <= text.length())
+               {
+               suffix = text.substring(text.length() - optionalSuffixLength);
+               text = text.substring(0, text.length() - optionalSuffixLength);
+               }
+
+            if (text.length() > 0)
+               {
+               regex.append(Pattern.quote(text));
+               }
+
+            if (suffix.length() > 0)
+               {
+               regex.append("(?:").append(Pattern.quote(suffix)).append(")?");
+               }
+            }
+         else
+            {
+            regex.append(".+");
+            }
+         }
+
+      return Pattern.compile(regex.toString());
+      }
+
    protected final PatternConverter getDatePatternConverter()
       {
       for (int i = 0; i < patternConverters.length; i++)
@@ -32,9 +32,10 @@ public final class SizeBasedTriggeringPolicy implements TriggeringPolicy,
                                                         OptionHandler
    {
    /**
-    * Rollover threshold size in bytes.
+    * Rollover threshold size in bytes.  Volatile so that
+    * {@link RollingFileAppender} can check it on every event without locking.
     */
-   private long maxFileSize = 10 * 1024 * 1024; // let 10 MB the default max size
+   private volatile long maxFileSize = 10 * 1024 * 1024; // let 10 MB the default max size
 
    /**
     * Constructs a new instance.
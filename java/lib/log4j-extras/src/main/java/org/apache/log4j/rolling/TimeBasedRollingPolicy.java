@@ -17,10 +17,14 @@
 package org.apache.log4j.rolling;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import org.apache.log4j.Appender;
 import org.apache.log4j.pattern.PatternConverter;
 import org.apache.log4j.rolling.helper.Action;
+import org.apache.log4j.rolling.helper.ArchiveRetention;
+import org.apache.log4j.rolling.helper.CompositeAction;
 import org.apache.log4j.rolling.helper.FileRenameAction;
 import org.apache.log4j.rolling.helper.GZCompressAction;
 import org.apache.log4j.rolling.helper.ZipCompressAction;
@@ -93,6 +97,16 @@ import org.apache.log4j.spi.LoggingEvent;
  *   </tr>
  * </table>
  *
+ * <h2>Retention</h2>
+ * <p>The <b>MaxHistory</b> option limits the number of archived files kept,
+ * and the <b>TotalSizeCap</b> option limits their total size in bytes.  When
+ * either is exceeded after a rollover, the oldest archives are deleted.  The
+ * archive directory is scanned once, when the policy is initialized, and
+ * tracked in memory thereafter.  Only archives in the same directory as the
+ * current one are considered, so the directory part of the
+ * <b>FileNamePattern</b> should not contain a date.  Both default to 0, which
+ * means no limit.
+ *
  * <h2>Decoupling the location of the active log file and the archived log files</h2>
  * <p>The <em>active file</em> is defined as the log file for the current period
  * whereas <em>archived files</em> are those files which have been rolled over
@@ -152,6 +166,21 @@ public final class TimeBasedRollingPolicy extends RollingPolicyBase
     */
    private int suffixLength = 0;
 
+   /**
+    * Maximum number of archives to keep, or 0 for no limit.
+    */
+   private int maxHistory = 0;
+
+   /**
+    * Maximum total size of archives to keep, or 0 for no limit.
+    */
+   private long totalSizeCap = 0;
+
+   /**
+    * Index of archives for retention, null if retention is not enabled.
+    */
+   private ArchiveRetention retention = null;
+
    /**
     * Constructs a new instance.
     */
@@ -209,21 +238,38 @@ public final class TimeBasedRollingPolicy extends RollingPolicyBase
       //  RollingPolicyBase.activeFileName duplicates RollingFileAppender.file
       //    and should be removed.
       //
+      String initialActiveFile;
       if (activeFileName != null)
          {
-         return new RolloverDescriptionImpl(activeFileName, append, null, null);
+         initialActiveFile = activeFileName;
          }
       else if (currentActiveFile != null)
          {
-         return new RolloverDescriptionImpl(
-               currentActiveFile, append, null, null);
+         initialActiveFile = currentActiveFile;
          }
       else
          {
-         return new RolloverDescriptionImpl(
-               lastFileName.substring(0, lastFileName.length() - suffixLength), append,
-               null, null);
+         initialActiveFile = lastFileName.substring(0, lastFileName.length() - suffixLength);
          }
+
+      //
+      //   scan for existing archives once, and prune them in the background.
+      //   Archives written before compression was enabled lack the suffix,
+      //   but still count towards the limits.
+      //
+      Action pruneAction = null;
+      if (maxHistory > 0 || totalSizeCap > 0)
+         {
+         retention = new ArchiveRetention(maxHistory, totalSizeCap);
+         File archiveDir = new File(lastFileName).getAbsoluteFile().getParentFile();
+         if (archiveDir != null)
+            {
+            retention.seed(archiveDir, getFileNameRegex(suffixLength), new File(initialActiveFile));
+            }
+         pruneAction = retention.createAddAndPruneAction(null);
+         }
+
+      return new RolloverDescriptionImpl(initialActiveFile, append, null, pruneAction);
       }
 
    /**
@@ -280,10 +326,62 @@ public final class TimeBasedRollingPolicy extends RollingPolicyBase
                      new File(lastBaseName), new File(lastFileName), true);
          }
 
+      Action asyncAction = compressAction;
+
+      if (retention != null)
+         {
+         //
+         //   record the archive once it's in its final form, then prune
+         //
+         List actions = new ArrayList(2);
+         if (compressAction != null)
+            {
+            actions.add(compressAction);
+            }
+         actions.add(retention.createAddAndPruneAction(new File(lastFileName)));
+         asyncAction = new CompositeAction(actions, false);
+         }
+
       lastFileName = newFileName;
 
       return new RolloverDescriptionImpl(
-            nextActiveFile, false, renameAction, compressAction);
+            nextActiveFile, false, renameAction, asyncAction);
+      }
+
+   /**
+    * Gets the maximum number of archives to keep.
+    * @return maximum number of archives, or 0 for no limit.
+    */
+   public int getMaxHistory()
+      {
+      return maxHistory;
+      }
+
+   /**
+    * Sets the maximum number of archives to keep.
+    * @param maxHistory maximum number of archives, or 0 for no limit.
+    */
+   public void setMaxHistory(final int maxHistory)
+      {
+      this.maxHistory = maxHistory;
+      }
+
+   /**
+    * Gets the maximum total size of archives to keep.
+    * @return maximum total size in bytes, or 0 for no limit.
+    */
+   public long getTotalSizeCap()
+      {
+      return totalSizeCap;
+      }
+
+   /**
+    * Sets the maximum total size of archives to keep.
+    * @param totalSizeCap maximum total size in bytes, or 0 for no limit.
+    */
+   public void setTotalSizeCap(final long totalSizeCap)
+      {
+      this.totalSizeCap = totalSizeCap;
       }
 
    /**
@@ -0,0 +1,189 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.log4j.rolling.helper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.regex.Pattern;
+import org.apache.log4j.helpers.LogLog;
+
+/**
+ * Limits the number and total size of archived log files.
+ * <p>
+ * The archives are tracked in an in-memory index, oldest first, which is
+ * seeded by a single directory scan and then updated as each rollover adds
+ * an archive, so pruning never needs to rescan the directory.
+ *
+ */
+public final class ArchiveRetention
+   {
+   /**
+    * Maximum number of archives to keep, or 0 for no limit.
+    */
+   private final int maxCount;
+
+   /**
+    * Maximum total size of archives to keep, in bytes, or 0 for no limit.
+    */
+   private final long maxTotalSize;
+
+   /**
+    * Archived files, oldest first.
+    */
+   private final LinkedList archives = new LinkedList();
+
+   /**
+    * Sizes of the archived files, in the same order.
+    */
+   private final LinkedList sizes = new LinkedList();
+
+   /**
+    * Total size of the archived files.
+    */
+   private long totalSize = 0;
+
+   /**
+    * Construct a new instance.
+    * @param maxCount maximum number of archives to keep, or 0 for no limit.
+    * @param maxTotalSize maximum total size of archives to keep, or 0 for no limit.
+    */
+   public ArchiveRetention(final int maxCount, final long maxTotalSize)
+      {
+      this.maxCount = Math.max(0, maxCount);
+      this.maxTotalSize = Math.max(0, maxTotalSize);
+      }
+
+   /**
+    * Seeds the index with the existing archives in a directory whose names
+    * match a pattern, ordered by modification time.
+    *
+    * @param directory directory to scan, may not be null.
+    * @param fileNameRegex pattern which archive file names match, may not be null.
+    * @param exclude file to skip (e.g. the active log file), may be null.
+    */
+   public synchronized void seed(final File directory, final Pattern fileNameRegex, final File exclude)
+      {
+      final File[] files = directory.listFiles();
+      if (files == null)
+         {
+         return;
+         }
+
+      Arrays.sort(files, new Comparator()
+      {
+      public int compare(final Object o1, final Object o2)
+         {
+         final long t1 = ((File)o1).lastModified();
+         final long t2 = ((File)o2).lastModified();
+         return (t1 < t2) ? -1 : ((t1 == t2) ? 0 : 1);
+         }
+      });
+
+      for (int i = 0; i < files.length; i++)
+         {
+         if (files[i].isFile()
+               && fileNameRegex.matcher(files[i].getName()).matches()
+               && (exclude == null || !files[i].getAbsoluteFile().equals(exclude.getAbsoluteFile())))
+            {
+            add(files[i]);
+            }
+         }
+      }
+
+   /**
+    * Adds a newly created archive to the index.
+    * @param archive archive, may not be null.
+    */
+   public synchronized void add(final File archive)
+      {
+      final long size = archive.length();
+      archives.addLast(archive);
+      sizes.addLast(Long.valueOf(size));
+      totalSize += size;
+      }
+
+   /**
+    * Deletes the oldest archives until the limits are met.  The newest
+    * archive is always kept.
+    * @return number of archives deleted.
+    */
+   public synchronized int prune()
+      {
+      int numDeleted = 0;
+      while (archives.size() > 1
+            && ((maxCount > 0 && archives.size() > maxCount)
+            || (maxTotalSize > 0 && totalSize > maxTotalSize)))
+         {
+         final File oldest = (File)archives.removeFirst();
+         totalSize -= ((Long)sizes.removeFirst()).longValue();
+         if (oldest.delete() || !oldest.exists())
+            {
+            numDeleted++;
+            }
+         else
+            {
+            LogLog.warn("Unable to delete " + oldest.toString() + ".");
+            }
+         }
+      return numDeleted;
+      }
+
+   /**
+    * Gets the number of archives in the index.
+    * @return number of archives.
+    */
+   public synchronized int getCount()
+      {
+      return archives.size();
+      }
+
+   /**
+    * Gets the total size of the archives in the index.
+    * @return total size in bytes.
+    */
+   public synchronized long getTotalSize()
+      {
+      return totalSize;
+      }
+
+   /**
+    * Creates an action which adds an archive to the index and then prunes.
+    * Intended to follow the compression action, so that the archive's
+    * final size is known.
+    * @param archive archive, or null to only prune.
+    * @return action.
+    */
+   public Action createAddAndPruneAction(final File archive)
+      {
+      return new ActionBase()
+      {
+      public boolean execute() throws IOException
+         {
+         if (archive != null && archive.exists())
+            {
+            add(archive);
+            }
+         prune();
+         return true;
+         }
+      };
+      }
+   }
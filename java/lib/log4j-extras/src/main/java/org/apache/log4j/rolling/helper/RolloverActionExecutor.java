@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.log4j.rolling.helper;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.helpers.LogLog;
+
+/**
+ * Shared executor for asynchronous rollover actions such as compression.
+ * <p>
+ * All appenders share a single, low-priority daemon thread, so rollovers never
+ * create threads of their own and compressions run one at a time instead of
+ * competing for the disk.  At most {@link #MAX_QUEUED_ACTIONS} actions are
+ * queued; beyond that, the action runs on the submitting thread, which slows
+ * down the appender rather than letting the backlog grow without bound.
+ *
+ */
+public final class RolloverActionExecutor
+   {
+   /**
+    * Maximum number of actions waiting to run.
+    */
+   public static final int MAX_QUEUED_ACTIONS = 32;
+
+   /**
+    * Shared executor.
+    */
+   private static final ThreadPoolExecutor EXECUTOR =
+         new ThreadPoolExecutor(
+               1, 1, 60, TimeUnit.SECONDS,
+               new ArrayBlockingQueue(MAX_QUEUED_ACTIONS),
+               new ThreadFactory()
+               {
+               public Thread newThread(final Runnable r)
+                  {
+                  Thread thread = new Thread(r, "RolloverActionExecutor");
+                  thread.setDaemon(true);
+                  thread.setPriority(Thread.MIN_PRIORITY);
+                  return thread;
+                  }
+               },
+               new ThreadPoolExecutor.CallerRunsPolicy());
+
+   static
+      {
+      // don't keep an idle thread around between rollovers
+      EXECUTOR.allowCoreThreadTimeOut(true);
+      }
+
+   /**
+    * Prevent instantiation.
+    */
+   private RolloverActionExecutor()
+      {
+      }
+
+   /**
+    * Submits an action to run in the background.
+    * @param action action, may not be null.
+    * @return future which completes when the action has run.
+    */
+   public static Future submit(final Action action)
+      {
+      return EXECUTOR.submit(action);
+      }
+
+   /**
+    * Waits for a previously submitted action to complete.  Unlike
+    * {@link Action#close()}, this never cancels an action which hasn't
+    * started yet.
+    * @param future future returned by {@link #submit(Action)}, may be null.
+    */
+   public static void await(final Future future)
+      {
+      if (future != null)
+         {
+         try
+            {
+            future.get();
+            }
+         catch (InterruptedException ex)
+            {
+            Thread.currentThread().interrupt();
+            }
+         catch (ExecutionException ex)
+            {
+            LogLog.warn("Exception during asynchronous rollover action.", ex.getCause());
+            }
+         }
+      }
+   }
@@ -21,6 +21,7 @@ import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 import java.io.Serializable;
+import org.apache.log4j.spi.LoggingEventFieldResolver.FieldAccessor;
 
 /**
  * An abstract Rule class that provides the PropertyChange support plumbing.
@@ -35,6 +36,11 @@ public abstract class AbstractRule implements Rule, Serializable
     */
    static final long serialVersionUID = -2844288145563025172L;
 
+   /**
+    * Cost assumed for rules which are not derived from AbstractRule.
+    */
+   static final int UNKNOWN_COST = FieldAccessor.VERY_EXPENSIVE;
+
    /**
     * PropertySupport instance.
     */
@@ -81,4 +87,29 @@ public abstract class AbstractRule implements Rule, Serializable
       {
       propertySupport.firePropertyChange(evt);
       }
+
+   /**
+    * Gets the relative cost of evaluating this rule, which AND and OR
+    * rules use to evaluate the cheaper operand first.  The default
+    * suits rules which compare a simple event property such as the level.
+    * @return relative cost.
+    */
+   int getCost()
+      {
+      return FieldAccessor.CHEAP;
+      }
+
+   /**
+    * Gets the relative cost of evaluating a rule.
+    * @param rule rule.
+    * @return relative cost.
+    */
+   static int costOf(final Rule rule)
+      {
+      if (rule instanceof AbstractRule)
+         {
+         return ((AbstractRule)rule).getCost();
+         }
+      return UNKNOWN_COST;
+      }
    }
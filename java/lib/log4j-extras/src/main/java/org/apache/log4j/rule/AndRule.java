@@ -71,7 +71,7 @@ public class AndRule extends AbstractRule
          {
          Rule p2 = (Rule)o2;
          Rule p1 = (Rule)o1;
-         return new AndRule(p1, p2);
+         return getRule(p1, p2);
          }
       throw new IllegalArgumentException("Invalid AND rule: " + o2 + "..." + o1);
       }
@@ -84,6 +84,11 @@ public class AndRule extends AbstractRule
     */
    public static Rule getRule(final Rule firstParam, final Rule secondParam)
       {
+      //  the operands have no side effects, so evaluate the cheaper one first
+      if (costOf(secondParam) < costOf(firstParam))
+         {
+         return new AndRule(secondParam, firstParam);
+         }
       return new AndRule(firstParam, secondParam);
       }
 
@@ -94,4 +99,12 @@ public class AndRule extends AbstractRule
       {
       return (firstRule.evaluate(event) && secondRule.evaluate(event));
       }
+
+   /**
+    * {@inheritDoc}
+    */
+   int getCost()
+      {
+      return costOf(firstRule) + costOf(secondRule);
+      }
    }
@@ -20,6 +20,7 @@ package org.apache.log4j.rule;
 import java.awt.Color;
 import java.io.Serializable;
 import org.apache.log4j.spi.LoggingEvent;
+import org.apache.log4j.spi.LoggingEventFieldResolver.FieldAccessor;
 
 /**
  * A Rule class which also holds a color.
@@ -128,4 +129,12 @@ public class ColorRule extends AbstractRule implements Serializable
       buf.append(foregroundColor);
       return buf.toString();
       }
+
+   /**
+    * {@inheritDoc}
+    */
+   int getCost()
+      {
+      return (rule == null) ? FieldAccessor.CHEAP : costOf(rule);
+      }
    }
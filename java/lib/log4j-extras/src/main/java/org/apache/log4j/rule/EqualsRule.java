@@ -20,6 +20,7 @@ package org.apache.log4j.rule;
 import java.util.Stack;
 import org.apache.log4j.spi.LoggingEvent;
 import org.apache.log4j.spi.LoggingEventFieldResolver;
+import org.apache.log4j.spi.LoggingEventFieldResolver.FieldAccessor;
 
 /**
  * A Rule class which returns the result of
@@ -46,6 +47,10 @@ public class EqualsRule extends AbstractRule
     * Field.
     */
    private final String field;
+   /**
+    * Field accessor, resolved from the field name.
+    */
+   private final FieldAccessor accessor;
 
    /**
     * Create new instance.
@@ -62,6 +67,7 @@ public class EqualsRule extends AbstractRule
          }
 
       this.field = field;
+      this.accessor = RESOLVER.getAccessor(field);
       this.value = value;
       }
 
@@ -110,8 +116,16 @@ public class EqualsRule extends AbstractRule
    /** {@inheritDoc} */
    public boolean evaluate(final LoggingEvent event)
       {
-      Object p2 = RESOLVER.getValue(field, event);
+      Object p2 = accessor.getValue(event);
 
       return ((p2 != null) && p2.toString().equals(value));
       }
+
+   /**
+    * {@inheritDoc}
+    */
+   int getCost()
+      {
+      return accessor.getCost();
+      }
    }
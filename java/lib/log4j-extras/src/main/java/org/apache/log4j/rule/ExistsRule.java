@@ -20,6 +20,7 @@ package org.apache.log4j.rule;
 import java.util.Stack;
 import org.apache.log4j.spi.LoggingEvent;
 import org.apache.log4j.spi.LoggingEventFieldResolver;
+import org.apache.log4j.spi.LoggingEventFieldResolver.FieldAccessor;
 
 /**
  * A Rule class implementing a not null (and not empty string) check.
@@ -41,6 +42,10 @@ public class ExistsRule extends AbstractRule
     * field name.
     */
    private final String field;
+   /**
+    * Field accessor, resolved from the field name.
+    */
+   private final FieldAccessor accessor;
 
    /**
     * Create new instance.
@@ -56,6 +61,7 @@ public class ExistsRule extends AbstractRule
          }
 
       this.field = fld;
+      this.accessor = RESOLVER.getAccessor(fld);
       }
 
    /**
@@ -91,8 +97,16 @@ public class ExistsRule extends AbstractRule
     */
    public boolean evaluate(final LoggingEvent event)
       {
-      Object p2 = RESOLVER.getValue(field, event);
+      Object p2 = accessor.getValue(event);
 
       return (!((p2 == null) || ((p2 != null) && p2.toString().equals(""))));
       }
+
+   /**
+    * {@inheritDoc}
+    */
+   int getCost()
+      {
+      return accessor.getCost();
+      }
    }
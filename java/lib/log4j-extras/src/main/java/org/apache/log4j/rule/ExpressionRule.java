@@ -17,8 +17,10 @@
 
 package org.apache.log4j.rule;
 
+import java.util.Map;
 import java.util.Stack;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.log4j.spi.LoggingEvent;
 
 /**
@@ -43,6 +45,11 @@ import org.apache.log4j.spi.LoggingEvent;
  * description of supported operators.
  * See org.apache.log4j.spi.LoggingEventFieldResolver for field keywords.
  *
+ * Field names are resolved when the expression is compiled, the operands
+ * of AND and OR are ordered so that the cheaper one is evaluated first,
+ * and compiled expressions are cached, so filters built from the same
+ * expression share a single compiled rule.
+ *
  * @author Scott Deboy (sdeboy@apache.org)
  */
 public class ExpressionRule extends AbstractRule
@@ -60,6 +67,14 @@ public class ExpressionRule extends AbstractRule
     */
    private static final PostFixExpressionCompiler COMPILER =
          new PostFixExpressionCompiler();
+   /**
+    * Maximum number of compiled expressions to cache.
+    */
+   private static final int MAX_CACHED_RULES = 256;
+   /**
+    * Compiled rules, keyed by expression and whether it is post-fix.
+    */
+   private static final Map COMPILED_RULES = new ConcurrentHashMap();
    /**
     * Rule.
     */
@@ -94,13 +109,28 @@ public class ExpressionRule extends AbstractRule
    public static Rule getRule(final String expression,
                               final boolean isPostFix)
       {
-      String postFix = expression;
-      if (!isPostFix)
+      String key = (isPostFix ? "postfix:" : "infix:") + expression;
+      Rule compiled = (Rule)COMPILED_RULES.get(key);
+      if (compiled == null)
          {
-         postFix = CONVERTER.convert(expression);
+         String postFix = expression;
+         if (!isPostFix)
+            {
+            postFix = CONVERTER.convert(expression);
+            }
+         compiled = COMPILER.compileExpression(postFix);
+
+         //  expressions rarely change, so simply start over if the cache fills
+         if (COMPILED_RULES.size() >= MAX_CACHED_RULES)
+            {
+            COMPILED_RULES.clear();
+            }
+         COMPILED_RULES.put(key, compiled);
          }
 
-      return new ExpressionRule(COMPILER.compileExpression(postFix));
+      //  the compiled rule is immutable and can be shared, but each caller
+      //  gets its own wrapper and so its own property change listeners
+      return new ExpressionRule(compiled);
       }
 
    /**
@@ -119,6 +149,14 @@ public class ExpressionRule extends AbstractRule
       return rule.toString();
       }
 
+   /**
+    * {@inheritDoc}
+    */
+   int getCost()
+      {
+      return costOf(rule);
+      }
+
    /**
     * Evaluate a boolean postfix expression.
     *
@@ -83,20 +83,20 @@ public class InFixToPostFix
       operators.add(">=");
 
       //boolean precedence
-      precedenceMap.put("<", new Integer(3));
-      precedenceMap.put(">", new Integer(3));
-      precedenceMap.put("<=", new Integer(3));
-      precedenceMap.put(">=", new Integer(3));
-
-      precedenceMap.put("!", new Integer(3));
-      precedenceMap.put("!=", new Integer(3));
-      precedenceMap.put("==", new Integer(3));
-      precedenceMap.put("~=", new Integer(3));
-      precedenceMap.put("like", new Integer(3));
-      precedenceMap.put("exists", new Integer(3));
-
-      precedenceMap.put("||", new Integer(2));
-      precedenceMap.put("&&", new Integer(2));
+      precedenceMap.put("<", Integer.valueOf(3));
+      precedenceMap.put(">", Integer.valueOf(3));
+      precedenceMap.put("<=", Integer.valueOf(3));
+      precedenceMap.put(">=", Integer.valueOf(3));
+
+      precedenceMap.put("!", Integer.valueOf(3));
+      precedenceMap.put("!=", Integer.valueOf(3));
+      precedenceMap.put("==", Integer.valueOf(3));
+      precedenceMap.put("~=", Integer.valueOf(3));
+      precedenceMap.put("like", Integer.valueOf(3));
+      precedenceMap.put("exists", Integer.valueOf(3));
+
+      precedenceMap.put("||", Integer.valueOf(2));
+      precedenceMap.put("&&", Integer.valueOf(2));
       }
 
    /**
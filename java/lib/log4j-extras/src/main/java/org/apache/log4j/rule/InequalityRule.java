@@ -20,6 +20,7 @@ package org.apache.log4j.rule;
 import java.util.Stack;
 import org.apache.log4j.spi.LoggingEvent;
 import org.apache.log4j.spi.LoggingEventFieldResolver;
+import org.apache.log4j.spi.LoggingEventFieldResolver.FieldAccessor;
 
 /**
  * A Rule class implementing inequality evaluation.
@@ -46,6 +47,10 @@ public class InequalityRule extends AbstractRule
     * Field name.
     */
    private final String field;
+   /**
+    * Field accessor, resolved from the field name.
+    */
+   private final FieldAccessor accessor;
    /**
     * Comparison value.
     */
@@ -75,6 +80,7 @@ public class InequalityRule extends AbstractRule
          }
 
       this.field = field;
+      this.accessor = RESOLVER.getAccessor(field);
       this.value = value;
       }
 
@@ -135,7 +141,7 @@ public class InequalityRule extends AbstractRule
       try
          {
          first =
-               new Long(RESOLVER.getValue(field, event).toString()).longValue();
+               Long.valueOf(accessor.getValue(event).toString()).longValue();
          }
       catch (NumberFormatException nfe)
          {
@@ -146,7 +152,7 @@ public class InequalityRule extends AbstractRule
 
       try
          {
-         second = new Long(value).longValue();
+         second = Long.valueOf(value).longValue();
          }
       catch (NumberFormatException nfe)
          {
@@ -174,4 +180,12 @@ public class InequalityRule extends AbstractRule
 
       return result;
       }
+
+   /**
+    * {@inheritDoc}
+    */
+   int getCost()
+      {
+      return accessor.getCost();
+      }
    }
@@ -19,14 +19,15 @@ package org.apache.log4j.rule;
 
 import java.io.IOException;
 import java.util.Stack;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 import org.apache.log4j.spi.LoggingEvent;
 import org.apache.log4j.spi.LoggingEventFieldResolver;
+import org.apache.log4j.spi.LoggingEventFieldResolver.FieldAccessor;
 
 /**
  * A Rule class supporting java.util.regex regular expression syntax.
+ * Safe for concurrent use, as each evaluation uses its own Matcher.
  *
  * @author Scott Deboy (sdeboy@apache.org)
  */
@@ -46,14 +47,14 @@ public class LikeRule extends AbstractRule
     * Pattern.
     */
    private transient Pattern pattern;
-   /**
-    * Regular expression matcher.
-    */
-   private transient Matcher matcher = null;
    /**
     * Field.
     */
    private transient String field;
+   /**
+    * Field accessor, resolved from the field name.
+    */
+   private transient FieldAccessor accessor;
 
    /**
     * Create new instance.
@@ -70,6 +71,7 @@ public class LikeRule extends AbstractRule
          }
 
       this.field = field;
+      this.accessor = RESOLVER.getAccessor(field);
       this.pattern = pattern;
       }
 
@@ -114,18 +116,10 @@ public class LikeRule extends AbstractRule
    /** {@inheritDoc} */
    public boolean evaluate(final LoggingEvent event)
       {
-      Object input = RESOLVER.getValue(field, event);
+      Object input = accessor.getValue(event);
       if ((input != null) && (pattern != null))
          {
-         if (matcher == null)
-            {
-            matcher = pattern.matcher(input.toString());
-            }
-         else
-            {
-            matcher.reset(input.toString());
-            }
-         return matcher.matches();
+         return pattern.matcher(input.toString()).matches();
          }
       return false;
       }
@@ -144,6 +138,7 @@ public class LikeRule extends AbstractRule
       try
          {
          field = (String)in.readObject();
+         accessor = RESOLVER.getAccessor(field);
          String patternString = (String)in.readObject();
          pattern = Pattern.compile(patternString, Pattern.CASE_INSENSITIVE);
          }
@@ -166,4 +161,13 @@ public class LikeRule extends AbstractRule
       out.writeObject(field);
       out.writeObject(pattern.pattern());
       }
+
+   /**
+    * {@inheritDoc}
+    */
+   int getCost()
+      {
+      //  runs a case-insensitive regular expression for every event
+      return accessor.getCost() + 2;
+      }
    }
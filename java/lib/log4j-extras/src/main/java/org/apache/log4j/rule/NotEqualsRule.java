@@ -20,6 +20,7 @@ package org.apache.log4j.rule;
 import java.util.Stack;
 import org.apache.log4j.spi.LoggingEvent;
 import org.apache.log4j.spi.LoggingEventFieldResolver;
+import org.apache.log4j.spi.LoggingEventFieldResolver.FieldAccessor;
 
 /**
  * A Rule class implementing not equals against two strings.
@@ -41,6 +42,10 @@ public class NotEqualsRule extends AbstractRule
     * Field.
     */
    private final String field;
+   /**
+    * Field accessor, resolved from the field name.
+    */
+   private final FieldAccessor accessor;
    /**
     * Value.
     */
@@ -61,6 +66,7 @@ public class NotEqualsRule extends AbstractRule
          }
 
       this.field = field;
+      this.accessor = RESOLVER.getAccessor(field);
       this.value = value;
       }
 
@@ -98,8 +104,16 @@ public class NotEqualsRule extends AbstractRule
    /** {@inheritDoc} */
    public boolean evaluate(final LoggingEvent event)
       {
-      Object p2 = RESOLVER.getValue(field, event);
+      Object p2 = accessor.getValue(event);
 
       return ((p2 != null) && !(p2.toString().equals(value)));
       }
+
+   /**
+    * {@inheritDoc}
+    */
+   int getCost()
+      {
+      return accessor.getCost();
+      }
    }
@@ -84,4 +84,12 @@ public class NotRule extends AbstractRule
       {
       return !(rule.evaluate(event));
       }
+
+   /**
+    * {@inheritDoc}
+    */
+   int getCost()
+      {
+      return costOf(rule);
+      }
    }
@@ -60,6 +60,11 @@ public class OrRule extends AbstractRule
     */
    public static Rule getRule(final Rule firstParam, final Rule secondParam)
       {
+      //  the operands have no side effects, so evaluate the cheaper one first
+      if (costOf(secondParam) < costOf(firstParam))
+         {
+         return new OrRule(secondParam, firstParam);
+         }
       return new OrRule(firstParam, secondParam);
       }
 
@@ -82,7 +87,7 @@ public class OrRule extends AbstractRule
          {
          Rule p2 = (Rule)o2;
          Rule p1 = (Rule)o1;
-         return new OrRule(p1, p2);
+         return getRule(p1, p2);
          }
       throw new IllegalArgumentException("Invalid OR rule: " + o2 + "..." + o1);
       }
@@ -92,4 +97,12 @@ public class OrRule extends AbstractRule
       {
       return (rule1.evaluate(event) || rule2.evaluate(event));
       }
+
+   /**
+    * {@inheritDoc}
+    */
+   int getCost()
+      {
+      return costOf(rule1) + costOf(rule2);
+      }
    }
@@ -20,6 +20,7 @@ package org.apache.log4j.rule;
 import java.util.Stack;
 import org.apache.log4j.spi.LoggingEvent;
 import org.apache.log4j.spi.LoggingEventFieldResolver;
+import org.apache.log4j.spi.LoggingEventFieldResolver.FieldAccessor;
 
 /**
  * A Rule class implementing case-insensitive
@@ -42,10 +43,18 @@ public class PartialTextMatchRule extends AbstractRule
     * Field.
     */
    private final String field;
+   /**
+    * Field accessor, resolved from the field name.
+    */
+   private final FieldAccessor accessor;
    /**
     * Value.
     */
    private final String value;
+   /**
+    * Value in lower case.
+    */
+   private final String lowerCaseValue;
 
    /**
     * Create new instance.
@@ -62,7 +71,9 @@ public class PartialTextMatchRule extends AbstractRule
          }
 
       this.field = field;
+      this.accessor = RESOLVER.getAccessor(field);
       this.value = value;
+      this.lowerCaseValue = (value == null) ? null : value.toLowerCase();
       }
 
    /**
@@ -99,9 +110,18 @@ public class PartialTextMatchRule extends AbstractRule
    /** {@inheritDoc} */
    public boolean evaluate(final LoggingEvent event)
       {
-      Object p2 = RESOLVER.getValue(field, event);
+      Object p2 = accessor.getValue(event);
 
-      return ((p2 != null) && (value != null)
-              && (p2.toString().toLowerCase().indexOf(value.toLowerCase()) > -1));
+      return ((p2 != null) && (lowerCaseValue != null)
+              && (p2.toString().toLowerCase().indexOf(lowerCaseValue) > -1));
+      }
+
+   /**
+    * {@inheritDoc}
+    */
+   int getCost()
+      {
+      //  lower-cases the value of the field for every event
+      return accessor.getCost() + 1;
       }
    }
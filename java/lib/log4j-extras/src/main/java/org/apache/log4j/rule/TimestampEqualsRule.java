@@ -22,7 +22,6 @@ import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import org.apache.log4j.spi.LoggingEvent;
-import org.apache.log4j.spi.LoggingEventFieldResolver;
 
 /**
  * A Rule class implementing equality evaluation for timestamps.
@@ -35,11 +34,6 @@ public class TimestampEqualsRule extends AbstractRule
     * Serialization ID.
     */
    static final long serialVersionUID = 1639079557187790321L;
-   /**
-    * Resolver.
-    */
-   private static final LoggingEventFieldResolver RESOLVER =
-         LoggingEventFieldResolver.getInstance();
    /**
     * Date format.
     */
@@ -82,8 +76,7 @@ public class TimestampEqualsRule extends AbstractRule
    /** {@inheritDoc} */
    public boolean evaluate(final LoggingEvent event)
       {
-      long eventTimeStamp = Long.parseLong(
-            RESOLVER.getValue("TIMESTAMP", event).toString()) / 1000 * 1000;
+      long eventTimeStamp = event.timeStamp / 1000 * 1000;
       return eventTimeStamp == timeStamp;
       }
 
@@ -22,7 +22,6 @@ import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import org.apache.log4j.spi.LoggingEvent;
-import org.apache.log4j.spi.LoggingEventFieldResolver;
 
 /**
  * A Rule class implementing inequality evaluation for timestamps.
@@ -35,11 +34,6 @@ public class TimestampInequalityRule extends AbstractRule
     * Serialization ID.
     */
    static final long serialVersionUID = -4642641663914789241L;
-   /**
-    * Resolver.
-    */
-   private static final LoggingEventFieldResolver RESOLVER =
-         LoggingEventFieldResolver.getInstance();
    /**
     * Date format.
     */
@@ -89,8 +83,7 @@ public class TimestampInequalityRule extends AbstractRule
    /** {@inheritDoc} */
    public boolean evaluate(final LoggingEvent event)
       {
-      long eventTimeStamp = Long.parseLong(
-            RESOLVER.getValue("TIMESTAMP", event).toString()) / 1000 * 1000;
+      long eventTimeStamp = event.timeStamp / 1000 * 1000;
       boolean result = false;
       long first = eventTimeStamp;
       long second = timeStamp;
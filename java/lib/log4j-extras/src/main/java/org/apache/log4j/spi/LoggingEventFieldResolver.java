@@ -17,6 +17,7 @@
 
 package org.apache.log4j.spi;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
@@ -56,6 +57,10 @@ import java.util.StringTokenizer;
  * If the passed-in field is null or doesn't match an entry
  * in the above-described mapping, an exception is thrown.
  *
+ * Rules which evaluate the same field for many events should resolve
+ * it once with getAccessor(String fieldName), which avoids matching the
+ * field name on every call.
+ *
  * @author Scott Deboy (sdeboy@apache.org)
  * @author Paul Smith (psmith@apache.org)
  *
@@ -206,6 +211,33 @@ public final class LoggingEventFieldResolver
       return false;
       }
 
+   /**
+    * Resolves a field name to an accessor for that field.
+    * @param fieldName field name, may not be null.
+    * @return accessor for the field.
+    * @throws IllegalArgumentException if the field name is not supported.
+    */
+   public FieldAccessor getAccessor(final String fieldName)
+      {
+      String upperField = fieldName.toUpperCase(Locale.US);
+      if (upperField.startsWith(PROP_FIELD))
+         {
+         //note: need to use actual fieldname since case matters
+         return new FieldAccessor(FieldAccessor.PROP, fieldName.substring(5));
+         }
+      String[] fields = {LOGGER_FIELD, LEVEL_FIELD, CLASS_FIELD, FILE_FIELD,
+                         LINE_FIELD, METHOD_FIELD, MSG_FIELD, NDC_FIELD,
+                         EXCEPTION_FIELD, TIMESTAMP_FIELD, THREAD_FIELD};
+      for (int i = 0; i < fields.length; i++)
+         {
+         if (fields[i].equals(upperField))
+            {
+            return new FieldAccessor(i, null);
+            }
+         }
+      throw new IllegalArgumentException("Unsupported field name: " + fieldName);
+      }
+
    /**
     * Get value of field.
     * @param fieldName field
@@ -247,7 +279,7 @@ public final class LoggingEventFieldResolver
          }
       else if (TIMESTAMP_FIELD.equals(upperField))
          {
-         return new Long(event.timeStamp);
+         return Long.valueOf(event.timeStamp);
          }
       else if (THREAD_FIELD.equals(upperField))
          {
@@ -298,4 +330,132 @@ public final class LoggingEventFieldResolver
          }
       return buff.toString();
       }
+
+   /**
+    * Gets the value of one field from logging events, with the field
+    * already resolved from its name.
+    */
+   public static final class FieldAccessor implements Serializable
+      {
+      /**
+       * Serialization ID.
+       */
+      static final long serialVersionUID = 2395416264473052937L;
+      /**
+       * Relative cost of fields which are simple getters.
+       */
+      public static final int CHEAP = 1;
+      /**
+       * Relative cost of the exception field, which joins the stack trace.
+       */
+      public static final int EXPENSIVE = 5;
+      /**
+       * Relative cost of location fields, which may capture a stack trace.
+       */
+      public static final int VERY_EXPENSIVE = 10;
+
+      // field identifiers, in the order used by getAccessor
+      private static final int LOGGER = 0;
+      private static final int LEVEL = 1;
+      private static final int CLASS = 2;
+      private static final int FILE = 3;
+      private static final int LINE = 4;
+      private static final int METHOD = 5;
+      private static final int MSG = 6;
+      private static final int NDC = 7;
+      private static final int EXCEPTION = 8;
+      private static final int TIMESTAMP = 9;
+      private static final int THREAD = 10;
+      private static final int PROP = 11;
+
+      /**
+       * Field identifier.
+       */
+      private final int field;
+      /**
+       * MDC key for PROP fields, null otherwise.
+       */
+      private final String propertyKey;
+
+      /**
+       * Create new instance.
+       * @param field field identifier.
+       * @param propertyKey MDC key for PROP fields.
+       */
+      private FieldAccessor(final int field, final String propertyKey)
+         {
+         this.field = field;
+         this.propertyKey = propertyKey;
+         }
+
+      /**
+       * Gets the value of the field, as described for
+       * {@link LoggingEventFieldResolver#getValue(String, LoggingEvent)}.
+       * @param event event.
+       * @return value of field.
+       */
+      public Object getValue(final LoggingEvent event)
+         {
+         switch (field)
+            {
+            case LOGGER:
+               return event.getLoggerName();
+            case LEVEL:
+               return event.getLevel();
+            case MSG:
+               return event.getMessage();
+            case NDC:
+               String ndcValue = event.getNDC();
+               return ((ndcValue == null) ? EMPTY_STRING : ndcValue);
+            case EXCEPTION:
+               String[] throwableRep = event.getThrowableStrRep();
+               return ((throwableRep == null) ? EMPTY_STRING : getExceptionMessage(throwableRep));
+            case TIMESTAMP:
+               return Long.valueOf(event.timeStamp);
+            case THREAD:
+               return event.getThreadName();
+            case PROP:
+               Object propValue = event.getMDC(propertyKey);
+               return ((propValue == null) ? EMPTY_STRING : propValue.toString());
+            default:
+               LocationInfo info = event.getLocationInformation();
+               if (info == null)
+                  {
+                  return EMPTY_STRING;
+                  }
+               switch (field)
+                  {
+                  case CLASS:
+                     return info.getClassName();
+                  case FILE:
+                     return info.getFileName();
+                  case LINE:
+                     return info.getLineNumber();
+                  default:
+                     return info.getMethodName();
+                  }
+            }
+         }
+
+      /**
+       * Gets the relative cost of getting the field's value, so that
+       * rules can evaluate cheap conditions first.
+       * @return {@link #CHEAP}, {@link #EXPENSIVE} or {@link #VERY_EXPENSIVE}.
+       */
+      public int getCost()
+         {
+         switch (field)
+            {
+            case CLASS:
+            case FILE:
+            case LINE:
+            case METHOD:
+               return VERY_EXPENSIVE;
+            case EXCEPTION:
+               return EXPENSIVE;
+            default:
+               return CHEAP;
+            }
+         }
+      }
    }
@@ -17,8 +17,6 @@
 
 package org.apache.log4j.varia;
 
-import java.applet.Applet;
-import java.applet.AudioClip;
 import java.net.MalformedURLException;
 import java.net.URL;
 import org.apache.log4j.AppenderSkeleton;
@@ -40,10 +38,11 @@ import org.apache.log4j.spi.LoggingEvent;
  *  @author Scott Deboy
  *
  */
+@SuppressWarnings("removal")
 public final class SoundAppender extends AppenderSkeleton
    {
 
-   private AudioClip clip;
+   private java.applet.AudioClip clip;
    private String audioURL;
 
    public SoundAppender()
@@ -65,7 +64,7 @@ public final class SoundAppender extends AppenderSkeleton
          */
       try
          {
-         clip = Applet.newAudioClip(new URL(audioURL));
+         clip = java.applet.Applet.newAudioClip(new URL(audioURL));
          }
       catch (MalformedURLException mue)
          {
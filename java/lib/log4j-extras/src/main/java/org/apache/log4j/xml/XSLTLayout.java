@@ -19,7 +19,7 @@ package org.apache.log4j.xml;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
-import java.nio.ByteBuffer;
+import java.io.Writer;
 import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
@@ -32,19 +32,26 @@ import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXSource;
 import javax.xml.transform.sax.SAXTransformerFactory;
-import javax.xml.transform.sax.TransformerHandler;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 import org.apache.log4j.Layout;
 import org.apache.log4j.helpers.LogLog;
 import org.apache.log4j.helpers.MDCKeySetExtractor;
-import org.apache.log4j.pattern.CachedDateFormat;
+import org.apache.log4j.pattern.ConcurrentCachedDateFormat;
 import org.apache.log4j.spi.LocationInfo;
 import org.apache.log4j.spi.LoggingEvent;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.AttributesImpl;
 
 /**
@@ -88,6 +95,10 @@ import org.xml.sax.helpers.AttributesImpl;
  * using DOMConfigurator.  The transform will serialize
  * and reparse to get the namespace aware document needed.
  *
+ * Formatting does not lock the layout.  Each logging thread keeps its own
+ * transformer, event reader and output buffer, which are reused for every
+ * event and only rebuilt when the transform is changed.
+ *
  */
 public final class XSLTLayout extends Layout
       implements UnrecognizedElementHandler
@@ -100,18 +111,22 @@ public final class XSLTLayout extends Layout
     * Namespace for log4j events.
     */
    private static final String LOG4J_NS = "http://jakarta.apache.org/log4j/";
+   /**
+    * Largest output buffer kept for reuse by a thread, in characters.
+    */
+   private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
    /**
     * Whether location information should be written.
     */
-   private boolean locationInfo = false;
+   private volatile boolean locationInfo = false;
    /**
     * media-type (mime type) extracted from XSLT transform.
     */
-   private String mediaType = "text/plain";
+   private volatile String mediaType = "text/plain";
    /**
     * Encoding extracted from XSLT transform.
     */
-   private Charset encoding;
+   private volatile Charset encoding;
    /**
     * Transformer factory.
     */
@@ -119,28 +134,29 @@ public final class XSLTLayout extends Layout
    /**
     * XSLT templates.
     */
-   private Templates templates;
+   private volatile Templates templates;
    /**
-    * Output stream.
+    * Per-thread transformers, readers and output buffers for the current
+    * templates, see {@link PooledTransform}.
     */
-   private final ByteArrayOutputStream outputStream;
+   private final ThreadLocal pooledTransforms = new ThreadLocal();
    /**
     * Whether throwable information should be ignored.
     */
-   private boolean ignoresThrowable = false;
+   private volatile boolean ignoresThrowable = false;
    /**
     * Whether properties should be extracted.
     */
-   private boolean properties = true;
+   private volatile boolean properties = true;
    /**
     * Whether activateOptions has been called.
     */
-   private boolean activated = false;
+   private volatile boolean activated = false;
 
    /**
     * DateFormat for UTC time.
     */
-   private final CachedDateFormat utcDateFormat;
+   private final ConcurrentCachedDateFormat utcDateFormat;
 
    /**
     * Default constructor.
@@ -148,13 +164,12 @@ public final class XSLTLayout extends Layout
     */
    public XSLTLayout()
       {
-      outputStream = new ByteArrayOutputStream();
       transformerFactory = (SAXTransformerFactory)
             TransformerFactory.newInstance();
 
       SimpleDateFormat zdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
       zdf.setTimeZone(TimeZone.getTimeZone("UTC"));
-      utcDateFormat = new CachedDateFormat(zdf, 1000);
+      utcDateFormat = new ConcurrentCachedDateFormat(zdf, 1000);
       }
 
    /**
@@ -252,143 +267,26 @@ public final class XSLTLayout extends Layout
    /**
     * {@inheritDoc}
     */
-   public synchronized String format(final LoggingEvent event)
+   public String format(final LoggingEvent event)
       {
       if (!activated)
          {
          activateOptions();
          }
-      if (templates != null && encoding != null)
+      final Templates currentTemplates = templates;
+      final Charset currentEncoding = encoding;
+      if (currentTemplates != null && currentEncoding != null)
          {
-         outputStream.reset();
-
          try
             {
-            TransformerHandler transformer =
-                  transformerFactory.newTransformerHandler(templates);
-
-            transformer.setResult(new StreamResult(outputStream));
-            transformer.startDocument();
-
-            //
-            //   event element
-            //
-            AttributesImpl attrs = new AttributesImpl();
-            attrs.addAttribute(null, "logger", "logger",
-                               "CDATA", event.getLoggerName());
-            attrs.addAttribute(null, "timestamp", "timestamp",
-                               "CDATA", Long.toString(event.timeStamp));
-            attrs.addAttribute(null, "level", "level",
-                               "CDATA", event.getLevel().toString());
-            attrs.addAttribute(null, "thread", "thread",
-                               "CDATA", event.getThreadName());
-            StringBuffer buf = new StringBuffer();
-            utcDateFormat.format(event.timeStamp, buf);
-            attrs.addAttribute(null, "time", "time", "CDATA", buf.toString());
-
-            transformer.startElement(LOG4J_NS, "event", "event", attrs);
-            attrs.clear();
-
-            //
-            //   message element
-            //
-            transformer.startElement(LOG4J_NS, "message", "message", attrs);
-            String msg = event.getRenderedMessage();
-            if (msg != null && msg.length() > 0)
-               {
-               transformer.characters(msg.toCharArray(), 0, msg.length());
-               }
-            transformer.endElement(LOG4J_NS, "message", "message");
-
-            //
-            //    NDC element
-            //
-            String ndc = event.getNDC();
-            if (ndc != null)
-               {
-               transformer.startElement(LOG4J_NS, "NDC", "NDC", attrs);
-               char[] ndcChars = ndc.toCharArray();
-               transformer.characters(ndcChars, 0, ndcChars.length);
-               transformer.endElement(LOG4J_NS, "NDC", "NDC");
-               }
-
-            //
-            //    throwable element unless suppressed
-            //
-            if (!ignoresThrowable)
-               {
-               String[] s = event.getThrowableStrRep();
-               if (s != null)
-                  {
-                  transformer.startElement(LOG4J_NS, "throwable",
-                                           "throwable", attrs);
-                  char[] nl = new char[]{'\n'};
-                  for (int i = 0; i < s.length; i++)
-                     {
-                     char[] line = s[i].toCharArray();
-                     transformer.characters(line, 0, line.length);
-                     transformer.characters(nl, 0, nl.length);
-                     }
-                  transformer.endElement(LOG4J_NS, "throwable", "throwable");
-                  }
-               }
-
-            //
-            //     location info unless suppressed
-            //
-            //
-            if (locationInfo)
-               {
-               LocationInfo locationInfo = event.getLocationInformation();
-               attrs.addAttribute(null, "class", "class", "CDATA",
-                                  locationInfo.getClassName());
-               attrs.addAttribute(null, "method", "method", "CDATA",
-                                  locationInfo.getMethodName());
-               attrs.addAttribute(null, "file", "file", "CDATA",
-                                  locationInfo.getFileName());
-               attrs.addAttribute(null, "line", "line", "CDATA",
-                                  locationInfo.getLineNumber());
-               transformer.startElement(LOG4J_NS, "locationInfo",
-                                        "locationInfo", attrs);
-               transformer.endElement(LOG4J_NS, "locationInfo",
-                                      "locationInfo");
-               }
-
-            if (properties)
+            PooledTransform transform = (PooledTransform)pooledTransforms.get();
+            if (transform == null || transform.templates != currentTemplates)
                {
-               //
-               //    write MDC contents out as properties element
-               //
-               Set mdcKeySet = MDCKeySetExtractor.INSTANCE.getPropertyKeySet(event);
-
-               if ((mdcKeySet != null) && (mdcKeySet.size() > 0))
-                  {
-                  attrs.clear();
-                  transformer.startElement(LOG4J_NS,
-                                           "properties", "properties", attrs);
-                  Object[] keys = mdcKeySet.toArray();
-                  Arrays.sort(keys);
-                  for (int i = 0; i < keys.length; i++)
-                     {
-                     String key = keys[i].toString();
-                     Object val = event.getMDC(key);
-                     attrs.clear();
-                     attrs.addAttribute(null, "name", "name", "CDATA", key);
-                     attrs.addAttribute(null, "value", "value",
-                                        "CDATA", val.toString());
-                     transformer.startElement(LOG4J_NS,
-                                              "data", "data", attrs);
-                     transformer.endElement(LOG4J_NS, "data", "data");
-                     }
-                  }
+               transform = new PooledTransform(currentTemplates);
+               pooledTransforms.set(transform);
                }
 
-            transformer.endElement(LOG4J_NS, "event", "event");
-            transformer.endDocument();
-
-            String body = encoding.decode(
-                  ByteBuffer.wrap(outputStream.toByteArray())).toString();
-            outputStream.reset();
+            String body = transform.format(event);
             //
             //   must remove XML declaration since it may
             //      result in erroneous encoding info
@@ -412,6 +310,8 @@ public final class XSLTLayout extends Layout
             }
          catch (Exception ex)
             {
+            //   transformer may be left mid-document, don't reuse it
+            pooledTransforms.set(null);
             LogLog.error("Error during transformation", ex);
             return ex.toString();
             }
@@ -524,4 +424,459 @@ public final class XSLTLayout extends Layout
          }
       return false;
       }
+
+   /**
+    * Transformer, event source and output buffer owned by a single thread.
+    */
+   private final class PooledTransform
+      {
+      /**
+       * Templates the transformer was created from.
+       */
+      private final Templates templates;
+      /**
+       * Transformer, reused for every event.
+       */
+      private final Transformer transformer;
+      /**
+       * Reader which presents the current event as a document.
+       */
+      private final EventReader reader = new EventReader();
+      /**
+       * Source wrapping the reader.
+       */
+      private final SAXSource source = new SAXSource(reader, new InputSource());
+      /**
+       * Output buffer.
+       */
+      private ReusableStringWriter writer;
+      /**
+       * Result wrapping the output buffer.
+       */
+      private StreamResult result;
+
+      /**
+       * Create new instance.
+       * @param templates templates.
+       * @throws TransformerConfigurationException if transformer can not be created.
+       */
+      private PooledTransform(final Templates templates)
+            throws TransformerConfigurationException
+         {
+         this.templates = templates;
+         this.transformer = templates.newTransformer();
+         resetOutput();
+         }
+
+      /**
+       * Replaces the output buffer with a new one of the initial size.
+       */
+      private void resetOutput()
+         {
+         writer = new ReusableStringWriter();
+         result = new StreamResult(writer);
+         }
+
+      /**
+       * Transforms an event.
+       * @param event event, may not be null.
+       * @return transformed event.
+       * @throws Exception if the transformation fails.
+       */
+      private String format(final LoggingEvent event)
+            throws Exception
+         {
+         writer.reset();
+         reader.event = event;
+         try
+            {
+            transformer.transform(source, result);
+            }
+         finally
+            {
+            reader.event = null;
+            }
+         String body = writer.toString();
+         if (writer.capacity() > MAX_RETAINED_BUFFER_SIZE)
+            {
+            //   don't hold on to the buffer after an unusually large event
+            resetOutput();
+            }
+         return body;
+         }
+      }
+
+   /**
+    * Unsynchronized Writer over a StringBuilder.  The serializer still
+    * escapes characters which are not in the transform's encoding, so
+    * writing characters directly gives the same text as encoding to
+    * bytes and decoding them again.
+    */
+   private static final class ReusableStringWriter extends Writer
+      {
+      /**
+       * Buffer.
+       */
+      private final StringBuilder buf = new StringBuilder(1024);
+
+      /**
+       * {@inheritDoc}
+       */
+      public void write(final int c)
+         {
+         buf.append((char)c);
+         }
+
+      /**
+       * {@inheritDoc}
+       */
+      public void write(final char[] cbuf, final int off, final int len)
+         {
+         buf.append(cbuf, off, len);
+         }
+
+      /**
+       * {@inheritDoc}
+       */
+      public void write(final String str)
+         {
+         buf.append(str);
+         }
+
+      /**
+       * {@inheritDoc}
+       */
+      public void write(final String str, final int off, final int len)
+         {
+         buf.append(str, off, off + len);
+         }
+
+      /**
+       * {@inheritDoc}
+       */
+      public void flush()
+         {
+         }
+
+      /**
+       * {@inheritDoc}
+       */
+      public void close()
+         {
+         }
+
+      /**
+       * Discards the contents.
+       */
+      private void reset()
+         {
+         buf.setLength(0);
+         }
+
+      /**
+       * Gets the size of the underlying array.
+       * @return capacity in characters.
+       */
+      private int capacity()
+         {
+         return buf.capacity();
+         }
+
+      /**
+       * {@inheritDoc}
+       */
+      public String toString()
+         {
+         return buf.toString();
+         }
+      }
+
+   /**
+    * XMLReader which "parses" the current event by firing the
+    * SAX events for the log4j:event document directly.
+    */
+   private final class EventReader implements XMLReader
+      {
+      /**
+       * Event to present, set for the duration of a transform.
+       */
+      private LoggingEvent event;
+      /**
+       * Content handler.
+       */
+      private ContentHandler contentHandler;
+      /**
+       * DTD handler.
+       */
+      private DTDHandler dtdHandler;
+      /**
+       * Entity resolver.
+       */
+      private EntityResolver entityResolver;
+      /**
+       * Error handler.
+       */
+      private ErrorHandler errorHandler;
+      /**
+       * Reusable attribute list.
+       */
+      private final AttributesImpl attrs = new AttributesImpl();
+      /**
+       * Reusable buffer for the formatted time.
+       */
+      private final StringBuilder timeBuf = new StringBuilder(32);
+      /**
+       * Reusable buffer for character content.
+       */
+      private char[] chars = new char[256];
+
+      /**
+       * {@inheritDoc}
+       */
+      public boolean getFeature(final String name)
+         {
+         return "http://xml.org/sax/features/namespaces".equals(name);
+         }
+
+      /**
+       * {@inheritDoc}
+       */
+      public void setFeature(final String name, final boolean value)
+         {
+         }
+
+      /**
+       * {@inheritDoc}
+       */
+      public Object getProperty(final String name)
+         {
+         return null;
+         }
+
+      /**
+       * {@inheritDoc}
+       */
+      public void setProperty(final String name, final Object value)
+         {
+         }
+
+      /**
+       * {@inheritDoc}
+       */
+      public void setEntityResolver(final EntityResolver resolver)
+         {
+         entityResolver = resolver;
+         }
+
+      /**
+       * {@inheritDoc}
+       */
+      public EntityResolver getEntityResolver()
+         {
+         return entityResolver;
+         }
+
+      /**
+       * {@inheritDoc}
+       */
+      public void setDTDHandler(final DTDHandler handler)
+         {
+         dtdHandler = handler;
+         }
+
+      /**
+       * {@inheritDoc}
+       */
+      public DTDHandler getDTDHandler()
+         {
+         return dtdHandler;
+         }
+
+      /**
+       * {@inheritDoc}
+       */
+      public void setContentHandler(final ContentHandler handler)
+         {
+         contentHandler = handler;
+         }
+
+      /**
+       * {@inheritDoc}
+       */
+      public ContentHandler getContentHandler()
+         {
+         return contentHandler;
+         }
+
+      /**
+       * {@inheritDoc}
+       */
+      public void setErrorHandler(final ErrorHandler handler)
+         {
+         errorHandler = handler;
+         }
+
+      /**
+       * {@inheritDoc}
+       */
+      public ErrorHandler getErrorHandler()
+         {
+         return errorHandler;
+         }
+
+      /**
+       * {@inheritDoc}
+       */
+      public void parse(final String systemId) throws SAXException
+         {
+         parse((InputSource)null);
+         }
+
+      /**
+       * {@inheritDoc}
+       */
+      public void parse(final InputSource input) throws SAXException
+         {
+         final ContentHandler transformer = contentHandler;
+         transformer.startDocument();
+
+         //
+         //   event element
+         //
+         attrs.clear();
+         attrs.addAttribute(null, "logger", "logger",
+                            "CDATA", event.getLoggerName());
+         attrs.addAttribute(null, "timestamp", "timestamp",
+                            "CDATA", Long.toString(event.timeStamp));
+         attrs.addAttribute(null, "level", "level",
+                            "CDATA", event.getLevel().toString());
+         attrs.addAttribute(null, "thread", "thread",
+                            "CDATA", event.getThreadName());
+         timeBuf.setLength(0);
+         utcDateFormat.format(event.timeStamp, timeBuf);
+         attrs.addAttribute(null, "time", "time", "CDATA", timeBuf.toString());
+
+         transformer.startElement(LOG4J_NS, "event", "event", attrs);
+         attrs.clear();
+
+         //
+         //   message element
+         //
+         transformer.startElement(LOG4J_NS, "message", "message", attrs);
+         String msg = event.getRenderedMessage();
+         if (msg != null && msg.length() > 0)
+            {
+            characters(msg);
+            }
+         transformer.endElement(LOG4J_NS, "message", "message");
+
+         //
+         //    NDC element
+         //
+         String ndc = event.getNDC();
+         if (ndc != null)
+            {
+            transformer.startElement(LOG4J_NS, "NDC", "NDC", attrs);
+            characters(ndc);
+            transformer.endElement(LOG4J_NS, "NDC", "NDC");
+            }
+
+         //
+         //    throwable element unless suppressed
+         //
+         if (!ignoresThrowable)
+            {
+            String[] s = event.getThrowableStrRep();
+            if (s != null)
+               {
+               transformer.startElement(LOG4J_NS, "throwable",
+                                        "throwable", attrs);
+               for (int i = 0; i < s.length; i++)
+                  {
+                  characters(s[i]);
+                  characters("\n");
+                  }
+               transformer.endElement(LOG4J_NS, "throwable", "throwable");
+               }
+            }
+
+         //
+         //     location info unless suppressed
+         //
+         //
+         if (locationInfo)
+            {
+            LocationInfo locationInfo = event.getLocationInformation();
+            attrs.addAttribute(null, "class", "class", "CDATA",
+                               locationInfo.getClassName());
+            attrs.addAttribute(null, "method", "method", "CDATA",
+                               locationInfo.getMethodName());
+            attrs.addAttribute(null, "file", "file", "CDATA",
+                               locationInfo.getFileName());
+            attrs.addAttribute(null, "line", "line", "CDATA",
+                               locationInfo.getLineNumber());
+            transformer.startElement(LOG4J_NS, "locationInfo",
+                                     "locationInfo", attrs);
+            transformer.endElement(LOG4J_NS, "locationInfo",
+                                   "locationInfo");
+            }
+
+         if (properties)
+            {
+            //
+            //    write MDC contents out as properties element
+            //
+            Set mdcKeySet;
+            try
+               {
+               mdcKeySet = MDCKeySetExtractor.INSTANCE.getPropertyKeySet(event);
+               }
+            catch (Exception ex)
+               {
+               throw new SAXException(ex);
+               }
+
+            if ((mdcKeySet != null) && (mdcKeySet.size() > 0))
+               {
+               attrs.clear();
+               transformer.startElement(LOG4J_NS,
+                                        "properties", "properties", attrs);
+               Object[] keys = mdcKeySet.toArray();
+               Arrays.sort(keys);
+               for (int i = 0; i < keys.length; i++)
+                  {
+                  String key = keys[i].toString();
+                  Object val = event.getMDC(key);
+                  attrs.clear();
+                  attrs.addAttribute(null, "name", "name", "CDATA", key);
+                  attrs.addAttribute(null, "value", "value",
+                                     "CDATA", val.toString());
+                  transformer.startElement(LOG4J_NS,
+                                           "data", "data", attrs);
+                  transformer.endElement(LOG4J_NS, "data", "data");
+                  }
+               }
+            }
+
+         transformer.endElement(LOG4J_NS, "event", "event");
+         transformer.endDocument();
+         attrs.clear();
+         }
+
+      /**
+       * Passes a string to the content handler as character content.
+       * @param text text, may not be null.
+       * @throws SAXException if the content handler throws one.
+       */
+      private void characters(final String text) throws SAXException
+         {
+         final int length = text.length();
+         if (chars.length < length)
+            {
+            chars = new char[Math.max(length, chars.length * 2)];
+            }
+         text.getChars(0, length, chars, 0);
+         contentHandler.characters(chars, 0, length);
+         }
+      }
    }
@@ -0,0 +1,213 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.log4j;
+
+import java.io.Flushable;
+import java.util.Vector;
+import junit.framework.TestCase;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * Unit test for AsyncRingBufferAppender.
+ */
+public class AsyncRingBufferAppenderTest extends TestCase
+   {
+   private Logger logger;
+   private AsyncRingBufferAppender async;
+   private GatedAppender target;
+
+   /**
+    * Create the test case
+    *
+    * @param testName name of the test case
+    */
+   public AsyncRingBufferAppenderTest(String testName)
+      {
+      super(testName);
+      }
+
+   public void setUp()
+      {
+      logger = Logger.getLogger(AsyncRingBufferAppenderTest.class);
+      logger.setAdditivity(false);
+      logger.setLevel(Level.DEBUG);
+      target = new GatedAppender();
+      async = new AsyncRingBufferAppender();
+      async.setName("async");
+      async.addAppender(target);
+      }
+
+   public void tearDown()
+      {
+      target.open();
+      async.close();
+      logger.removeAllAppenders();
+      }
+
+   private void activate(final int bufferSize, final String overflowPolicy)
+      {
+      async.setBufferSize(bufferSize);
+      async.setOverflowPolicy(overflowPolicy);
+      async.activateOptions();
+      logger.addAppender(async);
+      }
+
+   /**
+    * Tests that all events are delivered in order and flushed on close.
+    */
+   public void testDeliversAllEventsInOrderOnClose()
+      {
+      activate(16, AsyncRingBufferAppender.BLOCK);
+      for (int i = 0; i < 1000; i++)
+         {
+         logger.debug("msg" + i);
+         }
+      async.close();
+
+      assertEquals(1000, target.events.size());
+      for (int i = 0; i < 1000; i++)
+         {
+         assertEquals("msg" + i, ((LoggingEvent)target.events.get(i)).getMessage());
+         }
+      assertTrue(target.flushCount > 0);
+      assertTrue(target.isClosed);
+      }
+
+   /**
+    * Tests that the Drop policy discards events and logs a summary.
+    */
+   public void testDropDiscardsWhenFull() throws Exception
+      {
+      target.closeGate();
+      activate(4, AsyncRingBufferAppender.DROP);
+
+      // the writer takes the first event and blocks on the gate, then four fill the buffer
+      logger.info("first");
+      target.awaitFirstAppend();
+      for (int i = 0; i < 10; i++)
+         {
+         logger.info("msg" + i);
+         }
+
+      target.open();
+      async.close();
+
+      assertEquals(6, target.events.size());
+      final LoggingEvent summary = (LoggingEvent)target.events.get(1);
+      assertEquals(Level.WARN, summary.getLevel());
+      assertTrue(summary.getRenderedMessage().startsWith("Discarded 6 "));
+      }
+
+   /**
+    * Tests that DropDebugFirst discards DEBUG events, but not INFO events,
+    * once the buffer is mostly full.
+    */
+   public void testDropDebugFirstKeepsInfo() throws Exception
+      {
+      target.closeGate();
+      activate(10, AsyncRingBufferAppender.DROP_DEBUG_FIRST);
+
+      logger.info("first");
+      target.awaitFirstAppend();
+      for (int i = 0; i < 8; i++)
+         {
+         logger.debug("debug" + i);
+         }
+      logger.debug("discarded");
+      logger.info("kept");
+
+      target.open();
+      async.close();
+
+      final Vector messages = new Vector();
+      for (int i = 0; i < target.events.size(); i++)
+         {
+         messages.add(((LoggingEvent)target.events.get(i)).getRenderedMessage());
+         }
+      assertTrue(messages.contains("kept"));
+      assertFalse(messages.contains("discarded"));
+      assertTrue(messages.contains("debug7"));
+      }
+
+   /**
+    * Appender which blocks appends while its gate is closed.
+    */
+   private static final class GatedAppender extends AppenderSkeleton
+         implements Flushable
+      {
+      private final Vector events = new Vector();
+      private boolean isGateOpen = true;
+      private boolean hasAppended = false;
+      private boolean isClosed = false;
+      private int flushCount = 0;
+
+      public synchronized void close()
+         {
+         isClosed = true;
+         }
+
+      public synchronized void closeGate()
+         {
+         isGateOpen = false;
+         }
+
+      public synchronized void open()
+         {
+         isGateOpen = true;
+         notifyAll();
+         }
+
+      public synchronized void awaitFirstAppend() throws InterruptedException
+         {
+         while (!hasAppended)
+            {
+            wait();
+            }
+         }
+
+      protected void append(final LoggingEvent event)
+         {
+         synchronized (this)
+            {
+            hasAppended = true;
+            notifyAll();
+            while (!isGateOpen)
+               {
+               try
+                  {
+                  wait();
+                  }
+               catch (InterruptedException e)
+                  {
+                  return;
+                  }
+               }
+            }
+         events.add(event);
+         }
+
+      public synchronized void flush()
+         {
+         flushCount++;
+         }
+
+      public boolean requiresLayout()
+         {
+         return false;
+         }
+      }
+   }
@@ -0,0 +1,218 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.log4j;
+
+/**
+ * Shared harness for the benchmarks: times tasks on one or more threads,
+ * warms each one up first, and prints the results as tab-separated columns.
+ * <p>
+ * Not a unit test.
+ */
+public final class Benchmark
+   {
+   /**
+    * Operation under test.
+    */
+   public interface Task
+      {
+      /**
+       * Performs the operation once.
+       * @param iteration number of the iteration, starting at 0.
+       * @return any value derived from the result (e.g. its length), which is
+       * summed so that the work can't be optimized away.
+       * @throws Exception if the operation fails.
+       */
+      int run(int iteration) throws Exception;
+      }
+
+   /**
+    * Creates a {@link Task} for each thread, so that tasks can keep
+    * per-thread state such as buffers.
+    */
+   public interface TaskFactory
+      {
+      Task newTask();
+      }
+
+   /**
+    * Sum of the task results, so that the JIT can't drop the work.
+    */
+   private static volatile long sink;
+
+   private Benchmark()
+      {
+      }
+
+   /**
+    * Gets an integer command line argument.
+    * @param args arguments, may not be null.
+    * @param index index of the argument.
+    * @param defaultValue value to use if there is no such argument.
+    * @return value of the argument.
+    */
+   public static int getIntArgument(final String[] args, final int index, final int defaultValue)
+      {
+      return (args.length > index) ? Integer.parseInt(args[index]) : defaultValue;
+      }
+
+   /**
+    * Prints the values separated by tabs, as a row of the results.
+    * @param values values, may not be null.
+    */
+   public static void printRow(final Object[] values)
+      {
+      final StringBuffer row = new StringBuffer();
+      for (int i = 0; i < values.length; i++)
+         {
+         if (i > 0)
+            {
+            row.append('\t');
+            }
+         row.append(values[i]);
+         }
+      System.out.println(row);
+      }
+
+   /**
+    * Times each task on the calling thread, after warming them all up, and
+    * prints a row with the average time per iteration for each.
+    * @param names names of the tasks, may not be null.
+    * @param tasks tasks, in the same order, may not be null.
+    * @param iterations number of iterations per task.
+    * @throws Exception if a task fails.
+    */
+   public static void compare(final String[] names, final Task[] tasks, final int iterations) throws Exception
+      {
+      for (int t = 0; t < tasks.length; t++)
+         {
+         time(tasks[t], iterations);
+         }
+
+      printRow(new Object[]{"task", "ns/op"});
+      for (int t = 0; t < tasks.length; t++)
+         {
+         printRow(new Object[]{names[t], Long.valueOf(time(tasks[t], iterations))});
+         }
+      }
+
+   /**
+    * Times each task on 1, 2, 4, ... up to <code>maxThreads</code> threads,
+    * after warming them all up, and prints a row per thread count with the
+    * average wall-clock time per iteration for each.
+    * @param names names of the tasks, may not be null.
+    * @param factories factories of the tasks, in the same order, may not be null.
+    * @param maxThreads maximum number of threads.
+    * @param iterations number of iterations per thread.
+    * @throws InterruptedException if interrupted while waiting for the threads.
+    */
+   public static void compareAcrossThreads(final String[] names, final TaskFactory[] factories,
+                                           final int maxThreads, final int iterations)
+         throws InterruptedException
+      {
+      for (int f = 0; f < factories.length; f++)
+         {
+         time(factories[f], 2, iterations);
+         }
+
+      final Object[] header = new Object[names.length + 1];
+      header[0] = "threads";
+      for (int f = 0; f < names.length; f++)
+         {
+         header[f + 1] = names[f] + " (ns/op)";
+         }
+      printRow(header);
+
+      for (int threads = 1; threads <= maxThreads; threads *= 2)
+         {
+         final Object[] row = new Object[factories.length + 1];
+         row[0] = Integer.valueOf(threads);
+         for (int f = 0; f < factories.length; f++)
+            {
+            row[f + 1] = Long.valueOf(time(factories[f], threads, iterations));
+            }
+         printRow(row);
+         }
+      }
+
+   /**
+    * Runs the task on the calling thread.
+    * @param task task, may not be null.
+    * @param iterations number of iterations.
+    * @return average nanoseconds per iteration.
+    * @throws Exception if the task fails.
+    */
+   public static long time(final Task task, final int iterations) throws Exception
+      {
+      long sum = 0;
+      final long begin = System.nanoTime();
+      for (int i = 0; i < iterations; i++)
+         {
+         sum += task.run(i);
+         }
+      final long elapsed = System.nanoTime() - begin;
+      sink += sum;
+      return elapsed / iterations;
+      }
+
+   /**
+    * Runs a task from the factory on each of several threads.
+    * @param factory factory of the task, may not be null.
+    * @param numThreads number of threads.
+    * @param iterations number of iterations per thread.
+    * @return average wall-clock nanoseconds per iteration.
+    * @throws InterruptedException if interrupted while waiting for the threads.
+    */
+   public static long time(final TaskFactory factory, final int numThreads, final int iterations)
+         throws InterruptedException
+      {
+      final Thread[] threads = new Thread[numThreads];
+      for (int t = 0; t < numThreads; t++)
+         {
+         final Task task = factory.newTask();
+         threads[t] = new Thread(new Runnable()
+         {
+         public void run()
+            {
+            long sum = 0;
+            try
+               {
+               for (int i = 0; i < iterations; i++)
+                  {
+                  sum += task.run(i);
+                  }
+               }
+            catch (Exception e)
+               {
+               throw new RuntimeException(e);
+               }
+            sink += sum;
+            }
+         }, "benchmark-" + t);
+         }
+
+      final long begin = System.nanoTime();
+      for (int t = 0; t < numThreads; t++)
+         {
+         threads[t].start();
+         }
+      for (int t = 0; t < numThreads; t++)
+         {
+         threads[t].join();
+         }
+      return (System.nanoTime() - begin) / ((long)iterations * numThreads);
+      }
+   }
@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.log4j;
+
+import java.text.MessageFormat;
+
+/**
+ * Compares formatting a message with java.text.MessageFormat and with a
+ * cached {@link MessageTemplate}, for both LogMF and LogSF pattern syntax.
+ * <p>
+ * Not run as part of the unit tests.  Usage:
+ * <pre>
+ *   java org.apache.log4j.MessageFormatBenchmark [iterations]
+ * </pre>
+ */
+public final class MessageFormatBenchmark
+   {
+   private static final String MF_PATTERN = "DataFileManager.handleFileListEvent(): File [{0}] is {1} bytes, status [{2}]";
+   private static final String SF_PATTERN = "DataFileManager.handleFileListEvent(): File [{}] is {} bytes, status [{}]";
+   private static final Object[] ARGUMENTS = new Object[]{"4F3A2B10.BT", "1048576", "DOWNLOADED"};
+
+   private MessageFormatBenchmark()
+      {
+      }
+
+   public static void main(final String[] args) throws Exception
+      {
+      final Benchmark.Task messageFormat = new Benchmark.Task()
+      {
+      public int run(final int iteration)
+         {
+         return MessageFormat.format(MF_PATTERN, ARGUMENTS).length();
+         }
+      };
+      final Benchmark.Task mfTemplate = new Benchmark.Task()
+      {
+      public int run(final int iteration)
+         {
+         return MessageTemplate.forMessageFormat(MF_PATTERN).format(ARGUMENTS).length();
+         }
+      };
+      final Benchmark.Task sfScan = new Benchmark.Task()
+      {
+      public int run(final int iteration)
+         {
+         // mirrors the previous LogSF.format, which rescanned the pattern each time
+         StringBuffer buf = new StringBuffer(SF_PATTERN);
+         int index = 0;
+         int pos = buf.indexOf("{");
+         while (pos >= 0 && pos < buf.length() - 1 && index < ARGUMENTS.length)
+            {
+            if (buf.charAt(pos + 1) == '}')
+               {
+               String subst = String.valueOf(ARGUMENTS[index++]);
+               buf.replace(pos, pos + 2, subst);
+               pos += subst.length();
+               }
+            else
+               {
+               pos = buf.indexOf("{", pos + 1);
+               }
+            }
+         return buf.length();
+         }
+      };
+      final Benchmark.Task sfTemplate = new Benchmark.Task()
+      {
+      public int run(final int iteration)
+         {
+         return MessageTemplate.forSLF4J(SF_PATTERN).format(ARGUMENTS).length();
+         }
+      };
+
+      Benchmark.compare(new String[]{"MessageFormat", "MessageTemplate (LogMF)", "rescan (LogSF)", "MessageTemplate (LogSF)"},
+                        new Benchmark.Task[]{messageFormat, mfTemplate, sfScan, sfTemplate},
+                        Benchmark.getIntArgument(args, 0, 2000000));
+      }
+   }
@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.log4j;
+
+import java.text.MessageFormat;
+import java.util.Date;
+import junit.framework.TestCase;
+
+/**
+ * Unit test for MessageTemplate.
+ */
+public class MessageTemplateTest extends TestCase
+   {
+   /**
+    * Create the test case
+    *
+    * @param testName name of the test case
+    */
+   public MessageTemplateTest(String testName)
+      {
+      super(testName);
+      }
+
+   private static void assertMatchesMessageFormat(final String pattern, final Object[] arguments)
+      {
+      assertEquals(pattern,
+                   MessageFormat.format(pattern, arguments),
+                   MessageTemplate.forMessageFormat(pattern).format(arguments));
+      }
+
+   /**
+    * Tests that positional patterns format as MessageFormat does.
+    */
+   public void testPositionalPatterns()
+      {
+      final Object[] arguments = new Object[]{"foo", new Integer(12345), null, new Date(0), new Double(1.5), Boolean.TRUE};
+      assertMatchesMessageFormat("", arguments);
+      assertMatchesMessageFormat("literal }", arguments);
+      assertMatchesMessageFormat("{0}", arguments);
+      assertMatchesMessageFormat("File [{0}] has {1} bytes", arguments);
+      assertMatchesMessageFormat("{2}{3}{4}{5}{0}", arguments);
+      assertMatchesMessageFormat("{1} {1} {0}", arguments);
+      assertMatchesMessageFormat("{0} and {9} and {12}", arguments);
+      assertMatchesMessageFormat("{0} and {1}", null);
+      assertMatchesMessageFormat("{0}", new Object[0]);
+      }
+
+   /**
+    * Tests that other patterns format as MessageFormat does.
+    */
+   public void testOtherPatterns()
+      {
+      final Object[] arguments = new Object[]{"foo", new Integer(12345), new Date(0)};
+      assertMatchesMessageFormat("'{0}' is {0}", arguments);
+      assertMatchesMessageFormat("it''s {0}", arguments);
+      assertMatchesMessageFormat("{1,number,#}", arguments);
+      assertMatchesMessageFormat("{2,date,yyyy}", arguments);
+      assertMatchesMessageFormat("{00}", arguments);
+      }
+
+   /**
+    * Tests that malformed patterns are returned as is.
+    */
+   public void testMalformedPattern()
+      {
+      assertEquals("{0", MessageTemplate.forMessageFormat("{0").format(new Object[]{"foo"}));
+      assertEquals("{foo}", MessageTemplate.forMessageFormat("{foo}").format(new Object[]{"foo"}));
+      assertEquals("{ 0 }", MessageTemplate.forMessageFormat("{ 0 }").format(new Object[]{"foo"}));
+      }
+
+   /**
+    * Tests SLF4J-style patterns.
+    */
+   public void testSLF4JPatterns()
+      {
+      final Object[] arguments = new Object[]{"foo", null, new Integer(3)};
+      assertEquals("no placeholders", MessageTemplate.forSLF4J("no placeholders").format(arguments));
+      assertEquals("foo null 3", MessageTemplate.forSLF4J("{} {} {}").format(arguments));
+      assertEquals("[foo] {x} {0}", MessageTemplate.forSLF4J("[{}] {x} {0}").format(arguments));
+      assertEquals("{foo}", MessageTemplate.forSLF4J("{{}}").format(arguments));
+      assertEquals("foo null 3 {} {}", MessageTemplate.forSLF4J("{} {} {} {} {}").format(arguments));
+      assertEquals("{} {}", MessageTemplate.forSLF4J("{} {}").format(new Object[0]));
+      }
+
+   /**
+    * Tests that a long message doesn't leak into the next one.
+    */
+   public void testLongMessage()
+      {
+      final StringBuffer buf = new StringBuffer();
+      for (int i = 0; i < 1000; i++)
+         {
+         buf.append("0123456789");
+         }
+      final String arg = buf.toString();
+      assertEquals("x" + arg + "y", MessageTemplate.forSLF4J("x{}y").format(new Object[]{arg}));
+      assertEquals("x1y", MessageTemplate.forSLF4J("x{}y").format(new Object[]{"1"}));
+      }
+
+   /**
+    * Tests that the caches stay correct when filled with dynamic patterns.
+    */
+   public void testManyPatterns()
+      {
+      for (int i = 0; i < 2000; i++)
+         {
+         final String pattern = "message " + i + " {0} {}";
+         assertEquals("message " + i + " {0} foo",
+                      MessageTemplate.forSLF4J(pattern).format(new Object[]{"foo"}));
+         assertMatchesMessageFormat("message " + i + " {0}", new Object[]{"foo"});
+         }
+      }
+   }
@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.log4j;
+
+import java.io.Writer;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * Compares formatting an event with EnhancedPatternLayout, with and without
+ * a compiled pattern.
+ * <p>
+ * Not run as part of the unit tests.  Usage:
+ * <pre>
+ *   java org.apache.log4j.PatternLayoutBenchmark [iterations]
+ * </pre>
+ */
+public final class PatternLayoutBenchmark
+   {
+   private static final String PATTERN = "%d [%t] %-5p: %m%n";
+
+   private PatternLayoutBenchmark()
+      {
+      }
+
+   /**
+    * Writer which discards its output.
+    */
+   private static final class NullWriter extends Writer
+      {
+      private int count;
+
+      public void write(final char[] cbuf, final int off, final int len)
+         {
+         count += len;
+         }
+
+      public void write(final String str)
+         {
+         count += str.length();
+         }
+
+      public void flush()
+         {
+         }
+
+      public void close()
+         {
+         }
+      }
+
+   public static void main(final String[] args) throws Exception
+      {
+      final NullWriter writer = new NullWriter();
+
+      final EnhancedPatternLayout uncompiled = new EnhancedPatternLayout(PATTERN);
+      final EnhancedPatternLayout compiled = new EnhancedPatternLayout(PATTERN);
+      compiled.setCompiled(true);
+
+      // events a millisecond apart, as a logger would produce them
+      final Logger logger = Logger.getLogger(PatternLayoutBenchmark.class);
+      final long start = System.currentTimeMillis();
+      final LoggingEvent[] events = new LoggingEvent[4096];
+      for (int i = 0; i < events.length; i++)
+         {
+         events[i] = new LoggingEvent(
+               "org.apache.log4j.Logger", logger, start + (i >> 4), Level.DEBUG,
+               "DataFileManager.handleFileListEvent(): Procesing file 4F3A2B10.BT", null);
+         events[i].getThreadName();
+         }
+      final int mask = events.length - 1;
+
+      final Benchmark.Task[] tasks = new Benchmark.Task[]{
+            new Benchmark.Task()
+            {
+            public int run(final int iteration)
+               {
+               writer.write(uncompiled.format(events[iteration & mask]));
+               return writer.count;
+               }
+            },
+            new Benchmark.Task()
+            {
+            public int run(final int iteration)
+               {
+               writer.write(compiled.format(events[iteration & mask]));
+               return writer.count;
+               }
+            },
+            new Benchmark.Task()
+            {
+            public int run(final int iteration) throws Exception
+               {
+               compiled.format(events[iteration & mask], writer);
+               return writer.count;
+               }
+            }};
+
+      Benchmark.compare(new String[]{"format()", "compiled format()", "compiled format(event, writer)"},
+                        tasks,
+                        Benchmark.getIntArgument(args, 0, 2000000));
+      }
+   }
@@ -121,6 +121,78 @@ public class PatternLayoutTest extends LayoutTest
       assertEquals("[", result.substring(0, 1));
       }
 
+   /**
+    * Tests that a compiled pattern formats as the uncompiled pattern does.
+    */
+   public void testCompiledFormat()
+      {
+      Logger logger = Logger.getLogger("org.apache.log4j.xml.PatternLayoutTest");
+      NDC.push("ndc");
+      LoggingEvent event =
+            new LoggingEvent(
+                  "org.apache.log4j.Logger", logger, Level.WARN, "Hello, World", null);
+      NDC.clear();
+
+      String[] patterns = new String[]{
+            "%d [%t] %-5p: %m%n",
+            "%d{ABSOLUTE} %5p %c{1} %x - %m%n",
+            "[%10.3t] %-10.10c %.2p %%%n%n",
+            "%r %l %X{key} %m",
+            "literal only%n",
+            ""};
+      for (int i = 0; i < patterns.length; i++)
+         {
+         EnhancedPatternLayout expected = new EnhancedPatternLayout(patterns[i]);
+         EnhancedPatternLayout compiled = new EnhancedPatternLayout(patterns[i]);
+         compiled.setCompiled(true);
+         assertTrue(compiled.getCompiled());
+         assertEquals(patterns[i], expected.format(event), compiled.format(event));
+         assertEquals(patterns[i], expected.format(event), compiled.format(event));
+         assertEquals(expected.ignoresThrowable(), compiled.ignoresThrowable());
+         }
+      }
+
+   /**
+    * Tests formatting a compiled pattern to a writer.
+    */
+   public void testCompiledFormatToWriter() throws java.io.IOException
+      {
+      Logger logger = Logger.getLogger("org.apache.log4j.xml.PatternLayoutTest");
+      EnhancedPatternLayout layout = (EnhancedPatternLayout)createLayout();
+      layout.setCompiled(true);
+
+      char[] msg = new char[5000];
+      java.util.Arrays.fill(msg, 'A');
+      LoggingEvent event1 =
+            new LoggingEvent(
+                  "org.apache.log4j.Logger", logger, Level.DEBUG, new String(msg), null);
+      LoggingEvent event2 =
+            new LoggingEvent(
+                  "org.apache.log4j.Logger", logger, Level.WARN, "Hello, World", null);
+
+      java.io.StringWriter writer = new java.io.StringWriter();
+      layout.format(event1, writer);
+      layout.format(event2, writer);
+      assertEquals(layout.format(event1) + layout.format(event2), writer.toString());
+      }
+
+   /**
+    * Tests that changing the pattern recompiles it.
+    */
+   public void testCompiledSetConversionPattern()
+      {
+      Logger logger = Logger.getLogger("org.apache.log4j.xml.PatternLayoutTest");
+      LoggingEvent event =
+            new LoggingEvent(
+                  "org.apache.log4j.Logger", logger, Level.INFO, "Hello, World", null);
+      EnhancedPatternLayout layout = new EnhancedPatternLayout();
+      layout.setCompiled(true);
+      layout.setConversionPattern("%p: %m");
+      assertEquals("INFO: Hello, World", layout.format(event));
+      layout.setCompiled(false);
+      assertEquals("INFO: Hello, World", layout.format(event));
+      }
+
    /**
     * Class to ensure that protected members are still available.
     */
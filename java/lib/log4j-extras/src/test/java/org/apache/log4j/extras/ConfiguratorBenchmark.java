@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.log4j.extras;
+
+import java.io.IOException;
+import java.io.InputStream;
+import org.apache.log4j.Benchmark;
+import org.apache.log4j.LogManager;
+
+/**
+ * Compares configuring log4j with DOMConfigurator and SAXConfigurator.
+ * <p>
+ * The first configuration is timed on its own, since that is what an
+ * application pays at startup; run each configurator in a fresh JVM to
+ * compare them.  Not run as part of the unit tests.  Usage:
+ * <pre>
+ *   java org.apache.log4j.extras.ConfiguratorBenchmark dom|sax [iterations]
+ * </pre>
+ */
+public final class ConfiguratorBenchmark
+   {
+   private ConfiguratorBenchmark()
+      {
+      }
+
+   public static void main(final String[] args) throws IOException
+      {
+      final boolean sax = args.length > 0 && "sax".equals(args[0]);
+      final int iterations = Benchmark.getIntArgument(args, 1, 2000);
+      System.setProperty("sax.test.prefix", "benchmark");
+      LogManager.getLoggerRepository();
+
+      final long first = configure(sax);
+      for (int i = 0; i < iterations; i++)
+         {
+         configure(sax);
+         }
+      long total = 0;
+      for (int i = 0; i < iterations; i++)
+         {
+         total += configure(sax);
+         }
+      LogManager.getLoggerRepository().resetConfiguration();
+
+      Benchmark.printRow(new Object[]{"configurator", "first us", "us/op"});
+      Benchmark.printRow(new Object[]{sax ? "SAXConfigurator" : "DOMConfigurator",
+                                      Long.valueOf(first / 1000), Long.valueOf(total / iterations / 1000)});
+      }
+
+   /**
+    * Resets the repository and configures it from sax1.xml.
+    * @return nanoseconds taken to configure.
+    */
+   private static long configure(final boolean sax) throws IOException
+      {
+      LogManager.getLoggerRepository().resetConfiguration();
+      final InputStream is = ConfiguratorBenchmark.class.getResourceAsStream("sax1.xml");
+      try
+         {
+         final long begin = System.nanoTime();
+         if (sax)
+            {
+            new SAXConfigurator().doConfigure(is, LogManager.getLoggerRepository());
+            }
+         else
+            {
+            new DOMConfigurator().doConfigure(is, LogManager.getLoggerRepository());
+            }
+         return System.nanoTime() - begin;
+         }
+      finally
+         {
+         is.close();
+         }
+      }
+   }
@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.log4j.extras;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.FileReader;
+import java.io.InputStream;
+import java.util.Enumeration;
+import junit.framework.TestCase;
+import org.apache.log4j.Appender;
+import org.apache.log4j.AsyncAppender;
+import org.apache.log4j.EnhancedPatternLayout;
+import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.apache.log4j.VectorAppender;
+import org.apache.log4j.filter.LevelRangeFilter;
+import org.apache.log4j.rolling.FixedWindowRollingPolicy;
+import org.apache.log4j.rolling.RollingFileAppender;
+import org.apache.log4j.rolling.SizeBasedTriggeringPolicy;
+
+/**
+ * Tests for SAXConfigurator.
+ */
+public final class SAXConfiguratorTest extends TestCase
+   {
+   /**
+    * Construct new test.
+    * @param name test name
+    */
+   public SAXConfiguratorTest(final String name)
+      {
+      super(name);
+      }
+
+   public void setUp()
+      {
+      System.setProperty("sax.test.prefix", "sax");
+      }
+
+   public void tearDown()
+      {
+      LogManager.getLoggerRepository().resetConfiguration();
+      System.getProperties().remove("sax.test.prefix");
+      }
+
+   private static void configure(final Object configurator) throws Exception
+      {
+      InputStream is = SAXConfiguratorTest.class.getResourceAsStream("sax1.xml");
+      try
+         {
+         if (configurator instanceof SAXConfigurator)
+            {
+            ((SAXConfigurator)configurator).doConfigure(is, LogManager.getLoggerRepository());
+            }
+         else
+            {
+            ((DOMConfigurator)configurator).doConfigure(is, LogManager.getLoggerRepository());
+            }
+         }
+      finally
+         {
+         is.close();
+         }
+      }
+
+   private static String describe(final Logger logger)
+      {
+      StringBuffer buf = new StringBuffer(logger.getName());
+      buf.append(' ').append(logger.getLevel());
+      buf.append(' ').append(logger.getAdditivity());
+      for (Enumeration e = logger.getAllAppenders(); e.hasMoreElements();)
+         {
+         Appender appender = (Appender)e.nextElement();
+         buf.append(' ').append(appender.getName()).append('=').append(appender.getClass().getName());
+         }
+      return buf.toString();
+      }
+
+   public void testConfigure() throws Exception
+      {
+      configure(new SAXConfigurator());
+
+      assertEquals(Level.DEBUG, LogManager.getLoggerRepository().getThreshold());
+      Logger root = Logger.getRootLogger();
+      assertEquals(Level.WARN, root.getLevel());
+      VectorAppender vector = (VectorAppender)root.getAppender("VECTOR");
+      assertNotNull(vector);
+
+      Logger logger = Logger.getLogger(SAXConfiguratorTest.class);
+      assertEquals(Level.DEBUG, logger.getLevel());
+      assertFalse(logger.getAdditivity());
+
+      RollingFileAppender rolling = (RollingFileAppender)logger.getAppender("ROLLING");
+      assertNotNull(rolling);
+      assertFalse(rolling.getImmediateFlush());
+      assertEquals("output/sax-test1.log", rolling.getFile());
+      assertTrue(rolling.getRollingPolicy() instanceof FixedWindowRollingPolicy);
+      assertEquals(1000, ((SizeBasedTriggeringPolicy)rolling.getTriggeringPolicy()).getMaxFileSize());
+      assertTrue(((EnhancedPatternLayout)rolling.getLayout()).getCompiled());
+      assertEquals("%-5p %m%n", ((EnhancedPatternLayout)rolling.getLayout()).getConversionPattern());
+      assertTrue(rolling.getFilter() instanceof LevelRangeFilter);
+      assertEquals(Level.INFO, ((LevelRangeFilter)rolling.getFilter()).getLevelMin());
+
+      //  ASYNC refers to VECTOR before it is defined
+      AsyncAppender async = (AsyncAppender)logger.getAppender("ASYNC");
+      assertEquals(16, async.getBufferSize());
+      assertSame(vector, async.getAppender("VECTOR"));
+
+      assertNull(Logger.getLogger("org.apache.log4j.extras.inherited").getLevel());
+      }
+
+   public void testSameAsDOMConfigurator() throws Exception
+      {
+      String[] names = new String[]{
+            SAXConfiguratorTest.class.getName(),
+            "org.apache.log4j.extras.inherited"};
+
+      configure(new DOMConfigurator());
+      String[] expected = new String[names.length + 1];
+      for (int i = 0; i < names.length; i++)
+         {
+         expected[i] = describe(Logger.getLogger(names[i]));
+         }
+      expected[names.length] = describe(Logger.getRootLogger());
+      LogManager.getLoggerRepository().resetConfiguration();
+
+      configure(new SAXConfigurator());
+      for (int i = 0; i < names.length; i++)
+         {
+         assertEquals(expected[i], describe(Logger.getLogger(names[i])));
+         }
+      assertEquals(expected[names.length], describe(Logger.getRootLogger()));
+      }
+
+   public void testLogging() throws Exception
+      {
+      configure(new SAXConfigurator());
+      Logger logger = Logger.getLogger(SAXConfiguratorTest.class);
+      logger.debug("filtered");
+      logger.info("Hello, World");
+      LogManager.getLoggerRepository().resetConfiguration();
+
+      BufferedReader reader = new BufferedReader(new FileReader("output/sax-test1.log"));
+      try
+         {
+         assertEquals("INFO  Hello, World", reader.readLine());
+         assertNull(reader.readLine());
+         }
+      finally
+         {
+         reader.close();
+         }
+      }
+
+   public void testMalformed() throws Exception
+      {
+      String config = "<log4j:configuration><appender name='A' class='org.apache.log4j.VectorAppender'/>"
+                      + "<root><appender-ref ref='A'/>";
+      new SAXConfigurator().doConfigure(new ByteArrayInputStream(config.getBytes("UTF-8")),
+                                        LogManager.getLoggerRepository());
+      assertNull(Logger.getRootLogger().getAppender("A"));
+      }
+   }
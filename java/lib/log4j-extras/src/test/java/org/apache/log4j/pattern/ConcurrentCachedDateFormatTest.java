@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.log4j.pattern;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import junit.framework.TestCase;
+
+/**
+ Unit test {@link ConcurrentCachedDateFormat}.
+ */
+public final class ConcurrentCachedDateFormatTest
+      extends TestCase
+   {
+   /**
+    * Timezone representing GMT.
+    */
+   private static final TimeZone GMT = TimeZone.getTimeZone("GMT");
+
+   /**
+    * Test constructor
+    * @param name String test name
+    */
+   public ConcurrentCachedDateFormatTest(String name)
+      {
+      super(name);
+      }
+
+   private static DateFormat createDateFormat(final String pattern)
+      {
+      DateFormat df = new SimpleDateFormat(pattern);
+      df.setTimeZone(GMT);
+      return df;
+      }
+
+   /**
+    * Compares against SimpleDateFormat over a range of times.
+    * @param pattern date pattern
+    * @param start first time
+    */
+   private void assertMatchesSimpleDateFormat(final String pattern, final long start)
+      {
+      DateFormat simpleFormat = createDateFormat(pattern);
+      ConcurrentCachedDateFormat cachedFormat =
+            new ConcurrentCachedDateFormat(simpleFormat, CachedDateFormat.getMaximumCacheValidity(pattern));
+      StringBuilder buf = new StringBuilder("prefix ");
+
+      for (long time = start; time < start + 5000; time += 7)
+         {
+         buf.setLength(7);
+         cachedFormat.format(time, buf);
+         assertEquals(pattern + " at " + time,
+                      "prefix " + simpleFormat.format(new Date(time)),
+                      buf.toString());
+         }
+      }
+
+   /**
+    * Test multiple calls in close intervals.
+    */
+   public void test1()
+      {
+      ConcurrentCachedDateFormat gmtFormat =
+            new ConcurrentCachedDateFormat(createDateFormat("HH:mm:ss,SSS"), 1000);
+      long ticks = 12601L * 86400000L;
+      assertEquals("00:00:00,000", gmtFormat.format(ticks));
+      assertEquals("00:00:00,008", gmtFormat.format(ticks + 8));
+      assertEquals("00:00:00,017", gmtFormat.format(ticks + 17));
+      assertEquals("00:00:00,237", gmtFormat.format(ticks + 237));
+      assertEquals("00:00:01,415", gmtFormat.format(ticks + 1415));
+      assertEquals("00:00:01,415", gmtFormat.format(ticks + 1415));
+      }
+
+   /**
+    * Test patterns with and without millisecond fields.
+    */
+   public void testPatterns()
+      {
+      long ticks = 12601L * 86400000L;
+      assertMatchesSimpleDateFormat("yyyy-MM-dd HH:mm:ss,SSS", ticks);
+      assertMatchesSimpleDateFormat("HH:mm:ss", ticks);
+      assertMatchesSimpleDateFormat("SSS HH:mm:ss", ticks);
+      assertMatchesSimpleDateFormat("HH:mm:ss,SSS SSS", ticks);
+      assertMatchesSimpleDateFormat("HH:mm:ss,S", ticks);
+      }
+
+   /**
+    * Test times prior to 1 Jan 1970.
+    */
+   public void testNegativeTimes()
+      {
+      assertMatchesSimpleDateFormat("yyyy-MM-dd HH:mm:ss,SSS", -12603L * 86400000L);
+      }
+
+   /**
+    * Tests that the StringBuffer form agrees with the StringBuilder form.
+    */
+   public void testStringBuffer()
+      {
+      ConcurrentCachedDateFormat cachedFormat =
+            new ConcurrentCachedDateFormat(createDateFormat("HH:mm:ss,SSS"), 1000);
+      long ticks = 12601L * 86400000L + 123;
+      StringBuffer buf = new StringBuffer("at ");
+      cachedFormat.format(ticks, buf);
+      cachedFormat.format(ticks + 1, buf);
+      assertEquals("at 00:00:00,12300:00:00,124", buf.toString());
+      }
+
+   /**
+    * Tests concurrent use from several threads.
+    */
+   public void testConcurrentUse() throws InterruptedException
+      {
+      final String pattern = "yyyy-MM-dd HH:mm:ss,SSS";
+      final ConcurrentCachedDateFormat cachedFormat =
+            new ConcurrentCachedDateFormat(createDateFormat(pattern), 1000);
+      final long start = 12601L * 86400000L;
+      final String[] failures = new String[1];
+      Thread[] threads = new Thread[4];
+
+      for (int t = 0; t < threads.length; t++)
+         {
+         final int offset = t * 13;
+         threads[t] = new Thread(new Runnable()
+         {
+         public void run()
+            {
+            DateFormat simpleFormat = createDateFormat(pattern);
+            StringBuilder buf = new StringBuilder();
+            for (long time = start + offset; time < start + 20000; time += 3)
+               {
+               buf.setLength(0);
+               cachedFormat.format(time, buf);
+               String expected = simpleFormat.format(new Date(time));
+               if (!expected.equals(buf.toString()))
+                  {
+                  synchronized (failures)
+                     {
+                     failures[0] = "expected " + expected + " but was " + buf;
+                     }
+                  return;
+                  }
+               }
+            }
+         });
+         threads[t].start();
+         }
+
+      for (int t = 0; t < threads.length; t++)
+         {
+         threads[t].join();
+         }
+
+      synchronized (failures)
+         {
+         assertNull(failures[0], failures[0]);
+         }
+      }
+   }
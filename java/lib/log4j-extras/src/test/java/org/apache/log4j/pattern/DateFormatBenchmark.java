@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.log4j.pattern;
+
+import java.text.SimpleDateFormat;
+import org.apache.log4j.Benchmark;
+
+/**
+ * Compares the throughput of a synchronized {@link CachedDateFormat} with
+ * {@link ConcurrentCachedDateFormat} as the number of logging threads grows.
+ * <p>
+ * Not run as part of the unit tests.  Usage:
+ * <pre>
+ *   java org.apache.log4j.pattern.DateFormatBenchmark [maxThreads] [iterationsPerThread]
+ * </pre>
+ */
+public final class DateFormatBenchmark
+   {
+   private static final String PATTERN = "yyyy-MM-dd HH:mm:ss,SSS";
+
+   private DateFormatBenchmark()
+      {
+      }
+
+   public static void main(final String[] args) throws InterruptedException
+      {
+      // each thread formats a monotonically increasing time, as a logger would
+      final long start = System.currentTimeMillis();
+
+      final CachedDateFormat locked =
+            new CachedDateFormat(new SimpleDateFormat(PATTERN), 1000);
+      final StringBuffer lockedBuf = new StringBuffer();
+      final Benchmark.TaskFactory lockedFactory = new Benchmark.TaskFactory()
+      {
+      public Benchmark.Task newTask()
+         {
+         final StringBuilder buf = new StringBuilder(32);
+         return new Benchmark.Task()
+         {
+         public int run(final int iteration)
+            {
+            // mirrors the previous DatePatternConverter, which locked around a shared buffer
+            buf.setLength(0);
+            synchronized (locked)
+               {
+               lockedBuf.setLength(0);
+               locked.format(start + (iteration >> 4), lockedBuf);
+               buf.append(lockedBuf);
+               }
+            return buf.length();
+            }
+         };
+         }
+      };
+
+      final ConcurrentCachedDateFormat concurrent =
+            new ConcurrentCachedDateFormat(new SimpleDateFormat(PATTERN), 1000);
+      final Benchmark.TaskFactory concurrentFactory = new Benchmark.TaskFactory()
+      {
+      public Benchmark.Task newTask()
+         {
+         final StringBuilder buf = new StringBuilder(32);
+         return new Benchmark.Task()
+         {
+         public int run(final int iteration)
+            {
+            buf.setLength(0);
+            concurrent.format(start + (iteration >> 4), buf);
+            return buf.length();
+            }
+         };
+         }
+      };
+
+      Benchmark.compareAcrossThreads(new String[]{"CachedDateFormat", "ConcurrentCachedDateFormat"},
+                                     new Benchmark.TaskFactory[]{lockedFactory, concurrentFactory},
+                                     Benchmark.getIntArgument(args, 0, 8),
+                                     Benchmark.getIntArgument(args, 1, 2000000));
+      }
+   }
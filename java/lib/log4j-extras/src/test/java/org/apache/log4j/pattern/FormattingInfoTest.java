@@ -95,4 +95,40 @@ public class FormattingInfoTest extends TestCase
       field.format(2, buf);
       assertEquals("foobar ", buf.toString());
       }
+
+   /**
+    * Add more padding than fits in one chunk of spaces.
+    */
+   public void testPadWide()
+      {
+      StringBuffer left = new StringBuffer("foobar");
+      new FormattingInfo(false, 21, 30).format(2, left);
+      assertEquals("fo                 obar", left.toString());
+
+      StringBuffer right = new StringBuffer("foobar");
+      new FormattingInfo(true, 21, 30).format(2, right);
+      assertEquals("foobar                 ", right.toString());
+      }
+
+   /**
+    * The StringBuilder overload behaves like the StringBuffer one.
+    */
+   public void testStringBuilder()
+      {
+      StringBuilder truncated = new StringBuilder("foobar");
+      new FormattingInfo(true, 0, 3).format(2, truncated);
+      assertEquals("fobar", truncated.toString());
+
+      StringBuilder left = new StringBuilder("foobar");
+      new FormattingInfo(false, 13, 20).format(2, left);
+      assertEquals("fo         obar", left.toString());
+
+      StringBuilder right = new StringBuilder("foobar");
+      new FormattingInfo(true, 13, 20).format(2, right);
+      assertEquals("foobar         ", right.toString());
+
+      StringBuilder unchanged = new StringBuilder("foobar");
+      new FormattingInfo(false, 4, 4).format(2, unchanged);
+      assertEquals("foobar", unchanged.toString());
+      }
    }
@@ -22,6 +22,7 @@ import java.io.FileOutputStream;
 import junit.framework.TestCase;
 import org.apache.log4j.Appender;
 import org.apache.log4j.ConsoleAppender;
+import org.apache.log4j.EnhancedPatternLayout;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 import org.apache.log4j.PatternLayout;
@@ -410,4 +411,105 @@ public class SizeBasedRollingTest extends TestCase
                                  "sizeBased-test6.1",
                                  "witness/rolling/sbr-test2.1"));
       }
+
+   /**
+    * Tests that events written by a compiled EnhancedPatternLayout
+    * are counted towards the file size.
+    */
+   public void test7() throws Exception
+      {
+      EnhancedPatternLayout layout = new EnhancedPatternLayout("%m\n");
+      layout.setCompiled(true);
+      RollingFileAppender rfa = new RollingFileAppender();
+      rfa.setName("ROLLING");
+      rfa.setAppend(false);
+      rfa.setLayout(layout);
+
+      FixedWindowRollingPolicy swrp = new FixedWindowRollingPolicy();
+      SizeBasedTriggeringPolicy sbtp = new SizeBasedTriggeringPolicy();
+
+      sbtp.setMaxFileSize(100);
+      swrp.setMinIndex(0);
+
+      swrp.setFileNamePattern("sizeBased-test7.%i");
+      swrp.activateOptions();
+
+      rfa.setRollingPolicy(swrp);
+      rfa.setTriggeringPolicy(sbtp);
+      rfa.activateOptions();
+      root.addAppender(rfa);
+
+      // Write exactly 10 bytes with each log
+      for (int i = 0; i < 25; i++)
+         {
+         if (i < 10)
+            {
+            logger.debug("Hello---" + i);
+            }
+         else if (i < 100)
+            {
+            logger.debug("Hello--" + i);
+            }
+         }
+
+      assertTrue(Compare.compare(SizeBasedRollingTest.class,
+                                 "sizeBased-test7.0",
+                                 "witness/rolling/sbr-test2.log"));
+      assertTrue(Compare.compare(SizeBasedRollingTest.class,
+                                 "sizeBased-test7.1",
+                                 "witness/rolling/sbr-test2.0"));
+      assertTrue(Compare.compare(SizeBasedRollingTest.class,
+                                 "sizeBased-test7.2",
+                                 "witness/rolling/sbr-test2.1"));
+      }
+
+   /**
+    * Tests that the tracked file length matches the file written
+    * by several threads.
+    */
+   public void test8() throws Exception
+      {
+      EnhancedPatternLayout layout = new EnhancedPatternLayout("%t %m%n");
+      RollingFileAppender rfa = new RollingFileAppender();
+      rfa.setName("ROLLING");
+      rfa.setAppend(false);
+      rfa.setLayout(layout);
+      rfa.setFile("sizeBased-test8.log");
+
+      FixedWindowRollingPolicy swrp = new FixedWindowRollingPolicy();
+      SizeBasedTriggeringPolicy sbtp = new SizeBasedTriggeringPolicy();
+
+      sbtp.setMaxFileSize(10 * 1024 * 1024);
+      swrp.setFileNamePattern("sizeBased-test8.%i");
+      swrp.activateOptions();
+
+      rfa.setRollingPolicy(swrp);
+      rfa.setTriggeringPolicy(sbtp);
+      rfa.activateOptions();
+      root.addAppender(rfa);
+
+      Thread[] threads = new Thread[4];
+      for (int t = 0; t < threads.length; t++)
+         {
+         threads[t] = new Thread(new Runnable()
+         {
+         public void run()
+            {
+            for (int i = 0; i < 1000; i++)
+               {
+               logger.debug("Hello--" + i);
+               }
+            }
+         }, "writer-" + t);
+         threads[t].start();
+         }
+      for (int t = 0; t < threads.length; t++)
+         {
+         threads[t].join();
+         }
+      rfa.flush();
+
+      assertEquals(new File("sizeBased-test8.log").length(), rfa.getFileLength());
+      assertFalse(new File("sizeBased-test8.0").exists());
+      }
    }
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.log4j.rolling.helper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.regex.Pattern;
+import junit.framework.TestCase;
+
+/**
+ * Tests for ArchiveRetention.
+ */
+public final class ArchiveRetentionTest extends TestCase
+   {
+   private final File dir = new File("output/archiveRetention");
+
+   /**
+    * Construct new test.
+    * @param name test name
+    */
+   public ArchiveRetentionTest(final String name)
+      {
+      super(name);
+      }
+
+   public void setUp()
+      {
+      dir.mkdirs();
+      File[] files = dir.listFiles();
+      for (int i = 0; i < files.length; i++)
+         {
+         files[i].delete();
+         }
+      }
+
+   private File createFile(final String name, final int size, final long lastModified) throws IOException
+      {
+      File file = new File(dir, name);
+      FileOutputStream os = new FileOutputStream(file);
+      os.write(new byte[size]);
+      os.close();
+      file.setLastModified(lastModified);
+      return file;
+      }
+
+   public void testSeedAndPruneByCount() throws IOException
+      {
+      File oldest = createFile("app.1.log.gz", 10, 1000000);
+      File middle = createFile("app.2.log.gz", 10, 2000000);
+      File newest = createFile("app.3.log.gz", 10, 3000000);
+      File active = createFile("app.log", 10, 4000000);
+      File other = createFile("other.txt", 10, 0);
+
+      ArchiveRetention retention = new ArchiveRetention(2, 0);
+      retention.seed(dir, Pattern.compile("app\\..+\\.log\\.gz"), active);
+      assertEquals(3, retention.getCount());
+      assertEquals(30, retention.getTotalSize());
+
+      assertEquals(1, retention.prune());
+      assertFalse(oldest.exists());
+      assertTrue(middle.exists());
+      assertTrue(newest.exists());
+      assertTrue(active.exists());
+      assertTrue(other.exists());
+      }
+
+   public void testPruneByTotalSizeKeepsNewest() throws IOException
+      {
+      ArchiveRetention retention = new ArchiveRetention(0, 100);
+      File first = createFile("app.1.log.gz", 60, 1000000);
+      retention.createAddAndPruneAction(first).execute();
+      File second = createFile("app.2.log.gz", 60, 2000000);
+      retention.createAddAndPruneAction(second).execute();
+
+      assertFalse(first.exists());
+      assertTrue(second.exists());
+      assertEquals(60, retention.getTotalSize());
+
+      File huge = createFile("app.3.log.gz", 200, 3000000);
+      retention.createAddAndPruneAction(huge).execute();
+      assertFalse(second.exists());
+      assertTrue(huge.exists());
+      assertEquals(1, retention.getCount());
+      }
+   }
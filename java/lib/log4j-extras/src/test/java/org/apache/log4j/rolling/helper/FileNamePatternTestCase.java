@@ -16,6 +16,7 @@
 package org.apache.log4j.rolling.helper;
 
 import java.util.Calendar;
+import java.util.regex.Pattern;
 import junit.framework.TestCase;
 import org.apache.log4j.rolling.RollingPolicyBase;
 import org.apache.log4j.rolling.RolloverDescription;
@@ -66,6 +67,16 @@ public final class FileNamePatternTestCase extends TestCase
          formatFileName(obj, buf);
          return buf.toString();
          }
+
+      public Pattern regex()
+         {
+         return getFileNameRegex();
+         }
+
+      public Pattern regex(final int optionalSuffixLength)
+         {
+         return getFileNameRegex(optionalSuffixLength);
+         }
       }
 
    private void assertDatePattern(final String pattern, final int year,
@@ -178,4 +189,21 @@ public final class FileNamePatternTestCase extends TestCase
       assertDatePattern("foo%d{yyyy.MM.dd", 2003, 4, 20, 17, 55,
                         "foo2003-05-20{yyyy.MM.dd");
       }
+
+   public void testFileNameRegex()
+      {
+      Pattern regex = new FileNameTestRollingPolicy("logs/foo.%d{yyyyMMdd}.log.gz").regex();
+      assertTrue(regex.matcher("foo.20030520.log.gz").matches());
+      assertFalse(regex.matcher("foo.20030520.log").matches());
+      assertFalse(regex.matcher("bar.20030520.log.gz").matches());
+      }
+
+   public void testFileNameRegexWithOptionalSuffix()
+      {
+      Pattern regex = new FileNameTestRollingPolicy("logs/foo.%d{yyyyMMdd}.log.gz").regex(3);
+      assertTrue(regex.matcher("foo.20030520.log.gz").matches());
+      assertTrue(regex.matcher("foo.20030520.log").matches());
+      assertFalse(regex.matcher("foo.20030520.log.zip").matches());
+      assertFalse(regex.matcher("bar.20030520.log").matches());
+      }
    }
@@ -0,0 +1,225 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.log4j.rule;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import junit.framework.TestCase;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.MDC;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * Unit test for ExpressionRule.
+ */
+public class ExpressionRuleTest extends TestCase
+   {
+   private final Logger logger = Logger.getLogger("org.bodytrack.Uploader");
+
+   /**
+    * Create the test case
+    *
+    * @param testName name of the test case
+    */
+   public ExpressionRuleTest(String testName)
+      {
+      super(testName);
+      }
+
+   public void tearDown()
+      {
+      MDC.remove("file");
+      }
+
+   private LoggingEvent createEvent(final Level level, final String message)
+      {
+      return new LoggingEvent(Logger.class.getName(), logger, level, message, null);
+      }
+
+   /**
+    * Tests the field operators against events.
+    */
+   public void testEvaluate()
+      {
+      LoggingEvent debug = createEvent(Level.DEBUG, "uploaded 4C2A1B00.BT");
+      LoggingEvent warn = createEvent(Level.WARN, "upload failed");
+
+      Rule rule = ExpressionRule.getRule("level >= WARN");
+      assertFalse(rule.evaluate(debug));
+      assertTrue(rule.evaluate(warn));
+
+      rule = ExpressionRule.getRule("logger == org.bodytrack.Uploader && msg ~= FAILED");
+      assertFalse(rule.evaluate(debug));
+      assertTrue(rule.evaluate(warn));
+
+      rule = ExpressionRule.getRule("msg like '.*[0-9A-F]{8}\\.BT' || level == ERROR");
+      assertTrue(rule.evaluate(debug));
+      assertFalse(rule.evaluate(warn));
+
+      rule = ExpressionRule.getRule("! ( Level == DEBUG ) && exists MSG");
+      assertFalse(rule.evaluate(debug));
+      assertTrue(rule.evaluate(warn));
+
+      MDC.put("file", "4C2A1B00.BT");
+      rule = ExpressionRule.getRule("PROP.file == 4C2A1B00.BT");
+      assertTrue(rule.evaluate(debug));
+      rule = ExpressionRule.getRule("PROP.File == 4C2A1B00.BT");
+      assertFalse(rule.evaluate(debug));
+      }
+
+   /**
+    * Tests that a single operand is treated as a partial message match.
+    */
+   public void testBareOperand()
+      {
+      Rule rule = ExpressionRule.getRule("failed");
+      assertTrue(rule.evaluate(createEvent(Level.INFO, "Upload FAILED")));
+      assertFalse(rule.evaluate(createEvent(Level.INFO, "Upload succeeded")));
+      }
+
+   /**
+    * Tests that unknown fields are rejected when the rule is compiled.
+    */
+   public void testUnknownField()
+      {
+      try
+         {
+         ExpressionRule.getRule("bogus == 1");
+         fail("Expected IllegalArgumentException");
+         }
+      catch (IllegalArgumentException expected)
+         {
+         }
+      }
+
+   /**
+    * Tests that AND and OR evaluate location fields, which are
+    * expensive to compute, after cheaper fields.
+    */
+   public void testCheapOperandFirst()
+      {
+      Rule method = EqualsRule.getRule("method", "run");
+      Rule level = LevelEqualsRule.getRule("DEBUG");
+      assertTrue(AbstractRule.costOf(level) < AbstractRule.costOf(method));
+
+      AndRule and = (AndRule)AndRule.getRule(method, level);
+      LoggingEvent info = createEvent(Level.INFO, "msg");
+      assertFalse(and.evaluate(info));
+      // the level operand decided the result, so location info was never needed
+      assertNull(getLocationInfoField(info));
+
+      OrRule or = (OrRule)OrRule.getRule(method, level);
+      LoggingEvent debug = createEvent(Level.DEBUG, "msg");
+      assertTrue(or.evaluate(debug));
+      assertNull(getLocationInfoField(debug));
+      }
+
+   /**
+    * Tests that compiled rules are shared between callers, while each
+    * caller gets its own wrapper.
+    */
+   public void testCompiledRuleIsCached()
+      {
+      Rule first = ExpressionRule.getRule("level > INFO");
+      Rule second = ExpressionRule.getRule("level > INFO");
+      assertNotSame(first, second);
+      // ExpressionRule.toString() is the compiled rule's, which here is identity based
+      assertEquals(first.toString(), second.toString());
+      }
+
+   /**
+    * Tests that a LIKE rule gives consistent results from several threads.
+    */
+   public void testLikeRuleConcurrentUse() throws InterruptedException
+      {
+      final Rule rule = ExpressionRule.getRule("msg like 'file [0-9]+ uploaded'");
+      final Throwable[] failures = new Throwable[1];
+      Thread[] threads = new Thread[4];
+      for (int t = 0; t < threads.length; t++)
+         {
+         threads[t] = new Thread(new Runnable()
+         {
+         public void run()
+            {
+            try
+               {
+               for (int i = 0; i < 2000; i++)
+                  {
+                  assertTrue(rule.evaluate(createEvent(Level.INFO, "file " + i + " uploaded")));
+                  assertFalse(rule.evaluate(createEvent(Level.INFO, "file " + i + " failed")));
+                  }
+               }
+            catch (Throwable ex)
+               {
+               synchronized (failures)
+                  {
+                  failures[0] = ex;
+                  }
+               }
+            }
+         });
+         threads[t].start();
+         }
+      for (int t = 0; t < threads.length; t++)
+         {
+         threads[t].join();
+         }
+      synchronized (failures)
+         {
+         assertNull(String.valueOf(failures[0]), failures[0]);
+         }
+      }
+
+   /**
+    * Tests that rules still evaluate after serialization.
+    */
+   public void testSerialization() throws Exception
+      {
+      Rule rule = ExpressionRule.getRule("msg like 'up.*' && PROP.file exists");
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ObjectOutputStream out = new ObjectOutputStream(bytes);
+      out.writeObject(rule);
+      out.close();
+      Rule copy = (Rule)new ObjectInputStream(
+            new ByteArrayInputStream(bytes.toByteArray())).readObject();
+
+      MDC.put("file", "4C2A1B00.BT");
+      assertTrue(copy.evaluate(createEvent(Level.INFO, "uploaded")));
+      MDC.remove("file");
+      assertFalse(copy.evaluate(createEvent(Level.INFO, "uploaded")));
+      }
+
+   /**
+    * Gets the event's location info without computing it.
+    */
+   private static Object getLocationInfoField(final LoggingEvent event)
+      {
+      try
+         {
+         java.lang.reflect.Field field = LoggingEvent.class.getDeclaredField("locationInfo");
+         field.setAccessible(true);
+         return field.get(event);
+         }
+      catch (Exception ex)
+         {
+         throw new RuntimeException(ex);
+         }
+      }
+   }
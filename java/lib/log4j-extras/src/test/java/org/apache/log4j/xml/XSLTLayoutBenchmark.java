@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.log4j.xml;
+
+import org.apache.log4j.Benchmark;
+import org.apache.log4j.Layout;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * Measures the throughput of {@link XSLTLayout}, with {@link PatternLayout}
+ * as a reference point, as the number of logging threads grows.
+ * <p>
+ * Not run as part of the unit tests.  Usage:
+ * <pre>
+ *   java org.apache.log4j.xml.XSLTLayoutBenchmark [maxThreads] [eventsPerThread]
+ * </pre>
+ */
+public final class XSLTLayoutBenchmark
+   {
+   private XSLTLayoutBenchmark()
+      {
+      }
+
+   public static void main(final String[] args) throws InterruptedException
+      {
+      final XSLTLayout xsltLayout = new XSLTLayout();
+      xsltLayout.activateOptions();
+      final Layout patternLayout = new PatternLayout("%d{ISO8601} [%t] %-5p %c - %m%n");
+
+      Benchmark.compareAcrossThreads(new String[]{"XSLTLayout", "PatternLayout"},
+                                     new Benchmark.TaskFactory[]{formatWith(xsltLayout), formatWith(patternLayout)},
+                                     Benchmark.getIntArgument(args, 0, 8),
+                                     Benchmark.getIntArgument(args, 1, 20000));
+      }
+
+   /**
+    * Creates tasks which each format a new event with the layout.
+    */
+   private static Benchmark.TaskFactory formatWith(final Layout layout)
+      {
+      final Logger logger = Logger.getLogger(XSLTLayoutBenchmark.class);
+      return new Benchmark.TaskFactory()
+      {
+      public Benchmark.Task newTask()
+         {
+         return new Benchmark.Task()
+         {
+         public int run(final int iteration)
+            {
+            LoggingEvent event = new LoggingEvent(Logger.class.getName(), logger,
+                                                  Level.INFO, "Uploaded file " + iteration, null);
+            return layout.format(event).length();
+            }
+         };
+         }
+      };
+      }
+   }
@@ -451,6 +451,82 @@ public class XSLTLayoutTest extends LayoutTest
       assertTrue(buf.toString().indexOf(exceptionMessage) != -1);
       }
 
+   /**
+    * Tests that a thread keeps producing correct output after its
+    * transform has been replaced with setTransform.
+    */
+   public void testSetTransformAfterFormat() throws Exception
+      {
+      Logger logger = Logger.getLogger("org.apache.log4j.xml.XSLTLayoutTest");
+      LoggingEvent event =
+            new LoggingEvent(
+                  "org.apache.log4j.Logger", logger, Level.INFO, "Hello, World", null);
+      XSLTLayout layout = (XSLTLayout)createLayout();
+      checkEventElement(parse(layout.format(event)), event);
+
+      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+      factory.setNamespaceAware(true);
+      Document xsltdoc = factory.newDocumentBuilder().parse(new InputSource(new StringReader(
+            "<xsl:transform xmlns:xsl='http://www.w3.org/1999/XSL/Transform' version='1.0'"
+            + " xmlns:log4j='http://jakarta.apache.org/log4j/'>"
+            + "<xsl:output method='text'/>"
+            + "<xsl:template match='/log4j:event'>"
+            + "<xsl:value-of select='@level'/>:<xsl:value-of select='log4j:message'/>"
+            + "</xsl:template></xsl:transform>")));
+      layout.setTransform(xsltdoc);
+      assertEquals("INFO:Hello, World", layout.format(event));
+      }
+
+   /**
+    * Tests that concurrent formatting produces each thread's own event.
+    */
+   public void testFormatFromSeveralThreads() throws Exception
+      {
+      final XSLTLayout layout = (XSLTLayout)createLayout();
+      final Logger logger = Logger.getLogger("com.example.bar");
+      final Throwable[] failures = new Throwable[1];
+      Thread[] threads = new Thread[4];
+      for (int t = 0; t < threads.length; t++)
+         {
+         final String prefix = "thread" + t + "-";
+         threads[t] = new Thread(new Runnable()
+         {
+         public void run()
+            {
+            try
+               {
+               for (int i = 0; i < 50; i++)
+                  {
+                  LoggingEvent event =
+                        new LoggingEvent(
+                              "com.example.bar", logger, Level.INFO, prefix + i, null);
+                  Element parsedResult = parse(layout.format(event));
+                  checkMessageElement(
+                        (Element)parsedResult.getElementsByTagName("log4j:message").item(0),
+                        prefix + i);
+                  }
+               }
+            catch (Throwable ex)
+               {
+               synchronized (failures)
+                  {
+                  failures[0] = ex;
+                  }
+               }
+            }
+         });
+         threads[t].start();
+         }
+      for (int t = 0; t < threads.length; t++)
+         {
+         threads[t].join();
+         }
+      synchronized (failures)
+         {
+         assertNull(String.valueOf(failures[0]), failures[0]);
+         }
+      }
+
    private static void clearMDC()
       {
       Hashtable context = MDC.getContext();